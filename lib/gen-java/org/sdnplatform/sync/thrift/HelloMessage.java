@@ -37,6 +37,7 @@ import org.slf4j.LoggerFactory;
   private static final org.apache.thrift.protocol.TField NODE_ID_FIELD_DESC = new org.apache.thrift.protocol.TField("nodeId", org.apache.thrift.protocol.TType.I16, (short)2);
   private static final org.apache.thrift.protocol.TField AUTH_SCHEME_FIELD_DESC = new org.apache.thrift.protocol.TField("authScheme", org.apache.thrift.protocol.TType.I32, (short)3);
   private static final org.apache.thrift.protocol.TField AUTH_CHALLENGE_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("authChallengeResponse", org.apache.thrift.protocol.TType.STRUCT, (short)4);
+  private static final org.apache.thrift.protocol.TField FEATURES_FIELD_DESC = new org.apache.thrift.protocol.TField("features", org.apache.thrift.protocol.TType.I32, (short)5);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -52,6 +53,7 @@ import org.slf4j.LoggerFactory;
    */
   public AuthScheme authScheme; // optional
   public AuthChallengeResponse authChallengeResponse; // optional
+  public int features; // optional
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -62,7 +64,8 @@ import org.slf4j.LoggerFactory;
      * @see AuthScheme
      */
     AUTH_SCHEME((short)3, "authScheme"),
-    AUTH_CHALLENGE_RESPONSE((short)4, "authChallengeResponse");
+    AUTH_CHALLENGE_RESPONSE((short)4, "authChallengeResponse"),
+    FEATURES((short)5, "features");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -85,6 +88,8 @@ import org.slf4j.LoggerFactory;
           return AUTH_SCHEME;
         case 4: // AUTH_CHALLENGE_RESPONSE
           return AUTH_CHALLENGE_RESPONSE;
+        case 5: // FEATURES
+          return FEATURES;
         default:
           return null;
       }
@@ -126,8 +131,9 @@ import org.slf4j.LoggerFactory;
 
   // isset id assignments
   private static final int __NODEID_ISSET_ID = 0;
+  private static final int __FEATURES_ISSET_ID = 1;
   private byte __isset_bitfield = 0;
-  private _Fields optionals[] = {_Fields.NODE_ID,_Fields.AUTH_SCHEME,_Fields.AUTH_CHALLENGE_RESPONSE};
+  private _Fields optionals[] = {_Fields.NODE_ID,_Fields.AUTH_SCHEME,_Fields.AUTH_CHALLENGE_RESPONSE,_Fields.FEATURES};
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -139,6 +145,8 @@ import org.slf4j.LoggerFactory;
         new org.apache.thrift.meta_data.EnumMetaData(org.apache.thrift.protocol.TType.ENUM, AuthScheme.class)));
     tmpMap.put(_Fields.AUTH_CHALLENGE_RESPONSE, new org.apache.thrift.meta_data.FieldMetaData("authChallengeResponse", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, AuthChallengeResponse.class)));
+    tmpMap.put(_Fields.FEATURES, new org.apache.thrift.meta_data.FieldMetaData("features", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I32)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(HelloMessage.class, metaDataMap);
   }
@@ -168,6 +176,7 @@ import org.slf4j.LoggerFactory;
     if (other.isSetAuthChallengeResponse()) {
       this.authChallengeResponse = new AuthChallengeResponse(other.authChallengeResponse);
     }
+    this.features = other.features;
   }
 
   public HelloMessage deepCopy() {
@@ -181,6 +190,8 @@ import org.slf4j.LoggerFactory;
     this.nodeId = 0;
     this.authScheme = null;
     this.authChallengeResponse = null;
+    setFeaturesIsSet(false);
+    this.features = 0;
   }
 
   public AsyncMessageHeader getHeader() {
@@ -286,6 +297,29 @@ import org.slf4j.LoggerFactory;
     }
   }
 
+  public int getFeatures() {
+    return this.features;
+  }
+
+  public HelloMessage setFeatures(int features) {
+    this.features = features;
+    setFeaturesIsSet(true);
+    return this;
+  }
+
+  public void unsetFeatures() {
+    __isset_bitfield = EncodingUtils.clearBit(__isset_bitfield, __FEATURES_ISSET_ID);
+  }
+
+  /** Returns true if field features is set (has been assigned a value) and false otherwise */
+  public boolean isSetFeatures() {
+    return EncodingUtils.testBit(__isset_bitfield, __FEATURES_ISSET_ID);
+  }
+
+  public void setFeaturesIsSet(boolean value) {
+    __isset_bitfield = EncodingUtils.setBit(__isset_bitfield, __FEATURES_ISSET_ID, value);
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case HEADER:
@@ -320,6 +354,14 @@ import org.slf4j.LoggerFactory;
       }
       break;
 
+    case FEATURES:
+      if (value == null) {
+        unsetFeatures();
+      } else {
+        setFeatures((Integer)value);
+      }
+      break;
+
     }
   }
 
@@ -337,6 +379,9 @@ import org.slf4j.LoggerFactory;
     case AUTH_CHALLENGE_RESPONSE:
       return getAuthChallengeResponse();
 
+    case FEATURES:
+      return Integer.valueOf(getFeatures());
+
     }
     throw new IllegalStateException();
   }
@@ -356,6 +401,8 @@ import org.slf4j.LoggerFactory;
       return isSetAuthScheme();
     case AUTH_CHALLENGE_RESPONSE:
       return isSetAuthChallengeResponse();
+    case FEATURES:
+      return isSetFeatures();
     }
     throw new IllegalStateException();
   }
@@ -409,6 +456,15 @@ import org.slf4j.LoggerFactory;
         return false;
     }
 
+    boolean this_present_features = true && this.isSetFeatures();
+    boolean that_present_features = true && that.isSetFeatures();
+    if (this_present_features || that_present_features) {
+      if (!(this_present_features && that_present_features))
+        return false;
+      if (this.features != that.features)
+        return false;
+    }
+
     return true;
   }
 
@@ -465,6 +521,16 @@ import org.slf4j.LoggerFactory;
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetFeatures()).compareTo(typedOther.isSetFeatures());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetFeatures()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.features, typedOther.features);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -518,6 +584,12 @@ import org.slf4j.LoggerFactory;
       }
       first = false;
     }
+    if (isSetFeatures()) {
+      if (!first) sb.append(", ");
+      sb.append("features:");
+      sb.append(this.features);
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
@@ -606,6 +678,14 @@ import org.slf4j.LoggerFactory;
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 5: // FEATURES
+            if (schemeField.type == org.apache.thrift.protocol.TType.I32) {
+              struct.features = iprot.readI32();
+              struct.setFeaturesIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -645,6 +725,11 @@ import org.slf4j.LoggerFactory;
           oprot.writeFieldEnd();
         }
       }
+      if (struct.isSetFeatures()) {
+        oprot.writeFieldBegin(FEATURES_FIELD_DESC);
+        oprot.writeI32(struct.features);
+        oprot.writeFieldEnd();
+      }
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -673,7 +758,10 @@ import org.slf4j.LoggerFactory;
       if (struct.isSetAuthChallengeResponse()) {
         optionals.set(2);
       }
-      oprot.writeBitSet(optionals, 3);
+      if (struct.isSetFeatures()) {
+        optionals.set(3);
+      }
+      oprot.writeBitSet(optionals, 4);
       if (struct.isSetNodeId()) {
         oprot.writeI16(struct.nodeId);
       }
@@ -683,6 +771,9 @@ import org.slf4j.LoggerFactory;
       if (struct.isSetAuthChallengeResponse()) {
         struct.authChallengeResponse.write(oprot);
       }
+      if (struct.isSetFeatures()) {
+        oprot.writeI32(struct.features);
+      }
     }
 
     @Override
@@ -691,7 +782,7 @@ import org.slf4j.LoggerFactory;
       struct.header = new AsyncMessageHeader();
       struct.header.read(iprot);
       struct.setHeaderIsSet(true);
-      BitSet incoming = iprot.readBitSet(3);
+      BitSet incoming = iprot.readBitSet(4);
       if (incoming.get(0)) {
         struct.nodeId = iprot.readI16();
         struct.setNodeIdIsSet(true);
@@ -705,6 +796,10 @@ import org.slf4j.LoggerFactory;
         struct.authChallengeResponse.read(iprot);
         struct.setAuthChallengeResponseIsSet(true);
       }
+      if (incoming.get(3)) {
+        struct.features = iprot.readI32();
+        struct.setFeaturesIsSet(true);
+      }
     }
   }
 
@@ -55,6 +55,10 @@ import org.slf4j.LoggerFactory;
   private static final org.apache.thrift.protocol.TField REGISTER_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("registerResponse", org.apache.thrift.protocol.TType.STRUCT, (short)20);
   private static final org.apache.thrift.protocol.TField CLUSTER_JOIN_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("clusterJoinRequest", org.apache.thrift.protocol.TType.STRUCT, (short)21);
   private static final org.apache.thrift.protocol.TField CLUSTER_JOIN_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("clusterJoinResponse", org.apache.thrift.protocol.TType.STRUCT, (short)22);
+  private static final org.apache.thrift.protocol.TField SYNC_DIGEST_FIELD_DESC = new org.apache.thrift.protocol.TField("syncDigest", org.apache.thrift.protocol.TType.STRUCT, (short)23);
+  private static final org.apache.thrift.protocol.TField SYNC_DIGEST_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("syncDigestResponse", org.apache.thrift.protocol.TType.STRUCT, (short)24);
+  private static final org.apache.thrift.protocol.TField SNAPSHOT_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("snapshotRequest", org.apache.thrift.protocol.TType.STRUCT, (short)25);
+  private static final org.apache.thrift.protocol.TField SNAPSHOT_CHUNK_FIELD_DESC = new org.apache.thrift.protocol.TField("snapshotChunk", org.apache.thrift.protocol.TType.STRUCT, (short)26);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -88,6 +92,10 @@ import org.slf4j.LoggerFactory;
   public RegisterResponseMessage registerResponse; // optional
   public ClusterJoinRequestMessage clusterJoinRequest; // optional
   public ClusterJoinResponseMessage clusterJoinResponse; // optional
+  public SyncDigestMessage syncDigest; // optional
+  public SyncDigestResponseMessage syncDigestResponse; // optional
+  public SnapshotRequestMessage snapshotRequest; // optional
+  public SnapshotChunkMessage snapshotChunk; // optional
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -116,7 +124,11 @@ import org.slf4j.LoggerFactory;
     REGISTER_REQUEST((short)19, "registerRequest"),
     REGISTER_RESPONSE((short)20, "registerResponse"),
     CLUSTER_JOIN_REQUEST((short)21, "clusterJoinRequest"),
-    CLUSTER_JOIN_RESPONSE((short)22, "clusterJoinResponse");
+    CLUSTER_JOIN_RESPONSE((short)22, "clusterJoinResponse"),
+    SYNC_DIGEST((short)23, "syncDigest"),
+    SYNC_DIGEST_RESPONSE((short)24, "syncDigestResponse"),
+    SNAPSHOT_REQUEST((short)25, "snapshotRequest"),
+    SNAPSHOT_CHUNK((short)26, "snapshotChunk");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -175,6 +187,14 @@ import org.slf4j.LoggerFactory;
           return CLUSTER_JOIN_REQUEST;
         case 22: // CLUSTER_JOIN_RESPONSE
           return CLUSTER_JOIN_RESPONSE;
+        case 23: // SYNC_DIGEST
+          return SYNC_DIGEST;
+        case 24: // SYNC_DIGEST_RESPONSE
+          return SYNC_DIGEST_RESPONSE;
+        case 25: // SNAPSHOT_REQUEST
+          return SNAPSHOT_REQUEST;
+        case 26: // SNAPSHOT_CHUNK
+          return SNAPSHOT_CHUNK;
         default:
           return null;
       }
@@ -215,7 +235,7 @@ import org.slf4j.LoggerFactory;
   }
 
   // isset id assignments
-  private _Fields optionals[] = {_Fields.HELLO,_Fields.ERROR,_Fields.ECHO_REQUEST,_Fields.ECHO_REPLY,_Fields.GET_REQUEST,_Fields.GET_RESPONSE,_Fields.PUT_REQUEST,_Fields.PUT_RESPONSE,_Fields.DELETE_REQUEST,_Fields.DELETE_RESPONSE,_Fields.SYNC_VALUE,_Fields.SYNC_VALUE_RESPONSE,_Fields.SYNC_OFFER,_Fields.SYNC_REQUEST,_Fields.FULL_SYNC_REQUEST,_Fields.CURSOR_REQUEST,_Fields.CURSOR_RESPONSE,_Fields.REGISTER_REQUEST,_Fields.REGISTER_RESPONSE,_Fields.CLUSTER_JOIN_REQUEST,_Fields.CLUSTER_JOIN_RESPONSE};
+  private _Fields optionals[] = {_Fields.HELLO,_Fields.ERROR,_Fields.ECHO_REQUEST,_Fields.ECHO_REPLY,_Fields.GET_REQUEST,_Fields.GET_RESPONSE,_Fields.PUT_REQUEST,_Fields.PUT_RESPONSE,_Fields.DELETE_REQUEST,_Fields.DELETE_RESPONSE,_Fields.SYNC_VALUE,_Fields.SYNC_VALUE_RESPONSE,_Fields.SYNC_OFFER,_Fields.SYNC_REQUEST,_Fields.FULL_SYNC_REQUEST,_Fields.CURSOR_REQUEST,_Fields.CURSOR_RESPONSE,_Fields.REGISTER_REQUEST,_Fields.REGISTER_RESPONSE,_Fields.CLUSTER_JOIN_REQUEST,_Fields.CLUSTER_JOIN_RESPONSE,_Fields.SYNC_DIGEST,_Fields.SYNC_DIGEST_RESPONSE,_Fields.SNAPSHOT_REQUEST,_Fields.SNAPSHOT_CHUNK};
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -263,6 +283,14 @@ import org.slf4j.LoggerFactory;
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, ClusterJoinRequestMessage.class)));
     tmpMap.put(_Fields.CLUSTER_JOIN_RESPONSE, new org.apache.thrift.meta_data.FieldMetaData("clusterJoinResponse", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, ClusterJoinResponseMessage.class)));
+    tmpMap.put(_Fields.SYNC_DIGEST, new org.apache.thrift.meta_data.FieldMetaData("syncDigest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, SyncDigestMessage.class)));
+    tmpMap.put(_Fields.SYNC_DIGEST_RESPONSE, new org.apache.thrift.meta_data.FieldMetaData("syncDigestResponse", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, SyncDigestResponseMessage.class)));
+    tmpMap.put(_Fields.SNAPSHOT_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("snapshotRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, SnapshotRequestMessage.class)));
+    tmpMap.put(_Fields.SNAPSHOT_CHUNK, new org.apache.thrift.meta_data.FieldMetaData("snapshotChunk", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, SnapshotChunkMessage.class)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(SyncMessage.class, metaDataMap);
   }
@@ -347,6 +375,18 @@ import org.slf4j.LoggerFactory;
     if (other.isSetClusterJoinResponse()) {
       this.clusterJoinResponse = new ClusterJoinResponseMessage(other.clusterJoinResponse);
     }
+    if (other.isSetSyncDigest()) {
+      this.syncDigest = new SyncDigestMessage(other.syncDigest);
+    }
+    if (other.isSetSyncDigestResponse()) {
+      this.syncDigestResponse = new SyncDigestResponseMessage(other.syncDigestResponse);
+    }
+    if (other.isSetSnapshotRequest()) {
+      this.snapshotRequest = new SnapshotRequestMessage(other.snapshotRequest);
+    }
+    if (other.isSetSnapshotChunk()) {
+      this.snapshotChunk = new SnapshotChunkMessage(other.snapshotChunk);
+    }
   }
 
   public SyncMessage deepCopy() {
@@ -377,6 +417,10 @@ import org.slf4j.LoggerFactory;
     this.registerResponse = null;
     this.clusterJoinRequest = null;
     this.clusterJoinResponse = null;
+    this.syncDigest = null;
+    this.syncDigestResponse = null;
+    this.snapshotRequest = null;
+    this.snapshotChunk = null;
   }
 
   /**
@@ -915,6 +959,102 @@ import org.slf4j.LoggerFactory;
     }
   }
 
+  public SyncDigestMessage getSyncDigest() {
+    return this.syncDigest;
+  }
+
+  public SyncMessage setSyncDigest(SyncDigestMessage syncDigest) {
+    this.syncDigest = syncDigest;
+    return this;
+  }
+
+  public void unsetSyncDigest() {
+    this.syncDigest = null;
+  }
+
+  /** Returns true if field syncDigest is set (has been assigned a value) and false otherwise */
+  public boolean isSetSyncDigest() {
+    return this.syncDigest != null;
+  }
+
+  public void setSyncDigestIsSet(boolean value) {
+    if (!value) {
+      this.syncDigest = null;
+    }
+  }
+
+  public SyncDigestResponseMessage getSyncDigestResponse() {
+    return this.syncDigestResponse;
+  }
+
+  public SyncMessage setSyncDigestResponse(SyncDigestResponseMessage syncDigestResponse) {
+    this.syncDigestResponse = syncDigestResponse;
+    return this;
+  }
+
+  public void unsetSyncDigestResponse() {
+    this.syncDigestResponse = null;
+  }
+
+  /** Returns true if field syncDigestResponse is set (has been assigned a value) and false otherwise */
+  public boolean isSetSyncDigestResponse() {
+    return this.syncDigestResponse != null;
+  }
+
+  public void setSyncDigestResponseIsSet(boolean value) {
+    if (!value) {
+      this.syncDigestResponse = null;
+    }
+  }
+
+  public SnapshotRequestMessage getSnapshotRequest() {
+    return this.snapshotRequest;
+  }
+
+  public SyncMessage setSnapshotRequest(SnapshotRequestMessage snapshotRequest) {
+    this.snapshotRequest = snapshotRequest;
+    return this;
+  }
+
+  public void unsetSnapshotRequest() {
+    this.snapshotRequest = null;
+  }
+
+  /** Returns true if field snapshotRequest is set (has been assigned a value) and false otherwise */
+  public boolean isSetSnapshotRequest() {
+    return this.snapshotRequest != null;
+  }
+
+  public void setSnapshotRequestIsSet(boolean value) {
+    if (!value) {
+      this.snapshotRequest = null;
+    }
+  }
+
+  public SnapshotChunkMessage getSnapshotChunk() {
+    return this.snapshotChunk;
+  }
+
+  public SyncMessage setSnapshotChunk(SnapshotChunkMessage snapshotChunk) {
+    this.snapshotChunk = snapshotChunk;
+    return this;
+  }
+
+  public void unsetSnapshotChunk() {
+    this.snapshotChunk = null;
+  }
+
+  /** Returns true if field snapshotChunk is set (has been assigned a value) and false otherwise */
+  public boolean isSetSnapshotChunk() {
+    return this.snapshotChunk != null;
+  }
+
+  public void setSnapshotChunkIsSet(boolean value) {
+    if (!value) {
+      this.snapshotChunk = null;
+    }
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case TYPE:
@@ -1093,6 +1233,38 @@ import org.slf4j.LoggerFactory;
       }
       break;
 
+    case SYNC_DIGEST:
+      if (value == null) {
+        unsetSyncDigest();
+      } else {
+        setSyncDigest((SyncDigestMessage)value);
+      }
+      break;
+
+    case SYNC_DIGEST_RESPONSE:
+      if (value == null) {
+        unsetSyncDigestResponse();
+      } else {
+        setSyncDigestResponse((SyncDigestResponseMessage)value);
+      }
+      break;
+
+    case SNAPSHOT_REQUEST:
+      if (value == null) {
+        unsetSnapshotRequest();
+      } else {
+        setSnapshotRequest((SnapshotRequestMessage)value);
+      }
+      break;
+
+    case SNAPSHOT_CHUNK:
+      if (value == null) {
+        unsetSnapshotChunk();
+      } else {
+        setSnapshotChunk((SnapshotChunkMessage)value);
+      }
+      break;
+
     }
   }
 
@@ -1164,6 +1336,18 @@ import org.slf4j.LoggerFactory;
     case CLUSTER_JOIN_RESPONSE:
       return getClusterJoinResponse();
 
+    case SYNC_DIGEST:
+      return getSyncDigest();
+
+    case SYNC_DIGEST_RESPONSE:
+      return getSyncDigestResponse();
+
+    case SNAPSHOT_REQUEST:
+      return getSnapshotRequest();
+
+    case SNAPSHOT_CHUNK:
+      return getSnapshotChunk();
+
     }
     throw new IllegalStateException();
   }
@@ -1219,6 +1403,14 @@ import org.slf4j.LoggerFactory;
       return isSetClusterJoinRequest();
     case CLUSTER_JOIN_RESPONSE:
       return isSetClusterJoinResponse();
+    case SYNC_DIGEST:
+      return isSetSyncDigest();
+    case SYNC_DIGEST_RESPONSE:
+      return isSetSyncDigestResponse();
+    case SNAPSHOT_REQUEST:
+      return isSetSnapshotRequest();
+    case SNAPSHOT_CHUNK:
+      return isSetSnapshotChunk();
     }
     throw new IllegalStateException();
   }
@@ -1434,6 +1626,42 @@ import org.slf4j.LoggerFactory;
         return false;
     }
 
+    boolean this_present_syncDigest = true && this.isSetSyncDigest();
+    boolean that_present_syncDigest = true && that.isSetSyncDigest();
+    if (this_present_syncDigest || that_present_syncDigest) {
+      if (!(this_present_syncDigest && that_present_syncDigest))
+        return false;
+      if (!this.syncDigest.equals(that.syncDigest))
+        return false;
+    }
+
+    boolean this_present_syncDigestResponse = true && this.isSetSyncDigestResponse();
+    boolean that_present_syncDigestResponse = true && that.isSetSyncDigestResponse();
+    if (this_present_syncDigestResponse || that_present_syncDigestResponse) {
+      if (!(this_present_syncDigestResponse && that_present_syncDigestResponse))
+        return false;
+      if (!this.syncDigestResponse.equals(that.syncDigestResponse))
+        return false;
+    }
+
+    boolean this_present_snapshotRequest = true && this.isSetSnapshotRequest();
+    boolean that_present_snapshotRequest = true && that.isSetSnapshotRequest();
+    if (this_present_snapshotRequest || that_present_snapshotRequest) {
+      if (!(this_present_snapshotRequest && that_present_snapshotRequest))
+        return false;
+      if (!this.snapshotRequest.equals(that.snapshotRequest))
+        return false;
+    }
+
+    boolean this_present_snapshotChunk = true && this.isSetSnapshotChunk();
+    boolean that_present_snapshotChunk = true && that.isSetSnapshotChunk();
+    if (this_present_snapshotChunk || that_present_snapshotChunk) {
+      if (!(this_present_snapshotChunk && that_present_snapshotChunk))
+        return false;
+      if (!this.snapshotChunk.equals(that.snapshotChunk))
+        return false;
+    }
+
     return true;
   }
 
@@ -1670,6 +1898,46 @@ import org.slf4j.LoggerFactory;
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetSyncDigest()).compareTo(typedOther.isSetSyncDigest());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetSyncDigest()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.syncDigest, typedOther.syncDigest);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(isSetSyncDigestResponse()).compareTo(typedOther.isSetSyncDigestResponse());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetSyncDigestResponse()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.syncDigestResponse, typedOther.syncDigestResponse);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(isSetSnapshotRequest()).compareTo(typedOther.isSetSnapshotRequest());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetSnapshotRequest()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.snapshotRequest, typedOther.snapshotRequest);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(isSetSnapshotChunk()).compareTo(typedOther.isSetSnapshotChunk());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetSnapshotChunk()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.snapshotChunk, typedOther.snapshotChunk);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -1907,6 +2175,46 @@ import org.slf4j.LoggerFactory;
       }
       first = false;
     }
+    if (isSetSyncDigest()) {
+      if (!first) sb.append(", ");
+      sb.append("syncDigest:");
+      if (this.syncDigest == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.syncDigest);
+      }
+      first = false;
+    }
+    if (isSetSyncDigestResponse()) {
+      if (!first) sb.append(", ");
+      sb.append("syncDigestResponse:");
+      if (this.syncDigestResponse == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.syncDigestResponse);
+      }
+      first = false;
+    }
+    if (isSetSnapshotRequest()) {
+      if (!first) sb.append(", ");
+      sb.append("snapshotRequest:");
+      if (this.snapshotRequest == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.snapshotRequest);
+      }
+      first = false;
+    }
+    if (isSetSnapshotChunk()) {
+      if (!first) sb.append(", ");
+      sb.append("snapshotChunk:");
+      if (this.snapshotChunk == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.snapshotChunk);
+      }
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
@@ -1980,6 +2288,18 @@ import org.slf4j.LoggerFactory;
     if (clusterJoinResponse != null) {
       clusterJoinResponse.validate();
     }
+    if (syncDigest != null) {
+      syncDigest.validate();
+    }
+    if (syncDigestResponse != null) {
+      syncDigestResponse.validate();
+    }
+    if (snapshotRequest != null) {
+      snapshotRequest.validate();
+    }
+    if (snapshotChunk != null) {
+      snapshotChunk.validate();
+    }
   }
 
   private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
@@ -2213,6 +2533,42 @@ import org.slf4j.LoggerFactory;
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 23: // SYNC_DIGEST
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.syncDigest = new SyncDigestMessage();
+              struct.syncDigest.read(iprot);
+              struct.setSyncDigestIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
+          case 24: // SYNC_DIGEST_RESPONSE
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.syncDigestResponse = new SyncDigestResponseMessage();
+              struct.syncDigestResponse.read(iprot);
+              struct.setSyncDigestResponseIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
+          case 25: // SNAPSHOT_REQUEST
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.snapshotRequest = new SnapshotRequestMessage();
+              struct.snapshotRequest.read(iprot);
+              struct.setSnapshotRequestIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
+          case 26: // SNAPSHOT_CHUNK
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.snapshotChunk = new SnapshotChunkMessage();
+              struct.snapshotChunk.read(iprot);
+              struct.setSnapshotChunkIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -2380,6 +2736,34 @@ import org.slf4j.LoggerFactory;
           oprot.writeFieldEnd();
         }
       }
+      if (struct.syncDigest != null) {
+        if (struct.isSetSyncDigest()) {
+          oprot.writeFieldBegin(SYNC_DIGEST_FIELD_DESC);
+          struct.syncDigest.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
+      if (struct.syncDigestResponse != null) {
+        if (struct.isSetSyncDigestResponse()) {
+          oprot.writeFieldBegin(SYNC_DIGEST_RESPONSE_FIELD_DESC);
+          struct.syncDigestResponse.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
+      if (struct.snapshotRequest != null) {
+        if (struct.isSetSnapshotRequest()) {
+          oprot.writeFieldBegin(SNAPSHOT_REQUEST_FIELD_DESC);
+          struct.snapshotRequest.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
+      if (struct.snapshotChunk != null) {
+        if (struct.isSetSnapshotChunk()) {
+          oprot.writeFieldBegin(SNAPSHOT_CHUNK_FIELD_DESC);
+          struct.snapshotChunk.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -2462,7 +2846,19 @@ import org.slf4j.LoggerFactory;
       if (struct.isSetClusterJoinResponse()) {
         optionals.set(20);
       }
-      oprot.writeBitSet(optionals, 21);
+      if (struct.isSetSyncDigest()) {
+        optionals.set(21);
+      }
+      if (struct.isSetSyncDigestResponse()) {
+        optionals.set(22);
+      }
+      if (struct.isSetSnapshotRequest()) {
+        optionals.set(23);
+      }
+      if (struct.isSetSnapshotChunk()) {
+        optionals.set(24);
+      }
+      oprot.writeBitSet(optionals, 25);
       if (struct.isSetHello()) {
         struct.hello.write(oprot);
       }
@@ -2526,6 +2922,18 @@ import org.slf4j.LoggerFactory;
       if (struct.isSetClusterJoinResponse()) {
         struct.clusterJoinResponse.write(oprot);
       }
+      if (struct.isSetSyncDigest()) {
+        struct.syncDigest.write(oprot);
+      }
+      if (struct.isSetSyncDigestResponse()) {
+        struct.syncDigestResponse.write(oprot);
+      }
+      if (struct.isSetSnapshotRequest()) {
+        struct.snapshotRequest.write(oprot);
+      }
+      if (struct.isSetSnapshotChunk()) {
+        struct.snapshotChunk.write(oprot);
+      }
     }
 
     @Override
@@ -2533,7 +2941,7 @@ import org.slf4j.LoggerFactory;
       TTupleProtocol iprot = (TTupleProtocol) prot;
       struct.type = MessageType.findByValue(iprot.readI32());
       struct.setTypeIsSet(true);
-      BitSet incoming = iprot.readBitSet(21);
+      BitSet incoming = iprot.readBitSet(25);
       if (incoming.get(0)) {
         struct.hello = new HelloMessage();
         struct.hello.read(iprot);
@@ -2639,6 +3047,26 @@ import org.slf4j.LoggerFactory;
         struct.clusterJoinResponse.read(iprot);
         struct.setClusterJoinResponseIsSet(true);
       }
+      if (incoming.get(21)) {
+        struct.syncDigest = new SyncDigestMessage();
+        struct.syncDigest.read(iprot);
+        struct.setSyncDigestIsSet(true);
+      }
+      if (incoming.get(22)) {
+        struct.syncDigestResponse = new SyncDigestResponseMessage();
+        struct.syncDigestResponse.read(iprot);
+        struct.setSyncDigestResponseIsSet(true);
+      }
+      if (incoming.get(23)) {
+        struct.snapshotRequest = new SnapshotRequestMessage();
+        struct.snapshotRequest.read(iprot);
+        struct.setSnapshotRequestIsSet(true);
+      }
+      if (incoming.get(24)) {
+        struct.snapshotChunk = new SnapshotChunkMessage();
+        struct.snapshotChunk.read(iprot);
+        struct.setSnapshotChunkIsSet(true);
+      }
     }
   }
 
@@ -22,68 +22,200 @@ package net.floodlightcontroller.accesscontrollist;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import net.floodlightcontroller.accesscontrollist.ACLRule.Action;
 import net.floodlightcontroller.accesscontrollist.ap.AP;
 import net.floodlightcontroller.accesscontrollist.ap.APManager;
 import net.floodlightcontroller.accesscontrollist.util.IPAddressUtil;
+import net.floodlightcontroller.accesscontrollist.util.PrefixTrie;
 import net.floodlightcontroller.accesscontrollist.web.ACLWebRoutable;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.PortChangeType;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.core.util.AppCookie;
 import net.floodlightcontroller.devicemanager.IDevice;
 import net.floodlightcontroller.devicemanager.IDeviceListener;
 import net.floodlightcontroller.devicemanager.IDeviceService;
 import net.floodlightcontroller.devicemanager.SwitchPort;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.restserver.IRestApiService;
-import net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher;
+import net.floodlightcontroller.storage.IResultSet;
 import net.floodlightcontroller.storage.IStorageSourceService;
-
+import net.floodlightcontroller.storage.StorageException;
+import net.floodlightcontroller.util.FlowModUtils;
+
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowAdd;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.EthType;
 import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IPv4AddressWithMask;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TransportPort;
 import org.projectfloodlight.openflow.util.HexString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
+public class ACL implements IACLService, IFloodlightModule, IDeviceListener,
+		IOFSwitchListener {
+
+	public static final int ACL_APP_ID = 11;
+	static {
+		AppCookie.registerApp(ACL_APP_ID, "ACL");
+	}
+
+	// constant strings for storage
+	public static final String TABLE_NAME = "controller_aclrules";
+	public static final String COLUMN_RULEID = "ruleid";
+	public static final String COLUMN_NW_SRC = "nw_src";
+	public static final String COLUMN_NW_DST = "nw_dst";
+	public static final String COLUMN_NW_PROTO = "nw_proto";
+	public static final String COLUMN_TP_DST = "tp_dst";
+	public static final String COLUMN_ACTION = "action";
+	public static String ColumnNames[] = { COLUMN_RULEID, COLUMN_NW_SRC,
+		COLUMN_NW_DST, COLUMN_NW_PROTO, COLUMN_TP_DST, COLUMN_ACTION };
 
 	// service modules needed
 	protected IRestApiService restApi;
 	protected IDeviceService deviceManager;
 	protected IStorageSourceService storageSource;
+	protected IOFSwitchService switchService;
 	protected static Logger logger;
 	
 	private APManager apManager;
 
-	// variable used
+	// variable used, protected by synchronized
 	private int lastRuleId = 1; // rule id counter
-	private List<ACLRule> ruleSet;
+	private SortedMap<Integer, ACLRule> ruleSet; // rule id -> rule
+	// the rules indexed by their source and destination CIDR prefixes,
+	// an unspecified address being indexed as 0.0.0.0/0
+	private PrefixTrie<ACLRule> srcTrie;
+	private PrefixTrie<ACLRule> dstTrie;
 	private Map<String, Integer> dpid2FlowPriority;
 	private Map<Integer, Set<String>> ruleId2Dpid;
 	private Map<Integer, Set<String>> ruleId2FlowName;
+	// flow name -> flow entry, by dpid: the flows the rules should have
+	// in each switch, and the flows actually written to each switch
+	private Map<String, Map<String, ACLFlow>> dpid2Flows;
+	private Map<String, Map<String, ACLFlow>> dpid2InstalledFlows;
+
+	private static final Comparator<ACLRule> RULE_ID_ORDER =
+			new Comparator<ACLRule>() {
+		@Override
+		public int compare(ACLRule r1, ACLRule r2) {
+			return Integer.compare(r1.getId(), r2.getId());
+		}
+	};
+
+	/**
+	 * An ACL flow entry on a switch: the rule it enforces and its priority.
+	 * The flow mod is compiled for the switch once the entry is written.
+	 */
+	protected static class ACLFlow {
+		final ACLRule rule;
+		final int priority;
+		OFFlowMod flowMod;
+
+		ACLFlow(ACLRule rule, int priority) {
+			this.rule = rule;
+			this.priority = priority;
+		}
+
+		public OFFlowMod getFlowMod() {
+			return flowMod;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * rule.hashCode() + priority;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof ACLFlow))
+				return false;
+			ACLFlow other = (ACLFlow) obj;
+			return priority == other.priority && rule.equals(other.rule);
+		}
+	}
 
 	/**
 	 * used by REST API to query ACL rules
 	 */
 	@Override
-	public List<ACLRule> getRules() {
-		return this.ruleSet;
+	public synchronized List<ACLRule> getRules() {
+		return new ArrayList<ACLRule>(this.ruleSet.values());
 	}
 
 	/**
-	 * check if the new rule matches an existing rule
+	 * used by unit tests to query the ACL flows on a switch
+	 * @return the flows written to the switch, by flow name
+	 */
+	protected synchronized Map<String, OFFlowMod> getInstalledFlows(String dpid) {
+		Map<String, OFFlowMod> flows = new HashMap<String, OFFlowMod>();
+		Map<String, ACLFlow> installed = dpid2InstalledFlows.get(dpid);
+		if (installed != null) {
+			for (Map.Entry<String, ACLFlow> e : installed.entrySet()) {
+				flows.put(e.getKey(), e.getValue().getFlowMod());
+			}
+		}
+		return flows;
+	}
+
+	/**
+	 * used by unit tests to query the ACL flows for a switch, including
+	 * the ones waiting for the switch to connect
+	 * @return the names of the flows
+	 */
+	protected synchronized Set<String> getFlowNames(String dpid) {
+		Map<String, ACLFlow> flows = dpid2Flows.get(dpid);
+		if (flows == null) {
+			return new HashSet<String>();
+		}
+		return new HashSet<String>(flows.keySet());
+	}
+
+	/**
+	 * check if the new rule matches an existing rule. Only the rules whose
+	 * source prefix contains the new rule's one, or whose destination prefix
+	 * contains the new rule's one, can match it; the shorter of the two
+	 * candidate lists is checked.
 	 */
 	private boolean checkRuleMatch(ACLRule newRule) {
-		Iterator<ACLRule> iter = ruleSet.iterator();
-		while (iter.hasNext()) {
-			ACLRule existingRule = iter.next();
+		List<ACLRule> candidates = srcTrie.getCovering(
+				newRule.getNw_src_prefix(), newRule.getNw_src_maskbits());
+		List<ACLRule> dstCandidates = dstTrie.getCovering(
+				newRule.getNw_dst_prefix(), newRule.getNw_dst_maskbits());
+		if (dstCandidates.size() < candidates.size()) {
+			candidates = dstCandidates;
+		}
+		for (ACLRule existingRule : candidates) {
 			if(newRule.match(existingRule)){
 				logger.error("existing rule: " + existingRule);
 				return true;
@@ -91,21 +223,31 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 		}
 		return false;
 	}
+
+	/**
+	 * add a rule to the rule set and its indexes
+	 */
+	private void indexRule(ACLRule rule) {
+		ruleSet.put(rule.getId(), rule);
+		srcTrie.put(rule.getNw_src_prefix(), rule.getNw_src_maskbits(), rule);
+		dstTrie.put(rule.getNw_dst_prefix(), rule.getNw_dst_maskbits(), rule);
+	}
 	
 	/**
 	 * used by REST API to add ACL rule
 	 * @return if the new ACL rule is added successfully
 	 */
 	@Override
-	public boolean addRule(ACLRule rule) {
+	public synchronized boolean addRule(ACLRule rule) {
 
 		if(checkRuleMatch(rule)){
 			return false;
 		}
 		
 		rule.setId(lastRuleId++);
-		this.ruleSet.add(rule);
+		indexRule(rule);
 		logger.info("No.{} ACL rule added.", rule.getId());
+		storeRule(rule);
 		enforceAddedRule(rule);
 		return true;
 	}
@@ -114,17 +256,16 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 	 * used by REST API to remove ACL rule
 	 */
 	@Override
-	public void removeRule(int ruleid) {
+	public synchronized void removeRule(int ruleid) {
 
-		Iterator<ACLRule> iter = this.ruleSet.iterator();
-		while (iter.hasNext()) {
-			ACLRule rule = iter.next();
-			if (rule.getId() == ruleid) {				iter.remove();
-				break;
-			}
+		ACLRule rule = this.ruleSet.remove(ruleid);
+		if (rule != null) {
+			srcTrie.remove(rule.getNw_src_prefix(), rule.getNw_src_maskbits(), rule);
+			dstTrie.remove(rule.getNw_dst_prefix(), rule.getNw_dst_maskbits(), rule);
 		}
 
 		logger.info("No.{} ACL rule removed.", ruleid);
+		storageSource.deleteRowAsync(TABLE_NAME, Integer.toString(ruleid));
 		enforceRemovedRule(ruleid);
 	}
 
@@ -132,24 +273,91 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 	 * used by REST API to clear ACL
 	 */
 	@Override
-	public void removeAllRules() {
+	public synchronized void removeAllRules() {
 		
+		Set<Object> ruleIds = new HashSet<Object>();
+		for (Integer ruleId : this.ruleSet.keySet()) {
+			ruleIds.add(Integer.toString(ruleId));
+		}
+		storageSource.deleteRowsAsync(TABLE_NAME, ruleIds);
+
 		this.lastRuleId = 1;
-		this.ruleSet = new ArrayList<ACLRule>();
+		this.ruleSet.clear();
+		this.srcTrie.clear();
+		this.dstTrie.clear();
 		this.dpid2FlowPriority = new HashMap<String, Integer>();
 		this.ruleId2Dpid = new HashMap<Integer, Set<String>>();
+		this.ruleId2FlowName = new HashMap<Integer, Set<String>>();
+
+		Set<String> dpidSet = new HashSet<String>(dpid2Flows.keySet());
+		this.dpid2Flows = new HashMap<String, Map<String, ACLFlow>>();
+		logger.debug("All ACL rules removed.");
+		pushFlows(dpidSet);
+	}
+
+	/**
+	 * write an ACL rule to storage, so that it survives restarts
+	 */
+	private void storeRule(ACLRule rule) {
+		Map<String, Object> entry = new HashMap<String, Object>();
+		entry.put(COLUMN_RULEID, Integer.toString(rule.getId()));
+		if (rule.getNw_src() != null) {
+			entry.put(COLUMN_NW_SRC, rule.getNw_src());
+		}
+		if (rule.getNw_dst() != null) {
+			entry.put(COLUMN_NW_DST, rule.getNw_dst());
+		}
+		entry.put(COLUMN_NW_PROTO, Integer.toString(rule.getNw_proto()));
+		entry.put(COLUMN_TP_DST, Integer.toString(rule.getTp_dst()));
+		entry.put(COLUMN_ACTION, rule.getAction().toString());
+		storageSource.insertRowAsync(TABLE_NAME, entry);
+	}
 
-		Iterator<Integer> ruleIdIter = ruleId2FlowName.keySet().iterator();
-		while (ruleIdIter.hasNext()) {
-			int ruleId = ruleIdIter.next();
-			Set<String> flowNameSet = ruleId2FlowName.get(ruleId);
-			logger.debug("No.{} ACL rule removed.", ruleId);
-			for (String flowName : flowNameSet) {
-				removeFlow(flowName);
-				logger.debug("ACL flow {} removed.", flowName);
+	/**
+	 * read the ACL rules stored by a previous run
+	 */
+	@LogMessageDoc(level="ERROR",
+			message="failed to access storage: {reason}",
+			explanation="Could not retrieve ACL rules from the system " +
+					"database",
+			recommendation=LogMessageDoc.CHECK_CONTROLLER)
+	private void readRulesFromStorage() {
+		try {
+			IResultSet resultSet = storageSource.executeQuery(TABLE_NAME, ColumnNames, null, null);
+			for (Iterator<IResultSet> it = resultSet.iterator(); it.hasNext();) {
+				Map<String, Object> row = it.next().getRow();
+				try {
+					ACLRule rule = new ACLRule();
+					rule.setId(Integer.parseInt((String) row.get(COLUMN_RULEID)));
+					String nw_src = (String) row.get(COLUMN_NW_SRC);
+					if (nw_src != null) {
+						int[] cidr = IPAddressUtil.parseCIDR(nw_src);
+						rule.setNw_src(nw_src);
+						rule.setNw_src_prefix(cidr[0]);
+						rule.setNw_src_maskbits(cidr[1]);
+					}
+					String nw_dst = (String) row.get(COLUMN_NW_DST);
+					if (nw_dst != null) {
+						int[] cidr = IPAddressUtil.parseCIDR(nw_dst);
+						rule.setNw_dst(nw_dst);
+						rule.setNw_dst_prefix(cidr[0]);
+						rule.setNw_dst_maskbits(cidr[1]);
+					}
+					rule.setNw_proto(Integer.parseInt((String) row.get(COLUMN_NW_PROTO)));
+					rule.setTp_dst(Integer.parseInt((String) row.get(COLUMN_TP_DST)));
+					rule.setAction(Action.valueOf((String) row.get(COLUMN_ACTION)));
+
+					indexRule(rule);
+					this.ruleId2Dpid.put(rule.getId(), new HashSet<String>());
+					this.ruleId2FlowName.put(rule.getId(), new HashSet<String>());
+					this.lastRuleId = Math.max(this.lastRuleId, rule.getId() + 1);
+				} catch (RuntimeException e) {
+					logger.error("skipping ACL rule with bad data: {}", row);
+				}
 			}
+		} catch (StorageException e) {
+			logger.error("failed to access storage: {}", e.getMessage());
 		}
-		this.ruleId2FlowName = new HashMap<Integer, Set<String>>();
 	}
 
 	/**
@@ -175,6 +383,7 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 		}
 		ruleId2FlowName.put(rule.getId(), nameSet);
 		ruleId2Dpid.put(rule.getId(), dpidSet);
+		pushFlows(dpidSet);
 	}
 
 	/**
@@ -182,18 +391,23 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 	 */
 	private void enforceRemovedRule(int ruleId) {
 
-		Set<String> flowEntryName = ruleId2FlowName.get(ruleId);
-		Iterator<String> iter = flowEntryName.iterator();
+		Set<String> dpidSet = ruleId2Dpid.remove(ruleId);
+		ruleId2FlowName.remove(ruleId);
+		if (dpidSet == null) {
+			return;
+		}
+		Iterator<String> iter = dpidSet.iterator();
 		while (iter.hasNext()) {
-			String name = iter.next();
-			removeFlow(name);
+			String dpid = iter.next();
+			String name = "ACLRule_" + ruleId + "_" + dpid;
+			removeFlow(dpid, name);
 			logger.debug("ACL flow " + name + " removed.");
 		}
-
+		pushFlows(dpidSet);
 	}
 		
 	/**
-	 * generate and push ACL flow entry
+	 * generate ACL flow entry, to be pushed by pushFlows()
 	 */
 	private void generateFlow(ACLRule rule, String dpid, String flowName) {
 
@@ -205,76 +419,142 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 		} else {
 			priority = dpid2FlowPriority.get(dpid);
 		}
+		dpid2FlowPriority.put(dpid, priority - 1);
+
+		Map<String, ACLFlow> flows = dpid2Flows.get(dpid);
+		if (flows == null) {
+			flows = new HashMap<String, ACLFlow>();
+			dpid2Flows.put(dpid, flows);
+		}
+		flows.put(flowName, new ACLFlow(rule, priority));
+		logger.info("ACL flow " + flowName + " added in " + dpid);
+	}
 
+	/**
+	 * remove ACL flow entry, to be pushed by pushFlows()
+	 */
+	private void removeFlow(String dpid, String name) {
+		Map<String, ACLFlow> flows = dpid2Flows.get(dpid);
+		if (flows != null) {
+			flows.remove(name);
+		}
+	}
+
+	/**
+	 * compile an ACL flow entry into a flow mod for a switch
+	 */
+	private OFFlowAdd compileFlow(OFFactory factory, ACLFlow flow) {
+		ACLRule rule = flow.rule;
+		Match.Builder mb = factory.buildMatch();
+		mb.setExact(MatchField.ETH_TYPE, EthType.IPv4);
 		if (rule.getNw_src() != null) {
-			
-			HashMap<String,Object> flow = new HashMap<String,Object>();
-	        
-			flow.put(StaticFlowEntryPusher.COLUMN_SWITCH, dpid);
-			flow.put(StaticFlowEntryPusher.COLUMN_NAME, flowName);
-			flow.put(StaticFlowEntryPusher.COLUMN_ACTIVE, Boolean.toString(true));
-			flow.put(StaticFlowEntryPusher.COLUMN_COOKIE, "0");
-			flow.put(StaticFlowEntryPusher.COLUMN_PRIORITY, Integer.toString(priority));
-			dpid2FlowPriority.put(dpid, --priority);
-			
-			
-			flow.put(StaticFlowEntryPusher.COLUMN_DL_TYPE, "2048");
-			flow.put(StaticFlowEntryPusher.COLUMN_NW_SRC, rule.getNw_src());
-			
-			// process for the nw_dst attribute
-			if (rule.getNw_dst() != null) {
-				flow.put(StaticFlowEntryPusher.COLUMN_NW_DST, rule.getNw_dst());
+			mb.setMasked(MatchField.IPV4_SRC, IPv4AddressWithMask.of(rule.getNw_src()));
+		}
+		if (rule.getNw_dst() != null) {
+			mb.setMasked(MatchField.IPV4_DST, IPv4AddressWithMask.of(rule.getNw_dst()));
+		}
+		if (rule.getNw_proto() != 0) {
+			IpProtocol proto = IpProtocol.of((short) rule.getNw_proto());
+			mb.setExact(MatchField.IP_PROTO, proto);
+			if (rule.getTp_dst() != 0) {
+				if (proto.equals(IpProtocol.TCP)) {
+					mb.setExact(MatchField.TCP_DST, TransportPort.of(rule.getTp_dst()));
+				} else if (proto.equals(IpProtocol.UDP)) {
+					mb.setExact(MatchField.UDP_DST, TransportPort.of(rule.getTp_dst()));
+				}
 			}
-			if (rule.getNw_proto() != 0) {
-				flow.put(StaticFlowEntryPusher.COLUMN_NW_PROTO, Integer.toString(rule.getNw_proto()));
+		}
+
+		// denied packets are dropped, allowed ones go on to the controller
+		List<OFAction> actions = new ArrayList<OFAction>();
+		if (rule.getAction() == Action.ALLOW) {
+			actions.add(factory.actions().buildOutput()
+					.setPort(OFPort.CONTROLLER)
+					.setMaxLen(Integer.MAX_VALUE)
+					.build());
+		}
+
+		return factory.buildFlowAdd()
+				.setMatch(mb.build())
+				.setPriority(flow.priority)
+				.setCookie(AppCookie.makeCookie(ACL_APP_ID, rule.getId()))
+				.setIdleTimeout(FlowModUtils.INFINITE_TIMEOUT)
+				.setHardTimeout(FlowModUtils.INFINITE_TIMEOUT)
+				.setBufferId(OFBufferId.NO_BUFFER)
+				.setOutPort(OFPort.ANY)
+				.setActions(actions)
+				.build();
+	}
+
+	/**
+	 * bring the ACL flows in the given switches up to date: compare the
+	 * flows the rules call for with the ones written to each switch, and
+	 * write only the difference. Switches that are not connected are
+	 * brought up to date when they connect.
+	 */
+	private void pushFlows(Collection<String> dpidSet) {
+		for (String dpid : dpidSet) {
+			IOFSwitch sw = switchService.getSwitch(DatapathId.of(dpid));
+			if (sw == null) {
+				continue;
 			}
-			if (rule.getAction() == Action.ALLOW) {
-				flow.put(StaticFlowEntryPusher.COLUMN_ACTIONS, "output=controller");
+			Map<String, ACLFlow> flows = dpid2Flows.get(dpid);
+			if (flows == null) {
+				flows = new HashMap<String, ACLFlow>();
 			}
-			if (rule.getTp_dst() != 0) {
-				flow.put(StaticFlowEntryPusher.COLUMN_TP_DST, Integer.toString(rule.getTp_dst()));
+			Map<String, ACLFlow> installed = dpid2InstalledFlows.get(dpid);
+			if (installed == null) {
+				installed = new HashMap<String, ACLFlow>();
+				dpid2InstalledFlows.put(dpid, installed);
 			}
-	        
-	        storageSource.insertRowAsync(StaticFlowEntryPusher.TABLE_NAME, flow);
-			
-		} else {
-			
-			HashMap<String,Object> flow = new HashMap<String,Object>();
-	        
-			flow.put(StaticFlowEntryPusher.COLUMN_SWITCH, dpid);
-			flow.put(StaticFlowEntryPusher.COLUMN_NAME, flowName);
-			flow.put(StaticFlowEntryPusher.COLUMN_ACTIVE, Boolean.toString(true));
-			flow.put(StaticFlowEntryPusher.COLUMN_COOKIE, "0");
-			flow.put(StaticFlowEntryPusher.COLUMN_PRIORITY, Integer.toString(priority));
-			dpid2FlowPriority.put(dpid, --priority);
-			
-			flow.put(StaticFlowEntryPusher.COLUMN_DL_TYPE, "2048");
-			flow.put(StaticFlowEntryPusher.COLUMN_NW_DST, rule.getNw_dst());
-
-			if (rule.getNw_proto() != 0) {
-				flow.put(StaticFlowEntryPusher.COLUMN_NW_PROTO, Integer.toString(rule.getNw_proto()));
+
+			List<OFMessage> deletes = new ArrayList<OFMessage>();
+			Iterator<Map.Entry<String, ACLFlow>> iter = installed.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<String, ACLFlow> e = iter.next();
+				if (!e.getValue().equals(flows.get(e.getKey()))) {
+					deletes.add(FlowModUtils.toFlowDeleteStrict(e.getValue().flowMod));
+					iter.remove();
+				}
 			}
-			if (rule.getAction() == Action.ALLOW) {
-				flow.put(StaticFlowEntryPusher.COLUMN_ACTIONS, "output=controller");
+			List<OFMessage> adds = new ArrayList<OFMessage>();
+			for (Map.Entry<String, ACLFlow> e : flows.entrySet()) {
+				if (!installed.containsKey(e.getKey())) {
+					ACLFlow flow = e.getValue();
+					flow.flowMod = compileFlow(sw.getOFFactory(), flow);
+					adds.add(flow.flowMod);
+					installed.put(e.getKey(), flow);
+				}
 			}
-			if (rule.getTp_dst() != 0) {
-				flow.put(StaticFlowEntryPusher.COLUMN_TP_DST, Integer.toString(rule.getTp_dst()));
+			if (installed.isEmpty()) {
+				dpid2InstalledFlows.remove(dpid);
 			}
-	        
-	        storageSource.insertRowAsync(StaticFlowEntryPusher.TABLE_NAME, flow);
-	        
+			writeFlows(sw, deletes, adds);
 		}
-		logger.info("ACL flow " + flowName + " added in " + dpid);
 	}
 
 	/**
-	 * remove ACL flow entry
+	 * write a batch of ACL flow changes to a switch. Each part is followed
+	 * by a barrier, so that the old flows are gone before new ones that may
+	 * overlap them are added.
 	 */
-	private void removeFlow(String name) {
-		storageSource.deleteRowAsync("controller_staticflowtableentry", name);
+	private void writeFlows(IOFSwitch sw, List<OFMessage> deletes, List<OFMessage> adds) {
+		if (deletes.isEmpty() && adds.isEmpty()) {
+			return;
+		}
+		if (!deletes.isEmpty()) {
+			sw.write(deletes);
+			sw.writeRequest(sw.getOFFactory().buildBarrierRequest().build());
+		}
+		if (!adds.isEmpty()) {
+			sw.write(adds);
+			sw.writeRequest(sw.getOFFactory().buildBarrierRequest().build());
+		}
+		sw.flush();
+		logger.debug("{} ACL flows removed from and {} added to switch {}",
+				new Object[] { deletes.size(), adds.size(), sw.getId() });
 	}
 
-
 	@Override
 	public Collection<Class<? extends IFloodlightService>> getModuleServices() {
 		Collection<Class<? extends IFloodlightService>> l = new ArrayList<Class<? extends IFloodlightService>>();
@@ -295,6 +575,8 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 		Collection<Class<? extends IFloodlightService>> l = new ArrayList<Class<? extends IFloodlightService>>();
 		l.add(IRestApiService.class);
 		l.add(IDeviceService.class);
+		l.add(IStorageSourceService.class);
+		l.add(IOFSwitchService.class);
 		return l;
 	}
 
@@ -305,12 +587,17 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 		deviceManager = context.getServiceImpl(IDeviceService.class);
 		logger = LoggerFactory.getLogger(ACL.class);
 		storageSource = context.getServiceImpl(IStorageSourceService.class);
+		switchService = context.getServiceImpl(IOFSwitchService.class);
 
-		ruleSet = new ArrayList<ACLRule>();
+		ruleSet = new TreeMap<Integer, ACLRule>();
+		srcTrie = new PrefixTrie<ACLRule>();
+		dstTrie = new PrefixTrie<ACLRule>();
 		apManager = new APManager();
 		ruleId2FlowName = new HashMap<Integer, Set<String>>();
 		ruleId2Dpid =  new HashMap<Integer, Set<String>>();
 		dpid2FlowPriority = new HashMap<String, Integer>();
+		dpid2Flows = new HashMap<String, Map<String, ACLFlow>>();
+		dpid2InstalledFlows = new HashMap<String, Map<String, ACLFlow>>();
 	}
 
 	@Override
@@ -318,13 +605,21 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 		// register REST interface
 		restApi.addRestletRoutable(new ACLWebRoutable());
 		deviceManager.addListener(this);
+		switchService.addOFSwitchListener(this);
+
+		// storage, create table and read rules
+		storageSource.createTable(TABLE_NAME, null);
+		storageSource.setTablePrimaryKeyName(TABLE_NAME, COLUMN_RULEID);
+		synchronized (this) {
+			readRulesFromStorage();
+		}
 	}
 
 	/**
 	 * listen for new device
 	 */
 	@Override
-	public void deviceAdded(IDevice device) {
+	public synchronized void deviceAdded(IDevice device) {
 		SwitchPort[] switchPort = device.getAttachmentPoints();
 		IPv4Address[] ips = device.getIPv4Addresses();
 		if(ips.length == 0){
@@ -348,35 +643,33 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 		String dpid = ap.getDpid();
 		int ip = IPv4.toIPv4Address(ap.getIp());
 
-		Iterator<ACLRule> iter = this.ruleSet.iterator();
-		while (iter.hasNext()) {
-			ACLRule rule = iter.next();
+		// rules are enforced at the source if they have one, otherwise at
+		// the destination
+		List<ACLRule> rules = new ArrayList<ACLRule>();
+		for (ACLRule rule : srcTrie.getCovering(ip, 32)) {
 			if (rule.getNw_src() != null) {
-				if (IPAddressUtil.containIP(rule.getNw_src_prefix(),
-						rule.getNw_src_maskbits(), ip)) {
-					// check if there is a flow entry in the switch for the rule
-					if (ruleId2Dpid.get(rule.getId()).contains(dpid)) {
-						continue;
-					}
-					String flowName = "ACLRule_" + rule.getId() + "_" + dpid;
-					ruleId2FlowName.get(rule.getId()).add(flowName);
-					ruleId2Dpid.get(rule.getId()).add(dpid);
-					generateFlow(rule, dpid, flowName);
-				}
-			} else {
-				if (IPAddressUtil.containIP(rule.getNw_dst_prefix(),
-						rule.getNw_dst_maskbits(), ip)) {
-					// check if there is a flow entry in the switch for the rule
-					if (ruleId2Dpid.get(rule.getId()).contains(dpid)) {
-						continue;
-					}
-					String flowName = "ACLRule_" + rule.getId() + "_" + dpid;
-					ruleId2FlowName.get(rule.getId()).add(flowName);
-					ruleId2Dpid.get(rule.getId()).add(dpid);
-					generateFlow(rule, dpid, flowName);
-				}
+				rules.add(rule);
+			}
+		}
+		for (ACLRule rule : dstTrie.getCovering(ip, 32)) {
+			if (rule.getNw_src() == null) {
+				rules.add(rule);
+			}
+		}
+		// flow priorities are given out in rule order
+		Collections.sort(rules, RULE_ID_ORDER);
+
+		for (ACLRule rule : rules) {
+			// check if there is a flow entry in the switch for the rule
+			if (ruleId2Dpid.get(rule.getId()).contains(dpid)) {
+				continue;
 			}
+			String flowName = "ACLRule_" + rule.getId() + "_" + dpid;
+			ruleId2FlowName.get(rule.getId()).add(flowName);
+			ruleId2Dpid.get(rule.getId()).add(dpid);
+			generateFlow(rule, dpid, flowName);
 		}
+		pushFlows(Collections.singleton(dpid));
 	}
 
 	@Override
@@ -390,7 +683,7 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 	}
 
 	@Override
-	public void deviceIPV4AddrChanged(IDevice device) {
+	public synchronized void deviceIPV4AddrChanged(IDevice device) {
 		
 		SwitchPort[] switchPort = device.getAttachmentPoints();
 		IPv4Address[] ips = device.getIPv4Addresses();
@@ -406,6 +699,9 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 			}
 		}
 		
+		if (ip == null) {
+			return;
+		}
 		logger.info("New AP added. [dpid:" + dpid + " ip:" + ip + "]");
 		AP ap = new AP(ip, dpid);
 		apManager.addAP(ap);
@@ -417,6 +713,37 @@ public class ACL implements IACLService, IFloodlightModule, IDeviceListener {
 
 	}
 
+	/**
+	 * write all the ACL flows for a switch when it connects
+	 */
+	@Override
+	public synchronized void switchAdded(DatapathId switchId) {
+		String dpid = switchId.toString();
+		dpid2InstalledFlows.remove(dpid);
+		pushFlows(Collections.singleton(dpid));
+	}
+
+	@Override
+	public synchronized void switchRemoved(DatapathId switchId) {
+		dpid2InstalledFlows.remove(switchId.toString());
+	}
+
+	@Override
+	public void switchActivated(DatapathId switchId) {
+
+	}
+
+	@Override
+	public void switchPortChanged(DatapathId switchId, OFPortDesc port,
+			PortChangeType type) {
+
+	}
+
+	@Override
+	public void switchChanged(DatapathId switchId) {
+
+	}
+
 	@Override
 	public String getName() {
 		return null;
@@ -55,13 +55,16 @@ public class ACLRule {
 	/**
 	 * check if this rule matches an existing rule:
 	 * a matching means this rule won't take effect at all for reason that
-	 * its working scope is already covered by an existing rule
+	 * its working scope is already covered by an existing rule.
+	 * An unspecified address has no mask bits, so it covers any address.
 	 */
 	public boolean match(ACLRule r) {
 		if ((this.tp_dst == r.tp_dst || r.tp_dst == 0)
 				&& (this.nw_proto == r.nw_proto || r.nw_proto == 0)
-				&& (isSubnet(this.getNw_src(), r.getNw_src()) == true)
-				&& (isSubnet(this.getNw_dst(), r.getNw_dst()) == true)) {
+				&& isSubnet(this.nw_src_prefix, this.nw_src_maskbits,
+						r.nw_src_prefix, r.nw_src_maskbits)
+				&& isSubnet(this.nw_dst_prefix, this.nw_dst_maskbits,
+						r.nw_dst_prefix, r.nw_dst_maskbits)) {
 			return true;
 		}
 		return false;
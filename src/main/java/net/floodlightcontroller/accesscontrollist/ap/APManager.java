@@ -21,18 +21,27 @@
 package net.floodlightcontroller.accesscontrollist.ap;
 
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 
-import net.floodlightcontroller.accesscontrollist.util.IPAddressUtil;
+import net.floodlightcontroller.accesscontrollist.util.PrefixTrie;
 import net.floodlightcontroller.packet.IPv4;
 
+/**
+ * The attachment points of the hosts in the network, indexed by IP address.
+ * Not thread safe; the ACL module calls it with its own lock held.
+ */
 public class APManager {
 
-	private Set<AP> apSet = new HashSet<AP>();
+	private PrefixTrie<AP> apTrie = new PrefixTrie<AP>();
 
 	public void addAP(AP ap) {
-		this.apSet.add(ap);
+		int ip = IPv4.toIPv4Address(ap.getIp());
+		for (AP existing : apTrie.get(ip, 32)) {
+			if (existing.getDpid().equals(ap.getDpid())) {
+				return;
+			}
+		}
+		this.apTrie.put(ip, 32, ap);
 	}
 
 	/**
@@ -40,25 +49,8 @@ public class APManager {
 	 */
 	public Set<String> getDpidSet(int cidrPrefix, int cidrMaskBits) {
 		Set<String> dpidSet = new HashSet<String>();
-
-		Iterator<AP> iter = apSet.iterator();
-		if (cidrMaskBits != 32) {
-			while (iter.hasNext()) {
-				AP ap = iter.next();
-				if (IPAddressUtil.containIP(cidrPrefix, cidrMaskBits,
-						IPv4.toIPv4Address(ap.getIp()))) {
-					dpidSet.add(ap.getDpid());
-				}
-			}
-		} else {
-			while (iter.hasNext()) {
-				AP ap = iter.next();
-				if (IPAddressUtil.containIP(cidrPrefix, cidrMaskBits,
-						IPv4.toIPv4Address(ap.getIp()))) {
-					dpidSet.add(ap.getDpid());
-					return dpidSet;
-				}
-			}
+		for (AP ap : apTrie.getCovered(cidrPrefix, cidrMaskBits)) {
+			dpidSet.add(ap.getDpid());
 		}
 		return dpidSet;
 	}
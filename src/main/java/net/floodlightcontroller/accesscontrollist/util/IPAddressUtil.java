@@ -121,4 +121,22 @@ public class IPAddressUtil {
 		return false;
 	}
 
+	/**
+	 * check whether the CIDR prefix cidr1 is a subnet of (or the same as)
+	 * cidr2, given the prefixes and mask bits in integer form
+	 * 
+	 */
+	public static boolean isSubnet(int cidr1Prefix, int cidr1MaskBits,
+			int cidr2Prefix, int cidr2MaskBits) {
+
+		if (cidr1MaskBits < cidr2MaskBits) {
+			return false;
+		}
+		if (cidr2MaskBits == 0) {
+			return true;
+		}
+		int mask = -1 << (32 - cidr2MaskBits);
+		return (cidr1Prefix & mask) == (cidr2Prefix & mask);
+	}
+
 }
@@ -0,0 +1,200 @@
+/**
+ *    Copyright 2015, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.accesscontrollist.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A binary trie of values keyed by IPv4 CIDR prefixes in integer form.
+ * A prefix with n mask bits is stored at depth n, so looking up the
+ * prefixes that contain an address, or the ones inside a prefix, walks at
+ * most 32 nodes plus the ones that hold the result.
+ *
+ * Several values can be stored under the same prefix. The trie is not
+ * thread safe; callers must provide their own locking.
+ */
+public class PrefixTrie<V> {
+
+	private static class Node<V> {
+		Node<V> zero;
+		Node<V> one;
+		List<V> values;
+
+		Node<V> child(int bit) {
+			return bit == 0 ? zero : one;
+		}
+
+		void setChild(int bit, Node<V> n) {
+			if (bit == 0) {
+				zero = n;
+			} else {
+				one = n;
+			}
+		}
+
+		boolean isEmpty() {
+			return zero == null && one == null
+					&& (values == null || values.isEmpty());
+		}
+	}
+
+	private Node<V> root = new Node<V>();
+	private int size = 0;
+
+	private static int bit(int prefix, int depth) {
+		return (prefix >>> (31 - depth)) & 1;
+	}
+
+	private static void checkMaskBits(int maskBits) {
+		if (maskBits < 0 || maskBits > 32) {
+			throw new IllegalArgumentException("CIDR mask bits must be 0 <= value <= 32.");
+		}
+	}
+
+	/**
+	 * add a value under the given CIDR prefix
+	 */
+	public void put(int prefix, int maskBits, V value) {
+		checkMaskBits(maskBits);
+		Node<V> n = root;
+		for (int depth = 0; depth < maskBits; depth++) {
+			int b = bit(prefix, depth);
+			Node<V> c = n.child(b);
+			if (c == null) {
+				c = new Node<V>();
+				n.setChild(b, c);
+			}
+			n = c;
+		}
+		if (n.values == null) {
+			n.values = new ArrayList<V>(1);
+		}
+		n.values.add(value);
+		size++;
+	}
+
+	/**
+	 * remove a value from the given CIDR prefix
+	 *
+	 * @return true if the value was found
+	 */
+	public boolean remove(int prefix, int maskBits, V value) {
+		checkMaskBits(maskBits);
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Node<V>[] path = new Node[maskBits + 1];
+		Node<V> n = root;
+		path[0] = n;
+		for (int depth = 0; depth < maskBits; depth++) {
+			n = n.child(bit(prefix, depth));
+			if (n == null) {
+				return false;
+			}
+			path[depth + 1] = n;
+		}
+		if (n.values == null || !n.values.remove(value)) {
+			return false;
+		}
+		size--;
+
+		// prune the nodes that no longer lead to any value
+		for (int depth = maskBits; depth > 0 && path[depth].isEmpty(); depth--) {
+			path[depth - 1].setChild(bit(prefix, depth - 1), null);
+		}
+		return true;
+	}
+
+	/**
+	 * get the values stored under exactly the given CIDR prefix
+	 */
+	public List<V> get(int prefix, int maskBits) {
+		checkMaskBits(maskBits);
+		Node<V> n = root;
+		for (int depth = 0; depth < maskBits && n != null; depth++) {
+			n = n.child(bit(prefix, depth));
+		}
+		if (n == null || n.values == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<V>(n.values);
+	}
+
+	/**
+	 * get the values stored under the prefixes that contain (or are the
+	 * same as) the given CIDR prefix, shortest prefix first
+	 */
+	public List<V> getCovering(int prefix, int maskBits) {
+		checkMaskBits(maskBits);
+		List<V> result = new ArrayList<V>();
+		Node<V> n = root;
+		for (int depth = 0; n != null; depth++) {
+			if (n.values != null) {
+				result.addAll(n.values);
+			}
+			if (depth == maskBits) {
+				break;
+			}
+			n = n.child(bit(prefix, depth));
+		}
+		return result;
+	}
+
+	/**
+	 * get the values stored under the prefixes that are contained in (or
+	 * are the same as) the given CIDR prefix
+	 */
+	public List<V> getCovered(int prefix, int maskBits) {
+		checkMaskBits(maskBits);
+		List<V> result = new ArrayList<V>();
+		Node<V> n = root;
+		for (int depth = 0; depth < maskBits && n != null; depth++) {
+			n = n.child(bit(prefix, depth));
+		}
+		if (n != null) {
+			collect(n, result);
+		}
+		return result;
+	}
+
+	private static <V> void collect(Node<V> n, List<V> result) {
+		if (n.values != null) {
+			result.addAll(n.values);
+		}
+		if (n.zero != null) {
+			collect(n.zero, result);
+		}
+		if (n.one != null) {
+			collect(n.one, result);
+		}
+	}
+
+	/**
+	 * remove all the values
+	 */
+	public void clear() {
+		root = new Node<V>();
+		size = 0;
+	}
+
+	/**
+	 * @return the number of values stored
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -21,6 +21,13 @@ public interface IOFConnection extends IOFMessageWriter {
      */
     Date getConnectedSince();
 
+    /**
+     * Retrieves the one-way latency of this connection, estimated as half
+     * the smoothed echo round-trip time
+     * @return the latency in microseconds, or 0 if not measured yet
+     */
+    long getLatency();
+
     /**
      * Flush all flows queued for this switch in the current thread.
      * NOTE: The contract is limited to the current thread
@@ -20,4 +20,10 @@ public interface IOFConnectionBackend extends IOFConnection {
 
     /** set the message/closing listener for this connection */
     void setListener(IOFConnectionListener listener);
+
+    /**
+     * Feed a measured echo round-trip time into the latency estimate
+     * @param rttNanos the round-trip time in nanoseconds
+     */
+    void updateLatency(long rttNanos);
 }
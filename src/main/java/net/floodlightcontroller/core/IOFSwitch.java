@@ -213,6 +213,13 @@ public interface IOFSwitch extends IOFMessageWriter {
      */
     Date getConnectedSince();
 
+    /**
+     * Retrieves the one-way control channel latency of the switch's main
+     * connection, estimated from echo request/reply round trips
+     * @return the latency in microseconds, or 0 if not measured yet
+     */
+    long getLatency();
+
     /**
      * Get the datapathId of the switch
      * @return
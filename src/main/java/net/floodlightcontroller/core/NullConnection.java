@@ -33,6 +33,11 @@ public class NullConnection implements IOFConnectionBackend, IOFMessageWriter {
         return null;
     }
 
+    @Override
+    public long getLatency() {
+        return 0;
+    }
+
     private void warn() {
         logger.debug("Switch {} not connected -- cannot send message", getDatapathId());
     }
@@ -111,4 +116,8 @@ public class NullConnection implements IOFConnectionBackend, IOFMessageWriter {
     public void setListener(IOFConnectionListener listener) {
     }
 
+    @Override
+    public void updateLatency(long rttNanos) {
+    }
+
 }
\ No newline at end of file
@@ -76,6 +76,8 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
     private final Timer timer;
 
     private final Date connectedSince;
+    /** Smoothed echo round-trip time in nanoseconds, 0 until measured */
+    private volatile long rtt;
 
     private final Map<Long, Deliverable<?>> xidDeliverableMap;
 
@@ -201,6 +203,20 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
         return connectedSince;
     }
 
+    @Override
+    public long getLatency() {
+        return TimeUnit.NANOSECONDS.toMicros(rtt / 2);
+    }
+
+    @Override
+    public void updateLatency(long rttNanos) {
+        if (rttNanos < 0)
+            return;
+        long old = rtt;
+        // EWMA with a weight of 1/8 on the new sample, as for TCP's SRTT
+        rtt = (old == 0) ? rttNanos : old + (rttNanos - old) / 8;
+    }
+
     @Override
     public <REPLY extends OFStatsReply> ListenableFuture<List<REPLY>> writeStatsRequest(
             OFStatsRequest<REPLY> request) {
@@ -955,6 +955,11 @@ public class OFSwitch implements IOFSwitchBackend {
 		return this.connections.get(OFAuxId.MAIN).getConnectedSince();
 	}
 
+	@Override
+	public long getLatency() {
+		return this.connections.get(OFAuxId.MAIN).getLatency();
+	}
+
 	@Override
 	public <REPLY extends OFStatsReply> ListenableFuture<List<REPLY>> writeStatsRequest(OFStatsRequest<REPLY> request) {
 		return addInternalStatsReplyListener(connections.get(OFAuxId.MAIN).writeStatsRequest(request), request);
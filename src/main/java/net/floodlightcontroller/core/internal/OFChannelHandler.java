@@ -46,6 +46,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.primitives.Longs;
 
 /**
  * Channel handler deals with the switch connection and dispatches
@@ -65,6 +66,8 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
 	private OFFactory factory = OFFactories.getFactory(OFVersion.OF_14);
 	private OFFeaturesReply featuresReply;
 	private volatile OFConnection connection;
+	/** Length of the nanosecond timestamp sent as echo request data */
+	static final int ECHO_TIMESTAMP_LENGTH = 8;
 	private final IDebugCounterService debugCounters;
 
 	/** transaction Ids to use during handshake. Since only one thread
@@ -95,7 +98,13 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
 
 		void processOFEchoReply(OFEchoReply m)
 				throws IOException {
-			// do nothing
+			// Echo requests carrying a System.nanoTime() stamp as their
+			// data measure the control channel round-trip time.
+			byte[] data = m.getData();
+			if (connection != null && data != null
+					&& data.length == ECHO_TIMESTAMP_LENGTH) {
+				connection.updateLatency(System.nanoTime() - Longs.fromByteArray(data));
+			}
 		}
 
 		void processOFError(OFErrorMsg m) {
@@ -745,6 +754,7 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
 	private void sendEchoRequest() {
 		OFEchoRequest request = factory.buildEchoRequest()
 				.setXid(handshakeTransactionIds--)
+				.setData(Longs.toByteArray(System.nanoTime()))
 				.build();
 		channel.write(Collections.singletonList(request));
 	}
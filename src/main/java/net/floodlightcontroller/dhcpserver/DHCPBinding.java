@@ -65,18 +65,33 @@ public class DHCPBinding {
 	}
 	
 	public boolean isLeaseExpired() {
-		long currentTime = System.currentTimeMillis();
-		if ((currentTime / 1000) >= (LEASE_START_TIME_SECONDS + LEASE_DURATION_SECONDS)) {
-			return true;
-		} else {
-			return false;
-		}
+		return isLeaseExpired(System.currentTimeMillis() / 1000);
+	}
+	
+	public boolean isLeaseExpired(long currentTimeSeconds) {
+		return currentTimeSeconds >= getLeaseExpiryTimeSeconds();
+	}
+	
+	public long getLeaseStartTimeSeconds() {
+		return LEASE_START_TIME_SECONDS;
+	}
+	
+	public long getLeaseDurationSeconds() {
+		return LEASE_DURATION_SECONDS;
+	}
+	
+	public long getLeaseExpiryTimeSeconds() {
+		return LEASE_START_TIME_SECONDS + LEASE_DURATION_SECONDS;
 	}
 	
 	protected void setLeaseStartTimeSeconds() {
 		LEASE_START_TIME_SECONDS = System.currentTimeMillis() / 1000;
 	}
 	
+	protected void setLeaseStartTimeSeconds(long time) {
+		LEASE_START_TIME_SECONDS = time;
+	}
+	
 	protected void setLeaseDurationSeconds(long time) {
 		LEASE_DURATION_SECONDS = time;
 	}
@@ -0,0 +1,186 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.VlanVid;
+import org.slf4j.Logger;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+/**
+ * The class representing one subnet served by the DHCP server: its address pool,
+ * the options handed out with its leases, and the switches, switch ports and VLANs
+ * whose clients it serves.
+ *
+ * The default instance is configured with the plain option names, e.g.
+ *
+ * 		net.floodlightcontroller.dhcpserver.DHCPServer.lower-ip-range = 10.0.0.10
+ *
+ * and each instance named in the "instances" option with the same names prefixed
+ * by its name, e.g.
+ *
+ * 		net.floodlightcontroller.dhcpserver.DHCPServer.lab.lower-ip-range = 10.1.0.10
+ * 		net.floodlightcontroller.dhcpserver.DHCPServer.lab.switch-ports = 00:00:00:00:00:00:00:01/3, 00:00:00:00:00:00:00:02/1
+ * 		net.floodlightcontroller.dhcpserver.DHCPServer.lab.vlans = 10, 11
+ * 		net.floodlightcontroller.dhcpserver.DHCPServer.lab.switches = 00:00:00:00:00:00:00:03, 00:00:00:00:00:00:00:04
+ *
+ * The subnet options (ranges, mask, broadcast, router and static addresses) must be
+ * set for each instance; the others default to those of the default instance.
+ */
+public class DHCPInstance {
+	protected String name;
+	protected DHCPPool pool;
+
+	protected IPv4Address subnetMask;
+	protected IPv4Address broadcastIp;
+	protected IPv4Address ipStart;
+	protected IPv4Address ipStop;
+	protected IPv4Address routerIp = null;
+	protected byte[] ntpIpList = null;
+	protected byte[] dnsIpList = null;
+	protected byte[] domainName = null;
+	protected byte[] ipForwarding = null;
+	protected int defaultLeaseTimeSeconds;
+	protected int holdLeaseTimeSeconds;
+	protected int rebindTimeSeconds;
+	protected int renewalTimeSeconds;
+
+	// Where the clients of this instance are attached
+	protected Set<DatapathId> switches = new HashSet<DatapathId>();
+	protected Set<NodePortTuple> switchPorts = new HashSet<NodePortTuple>();
+	protected Set<VlanVid> vlans = new HashSet<VlanVid>();
+
+	protected DHCPInstance(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public DHCPPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Creates an instance from the DHCP server's config options.
+	 * @param name: The name of the instance, or null for the default instance
+	 * @param configOptions: The config options of the DHCP server
+	 * @param defaults: The instance whose options are used when not set for this one, or null
+	 * @param log: The logger of the pool
+	 * @return {@code DHCPInstance}: The instance
+	 * @throws IllegalArgumentException or NullPointerException if an option is missing or malformed
+	 */
+	public static DHCPInstance createFromConfig(String name, Map<String, String> configOptions,
+			DHCPInstance defaults, Logger log) {
+		String prefix = (name == null) ? "" : name + ".";
+		DHCPInstance instance = new DHCPInstance(name);
+
+		instance.subnetMask = IPv4Address.of(configOptions.get(prefix + "subnet-mask"));
+		instance.ipStart = IPv4Address.of(configOptions.get(prefix + "lower-ip-range"));
+		instance.ipStop = IPv4Address.of(configOptions.get(prefix + "upper-ip-range"));
+		instance.broadcastIp = IPv4Address.of(configOptions.get(prefix + "broadcast-address"));
+		instance.routerIp = IPv4Address.of(configOptions.get(prefix + "router"));
+
+		String value = configOptions.get(prefix + "domain-name");
+		instance.domainName = (value != null || defaults == null) ? value.getBytes() : defaults.domainName;
+		value = configOptions.get(prefix + "default-lease-time");
+		instance.defaultLeaseTimeSeconds = (value != null || defaults == null) ? Integer.parseInt(value) : defaults.defaultLeaseTimeSeconds;
+		value = configOptions.get(prefix + "hold-lease-time");
+		instance.holdLeaseTimeSeconds = (value != null || defaults == null) ? Integer.parseInt(value) : defaults.holdLeaseTimeSeconds;
+		instance.renewalTimeSeconds = (int) (instance.defaultLeaseTimeSeconds / 2.0);
+		instance.rebindTimeSeconds = (int) (instance.defaultLeaseTimeSeconds * 0.875);
+		value = configOptions.get(prefix + "ip-forwarding");
+		instance.ipForwarding = (value != null || defaults == null) ? DHCPServer.intToBytesSizeOne(Integer.parseInt(value)) : defaults.ipForwarding;
+
+		// The order of the DNS and NTP servers should be most reliable to least
+		// TODO If the list is null then we need to not include this information with the options request,
+		// otherwise the client will get incorrect option information
+		String dnses = configOptions.get(prefix + "domain-name-servers");
+		String ntps = configOptions.get(prefix + "ntp-servers");
+		if (dnses != null) {
+			instance.dnsIpList = IPv4.toIPv4AddressBytes(dnses.split("\\s*,\\s*")[0].toString());
+		} else if (defaults != null) {
+			instance.dnsIpList = defaults.dnsIpList;
+		}
+		if (ntps != null) {
+			instance.ntpIpList = IPv4.toIPv4AddressBytes(ntps.split("\\s*,\\s*")[0].toString());
+		} else if (defaults != null) {
+			instance.ntpIpList = defaults.ntpIpList;
+		}
+
+		// Create our new DHCPPool object with the specific address size
+		int size = instance.ipStop.getInt() - instance.ipStart.getInt() + 1;
+		if (size <= 0) {
+			throw new IllegalArgumentException("Empty DHCP address range " + instance.ipStart + " to " + instance.ipStop);
+		}
+		instance.pool = new DHCPPool(instance.ipStart, size, log);
+
+		// Any addresses that need to be set as static/fixed can be permanently added to the pool with a set MAC
+		String staticAddresses = configOptions.get(prefix + "reserved-static-addresses");
+		if (staticAddresses != null) {
+			String[] macIpCouples = staticAddresses.split("\\s*;\\s*");
+			String[] macIpSplit;
+			int ipPos, macPos;
+			for (int i = 0; i < macIpCouples.length; i++) {
+				macIpSplit = macIpCouples[i].split("\\s*,\\s*");
+				// Determine which element is the MAC and which is the IP
+				// i.e. which order have they been typed in in the config file?
+				if (macIpSplit[0].length() > macIpSplit[1].length()) {
+					macPos = 0;
+					ipPos = 1;
+				} else {
+					macPos = 1;
+					ipPos = 0;
+				}
+				if (instance.pool.configureFixedIPLease(IPv4Address.of(macIpSplit[ipPos]), MacAddress.of(macIpSplit[macPos]))) {
+					log.info("Configured fixed address of " + macIpSplit[ipPos] + " for device " + macIpSplit[macPos]);
+				} else {
+					log.error("Could not configure fixed address " + macIpSplit[ipPos] + " for device " + macIpSplit[macPos]);
+				}
+			}
+		}
+
+		// Attachment points, e.g. "00:00:00:00:00:00:00:01, 00:00:00:00:00:00:00:02"
+		value = configOptions.get(prefix + "switches");
+		if (value != null && !value.trim().isEmpty()) {
+			for (String dpid : value.trim().split("\\s*,\\s*")) {
+				instance.switches.add(DatapathId.of(dpid));
+			}
+		}
+		// e.g. "00:00:00:00:00:00:00:01/3, 00:00:00:00:00:00:00:02/1"
+		value = configOptions.get(prefix + "switch-ports");
+		if (value != null && !value.trim().isEmpty()) {
+			for (String switchPort : value.trim().split("\\s*,\\s*")) {
+				int slash = switchPort.lastIndexOf('/');
+				if (slash < 0) {
+					throw new IllegalArgumentException("Switch port " + switchPort + " is not of the form <dpid>/<port>");
+				}
+				instance.switchPorts.add(new NodePortTuple(DatapathId.of(switchPort.substring(0, slash)),
+						OFPort.of(Integer.parseInt(switchPort.substring(slash + 1)))));
+			}
+		}
+		// e.g. "10, 11"
+		value = configOptions.get(prefix + "vlans");
+		if (value != null && !value.trim().isEmpty()) {
+			for (String vlan : value.trim().split("\\s*,\\s*")) {
+				instance.vlans.add(VlanVid.ofVlan(Integer.parseInt(vlan)));
+			}
+		}
+
+		return instance;
+	}
+
+	@Override
+	public String toString() {
+		return "DHCPInstance [name=" + (name == null ? "default" : name) + ", range=" + ipStart + "-" + ipStop
+				+ ", switches=" + switches + ", switchPorts=" + switchPorts + ", vlans=" + vlans + "]";
+	}
+}
@@ -1,6 +1,13 @@
 package net.floodlightcontroller.dhcpserver;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 import org.projectfloodlight.openflow.types.IPv4Address;
 import org.projectfloodlight.openflow.types.MacAddress;
@@ -10,62 +17,186 @@ import net.floodlightcontroller.dhcpserver.DHCPBinding;
 
 /**
  * The class representing a DHCP Pool.
- * This class is essentially a list of DHCPBinding objects containing IP, MAC, and lease status information.
+ * This class holds the DHCPBinding objects of a range of addresses, containing IP, MAC, and lease status information.
+ *
+ * The bindings are kept in an array indexed by their offset from the lowest address, so an IP is found
+ * without a search. Two bitmaps over the same offsets mark the addresses that have never been leased and the
+ * dynamic addresses that were leased before and are free again, so a free address is found by scanning for the
+ * next set bit. Bindings are also indexed by MAC, and active leases are kept on a timing wheel with one slot per
+ * second so that expiring leases only looks at the leases that are due.
+ *
+ * All methods are synchronized on the pool.
  *
  * @author Ryan Izard (rizard@g.clemson.edu)
  */
 public class DHCPPool {
+	/**
+	 * Told whenever a lease is bound, renewed, cancelled or expires.
+	 */
+	public interface ILeaseListener {
+		public void leaseChanged(DHCPPool pool, DHCPBinding binding);
+	}
+
+	// One slot per second; leases due further out stay in their slot for another turn
+	private static final int WHEEL_SLOTS = 512;
+
 	protected Logger log;
-	private volatile static ArrayList<DHCPBinding> DHCP_POOL = new ArrayList<DHCPBinding>();
-	private volatile int POOL_SIZE;
-	private volatile int POOL_AVAILABILITY;
-	private volatile boolean POOL_FULL;
-	private volatile IPv4Address STARTING_ADDRESS;
 	private final MacAddress UNASSIGNED_MAC = MacAddress.NONE;
 
-	// Need to write this to handle subnets later...
-	// This assumes startingIPv4Address can handle size addresses
+	private DHCPBinding[] bindings;
+	private int startingAddress;
+	private int poolSize;
+	private int activeLeases;
+	// Inactive addresses that have never been assigned a MAC
+	private BitSet unusedAddresses = new BitSet();
+	// Inactive dynamic addresses that were leased before
+	private BitSet reusableAddresses = new BitSet();
+	private final Map<MacAddress, DHCPBinding> macIndex = new HashMap<MacAddress, DHCPBinding>();
+	// Every binding holding each MAC, usually one; macIndex holds the one a lookup returns
+	private final Map<MacAddress, Set<DHCPBinding>> macBindings = new HashMap<MacAddress, Set<DHCPBinding>>();
+
+	private final Set<DHCPBinding>[] leaseWheel;
+	private final Map<DHCPBinding, Integer> wheelSlots = new IdentityHashMap<DHCPBinding, Integer>();
+	// The next second of the wheel to process
+	private long wheelTime;
+
+	private volatile ILeaseListener leaseListener;
+
 	/**
-	 * Constructor for a DHCPPool of DHCPBinding's. Each DHCPBinding object is initialized with a
-	 * null MAC address and the lease is set to inactive (i.e. false).
+	 * Constructor for a DHCPPool of DHCPBinding's. Each DHCPBinding object is initialized with an
+	 * unassigned MAC address and the lease is set to inactive (i.e. false).
 	 * @param {@code byte[]} startingIPv4Address: The lowest IP address to lease.
 	 * @param {@code integer} size: (startingIPv4Address + size) is the highest IP address to lease.
 	 * @return none
 	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public DHCPPool(IPv4Address startingIPv4Address, int size, Logger log) {
 		this.log = log;
-		int IPv4AsInt = startingIPv4Address.getInt();
-		this.setPoolSize(size);
-		this.setPoolAvailability(size);
-		STARTING_ADDRESS = startingIPv4Address;
-		for (int i = 0; i < size; i++) { 
-			DHCP_POOL.add(new DHCPBinding(IPv4Address.of(IPv4AsInt + i), UNASSIGNED_MAC));
+		this.startingAddress = startingIPv4Address.getInt();
+		this.bindings = new DHCPBinding[size];
+		for (int i = 0; i < size; i++) {
+			bindings[i] = new DHCPBinding(IPv4Address.of(startingAddress + i), UNASSIGNED_MAC);
 		}
+		this.poolSize = size;
+		this.activeLeases = 0;
+		unusedAddresses.set(0, size);
 
+		leaseWheel = new Set[WHEEL_SLOTS];
+		for (int i = 0; i < WHEEL_SLOTS; i++) {
+			leaseWheel[i] = Collections.newSetFromMap(new IdentityHashMap<DHCPBinding, Boolean>());
+		}
+		wheelTime = System.currentTimeMillis() / 1000;
 	}
 
-	private void setPoolFull(boolean full) {
-		POOL_FULL = full;
+	/**
+	 * Sets the listener told of every change to a lease, e.g. to store the leases.
+	 * @param listener: The listener, or null for none
+	 */
+	public void setLeaseListener(ILeaseListener listener) {
+		leaseListener = listener;
 	}
 
-	private boolean isPoolFull() {
-		return POOL_FULL;
+	private int getOffset(IPv4Address ip) {
+		long offset = (ip.getInt() & 0xffffffffL) - (startingAddress & 0xffffffffL);
+		if (offset < 0 || offset >= bindings.length) return -1;
+		return (int) offset;
 	}
 
-	private void setPoolSize(int size) {
-		POOL_SIZE = size;
+	private static boolean isUnassigned(MacAddress mac) {
+		return mac == null || mac.equals(MacAddress.NONE);
 	}
 
-	private int getPoolSize() {
-		return POOL_SIZE;
+	/**
+	 * Brings the bitmaps and the count of active leases up to date with the binding at offset.
+	 */
+	private void updateState(int offset, boolean wasActive) {
+		DHCPBinding binding = bindings[offset];
+		boolean active = binding != null && binding.isActiveLease();
+		if (active != wasActive) {
+			activeLeases += active ? 1 : -1;
+		}
+		unusedAddresses.clear(offset);
+		reusableAddresses.clear(offset);
+		if (binding != null && !active && !binding.isStaticIPLease()) {
+			if (isUnassigned(binding.getMACAddress())) {
+				unusedAddresses.set(offset);
+			} else {
+				reusableAddresses.set(offset);
+			}
+		}
 	}
 
-	private int getPoolAvailability() {
-		return POOL_AVAILABILITY;
+	private void indexMAC(DHCPBinding binding) {
+		MacAddress mac = binding.getMACAddress();
+		if (isUnassigned(mac)) return;
+		Set<DHCPBinding> holders = macBindings.get(mac);
+		if (holders == null) {
+			holders = Collections.newSetFromMap(new IdentityHashMap<DHCPBinding, Boolean>());
+			macBindings.put(mac, holders);
+		}
+		holders.add(binding);
+		preferMAC(mac, binding);
 	}
 
-	private void setPoolAvailability(int size) {
-		POOL_AVAILABILITY = size;
+	private void preferMAC(MacAddress mac, DHCPBinding binding) {
+		DHCPBinding current = macIndex.get(mac);
+		// A fixed binding keeps its MAC
+		if (current == null || current == binding || !current.isStaticIPLease() || binding.isStaticIPLease()) {
+			macIndex.put(mac, binding);
+		}
+	}
+
+	private void unindexMAC(DHCPBinding binding) {
+		MacAddress mac = binding.getMACAddress();
+		if (isUnassigned(mac)) return;
+		Set<DHCPBinding> holders = macBindings.get(mac);
+		if (holders != null) {
+			holders.remove(binding);
+			if (holders.isEmpty()) {
+				macBindings.remove(mac);
+			}
+		}
+		if (macIndex.get(mac) != binding) return;
+		macIndex.remove(mac);
+		// Fall back to another binding the MAC still has
+		if (holders != null) {
+			for (DHCPBinding other : holders) {
+				preferMAC(mac, other);
+			}
+		}
+	}
+
+	private void schedule(DHCPBinding binding) {
+		unschedule(binding);
+		if (!binding.isActiveLease()) return;
+		// Leases already due go in the next slot to process
+		long due = Math.max(binding.getLeaseExpiryTimeSeconds(), wheelTime);
+		int slot = (int) (due % WHEEL_SLOTS);
+		leaseWheel[slot].add(binding);
+		wheelSlots.put(binding, slot);
+	}
+
+	private void unschedule(DHCPBinding binding) {
+		Integer slot = wheelSlots.remove(binding);
+		if (slot != null) {
+			leaseWheel[slot].remove(binding);
+		}
+	}
+
+	private void notifyLeaseChanged(DHCPBinding binding) {
+		ILeaseListener listener = leaseListener;
+		if (listener != null) {
+			listener.leaseChanged(this, binding);
+		}
+	}
+
+	/**
+	 * Determines if an IPv4 address is in this DHCPPool.
+	 * @param {@code byte[]} ip: The IPv4 address to check
+	 * @return {@code boolean}: true if the pool has a binding for the address
+	 */
+	public synchronized boolean containsIPv4(IPv4Address ip) {
+		return getDHCPbindingFromIPv4(ip) != null;
 	}
 
 	/**
@@ -73,35 +204,26 @@ public class DHCPPool {
 	 * @param {@code byte[]} ip: The IPv4 address to match in a DHCPBinding
 	 * @return {@code DHCPBinding}: The matching DHCPBinding object or null if ip is not found
 	 */
-	public DHCPBinding getDHCPbindingFromIPv4(IPv4Address ip) {
+	public synchronized DHCPBinding getDHCPbindingFromIPv4(IPv4Address ip) {
 		if (ip == null) return null;
-		for (DHCPBinding binding : DHCP_POOL) {
-			if (binding.getIPv4Address().equals(ip)) {
-				return binding;
-			}
-		}
-		return null;
+		int offset = getOffset(ip);
+		return offset < 0 ? null : bindings[offset];
 	}
 	/**
 	 * Gets the DHCPBinding object from the DHCPPool containing {@code byte[]} mac
 	 * @param {@code byte[]} mac: The MAC address to match in in a DHCPBinding
 	 * @return {@code DHCPBinding}: The matching DHCPBinding object or null if mac is not found
 	 */
-	public DHCPBinding getDHCPbindingFromMAC(MacAddress mac) {
+	public synchronized DHCPBinding getDHCPbindingFromMAC(MacAddress mac) {
 		if (mac == null) return null;
-		for (DHCPBinding binding : DHCP_POOL) {
-			if (binding.getMACAddress().equals(mac)) {
-				return binding;
-			}
-		}
-		return null;
+		return macIndex.get(mac);
 	}
 	/**
 	 * Gets the lease status of a particular IPv4 address, {@code byte[]} ip
-	 * @param {@code byte[]} ip: The IPv4 address of which to check the lease status 
+	 * @param {@code byte[]} ip: The IPv4 address of which to check the lease status
 	 * @return {@code boolean}: true if lease is active, false if lease is inactive/expired
 	 */
-	public boolean isIPv4Leased(IPv4Address ip) {
+	public synchronized boolean isIPv4Leased(IPv4Address ip) {
 		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
 		if (binding != null) return binding.isActiveLease();
 		else return false;
@@ -114,15 +236,44 @@ public class DHCPPool {
 	 * @param {@code long}: The time in seconds for which the lease will be valid
 	 * @return none
 	 */
-	public void setDHCPbinding(DHCPBinding binding, MacAddress mac, int time) {
-		int index = DHCP_POOL.indexOf(binding);
+	public synchronized void setDHCPbinding(DHCPBinding binding, MacAddress mac, int time) {
+		binding.setLeaseStartTimeSeconds();
+		bindLease(binding, mac, time);
+		notifyLeaseChanged(binding);
+	}
+	/**
+	 * Restores a lease, e.g. one that was stored before a restart. The lease is not
+	 * restored if it has expired or if its address is leased to another MAC.
+	 * @param {@code byte[]} ip: The IP address of the lease
+	 * @param {@code byte[]} mac: The MAC address of the lease
+	 * @param {@code long}: The time in seconds at which the lease started
+	 * @param {@code long}: The time in seconds for which the lease is valid
+	 * @return {@code boolean}: True if the lease was restored
+	 */
+	public synchronized boolean restoreLease(IPv4Address ip, MacAddress mac, long startTime, long duration) {
+		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
+		if (binding == null || mac == null
+				|| (binding.isActiveLease() && !mac.equals(binding.getMACAddress()))
+				|| (binding.isStaticIPLease() && !mac.equals(binding.getMACAddress()))
+				|| startTime + duration <= System.currentTimeMillis() / 1000) {
+			return false;
+		}
+		binding.setLeaseStartTimeSeconds(startTime);
+		bindLease(binding, mac, duration);
+		return true;
+	}
+
+	private void bindLease(DHCPBinding binding, MacAddress mac, long time) {
+		int offset = getOffset(binding.getIPv4Address());
+		if (offset < 0 || bindings[offset] != binding) return;
+		boolean wasActive = binding.isActiveLease();
+		unindexMAC(binding);
 		binding.setMACAddress(mac);
 		binding.setLeaseStatus(true);
-		this.setPoolAvailability(this.getPoolAvailability() - 1);
-		DHCP_POOL.set(index, binding);
-		if (this.getPoolAvailability() == 0) setPoolFull(true);
-		binding.setLeaseStartTimeSeconds();
 		binding.setLeaseDurationSeconds(time);
+		indexMAC(binding);
+		updateState(offset, wasActive);
+		schedule(binding);
 	}
 	/**
 	 * Completely removes the DHCPBinding object with IP address {@code byte[]} ip from the DHCPPool
@@ -130,53 +281,67 @@ public class DHCPPool {
 	 * for lease after removal.
 	 * @return none
 	 */
-	public void removeIPv4FromDHCPPool(IPv4Address ip) {
-		if (ip == null || getDHCPbindingFromIPv4(ip) == null) return;
-		if (ip.equals(STARTING_ADDRESS)) {
-			DHCPBinding lowest = null;
-			// Locate the lowest address (other than ip), which will be the new starting address
-			for (DHCPBinding binding : DHCP_POOL) {
-				if (lowest == null) {
-					lowest = binding;
-				} else if (binding.getIPv4Address().getInt() < lowest.getIPv4Address().getInt()
-						&& !binding.getIPv4Address().equals(ip))
-				{
-					lowest = binding;
-				}
-			}
-			// lowest is new starting address
-			STARTING_ADDRESS = lowest.getIPv4Address();
-		}
-		DHCP_POOL.remove(this.getDHCPbindingFromIPv4(ip));
-		this.setPoolSize(this.getPoolSize() - 1);
-		this.setPoolAvailability(this.getPoolAvailability() - 1);
-		if (this.getPoolAvailability() == 0) this.setPoolFull(true);
+	public synchronized void removeIPv4FromDHCPPool(IPv4Address ip) {
+		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
+		if (binding == null) return;
+		int offset = getOffset(ip);
+		boolean wasActive = binding.isActiveLease();
+		unindexMAC(binding);
+		unschedule(binding);
+		bindings[offset] = null;
+		poolSize--;
+		updateState(offset, wasActive);
 	}
 	/**
 	 * Adds an IP address to the DHCPPool if the address is not already present. If present, nothing is added to the DHCPPool.
 	 * @param {@code byte[]} ip: The IP address to attempt to add to the DHCPPool
 	 * @return {@code DHCPBinding}: Reference to the DHCPBinding object if successful, null if unsuccessful
 	 */
-	public DHCPBinding addIPv4ToDHCPPool(IPv4Address ip) {
-		DHCPBinding binding = null;
-		if (this.getDHCPbindingFromIPv4(ip) == null) {
-			if (ip.getInt() < STARTING_ADDRESS.getInt()) {
-				STARTING_ADDRESS = ip;
-			}
-			binding = new DHCPBinding(ip, null);
-			DHCP_POOL.add(binding);
-			this.setPoolSize(this.getPoolSize() + 1);
-			this.setPoolFull(false);
+	public synchronized DHCPBinding addIPv4ToDHCPPool(IPv4Address ip) {
+		if (ip == null || this.getDHCPbindingFromIPv4(ip) != null) return null;
+		if (getOffset(ip) < 0) {
+			resize(ip);
 		}
+		int offset = getOffset(ip);
+		DHCPBinding binding = new DHCPBinding(ip, UNASSIGNED_MAC);
+		bindings[offset] = binding;
+		poolSize++;
+		updateState(offset, false);
 		return binding;
 	}
+
+	/**
+	 * Grows the range of the pool to take in ip, moving the bindings and rebuilding the bitmaps.
+	 */
+	private void resize(IPv4Address ip) {
+		long low = startingAddress & 0xffffffffL;
+		long high = low + bindings.length - 1;
+		long address = ip.getInt() & 0xffffffffL;
+		if (bindings.length == 0) {
+			low = high = address;
+		}
+		low = Math.min(low, address);
+		high = Math.max(high, address);
+
+		DHCPBinding[] old = bindings;
+		bindings = new DHCPBinding[(int) (high - low + 1)];
+		startingAddress = (int) low;
+		unusedAddresses = new BitSet(bindings.length);
+		reusableAddresses = new BitSet(bindings.length);
+		for (DHCPBinding binding : old) {
+			if (binding != null) {
+				int offset = getOffset(binding.getIPv4Address());
+				bindings[offset] = binding;
+				updateState(offset, binding.isActiveLease());
+			}
+		}
+	}
 	/**
 	 * Determines if there are available leases in this DHCPPool.
 	 * @return {@code boolean}: true if there are addresses available, false if the DHCPPool is full
 	 */
-	public boolean hasAvailableAddresses() {
-		if (isPoolFull() || getPoolAvailability() == 0) return false;
-		else return true;
+	public synchronized boolean hasAvailableAddresses() {
+		return activeLeases < poolSize;
 	}
 	/**
 	 * Returns an available address (DHCPBinding) for lease.
@@ -188,44 +353,38 @@ public class DHCPPool {
 	 * @param {@code byte[]): MAC address of the device requesting the lease
 	 * @return {@code DHCPBinding}: Reference to the DHCPBinding object if successful, null if unsuccessful
 	 */
-	public DHCPBinding getAnyAvailableLease(MacAddress mac) {
-		if (isPoolFull()) return null;
-		DHCPBinding usedBinding = null;
-		usedBinding = this.getDHCPbindingFromMAC(mac);
+	public synchronized DHCPBinding getAnyAvailableLease(MacAddress mac) {
+		if (!hasAvailableAddresses()) return null;
+		DHCPBinding usedBinding = this.getDHCPbindingFromMAC(mac);
 		if (usedBinding != null) return usedBinding;
 
-		for (DHCPBinding binding : DHCP_POOL) {
-			if (!binding.isActiveLease() 
-					&& binding.getMACAddress().equals(UNASSIGNED_MAC))
-			{
-				return binding;
-			} else if (!binding.isActiveLease() && usedBinding == null && !binding.isStaticIPLease()) {
-				usedBinding = binding;
-			}
+		int offset = unusedAddresses.nextSetBit(0);
+		if (offset < 0) {
+			offset = reusableAddresses.nextSetBit(0);
 		}
-		return usedBinding;
+		return offset < 0 ? null : bindings[offset];
 	}
 	/**
 	 * Returns a specific available IP address binding for lease. The MAC and IP will be queried
 	 * against the DHCP pool. (1) If the MAC is found in an available, fixed binding, and that binding
 	 * is not for the provided IP, the fixed binding associated with the MAC will be returned. (2) If the
-	 * IP is found in an available, fixed binding, and that binding also contains the MAC address provided, 
-	 * then the binding will be returned -- this is true only if the IP and MAC result in the same available, 
+	 * IP is found in an available, fixed binding, and that binding also contains the MAC address provided,
+	 * then the binding will be returned -- this is true only if the IP and MAC result in the same available,
 	 * fixed binding. (3) If the IP is found in the pool and it is available and not fixed, then its
-	 * binding will be returned. (4) If the IP provided does not match any available entries or is invalid, 
+	 * binding will be returned. (4) If the IP provided does not match any available entries or is invalid,
 	 * null will be returned. If this is the case, run getAnyAvailableLease(mac) to resolve.
 	 * @param {@code byte[]}: The IP address on which to try and obtain a lease
 	 * @param {@code byte[]}: The MAC address on which to try and obtain a lease.
 	 * @return {@code DHCPBinding}: Reference to the DHCPBinding object if successful, null if unsuccessful.
 	 */
-	public DHCPBinding getSpecificAvailableLease(IPv4Address ip, MacAddress mac) {
-		if (ip == null || mac == null || isPoolFull()) return null;
+	public synchronized DHCPBinding getSpecificAvailableLease(IPv4Address ip, MacAddress mac) {
+		if (ip == null || mac == null || !hasAvailableAddresses()) return null;
 
 		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
 		DHCPBinding binding2 = this.getDHCPbindingFromMAC(mac);
 
 		// For all of the following, the binding is also determined to be inactive:
-		
+
 		// If configured, we must return a fixed binding for a MAC address even if it's requesting another IP
 		if (binding2 != null && !binding2.isActiveLease() && binding2.isStaticIPLease() && binding != binding2) {
 			if (log != null) log.info("Fixed DHCP entry for MAC trumps requested IP. Returning binding for MAC");
@@ -250,12 +409,12 @@ public class DHCPPool {
 	 * @param {@code long}: The time in seconds for which the lease will be valid
 	 * @return {@code DHCPBinding}: True on success, false if unknown IP address
 	 */
-	public boolean renewLease(IPv4Address ip, int time) {
+	public synchronized boolean renewLease(IPv4Address ip, int time) {
 		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
 		if (binding != null) {
 			binding.setLeaseStartTimeSeconds();
-			binding.setLeaseDurationSeconds(time);
-			binding.setLeaseStatus(true);
+			bindLease(binding, binding.getMACAddress(), time);
+			notifyLeaseChanged(binding);
 			return true;
 		}
 		return false;
@@ -265,13 +424,10 @@ public class DHCPPool {
 	 * @param {@code byte[]}: The IP address on which to try and cancel a lease
 	 * @return {@code boolean}: True on success, false if unknown IP address
 	 */
-	public boolean cancelLeaseOfIPv4(IPv4Address ip) {
+	public synchronized boolean cancelLeaseOfIPv4(IPv4Address ip) {
 		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
 		if (binding != null) {
-			binding.clearLeaseTimes();
-			binding.setLeaseStatus(false);
-			this.setPoolAvailability(this.getPoolAvailability() + 1);
-			this.setPoolFull(false);
+			cancelLease(binding);
 			return true;
 		}
 		return false;
@@ -281,32 +437,56 @@ public class DHCPPool {
 	 * @param {@code byte[]}: The MAC address on which to try and cancel a lease
 	 * @return {@code boolean}: True on success, false if unknown IP address
 	 */
-	public boolean cancelLeaseOfMAC(MacAddress mac) {
+	public synchronized boolean cancelLeaseOfMAC(MacAddress mac) {
 		DHCPBinding binding = getDHCPbindingFromMAC(mac);
 		if (binding != null) {
-			binding.clearLeaseTimes();
-			binding.setLeaseStatus(false);
-			this.setPoolAvailability(this.getPoolAvailability() + 1);
-			this.setPoolFull(false);
+			cancelLease(binding);
 			return true;
 		}
 		return false;
 	}
+
+	private void cancelLease(DHCPBinding binding) {
+		boolean wasActive = binding.isActiveLease();
+		binding.cancelLease();
+		unschedule(binding);
+		updateState(getOffset(binding.getIPv4Address()), wasActive);
+		notifyLeaseChanged(binding);
+	}
 	/**
 	 * Make the addresses of expired leases available and reset the lease times.
 	 * @return {@code ArrayList<DHCPBinding>}: A list of the bindings that are now available
 	 */
 	public ArrayList<DHCPBinding> cleanExpiredLeases() {
+		return cleanExpiredLeases(System.currentTimeMillis() / 1000);
+	}
+	/**
+	 * Make the addresses of the leases expired at a given time available and reset the lease times.
+	 * Only the slots of the timing wheel passed since the last call are looked at.
+	 * @param {@code long}: The current time in seconds
+	 * @return {@code ArrayList<DHCPBinding>}: A list of the bindings that are now available
+	 */
+	public synchronized ArrayList<DHCPBinding> cleanExpiredLeases(long currentTimeSeconds) {
 		ArrayList<DHCPBinding> newAvailableLeases = new ArrayList<DHCPBinding>();
-		for (DHCPBinding binding : DHCP_POOL) {
-			// isLeaseExpired() automatically excludes configured static leases
-			if (binding.isLeaseExpired() && binding.isActiveLease()) {
-				this.cancelLeaseOfIPv4(binding.getIPv4Address());
-				this.setPoolAvailability(this.getPoolAvailability() + 1);
-				this.setPoolFull(false);
-				newAvailableLeases.add(binding);
+		if (currentTimeSeconds < wheelTime) return newAvailableLeases;
+		// A full turn visits every slot
+		long last = Math.min(currentTimeSeconds, wheelTime + WHEEL_SLOTS - 1);
+		for (long t = wheelTime; t <= last; t++) {
+			Iterator<DHCPBinding> it = leaseWheel[(int) (t % WHEEL_SLOTS)].iterator();
+			while (it.hasNext()) {
+				DHCPBinding binding = it.next();
+				// Leases due on a later turn stay put
+				if (binding.isLeaseExpired(currentTimeSeconds)) {
+					it.remove();
+					wheelSlots.remove(binding);
+					newAvailableLeases.add(binding);
+				}
 			}
 		}
+		wheelTime = currentTimeSeconds + 1;
+		for (DHCPBinding binding : newAvailableLeases) {
+			cancelLease(binding);
+		}
 		return newAvailableLeases;
 	}
 	/**
@@ -320,16 +500,21 @@ public class DHCPPool {
 	 * an address is requested from the MAC mac
 	 * @return {@code boolean}: True upon success; false upon failure (e.g. no IP found)
 	 */
-	public boolean configureFixedIPLease(IPv4Address ip, MacAddress mac) {
+	public synchronized boolean configureFixedIPLease(IPv4Address ip, MacAddress mac) {
 		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
 		if (binding != null) {
+			boolean wasActive = binding.isActiveLease();
+			unindexMAC(binding);
+			unschedule(binding);
 			binding.setMACAddress(mac);
 			binding.setStaticIPLease(true);
 			binding.setLeaseStatus(false);
+			indexMAC(binding);
+			updateState(getOffset(ip), wasActive);
 			return true;
 		} else {
 			return false;
 		}
 	}
 
-}
\ No newline at end of file
+}
@@ -3,6 +3,8 @@ package net.floodlightcontroller.dhcpserver;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -15,12 +17,14 @@ import org.projectfloodlight.openflow.protocol.OFType;
 import org.projectfloodlight.openflow.protocol.OFVersion;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.EthType;
 import org.projectfloodlight.openflow.types.IPv4Address;
 import org.projectfloodlight.openflow.types.IpProtocol;
 import org.projectfloodlight.openflow.types.MacAddress;
 import org.projectfloodlight.openflow.types.OFBufferId;
 import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.VlanVid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +44,9 @@ import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.UDP;
 import net.floodlightcontroller.packet.DHCP;
 import net.floodlightcontroller.packet.DHCPOption;
+import net.floodlightcontroller.storage.IResultSet;
+import net.floodlightcontroller.storage.IStorageSourceService;
+import net.floodlightcontroller.topology.NodePortTuple;
 
 /**
  * SDN DHCP Server
@@ -73,26 +80,35 @@ import net.floodlightcontroller.packet.DHCPOption;
  * to be intercepted on that same port and sent to the DHCP server running
  * on the Floodlight controller.
  * 
- * Currently, this DHCP server only supports a single subnet; however,
- * work is ongoing to use connected OF switches and ports to allow
- * the user to configure multiple subnets. On a traditional DHCP server,
- * the machine is configured with different NICs, each with their own
- * statically-assigned IP address/subnet/mask. The DHCP server matches
- * the network information of each NIC with the DHCP server's configured
- * subnets and answers the requests accordingly. To mirror this behavior
- * on a OpenFlow network, we can differentiate between subnets based on a
- * device's attachment point. We can assign subnets for a device per
- * OpenFlow switch or per port per switch. This is the next step for
- * this implementations of a SDN DHCP server.
+ * On a traditional DHCP server, the machine is configured with different
+ * NICs, each with their own statically-assigned IP address/subnet/mask.
+ * The DHCP server matches the network information of each NIC with the
+ * DHCP server's configured subnets and answers the requests accordingly.
+ * To mirror this behavior on a OpenFlow network, each subnet is a
+ * {@code DHCPInstance} bound to switch ports, VLANs or whole switches,
+ * and a request is answered from the instance of the port it came in on,
+ * else of its VLAN, else of its switch, else from the default instance.
+ * See {@code DHCPInstance} for the configuration of the instances.
+ *
+ * If the "persist-leases" option is true the active leases are written to
+ * the storage source and restored from it when the module starts.
  *
  * I welcome any feedback or suggestions for improvement!
  * 
  * 
  */
 public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
-	protected static Logger log;
+	protected static Logger log = LoggerFactory.getLogger(DHCPServer.class);
 	protected static IFloodlightProviderService floodlightProvider;
 	protected static IOFSwitchService switchService;
+	protected static IStorageSourceService storageSource;
+
+	// The table of active leases, if they are persisted
+	public static final String LEASE_TABLE_NAME = "controller_dhcpleases";
+	public static final String COLUMN_IP = "ip";
+	public static final String COLUMN_MAC = "mac";
+	public static final String COLUMN_START_TIME = "start_time";
+	public static final String COLUMN_DURATION = "duration";
 
 	// The garbage collector service for the DHCP server
 	// Handle expired leases by adding the IP back to the address pool
@@ -100,9 +116,13 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 	//private static ScheduledFuture<?> leasePoliceOfficer;
 	private static Runnable leasePolicePatrol;
 
-	// Contains the pool of IP addresses their bindings to MAC addresses
-	// Tracks the lease status and duration of DHCP bindings
-	private static volatile DHCPPool theDHCPPool;
+	// The subnets served, each with the pool of IP addresses their bindings to MAC addresses
+	// The pools track the lease status and duration of DHCP bindings
+	private static volatile List<DHCPInstance> instances = new ArrayList<DHCPInstance>();
+	private static volatile DHCPInstance defaultInstance;
+	private static volatile Map<NodePortTuple, DHCPInstance> switchPortInstances = new HashMap<NodePortTuple, DHCPInstance>();
+	private static volatile Map<VlanVid, DHCPInstance> vlanInstances = new HashMap<VlanVid, DHCPInstance>();
+	private static volatile Map<DatapathId, DHCPInstance> switchInstances = new HashMap<DatapathId, DHCPInstance>();
 
 	/** START CONFIG FILE VARIABLES **/
 
@@ -114,21 +134,10 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 	private static IPv4Address CONTROLLER_IP;
 
 	private static IPv4Address DHCP_SERVER_DHCP_SERVER_IP; // Same as CONTROLLER_IP but in byte[] form
-	private static IPv4Address DHCP_SERVER_SUBNET_MASK;
-	private static IPv4Address DHCP_SERVER_BROADCAST_IP;
-	private static IPv4Address DHCP_SERVER_IP_START;
-	private static IPv4Address DHCP_SERVER_IP_STOP;
-	private static int DHCP_SERVER_ADDRESS_SPACE_SIZE; // Computed in startUp()
-	private static IPv4Address DHCP_SERVER_ROUTER_IP = null;
-	private static byte[] DHCP_SERVER_NTP_IP_LIST = null;
-	private static byte[] DHCP_SERVER_DNS_IP_LIST = null;
-	private static byte[] DHCP_SERVER_DN = null;
-	private static byte[] DHCP_SERVER_IP_FORWARDING = null;
-	private static int DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS;
-	private static int DHCP_SERVER_HOLD_LEASE_TIME_SECONDS;
-	private static int DHCP_SERVER_REBIND_TIME_SECONDS; // Computed in startUp()
-	private static int DHCP_SERVER_RENEWAL_TIME_SECONDS; // Computed in startUp()
 	private static long DHCP_SERVER_LEASE_POLICE_PATROL_PERIOD_SECONDS;
+	private static boolean DHCP_SERVER_PERSIST_LEASES;
+
+	// The per-subnet options are kept in each DHCPInstance
 
 	/** END CONFIG FILE VARIABLES **/
 
@@ -221,6 +230,7 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		Collection<Class<? extends IFloodlightService>> l = 
 				new ArrayList<Class<? extends IFloodlightService>>();
 		l.add(IFloodlightProviderService.class);
+		l.add(IStorageSourceService.class);
 		return l;
 	}
 
@@ -228,7 +238,7 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 	public void init(FloodlightModuleContext context) throws FloodlightModuleException {
 		floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
 		switchService = context.getServiceImpl(IOFSwitchService.class);
-		log = LoggerFactory.getLogger(DHCPServer.class);
+		storageSource = context.getServiceImpl(IStorageSourceService.class);
 	}
 
 	@Override
@@ -237,24 +247,27 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 
 		// Read our config options for the DHCP DHCPServer
 		Map<String, String> configOptions = context.getConfigParams(this);
+		List<DHCPInstance> newInstances = new ArrayList<DHCPInstance>();
+		DHCPInstance newDefaultInstance = null;
 		try {
-			DHCP_SERVER_SUBNET_MASK = IPv4Address.of(configOptions.get("subnet-mask"));
-			DHCP_SERVER_IP_START = IPv4Address.of(configOptions.get("lower-ip-range"));
-			DHCP_SERVER_IP_STOP = IPv4Address.of(configOptions.get("upper-ip-range"));
-			DHCP_SERVER_ADDRESS_SPACE_SIZE = DHCP_SERVER_IP_STOP.getInt() - DHCP_SERVER_IP_START.getInt() + 1;
-			DHCP_SERVER_BROADCAST_IP = IPv4Address.of(configOptions.get("broadcast-address"));
-			DHCP_SERVER_ROUTER_IP = IPv4Address.of(configOptions.get("router"));
-			DHCP_SERVER_DN = configOptions.get("domain-name").getBytes();
-			DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS = Integer.parseInt(configOptions.get("default-lease-time"));
-			DHCP_SERVER_HOLD_LEASE_TIME_SECONDS = Integer.parseInt(configOptions.get("hold-lease-time"));
-			DHCP_SERVER_RENEWAL_TIME_SECONDS = (int) (DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS / 2.0);
-			DHCP_SERVER_REBIND_TIME_SECONDS = (int) (DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS * 0.875);
 			DHCP_SERVER_LEASE_POLICE_PATROL_PERIOD_SECONDS = Long.parseLong(configOptions.get("lease-gc-period"));
-			DHCP_SERVER_IP_FORWARDING = intToBytesSizeOne(Integer.parseInt(configOptions.get("ip-forwarding")));
-
 			CONTROLLER_MAC = MacAddress.of(configOptions.get("controller-mac"));
 			CONTROLLER_IP = IPv4Address.of(configOptions.get("controller-ip"));
 			DHCP_SERVER_DHCP_SERVER_IP = CONTROLLER_IP;
+			DHCP_SERVER_PERSIST_LEASES = Boolean.parseBoolean(configOptions.get("persist-leases"));
+
+			// The default instance uses the plain option names, and is optional once named instances are configured
+			String names = configOptions.get("instances");
+			boolean hasNamedInstances = names != null && !names.trim().isEmpty();
+			if (!hasNamedInstances || configOptions.get("lower-ip-range") != null) {
+				newDefaultInstance = DHCPInstance.createFromConfig(null, configOptions, null, log);
+				newInstances.add(newDefaultInstance);
+			}
+			if (hasNamedInstances) {
+				for (String name : names.trim().split("\\s*,\\s*")) {
+					newInstances.add(DHCPInstance.createFromConfig(name, configOptions, newDefaultInstance, log));
+				}
+			}
 
 			// NetBios and other options can be added to this function here as needed in the future
 		} catch(IllegalArgumentException ex) {
@@ -264,49 +277,17 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 			log.error("Incorrect DHCP Server configuration options", ex);
 			throw ex;
 		}
-		// Create our new DHCPPool object with the specific address size
-		theDHCPPool = new DHCPPool(DHCP_SERVER_IP_START, DHCP_SERVER_ADDRESS_SPACE_SIZE, log);
-
-		// Any addresses that need to be set as static/fixed can be permanently added to the pool with a set MAC
-		String staticAddresses = configOptions.get("reserved-static-addresses");
-		if (staticAddresses != null) {
-			String[] macIpCouples = staticAddresses.split("\\s*;\\s*");
-			int i;
-			String[] macIpSplit;
-			int ipPos, macPos;
-			for (i = 0; i < macIpCouples.length; i++) {
-				macIpSplit = macIpCouples[i].split("\\s*,\\s*");
-				// Determine which element is the MAC and which is the IP
-				// i.e. which order have they been typed in in the config file?
-				if (macIpSplit[0].length() > macIpSplit[1].length()) {
-					macPos = 0;
-					ipPos = 1;
-				} else {
-					macPos = 1;
-					ipPos = 0;
-				}
-				if (theDHCPPool.configureFixedIPLease(IPv4Address.of(macIpSplit[ipPos]), MacAddress.of(macIpSplit[macPos]))) {
-					String ip = theDHCPPool.getDHCPbindingFromIPv4(IPv4Address.of(macIpSplit[ipPos])).getIPv4Address().toString();
-					String mac = theDHCPPool.getDHCPbindingFromIPv4(IPv4Address.of(macIpSplit[ipPos])).getMACAddress().toString();
-					log.info("Configured fixed address of " + ip + " for device " + mac);
-				} else {
-					log.error("Could not configure fixed address " + macIpSplit[ipPos] + " for device " + macIpSplit[macPos]);
-				}
-			}
-		}
 
-		// The order of the DNS and NTP servers should be most reliable to least
-		String dnses = configOptions.get("domain-name-servers");
-		String ntps = configOptions.get("ntp-servers");
+		setInstances(newInstances, newDefaultInstance);
 
-		// Separate the servers in the comma-delimited list
-		// TODO If the list is null then we need to not include this information with the options request,
-		// otherwise the client will get incorrect option information
-		if (dnses != null) {
-			DHCP_SERVER_DNS_IP_LIST = IPv4.toIPv4AddressBytes(dnses.split("\\s*,\\s*")[0].toString());
-		}
-		if (ntps != null) {
-			DHCP_SERVER_NTP_IP_LIST = IPv4.toIPv4AddressBytes(ntps.split("\\s*,\\s*")[0].toString());
+		if (DHCP_SERVER_PERSIST_LEASES) {
+			storageSource.createTable(LEASE_TABLE_NAME, null);
+			storageSource.setTablePrimaryKeyName(LEASE_TABLE_NAME, COLUMN_IP);
+			restoreLeases();
+			DHCPPool.ILeaseListener leaseStore = new DHCPLeaseStore();
+			for (DHCPInstance instance : instances) {
+				instance.pool.setLeaseListener(leaseStore);
+			}
 		}
 
 		// Monitor bindings for expired leases and clean them up
@@ -317,6 +298,93 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 				DHCP_SERVER_LEASE_POLICE_PATROL_PERIOD_SECONDS, TimeUnit.SECONDS);
 	}
 
+	/**
+	 * Makes the given instances the ones served, indexed by their switch ports, VLANs and switches.
+	 * @param newInstances: The instances
+	 * @param newDefaultInstance: The instance serving the clients of no other instance, or null
+	 */
+	protected static void setInstances(List<DHCPInstance> newInstances, DHCPInstance newDefaultInstance) {
+		Map<NodePortTuple, DHCPInstance> newSwitchPortInstances = new HashMap<NodePortTuple, DHCPInstance>();
+		Map<VlanVid, DHCPInstance> newVlanInstances = new HashMap<VlanVid, DHCPInstance>();
+		Map<DatapathId, DHCPInstance> newSwitchInstances = new HashMap<DatapathId, DHCPInstance>();
+		for (DHCPInstance instance : newInstances) {
+			for (NodePortTuple npt : instance.switchPorts) {
+				if (newSwitchPortInstances.put(npt, instance) != null) {
+					log.error("Switch port " + npt + " is bound to more than one DHCP instance");
+				}
+			}
+			for (VlanVid vlan : instance.vlans) {
+				if (newVlanInstances.put(vlan, instance) != null) {
+					log.error("VLAN " + vlan + " is bound to more than one DHCP instance");
+				}
+			}
+			for (DatapathId dpid : instance.switches) {
+				if (newSwitchInstances.put(dpid, instance) != null) {
+					log.error("Switch " + dpid + " is bound to more than one DHCP instance");
+				}
+			}
+			log.info("Configured " + instance);
+		}
+		switchPortInstances = newSwitchPortInstances;
+		vlanInstances = newVlanInstances;
+		switchInstances = newSwitchInstances;
+		instances = newInstances;
+		defaultInstance = newDefaultInstance;
+	}
+
+	/**
+	 * Finds the DHCP instance serving a client: the instance of its switch port,
+	 * else of its VLAN, else of its switch, else the default instance.
+	 * @param dpid: The switch the request came in on
+	 * @param inPort: The port the request came in on
+	 * @param vlan: The VLAN of the request
+	 * @return {@code DHCPInstance}: The instance, or null if no instance serves the client
+	 */
+	protected DHCPInstance getInstance(DatapathId dpid, OFPort inPort, VlanVid vlan) {
+		DHCPInstance instance = switchPortInstances.get(new NodePortTuple(dpid, inPort));
+		if (instance == null) {
+			instance = vlanInstances.get(vlan);
+		}
+		if (instance == null) {
+			instance = switchInstances.get(dpid);
+		}
+		return (instance == null) ? defaultInstance : instance;
+	}
+
+	/**
+	 * Restores the leases that were written to the storage source before a
+	 * restart and have not expired since.
+	 */
+	private void restoreLeases() {
+		String[] columnNames = { COLUMN_IP, COLUMN_MAC, COLUMN_START_TIME, COLUMN_DURATION };
+		int restored = 0;
+		try {
+			IResultSet resultSet = storageSource.executeQuery(LEASE_TABLE_NAME, columnNames, null, null);
+			for (Iterator<IResultSet> it = resultSet.iterator(); it.hasNext();) {
+				Map<String, Object> row = it.next().getRow();
+				try {
+					IPv4Address ip = IPv4Address.of(row.get(COLUMN_IP).toString());
+					MacAddress mac = MacAddress.of(row.get(COLUMN_MAC).toString());
+					long startTime = Long.parseLong(row.get(COLUMN_START_TIME).toString());
+					long duration = Long.parseLong(row.get(COLUMN_DURATION).toString());
+					for (DHCPInstance instance : instances) {
+						if (instance.pool.containsIPv4(ip)) {
+							if (instance.pool.restoreLease(ip, mac, startTime, duration)) {
+								restored++;
+							}
+							break;
+						}
+					}
+				} catch (RuntimeException e) {
+					log.error("Skipping malformed DHCP lease {}", row);
+				}
+			}
+		} catch (Exception e) {
+			log.error("Could not restore the DHCP leases", e);
+		}
+		log.info("Restored {} DHCP leases", restored);
+	}
+
 	@Override
 	public Collection<Class<? extends IFloodlightService>> getModuleServices() {
 		return null;
@@ -364,7 +432,7 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		return bytes;
 	}
 
-	public void sendDHCPOffer(IOFSwitch sw, OFPort inPort, MacAddress chaddr, IPv4Address dstIPAddr, 
+	public void sendDHCPOffer(DHCPInstance instance, IOFSwitch sw, OFPort inPort, MacAddress chaddr, IPv4Address dstIPAddr, 
 			IPv4Address yiaddr, IPv4Address giaddr, int xid, ArrayList<Byte> requestOrder) {
 		// Compose DHCP OFFER
 		/** (2) DHCP Offer
@@ -436,31 +504,31 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 			if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_SN) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_SN);
-				newOption.setData(DHCP_SERVER_SUBNET_MASK.getBytes());
+				newOption.setData(instance.subnetMask.getBytes());
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_ROUTER) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_ROUTER);
-				newOption.setData(DHCP_SERVER_ROUTER_IP.getBytes());
+				newOption.setData(instance.routerIp.getBytes());
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DN) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_DN);
-				newOption.setData(DHCP_SERVER_DN);
-				newOption.setLength((byte) DHCP_SERVER_DN.length);
+				newOption.setData(instance.domainName);
+				newOption.setLength((byte) instance.domainName.length);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DNS) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_DNS);
-				newOption.setData(DHCP_SERVER_DNS_IP_LIST);
-				newOption.setLength((byte) DHCP_SERVER_DNS_IP_LIST.length);
+				newOption.setData(instance.dnsIpList);
+				newOption.setLength((byte) instance.dnsIpList.length);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_BROADCAST_IP) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_BROADCAST_IP);
-				newOption.setData(DHCP_SERVER_BROADCAST_IP.getBytes());
+				newOption.setData(instance.broadcastIp.getBytes());
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DHCP_SERVER) {
@@ -472,31 +540,31 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_LEASE_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_LEASE_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.defaultLeaseTimeSeconds));
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_NTP_IP) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_NTP_IP);
-				newOption.setData(DHCP_SERVER_NTP_IP_LIST);
-				newOption.setLength((byte) DHCP_SERVER_NTP_IP_LIST.length);
+				newOption.setData(instance.ntpIpList);
+				newOption.setLength((byte) instance.ntpIpList.length);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_REBIND_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_REBIND_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_REBIND_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.rebindTimeSeconds));
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_RENEWAL_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_RENEWAL_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_RENEWAL_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.renewalTimeSeconds));
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_IP_FORWARDING) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_IP_FORWARDING);
-				newOption.setData(DHCP_SERVER_IP_FORWARDING);
+				newOption.setData(instance.ipForwarding);
 				newOption.setLength((byte) 1);
 				dhcpOfferOptions.add(newOption);
 			} else {
@@ -525,7 +593,7 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		sw.write(DHCPOfferPacket.build());
 	}
 
-	public void sendDHCPAck(IOFSwitch sw, OFPort inPort, MacAddress chaddr, IPv4Address dstIPAddr, 
+	public void sendDHCPAck(DHCPInstance instance, IOFSwitch sw, OFPort inPort, MacAddress chaddr, IPv4Address dstIPAddr, 
 			IPv4Address yiaddr, IPv4Address giaddr, int xid, ArrayList<Byte> requestOrder) {
 		/** (4) DHCP ACK
 		 * -- UDP src port = 67
@@ -596,31 +664,31 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 			if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_SN) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_SN);
-				newOption.setData(DHCP_SERVER_SUBNET_MASK.getBytes());
+				newOption.setData(instance.subnetMask.getBytes());
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_ROUTER) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_ROUTER);
-				newOption.setData(DHCP_SERVER_ROUTER_IP.getBytes());
+				newOption.setData(instance.routerIp.getBytes());
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DN) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_DN);
-				newOption.setData(DHCP_SERVER_DN);
-				newOption.setLength((byte) DHCP_SERVER_DN.length);
+				newOption.setData(instance.domainName);
+				newOption.setLength((byte) instance.domainName.length);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DNS) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_DNS);
-				newOption.setData(DHCP_SERVER_DNS_IP_LIST);
-				newOption.setLength((byte) DHCP_SERVER_DNS_IP_LIST.length);
+				newOption.setData(instance.dnsIpList);
+				newOption.setLength((byte) instance.dnsIpList.length);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_BROADCAST_IP) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_BROADCAST_IP);
-				newOption.setData(DHCP_SERVER_BROADCAST_IP.getBytes());
+				newOption.setData(instance.broadcastIp.getBytes());
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DHCP_SERVER) {
@@ -632,31 +700,31 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_LEASE_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_LEASE_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.defaultLeaseTimeSeconds));
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_NTP_IP) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_NTP_IP);
-				newOption.setData(DHCP_SERVER_NTP_IP_LIST);
-				newOption.setLength((byte) DHCP_SERVER_NTP_IP_LIST.length);
+				newOption.setData(instance.ntpIpList);
+				newOption.setLength((byte) instance.ntpIpList.length);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_REBIND_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_REBIND_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_REBIND_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.rebindTimeSeconds));
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_RENEWAL_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_RENEWAL_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_RENEWAL_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.renewalTimeSeconds));
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_IP_FORWARDING) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_IP_FORWARDING);
-				newOption.setData(DHCP_SERVER_IP_FORWARDING);
+				newOption.setData(instance.ipForwarding);
 				newOption.setLength((byte) 1);
 				dhcpAckOptions.add(newOption);
 			}else {
@@ -815,11 +883,6 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 
 		OFPacketIn pi = (OFPacketIn) msg;
 
-		if (!theDHCPPool.hasAvailableAddresses()) {
-			log.info("DHCP Pool is full! Consider increasing the pool size.");
-			return Command.CONTINUE;
-		}
-
 		Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
 				IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
 
@@ -842,6 +905,14 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 					DHCP DHCPPayload = (DHCP) UDPPayload.getPayload();
 					OFPort inPort = (pi.getVersion().compareTo(OFVersion.OF_12) < 0 ? pi.getInPort() : pi.getMatch().get(MatchField.IN_PORT));
 
+					// Answer from the subnet the client is attached to
+					DHCPInstance instance = getInstance(sw.getId(), inPort, VlanVid.ofVlan(eth.getVlanID()));
+					if (instance == null) {
+						log.debug("No DHCP instance serves switch {} port {}", sw.getId(), inPort);
+						return Command.CONTINUE;
+					}
+					DHCPPool pool = instance.pool;
+
 					/* DHCP/IPv4 Header Information */
 					int xid = 0;
 					IPv4Address yiaddr = IPv4Address.NONE;
@@ -893,29 +964,29 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 							// Process DISCOVER message and prepare an OFFER with minimum-hold lease
 							// A HOLD lease should be a small amount of time sufficient for the client to respond
 							// with a REQUEST, at which point the ACK will set the least time to the DEFAULT
-							synchronized (theDHCPPool) {
-								if (!theDHCPPool.hasAvailableAddresses()) {
+							synchronized (pool) {
+								if (!pool.hasAvailableAddresses()) {
 									log.info("DHCP Pool is full! Consider increasing the pool size.");
 									log.info("Device with MAC " + chaddr.toString() + " was not granted an IP lease");
 									return Command.CONTINUE;
 								}
-								DHCPBinding lease = theDHCPPool.getSpecificAvailableLease(desiredIPAddr, chaddr);
+								DHCPBinding lease = pool.getSpecificAvailableLease(desiredIPAddr, chaddr);
 
 								if (lease != null) {
 									log.debug("Checking new lease with specific IP");
-									theDHCPPool.setDHCPbinding(lease, chaddr, DHCP_SERVER_HOLD_LEASE_TIME_SECONDS);
+									pool.setDHCPbinding(lease, chaddr, instance.holdLeaseTimeSeconds);
 									yiaddr = lease.getIPv4Address();
 									log.debug("Got new lease for " + yiaddr.toString());
 								} else {
 									log.debug("Checking new lease for any IP");
-									lease = theDHCPPool.getAnyAvailableLease(chaddr);
-									theDHCPPool.setDHCPbinding(lease, chaddr, DHCP_SERVER_HOLD_LEASE_TIME_SECONDS);
+									lease = pool.getAnyAvailableLease(chaddr);
+									pool.setDHCPbinding(lease, chaddr, instance.holdLeaseTimeSeconds);
 									yiaddr = lease.getIPv4Address();
 									log.debug("Got new lease for " + yiaddr.toString());
 								}
 							}
 
-							sendDHCPOffer(sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);
+							sendDHCPOffer(instance, sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);
 						} // END IF DISCOVER
 
 						/** (3) DHCP Request
@@ -947,15 +1018,16 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 							for (DHCPOption option : options) {
 								if (option.getCode() == DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_IP) {
 									desiredIPAddr = IPv4Address.of(option.getData());
-									if (!desiredIPAddr.equals(theDHCPPool.getDHCPbindingFromMAC(chaddr).getIPv4Address())) {
+									DHCPBinding heldLease = pool.getDHCPbindingFromMAC(chaddr);
+									if (heldLease != null && !desiredIPAddr.equals(heldLease.getIPv4Address())) {
 										// This client wants a different IP than what we have on file, so cancel its HOLD lease now (if we have one)
-										theDHCPPool.cancelLeaseOfMAC(chaddr);
+										pool.cancelLeaseOfMAC(chaddr);
 										return Command.CONTINUE;
 									}
 								} else if (option.getCode() == DHCP_REQ_PARAM_OPTION_CODE_DHCP_SERVER) {
 									if (!IPv4Address.of(option.getData()).equals(DHCP_SERVER_DHCP_SERVER_IP)) {
 										// We're not the DHCPServer the client wants to use, so cancel its HOLD lease now and ignore the client
-										theDHCPPool.cancelLeaseOfMAC(chaddr);
+										pool.cancelLeaseOfMAC(chaddr);
 										return Command.CONTINUE;
 									}
 								} else if (option.getCode() == DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_PARAMTERS) {
@@ -965,8 +1037,8 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 							// Process REQUEST message and prepare an ACK with default lease time
 							// This extends the hold lease time to that of a normal lease
 							boolean sendACK = true;
-							synchronized (theDHCPPool) {
-								if (!theDHCPPool.hasAvailableAddresses()) {
+							synchronized (pool) {
+								if (!pool.hasAvailableAddresses()) {
 									log.info("DHCP Pool is full! Consider increasing the pool size.");
 									log.info("Device with MAC " + chaddr.toString() + " was not granted an IP lease");
 									return Command.CONTINUE;
@@ -974,14 +1046,14 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 								DHCPBinding lease;
 								// Get any binding, in use now or not
 								if (desiredIPAddr != null) {
-									lease = theDHCPPool.getDHCPbindingFromIPv4(desiredIPAddr);
+									lease = pool.getDHCPbindingFromIPv4(desiredIPAddr);
 								} else {
-									lease = theDHCPPool.getAnyAvailableLease(chaddr);
+									lease = pool.getAnyAvailableLease(chaddr);
 								}
 								// This IP is not in our allocation range
 								if (lease == null) {
 									log.info("The IP " + desiredIPAddr.toString() + " is not in the range " 
-											+ DHCP_SERVER_IP_START.toString() + " to " + DHCP_SERVER_IP_STOP.toString());
+											+ instance.ipStart.toString() + " to " + instance.ipStop.toString());
 									log.info("Device with MAC " + chaddr.toString() + " was not granted an IP lease");
 									sendACK = false;
 									// Determine if the IP in the binding we just retrieved is okay to allocate to the MAC requesting it
@@ -992,13 +1064,13 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 									// Check if we want to renew the MAC's current lease
 								} else if (lease.getMACAddress().equals(chaddr) && lease.isActiveLease()) {
 									log.debug("Renewing lease for MAC " + chaddr.toString());
-									theDHCPPool.renewLease(lease.getIPv4Address(), DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS);
+									pool.renewLease(lease.getIPv4Address(), instance.defaultLeaseTimeSeconds);
 									yiaddr = lease.getIPv4Address();
 									log.debug("Finalized renewed lease for " + yiaddr.toString());
 									// Check if we want to create a new lease for the MAC
 								} else if (!lease.isActiveLease()){
 									log.debug("Assigning new lease for MAC " + chaddr.toString());
-									theDHCPPool.setDHCPbinding(lease, chaddr, DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS);
+									pool.setDHCPbinding(lease, chaddr, instance.defaultLeaseTimeSeconds);
 									yiaddr = lease.getIPv4Address();
 									log.debug("Finalized new lease for " + yiaddr.toString());
 								} else {
@@ -1007,7 +1079,7 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 								}
 							}
 							if (sendACK) {
-								sendDHCPAck(sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);							
+								sendDHCPAck(instance, sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);							
 							} else {
 								sendDHCPNack(sw, inPort, chaddr, giaddr, xid);
 							}
@@ -1019,10 +1091,10 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 								// Execution jumps to return Command.CONTINUE at end of receive()
 							} else {
 								log.debug("Got DHCP RELEASE. Cancelling remaining time on DHCP lease");
-								synchronized(theDHCPPool) {
-									if (theDHCPPool.cancelLeaseOfMAC(DHCPPayload.getClientHardwareAddress())) {
+								synchronized(pool) {
+									if (pool.cancelLeaseOfMAC(DHCPPayload.getClientHardwareAddress())) {
 										log.info("Cancelled DHCP lease of " + DHCPPayload.getClientHardwareAddress().toString());
-										log.info("IP " + theDHCPPool.getDHCPbindingFromMAC(DHCPPayload.getClientHardwareAddress()).getIPv4Address().toString()
+										log.info("IP " + pool.getDHCPbindingFromMAC(DHCPPayload.getClientHardwareAddress()).getIPv4Address().toString()
 												+ " is now available in the DHCP address pool");
 									} else {
 										log.debug("Lease of " + DHCPPayload.getClientHardwareAddress().toString()
@@ -1033,10 +1105,10 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 						} // END IF RELEASE
 						else if (Arrays.equals(DHCPPayload.getOption(DHCP.DHCPOptionCode.OptionCode_MessageType).getData(), DHCP_MSG_TYPE_DECLINE)) {
 							log.debug("Got DHCP DECLINE. Cancelling HOLD time on DHCP lease");
-							synchronized(theDHCPPool) {
-								if (theDHCPPool.cancelLeaseOfMAC(DHCPPayload.getClientHardwareAddress())) {
+							synchronized(pool) {
+								if (pool.cancelLeaseOfMAC(DHCPPayload.getClientHardwareAddress())) {
 									log.info("Cancelled DHCP lease of " + DHCPPayload.getClientHardwareAddress().toString());
-									log.info("IP " + theDHCPPool.getDHCPbindingFromMAC(DHCPPayload.getClientHardwareAddress()).getIPv4Address().toString()
+									log.info("IP " + pool.getDHCPbindingFromMAC(DHCPPayload.getClientHardwareAddress()).getIPv4Address().toString()
 											+ " is now available in the DHCP address pool");
 								} else {
 									log.info("HOLD Lease of " + DHCPPayload.getClientHardwareAddress().toString()
@@ -1056,7 +1128,7 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 							requestOrder = getRequestedParameters(DHCPPayload, true);
 							
 							// Process INFORM message and send an ACK with requested information
-							sendDHCPAck(sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);							
+							sendDHCPAck(instance, sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);							
 						} // END IF INFORM
 					} // END IF DHCP OPCODE REQUEST 
 					else if (DHCPPayload.getOpCode() == DHCP_OPCODE_REPLY) {
@@ -1093,17 +1165,42 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 	class DHCPLeasePolice implements Runnable {
 		@Override
 		public void run() {
-			log.info("Cleaning any expired DHCP leases...");
-			ArrayList<DHCPBinding> newAvailableBindings;
-			synchronized(theDHCPPool) {
-				// Loop through lease pool and check all leases to see if they are expired
-				// If a lease is expired, then clean it up and make the binding available
-				newAvailableBindings = theDHCPPool.cleanExpiredLeases();
-			}
-			for (DHCPBinding binding : newAvailableBindings) {
-				log.info("MAC " + binding.getMACAddress().toString() + " has expired");
-				log.info("Lease now available for IP " + binding.getIPv4Address().toString());
+			log.debug("Cleaning any expired DHCP leases...");
+			for (DHCPInstance instance : instances) {
+				ArrayList<DHCPBinding> newAvailableBindings;
+				synchronized(instance.pool) {
+					// Check the leases that came due since the last patrol to see if they are expired
+					// If a lease is expired, then clean it up and make the binding available
+					newAvailableBindings = instance.pool.cleanExpiredLeases();
+				}
+				for (DHCPBinding binding : newAvailableBindings) {
+					log.info("MAC " + binding.getMACAddress().toString() + " has expired");
+					log.info("Lease now available for IP " + binding.getIPv4Address().toString());
+				}
 			}
 		}
 	} // END DHCPLeasePolice Class
+
+	/**
+	 * DHCPLeaseStore writes each active lease to the storage source, and
+	 * removes it from there once it is cancelled or expires, so that the
+	 * leases can be restored when the controller restarts. The writes are
+	 * asynchronous so that answering the clients does not wait for them.
+	 */
+	class DHCPLeaseStore implements DHCPPool.ILeaseListener {
+		@Override
+		public void leaseChanged(DHCPPool pool, DHCPBinding binding) {
+			String ip = binding.getIPv4Address().toString();
+			if (binding.isActiveLease()) {
+				Map<String, Object> row = new HashMap<String, Object>();
+				row.put(COLUMN_IP, ip);
+				row.put(COLUMN_MAC, binding.getMACAddress().toString());
+				row.put(COLUMN_START_TIME, Long.toString(binding.getLeaseStartTimeSeconds()));
+				row.put(COLUMN_DURATION, Long.toString(binding.getLeaseDurationSeconds()));
+				storageSource.updateRowAsync(LEASE_TABLE_NAME, row);
+			} else {
+				storageSource.deleteRowAsync(LEASE_TABLE_NAME, ip);
+			}
+		}
+	} // END DHCPLeaseStore Class
 } // END DHCPServer Class
\ No newline at end of file
@@ -83,7 +83,9 @@ IFloodlightModule {
 	protected IRestApiService restApi;
 	protected static Logger logger;
 
-	protected List<FirewallRule> rules; // protected by synchronized
+	// copy-on-write, replaced together with the classifier in setRules()
+	protected volatile List<FirewallRule> rules;
+	protected volatile FirewallClassifier classifier;
 	protected boolean enabled;
 	protected IPv4Address subnet_mask = IPv4Address.of("255.255.255.0");
 
@@ -279,7 +281,7 @@ IFloodlightModule {
 		floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
 		storageSource = context.getServiceImpl(IStorageSourceService.class);
 		restApi = context.getServiceImpl(IRestApiService.class);
-		rules = new ArrayList<FirewallRule>();
+		setRules(new ArrayList<FirewallRule>());
 		logger = LoggerFactory.getLogger(Firewall.class);
 
 		// start disabled
@@ -297,7 +299,7 @@ IFloodlightModule {
 		// storage, create table and read rules
 		storageSource.createTable(TABLE_NAME, null);
 		storageSource.setTablePrimaryKeyName(TABLE_NAME, COLUMN_RULEID);
-		this.rules = readRulesFromStorage();
+		setRules(readRulesFromStorage());
 	}
 
 	@Override
@@ -332,6 +334,19 @@ IFloodlightModule {
 		return this.rules;
 	}
 
+	/**
+	 * Publishes a new sorted rule list along with the classifier compiled
+	 * from it. Packet-in processing reads the classifier without locking,
+	 * so the list must not be modified once it has been published.
+	 * 
+	 * @param l
+	 *            the sorted list of rules
+	 */
+	protected synchronized void setRules(List<FirewallRule> l) {
+		this.classifier = new FirewallClassifier(l);
+		this.rules = Collections.unmodifiableList(l);
+	}
+
 	// Only used to serve REST GET
 	// Similar to readRulesFromStorage(), which actually checks and stores
 	// record into FirewallRule list
@@ -372,18 +387,20 @@ IFloodlightModule {
 		// may want to check conflict
 		rule.ruleid = rule.genID();
 
+		List<FirewallRule> l = new ArrayList<FirewallRule>(this.rules);
 		int i = 0;
 		// locate the position of the new rule in the sorted arraylist
-		for (i = 0; i < this.rules.size(); i++) {
-			if (this.rules.get(i).priority >= rule.priority)
+		for (i = 0; i < l.size(); i++) {
+			if (l.get(i).priority >= rule.priority)
 				break;
 		}
 		// now, add rule to the list
-		if (i <= this.rules.size()) {
-			this.rules.add(i, rule);
+		if (i <= l.size()) {
+			l.add(i, rule);
 		} else {
-			this.rules.add(rule);
+			l.add(rule);
 		}
+		setRules(l);
 		// add rule to database
 		Map<String, Object> entry = new HashMap<String, Object>();
 		entry.put(COLUMN_RULEID, Integer.toString(rule.ruleid));
@@ -416,12 +433,14 @@ IFloodlightModule {
 
 	@Override
 	public synchronized void deleteRule(int ruleid) {
-		Iterator<FirewallRule> iter = this.rules.iterator();
+		List<FirewallRule> l = new ArrayList<FirewallRule>(this.rules);
+		Iterator<FirewallRule> iter = l.iterator();
 		while (iter.hasNext()) {
 			FirewallRule r = iter.next();
 			if (r.ruleid == ruleid) {
 				// found the rule, now remove it
 				iter.remove();
+				setRules(l);
 				break;
 			}
 		}
@@ -449,7 +468,8 @@ IFloodlightModule {
 	 * rules of the opposite type). So, to ensure that wildcards are
 	 * appropriately set for different types of rules (allow vs. deny), separate
 	 * wildcards are maintained. Iteration is performed on the sorted list of
-	 * rules (sorted in decreasing order of priority).
+	 * rules (sorted in decreasing order of priority), using the compiled
+	 * {@link FirewallClassifier} to skip the rules that cannot apply.
 	 * 
 	 * @param sw
 	 *            the switch instance
@@ -465,22 +485,9 @@ IFloodlightModule {
 		Ethernet eth = IFloodlightProviderService.bcStore.get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
 		AllowDropPair adp = new AllowDropPair(sw.getOFFactory());
 
-		synchronized (rules) {
-			Iterator<FirewallRule> iter = this.rules.iterator();
-			FirewallRule rule = null;
-			// iterate through list to find a matching firewall rule
-			while (iter.hasNext()) {
-				// get next rule from list
-				rule = iter.next();
-
-				// check if rule matches
-				// AllowDropPair adp's allow and drop matches will modified with what matches
-				if (rule.matchesThisPacket(sw.getId(), (pi.getVersion().compareTo(OFVersion.OF_12) < 0 ? pi.getInPort() : pi.getMatch().get(MatchField.IN_PORT)), eth, adp) == true) {
-					matched_rule = rule;
-					break;
-				}
-			}
-		}
+		// find the first matching firewall rule in the current snapshot
+		// AllowDropPair adp's allow and drop matches will be modified with what matches
+		matched_rule = this.classifier.match(sw.getId(), (pi.getVersion().compareTo(OFVersion.OF_12) < 0 ? pi.getInPort() : pi.getMatch().get(MatchField.IN_PORT)), eth, adp);
 
 		// make a pair of rule and wildcards, then return it
 		RuleMatchPair rmp = new RuleMatchPair();
@@ -0,0 +1,276 @@
+/**
+ *    Copyright 2011, Big Switch Networks, Inc.
+ *    Originally created by Amer Tahir
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.firewall;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * An immutable classifier compiled from a sorted list of firewall rules.
+ * A new classifier is built whenever the rule set changes, so lookups
+ * need no locking.
+ *
+ * The result of a lookup must be exactly the one of walking the sorted
+ * list with {@link FirewallRule#matchesThisPacket}, including the allow
+ * and drop matches that rules accumulate into the {@link AllowDropPair}
+ * as they are evaluated.  A rule that fails on a field after it has
+ * narrowed the pair still affects the result, so a rule may only be
+ * skipped if it fails before it touches the pair:
+ * <ul>
+ * <li>rules are grouped by switch and input port, which are always
+ * checked first, and a lookup only merges the (at most four) groups
+ * that can apply to the packet;</li>
+ * <li>each remaining rule carries a guard with the MAC address and
+ * ethertype checks that come before its first change to the pair, which
+ * rejects it with a few primitive comparisons.</li>
+ * </ul>
+ * Any rule that passes both is evaluated with matchesThisPacket.
+ */
+public class FirewallClassifier {
+	private static final CompiledRule[] NO_RULES = new CompiledRule[0];
+
+	private final PortTable anyDpid;
+	private final Map<DatapathId, PortTable> byDpid;
+	private final int size;
+
+	/**
+	 * Compile a classifier
+	 * @param rules the firewall rules, sorted in the order in which they
+	 *        must be evaluated
+	 */
+	public FirewallClassifier(List<FirewallRule> rules) {
+		PortTableBuilder any = new PortTableBuilder();
+		Map<DatapathId, PortTableBuilder> dpids =
+				new HashMap<DatapathId, PortTableBuilder>();
+		int count = 0;
+		for (int i = 0; i < rules.size(); i++) {
+			CompiledRule cr = CompiledRule.compile(i, rules.get(i));
+			if (cr == null) continue;
+			FirewallRule r = cr.rule;
+
+			PortTableBuilder t = any;
+			if (r.any_dpid == false) {
+				t = dpids.get(r.dpid);
+				if (t == null) {
+					t = new PortTableBuilder();
+					dpids.put(r.dpid, t);
+				}
+			}
+			t.add(cr);
+			count += 1;
+		}
+
+		this.anyDpid = any.build();
+		this.byDpid = new HashMap<DatapathId, PortTable>();
+		for (Map.Entry<DatapathId, PortTableBuilder> e : dpids.entrySet()) {
+			byDpid.put(e.getKey(), e.getValue().build());
+		}
+		this.size = count;
+	}
+
+	/**
+	 * Get the number of rules that can match some packet
+	 * @return the number of rules
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find the first rule that matches a packet
+	 * @param switchDpid the switch the packet arrived on
+	 * @param inPort the port the packet arrived on
+	 * @param packet the packet
+	 * @param adp the allow and drop matches, narrowed as rules are
+	 *        evaluated
+	 * @return the matching rule, or null if no rule matches
+	 * @see FirewallRule#matchesThisPacket(DatapathId, OFPort, Ethernet,
+	 *      AllowDropPair)
+	 */
+	public FirewallRule match(DatapathId switchDpid, OFPort inPort,
+			Ethernet packet, AllowDropPair adp) {
+		CompiledRule[][] groups = new CompiledRule[4][];
+		int n = 0;
+		n = anyDpid.getGroups(inPort, groups, n);
+		PortTable t = byDpid.get(switchDpid);
+		if (t != null) {
+			n = t.getGroups(inPort, groups, n);
+		}
+		if (n == 0) return null;
+
+		long dlSrc = packet.getSourceMACAddress().getLong();
+		long dlDst = packet.getDestinationMACAddress().getLong();
+		int dlType = packet.getEtherType().getValue();
+
+		if (n == 1) {
+			for (CompiledRule cr : groups[0]) {
+				if (cr.accepts(dlSrc, dlDst, dlType) &&
+						cr.rule.matchesThisPacket(switchDpid, inPort, packet, adp)) {
+					return cr.rule;
+				}
+			}
+			return null;
+		}
+
+		// merge the groups back into rule order
+		int[] pos = new int[n];
+		while (true) {
+			int best = -1;
+			for (int i = 0; i < n; i++) {
+				if (pos[i] < groups[i].length &&
+						(best < 0 ||
+						groups[i][pos[i]].index < groups[best][pos[best]].index)) {
+					best = i;
+				}
+			}
+			if (best < 0) return null;
+			CompiledRule cr = groups[best][pos[best]++];
+			if (cr.accepts(dlSrc, dlDst, dlType) &&
+					cr.rule.matchesThisPacket(switchDpid, inPort, packet, adp)) {
+				return cr.rule;
+			}
+		}
+	}
+
+	/**
+	 * A rule with the checks it makes before it changes the allow/drop
+	 * pair, in primitive form
+	 */
+	private static class CompiledRule {
+		final int index;
+		final FirewallRule rule;
+		final boolean checkDlSrc;
+		final long dlSrc;
+		final boolean checkDlDst;
+		final long dlDst;
+		final int dlType;
+
+		private CompiledRule(int index, FirewallRule rule,
+				boolean checkDlSrc, boolean checkDlDst, int dlType) {
+			this.index = index;
+			this.rule = rule;
+			this.checkDlSrc = checkDlSrc;
+			this.dlSrc = checkDlSrc ? rule.dl_src.getLong() : 0;
+			this.checkDlDst = checkDlDst;
+			this.dlDst = checkDlDst ? rule.dl_dst.getLong() : 0;
+			this.dlType = dlType;
+		}
+
+		/**
+		 * Compile a rule, following the order of the checks in
+		 * matchesThisPacket
+		 * @param index the position of the rule in the sorted list
+		 * @param r the rule
+		 * @return the compiled rule, or null if the rule can never match
+		 *         nor change the allow/drop pair
+		 */
+		static CompiledRule compile(int index, FirewallRule r) {
+			// the input port is narrowed once it has been checked
+			boolean pure = OFPort.ANY.equals(r.in_port);
+			boolean checkDlSrc = pure && r.any_dl_src == false;
+			pure = pure && MacAddress.NONE.equals(r.dl_src);
+			boolean checkDlDst = pure && r.any_dl_dst == false;
+			pure = pure && MacAddress.NONE.equals(r.dl_dst);
+
+			int dlType = -1;
+			if (pure && r.any_dl_type == false) {
+				if (r.dl_type.equals(EthType.ARP) ||
+						r.dl_type.equals(EthType.IPv4)) {
+					dlType = r.dl_type.getValue();
+				} else {
+					// other ethertypes are not supported and never match
+					return null;
+				}
+			}
+			return new CompiledRule(index, r, checkDlSrc, checkDlDst, dlType);
+		}
+
+		/**
+		 * Check the fields of a packet against the guard
+		 * @return false if the rule cannot match the packet
+		 */
+		boolean accepts(long packetDlSrc, long packetDlDst,
+				int packetDlType) {
+			if (checkDlSrc && dlSrc != packetDlSrc) return false;
+			if (checkDlDst && dlDst != packetDlDst) return false;
+			if (dlType >= 0 && dlType != packetDlType) return false;
+			return true;
+		}
+	}
+
+	/**
+	 * The rules for one switch (or for any switch), grouped by input port
+	 */
+	private static class PortTable {
+		final CompiledRule[] anyPort;
+		final Map<OFPort, CompiledRule[]> byPort;
+
+		PortTable(CompiledRule[] anyPort, Map<OFPort, CompiledRule[]> byPort) {
+			this.anyPort = anyPort;
+			this.byPort = byPort;
+		}
+
+		int getGroups(OFPort inPort, CompiledRule[][] groups, int n) {
+			if (anyPort.length > 0) {
+				groups[n++] = anyPort;
+			}
+			CompiledRule[] port = byPort.get(inPort);
+			if (port != null) {
+				groups[n++] = port;
+			}
+			return n;
+		}
+	}
+
+	private static class PortTableBuilder {
+		final List<CompiledRule> anyPort = new ArrayList<CompiledRule>();
+		final Map<OFPort, List<CompiledRule>> byPort =
+				new HashMap<OFPort, List<CompiledRule>>();
+
+		void add(CompiledRule cr) {
+			if (cr.rule.any_in_port) {
+				anyPort.add(cr);
+				return;
+			}
+			List<CompiledRule> l = byPort.get(cr.rule.in_port);
+			if (l == null) {
+				l = new ArrayList<CompiledRule>();
+				byPort.put(cr.rule.in_port, l);
+			}
+			l.add(cr);
+		}
+
+		PortTable build() {
+			Map<OFPort, CompiledRule[]> ports =
+					new HashMap<OFPort, CompiledRule[]>();
+			for (Map.Entry<OFPort, List<CompiledRule>> e : byPort.entrySet()) {
+				ports.put(e.getKey(), e.getValue().toArray(NO_RULES));
+			}
+			return new PortTable(anyPort.toArray(NO_RULES), ports);
+		}
+	}
+}
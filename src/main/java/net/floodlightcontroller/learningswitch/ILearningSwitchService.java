@@ -26,7 +26,7 @@ import net.floodlightcontroller.core.types.MacVlanPair;
 
 public interface ILearningSwitchService extends IFloodlightService {
     /**
-     * Returns the LearningSwitch's learned host table
+     * Returns a snapshot of the LearningSwitch's learned host table
      * @return The learned host table
      */
     public Map<IOFSwitch, Map<MacVlanPair, OFPort>> getTable();
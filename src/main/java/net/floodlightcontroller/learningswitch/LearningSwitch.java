@@ -31,13 +31,13 @@ package net.floodlightcontroller.learningswitch;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -73,7 +73,6 @@ import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.OFVlanVidMatch;
 import org.projectfloodlight.openflow.types.U64;
 import org.projectfloodlight.openflow.types.VlanVid;
-import org.projectfloodlight.openflow.util.LRULinkedHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -88,10 +87,12 @@ implements IFloodlightModule, ILearningSwitchService, IOFMessageListener {
 	protected IDebugCounterService debugCounterService;
 	private IDebugCounter counterFlowMod;
 	private IDebugCounter counterPacketOut;
-
+	private IDebugCounter counterTableHit;
+	private IDebugCounter counterTableMiss;
+	private IDebugCounter counterTableEviction;
 
 	// Stores the learned state for each switch
-	protected Map<IOFSwitch, Map<MacVlanPair, OFPort>> macVlanToSwitchPortMap;
+	protected ConcurrentMap<IOFSwitch, MacVlanTable> macVlanToSwitchPortMap;
 
 	// flow-mod - for use in the cookie
 	public static final int LEARNING_SWITCH_APP_ID = 1;
@@ -108,6 +109,7 @@ implements IFloodlightModule, ILearningSwitchService, IOFMessageListener {
 
 	// for managing our map sizes
 	protected static final int MAX_MACS_PER_SWITCH  = 1000;
+	protected int maxMacsPerSwitch = MAX_MACS_PER_SWITCH;
 
 	// normally, setup reverse flow as well. Disable only for using cbench for comparison with NOX etc.
 	protected static final boolean LEARNING_SWITCH_REVERSE_FLOW = true;
@@ -132,18 +134,23 @@ implements IFloodlightModule, ILearningSwitchService, IOFMessageListener {
 	 * @param portVal The switchport that the host is on
 	 */
 	protected void addToPortMap(IOFSwitch sw, MacAddress mac, VlanVid vlan, OFPort portVal) {
-		Map<MacVlanPair, OFPort> swMap = macVlanToSwitchPortMap.get(sw);
+		MacVlanTable swMap = macVlanToSwitchPortMap.get(sw);
 
 		if (vlan == VlanVid.FULL_MASK || vlan == null) {
 			vlan = VlanVid.ofVlan(0);
 		}
 
 		if (swMap == null) {
-			// May be accessed by REST API so we need to make it thread safe
-			swMap = Collections.synchronizedMap(new LRULinkedHashMap<MacVlanPair, OFPort>(MAX_MACS_PER_SWITCH));
-			macVlanToSwitchPortMap.put(sw, swMap);
+			// May be accessed by REST API, and by several packet-in threads
+			MacVlanTable newMap = new MacVlanTable(maxMacsPerSwitch);
+			swMap = macVlanToSwitchPortMap.putIfAbsent(sw, newMap);
+			if (swMap == null) {
+				swMap = newMap;
+			}
+		}
+		if (swMap.put(mac, vlan, portVal)) {
+			counterTableEviction.increment();
 		}
-		swMap.put(new MacVlanPair(mac, vlan), portVal);
 	}
 
 	/**
@@ -153,13 +160,13 @@ implements IFloodlightModule, ILearningSwitchService, IOFMessageListener {
 	 * @param vlan The VLAN that the host is on
 	 */
 	protected void removeFromPortMap(IOFSwitch sw, MacAddress mac, VlanVid vlan) {
-		if (vlan == VlanVid.FULL_MASK) {
+		if (vlan == VlanVid.FULL_MASK || vlan == null) {
 			vlan = VlanVid.ofVlan(0);
 		}
 
-		Map<MacVlanPair, OFPort> swMap = macVlanToSwitchPortMap.get(sw);
+		MacVlanTable swMap = macVlanToSwitchPortMap.get(sw);
 		if (swMap != null) {
-			swMap.remove(new MacVlanPair(mac, vlan));
+			swMap.remove(mac, vlan);
 		}
 	}
 
@@ -174,13 +181,15 @@ implements IFloodlightModule, ILearningSwitchService, IOFMessageListener {
 		if (vlan == VlanVid.FULL_MASK || vlan == null) {
 			vlan = VlanVid.ofVlan(0);
 		}
-		Map<MacVlanPair, OFPort> swMap = macVlanToSwitchPortMap.get(sw);
-		if (swMap != null) {
-			return swMap.get(new MacVlanPair(mac, vlan));
+		MacVlanTable swMap = macVlanToSwitchPortMap.get(sw);
+		OFPort port = (swMap != null) ? swMap.get(mac, vlan) : null;
+		if (port != null) {
+			counterTableHit.increment();
+		} else {
+			// if none found
+			counterTableMiss.increment();
 		}
-
-		// if none found
-		return null;
+		return port;
 	}
 
 	/**
@@ -195,15 +204,19 @@ implements IFloodlightModule, ILearningSwitchService, IOFMessageListener {
 	 * @param sw The switch to clear the mapping for
 	 */
 	public void clearLearnedTable(IOFSwitch sw) {
-		Map<MacVlanPair, OFPort> swMap = macVlanToSwitchPortMap.get(sw);
+		MacVlanTable swMap = macVlanToSwitchPortMap.get(sw);
 		if (swMap != null) {
 			swMap.clear();
 		}
 	}
 
 	@Override
-	public synchronized Map<IOFSwitch, Map<MacVlanPair, OFPort>> getTable() {
-		return macVlanToSwitchPortMap;
+	public Map<IOFSwitch, Map<MacVlanPair, OFPort>> getTable() {
+		Map<IOFSwitch, Map<MacVlanPair, OFPort>> table = new HashMap<IOFSwitch, Map<MacVlanPair, OFPort>>();
+		for (Map.Entry<IOFSwitch, MacVlanTable> entry : macVlanToSwitchPortMap.entrySet()) {
+			table.put(entry.getKey(), entry.getValue().toMap());
+		}
+		return table;
 	}
 
 	/**
@@ -557,7 +570,7 @@ implements IFloodlightModule, ILearningSwitchService, IOFMessageListener {
 
 	@Override
 	public void init(FloodlightModuleContext context) throws FloodlightModuleException {
-		macVlanToSwitchPortMap = new ConcurrentHashMap<IOFSwitch, Map<MacVlanPair, OFPort>>();
+		macVlanToSwitchPortMap = new ConcurrentHashMap<IOFSwitch, MacVlanTable>();
 		floodlightProviderService = context.getServiceImpl(IFloodlightProviderService.class);
 		debugCounterService = context.getServiceImpl(IDebugCounterService.class);
 		restApiService = context.getServiceImpl(IRestApiService.class);
@@ -600,12 +613,30 @@ implements IFloodlightModule, ILearningSwitchService, IOFMessageListener {
 					"using default of {}",
 					FLOWMOD_PRIORITY);
 		}
+		try {
+			String maxMacs = configOptions.get("maxmacsperswitch");
+			if (maxMacs != null) {
+				int value = Integer.parseInt(maxMacs);
+				if (value <= 0) {
+					throw new NumberFormatException(maxMacs);
+				}
+				maxMacsPerSwitch = value;
+			}
+		} catch (NumberFormatException e) {
+			log.warn("Error parsing MAC table size, " +
+					"using default of {} entries per switch",
+					MAX_MACS_PER_SWITCH);
+		}
 		log.debug("FlowMod idle timeout set to {} seconds", FLOWMOD_DEFAULT_IDLE_TIMEOUT);
 		log.debug("FlowMod hard timeout set to {} seconds", FLOWMOD_DEFAULT_HARD_TIMEOUT);
 		log.debug("FlowMod priority set to {}", FLOWMOD_PRIORITY);
+		log.debug("MAC table size set to {} entries per switch", maxMacsPerSwitch);
 
 		debugCounterService.registerModule(this.getName());
 		counterFlowMod = debugCounterService.registerCounter(this.getName(), "flow-mods-written", "Flow mods written to switches by LearningSwitch", MetaData.WARN);
 		counterPacketOut = debugCounterService.registerCounter(this.getName(), "packet-outs-written", "Packet outs written to switches by LearningSwitch", MetaData.WARN);
+		counterTableHit = debugCounterService.registerCounter(this.getName(), "mac-table-hits", "Destinations found in the learned MAC tables");
+		counterTableMiss = debugCounterService.registerCounter(this.getName(), "mac-table-misses", "Destinations not found in the learned MAC tables");
+		counterTableEviction = debugCounterService.registerCounter(this.getName(), "mac-table-evictions", "Hosts evicted from full learned MAC tables", MetaData.WARN);
 	}
 }
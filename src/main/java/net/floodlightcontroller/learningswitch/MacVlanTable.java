@@ -0,0 +1,324 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.learningswitch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.floodlightcontroller.core.types.MacVlanPair;
+
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.VlanVid;
+
+/**
+ * A bounded MAC/VLAN -> port table for one switch.
+ *
+ * The MAC and VLAN are packed into one long (48 + 12 bits) and kept in
+ * open-addressed arrays, so a lookup allocates nothing. The table is split
+ * into segments with a lock each, so lookups and learning on different hosts
+ * rarely wait on each other; only the total size is shared. When the table is
+ * full the entry to evict is chosen by CLOCK in the segment of the new host:
+ * a lookup marks its entry as referenced, and the clock hand of the segment
+ * skips (and clears) referenced entries, so hosts that are still sending stay
+ * in the table.
+ */
+public class MacVlanTable {
+	private static final long EMPTY = -1L; // not a valid packed key
+	private static final int ENTRIES_PER_SEGMENT = 64;
+	private static final int MAX_SEGMENTS = 16;
+
+	// results of Segment.put
+	private static final int UPDATED = 0;
+	private static final int ADDED = 1;
+	private static final int REPLACED = 2;
+
+	private final Segment[] segments;
+	private final int segmentShift;
+	private final int capacity;
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * @param capacity the most entries the table holds
+	 */
+	public MacVlanTable(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		int n = 1;
+		while (n < MAX_SEGMENTS && n * 2 * ENTRIES_PER_SEGMENT <= capacity) {
+			n *= 2;
+		}
+		this.capacity = capacity;
+		this.segments = new Segment[n];
+		this.segmentShift = 64 - Integer.numberOfTrailingZeros(n);
+		for (int i = 0; i < n; i++) {
+			segments[i] = new Segment(capacity / n);
+		}
+	}
+
+	/**
+	 * Pack a MAC and VLAN into a key
+	 */
+	public static long pack(MacAddress mac, VlanVid vlan) {
+		return (mac.getLong() << 12) | (vlan.getVlan() & 0xfff);
+	}
+
+	private static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	private Segment segmentFor(long hash) {
+		return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+	}
+
+	/**
+	 * Get the port of a host, and mark the host as recently used
+	 * @return the port, or null if the host is not known
+	 */
+	public OFPort get(MacAddress mac, VlanVid vlan) {
+		long key = pack(mac, vlan);
+		long h = hash(key);
+		return segmentFor(h).get(key, (int) h);
+	}
+
+	/**
+	 * Learn the port of a host, evicting a host that has not been used
+	 * lately if the table is full
+	 * @return true if a host was evicted to make room
+	 */
+	public boolean put(MacAddress mac, VlanVid vlan, OFPort port) {
+		long key = pack(mac, vlan);
+		long h = hash(key);
+		int result = segmentFor(h).put(key, (int) h, port, size.get() >= capacity);
+		if (result != ADDED) {
+			return result == REPLACED;
+		}
+		if (size.incrementAndGet() > capacity) {
+			// the segment of the new host was empty, or another host got in first
+			for (Segment s : segments) {
+				if (s.evict()) {
+					size.decrementAndGet();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Forget a host
+	 */
+	public void remove(MacAddress mac, VlanVid vlan) {
+		long key = pack(mac, vlan);
+		long h = hash(key);
+		if (segmentFor(h).remove(key, (int) h)) {
+			size.decrementAndGet();
+		}
+	}
+
+	public void clear() {
+		for (Segment s : segments) {
+			size.addAndGet(-s.clear());
+		}
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return a copy of the entries of the table
+	 */
+	public Map<MacVlanPair, OFPort> toMap() {
+		Map<MacVlanPair, OFPort> map = new HashMap<MacVlanPair, OFPort>();
+		for (Segment s : segments) {
+			s.copyTo(map);
+		}
+		return map;
+	}
+
+	/**
+	 * A linear-probing hash table kept at most half full
+	 */
+	private static class Segment {
+		private int mask;
+		private long[] keys;
+		private OFPort[] ports;
+		private boolean[] referenced;
+		private int size;
+		private int hand;
+
+		Segment(int expectedEntries) {
+			allocate(Integer.highestOneBit(Math.max(1, expectedEntries) * 2 - 1) << 1);
+		}
+
+		private void allocate(int slots) {
+			mask = slots - 1;
+			keys = new long[slots];
+			ports = new OFPort[slots];
+			referenced = new boolean[slots];
+			Arrays.fill(keys, EMPTY);
+		}
+
+		private int indexOf(long key, int h) {
+			for (int i = h & mask; ; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return i;
+				}
+				if (keys[i] == EMPTY) {
+					return -1;
+				}
+			}
+		}
+
+		private void insert(long key, OFPort port, boolean ref) {
+			int i = (int) hash(key) & mask;
+			while (keys[i] != EMPTY) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			ports[i] = port;
+			referenced[i] = ref;
+		}
+
+		synchronized OFPort get(long key, int h) {
+			int i = indexOf(key, h);
+			if (i < 0) {
+				return null;
+			}
+			referenced[i] = true;
+			return ports[i];
+		}
+
+		synchronized int put(long key, int h, OFPort port, boolean full) {
+			int i = indexOf(key, h);
+			if (i >= 0) {
+				ports[i] = port;
+				referenced[i] = true;
+				return UPDATED;
+			}
+			boolean replaced = full && evict();
+			if ((size + 1) * 2 > mask + 1) {
+				grow();
+			}
+			// new hosts must be used once to outlive the next sweep
+			insert(key, port, false);
+			size++;
+			return replaced ? REPLACED : ADDED;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			OFPort[] oldPorts = ports;
+			boolean[] oldReferenced = referenced;
+			allocate(keys.length * 2);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY) {
+					insert(oldKeys[i], oldPorts[i], oldReferenced[i]);
+				}
+			}
+			hand = 0;
+		}
+
+		synchronized boolean remove(long key, int h) {
+			int i = indexOf(key, h);
+			if (i < 0) {
+				return false;
+			}
+			delete(i);
+			return true;
+		}
+
+		synchronized int clear() {
+			int removed = size;
+			Arrays.fill(keys, EMPTY);
+			Arrays.fill(ports, null);
+			Arrays.fill(referenced, false);
+			size = 0;
+			hand = 0;
+			return removed;
+		}
+
+		synchronized void copyTo(Map<MacVlanPair, OFPort> map) {
+			for (int i = 0; i <= mask; i++) {
+				if (keys[i] != EMPTY) {
+					map.put(new MacVlanPair(MacAddress.of(keys[i] >>> 12),
+							VlanVid.ofVlan((int) (keys[i] & 0xfff))), ports[i]);
+				}
+			}
+		}
+
+		/**
+		 * Advance the clock hand to the first entry that has not been
+		 * referenced since the hand last passed it, and delete it
+		 * @return false if the segment is empty
+		 */
+		synchronized boolean evict() {
+			if (size == 0) {
+				return false;
+			}
+			while (true) {
+				int i = hand;
+				hand = (hand + 1) & mask;
+				if (keys[i] == EMPTY) {
+					continue;
+				}
+				if (referenced[i]) {
+					referenced[i] = false;
+				} else {
+					delete(i);
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Delete slot i, moving back the entries after it that would no
+		 * longer be found past the hole
+		 */
+		private void delete(int i) {
+			int hole = i;
+			for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+				int home = (int) hash(keys[j]) & mask;
+				// move j into the hole unless its home lies cyclically in (hole, j]
+				boolean stays = (hole <= j) ? (hole < home && home <= j) : (hole < home || home <= j);
+				if (!stays) {
+					keys[hole] = keys[j];
+					ports[hole] = ports[j];
+					referenced[hole] = referenced[j];
+					hole = j;
+				}
+			}
+			keys[hole] = EMPTY;
+			ports[hole] = null;
+			referenced[hole] = false;
+			size--;
+		}
+	}
+}
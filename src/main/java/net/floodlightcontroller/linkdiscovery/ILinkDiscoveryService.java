@@ -50,6 +50,14 @@ public interface ILinkDiscoveryService extends IFloodlightService {
      */
     public LinkInfo getLinkInfo(Link link);
 
+    /**
+     * Retrieves the measured one-way latency of a given link
+     * @param link link for which the latency should be returned
+     * @return the smoothed latency in microseconds, or null if the link
+     *         is unknown or has not been measured yet
+     */
+    public Long getLinkLatency(Link link);
+
     /**
      * Returns link type of a given link
      * @param info
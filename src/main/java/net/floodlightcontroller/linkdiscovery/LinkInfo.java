@@ -46,11 +46,13 @@ public class LinkInfo {
         this.firstSeenTime = fromLinkInfo.getFirstSeenTime();
         this.lastLldpReceivedTime = fromLinkInfo.getUnicastValidTime();
         this.lastBddpReceivedTime = fromLinkInfo.getMulticastValidTime();
+        this.latency = fromLinkInfo.getLatency();
     }
 
     protected Date firstSeenTime;
     protected Date lastLldpReceivedTime; /* Standard LLLDP received time */
     protected Date lastBddpReceivedTime; /* Modified LLDP received time  */
+    protected Long latency; /* Smoothed one-way latency in microseconds */
 
     /** The port states stored here are topology's last knowledge of
      * the state of the port. This mostly mirrors the state
@@ -86,6 +88,19 @@ public class LinkInfo {
         this.lastBddpReceivedTime = multicastValidTime;
     }
 
+    /**
+     * The smoothed one-way latency of the link, measured from LLDP round
+     * trips with the control channel latency of both switches subtracted.
+     * @return the latency in microseconds, or null if not measured yet
+     */
+    public Long getLatency() {
+        return latency;
+    }
+
+    public void setLatency(Long latency) {
+        this.latency = latency;
+    }
+
     @JsonIgnore
     public LinkType getLinkType() {
         if (lastLldpReceivedTime != null) {
@@ -151,6 +166,7 @@ public class LinkInfo {
     public String toString() {
         return "LinkInfo [unicastValidTime=" + ((lastLldpReceivedTime == null) ? "null" : lastLldpReceivedTime.getTime())
                 + ", multicastValidTime=" + ((lastBddpReceivedTime == null) ? "null" : lastBddpReceivedTime.getTime())
+                + ", latency=" + ((latency == null) ? "null" : latency)
                 + "]";
     }
 }
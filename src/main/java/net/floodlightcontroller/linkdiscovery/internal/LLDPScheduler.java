@@ -0,0 +1,230 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.linkdiscovery.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Spreads periodic LLDP probes of all switch ports uniformly over the
+ * discovery interval instead of sending them in one burst.
+ *
+ * Ports are kept in a timing wheel with one slot per tick. Every port gets
+ * a random phase offset (its slot) when it is added, and is probed once per
+ * revolution of the wheel. Ports that recently had a port status change are
+ * probed at a shorter interval for a while. The number of probes released
+ * per tick is capped per switch and globally; ports over budget are deferred
+ * to the next tick.
+ *
+ * All methods are synchronized; the scheduler is polled from the discovery
+ * task and updated from the switch listener callbacks.
+ */
+class LLDPScheduler {
+    private final long tickMs;
+    private final int numSlots;
+    private final int fastSlots;
+    private final long fastDurationMs;
+    private final int globalBudgetPerTick;
+    private final int switchBudgetPerTick;
+
+    private final List<Set<NodePortTuple>> wheel;
+    private final Map<NodePortTuple, Integer> portSlots;
+    private final Map<NodePortTuple, Long> fastUntil;
+    private final Random random;
+
+    private int currentSlot;
+    private long nextTickTime;
+
+    /**
+     * @param intervalMs the regular probe interval for a port
+     * @param tickMs the scheduler tick, i.e. how often it is polled
+     * @param fastIntervalMs the probe interval for recently changed ports
+     * @param fastDurationMs how long a port stays at the fast interval
+     * @param maxProbesPerSecond global probe rate cap
+     * @param maxProbesPerSecondPerSwitch per switch probe rate cap
+     */
+    LLDPScheduler(long intervalMs, long tickMs, long fastIntervalMs,
+                  long fastDurationMs, int maxProbesPerSecond,
+                  int maxProbesPerSecondPerSwitch) {
+        this.tickMs = tickMs;
+        this.numSlots = (int) Math.max(1, intervalMs / tickMs);
+        this.fastSlots = (int) Math.min(numSlots,
+                Math.max(1, fastIntervalMs / tickMs));
+        this.fastDurationMs = fastDurationMs;
+        this.globalBudgetPerTick = budgetPerTick(maxProbesPerSecond, tickMs);
+        this.switchBudgetPerTick =
+                budgetPerTick(maxProbesPerSecondPerSwitch, tickMs);
+
+        this.wheel = new ArrayList<Set<NodePortTuple>>(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            wheel.add(new LinkedHashSet<NodePortTuple>());
+        }
+        this.portSlots = new HashMap<NodePortTuple, Integer>();
+        this.fastUntil = new HashMap<NodePortTuple, Long>();
+        this.random = new Random();
+        this.currentSlot = 0;
+        this.nextTickTime = -1;
+    }
+
+    private static int budgetPerTick(int perSecond, long tickMs) {
+        return (int) Math.max(1, (perSecond * tickMs + 999) / 1000);
+    }
+
+    /**
+     * Add a port to the schedule at a random phase offset. Adding a port
+     * that is already scheduled has no effect.
+     * @param npt
+     */
+    synchronized void addPort(NodePortTuple npt) {
+        if (portSlots.containsKey(npt)) return;
+        place(npt, random.nextInt(numSlots));
+    }
+
+    /**
+     * Note a port status change. The port is probed on the next tick and
+     * then at the fast interval until the fast period expires.
+     * @param npt
+     * @param now current time in milliseconds
+     */
+    synchronized void portChanged(NodePortTuple npt, long now) {
+        fastUntil.put(npt, now + fastDurationMs);
+        unplace(npt);
+        place(npt, currentSlot);
+    }
+
+    synchronized void removePort(NodePortTuple npt) {
+        unplace(npt);
+        fastUntil.remove(npt);
+    }
+
+    synchronized void removeSwitch(DatapathId sw) {
+        Iterator<NodePortTuple> it = portSlots.keySet().iterator();
+        while (it.hasNext()) {
+            NodePortTuple npt = it.next();
+            if (npt.getNodeId().equals(sw)) {
+                wheel.get(portSlots.get(npt)).remove(npt);
+                fastUntil.remove(npt);
+                it.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return portSlots.size();
+    }
+
+    /**
+     * Advance the wheel to the given time and return the ports that are due
+     * for a probe, grouped by switch in a stable order. Ports that exceed
+     * the per switch or global budget stay scheduled for the next tick.
+     * @param now current time in milliseconds
+     * @return due ports by switch
+     */
+    synchronized Map<DatapathId, List<OFPort>> poll(long now) {
+        Map<DatapathId, List<OFPort>> due =
+                new LinkedHashMap<DatapathId, List<OFPort>>();
+        if (nextTickTime < 0) {
+            nextTickTime = now;
+        }
+
+        // Catch up on all elapsed ticks, but never go around more than once.
+        List<NodePortTuple> candidates = new ArrayList<NodePortTuple>();
+        List<Integer> candidateSlots = new ArrayList<Integer>();
+        int ticks = 0;
+        while (now >= nextTickTime && ticks < numSlots) {
+            Set<NodePortTuple> slot = wheel.get(currentSlot);
+            for (NodePortTuple npt : slot) {
+                candidates.add(npt);
+                candidateSlots.add(currentSlot);
+            }
+            slot.clear();
+            currentSlot = (currentSlot + 1) % numSlots;
+            nextTickTime += tickMs;
+            ticks++;
+        }
+        if (now >= nextTickTime) {
+            nextTickTime = now + tickMs;
+        }
+        if (candidates.isEmpty()) return due;
+
+        int globalBudget = globalBudgetPerTick * ticks;
+        int switchBudget = switchBudgetPerTick * ticks;
+        Map<DatapathId, Integer> switchCount = new HashMap<DatapathId, Integer>();
+        int count = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            NodePortTuple npt = candidates.get(i);
+            Integer swCount = switchCount.get(npt.getNodeId());
+            if (swCount == null) swCount = 0;
+            if (count >= globalBudget || swCount >= switchBudget) {
+                // over budget, retry on the next tick
+                place(npt, currentSlot);
+                continue;
+            }
+            switchCount.put(npt.getNodeId(), swCount + 1);
+            count++;
+
+            List<OFPort> ports = due.get(npt.getNodeId());
+            if (ports == null) {
+                ports = new ArrayList<OFPort>();
+                due.put(npt.getNodeId(), ports);
+            }
+            ports.add(npt.getPortId());
+            place(npt, nextSlot(npt, candidateSlots.get(i), now));
+        }
+        return due;
+    }
+
+    /**
+     * Slot of the next probe for a port that was just probed out of the
+     * given slot. A full interval ahead is the same slot, which the wheel
+     * has already advanced past.
+     */
+    private int nextSlot(NodePortTuple npt, int slot, long now) {
+        int period = numSlots;
+        Long until = fastUntil.get(npt);
+        if (until != null) {
+            if (now < until) {
+                period = fastSlots;
+            } else {
+                fastUntil.remove(npt);
+            }
+        }
+        return (slot + period) % numSlots;
+    }
+
+    private void place(NodePortTuple npt, int slot) {
+        portSlots.put(npt, slot);
+        wheel.get(slot).add(npt);
+    }
+
+    private void unplace(NodePortTuple npt) {
+        Integer slot = portSlots.remove(npt);
+        if (slot != null) {
+            wheel.get(slot).remove(npt);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.linkdiscovery.internal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+/**
+ * A pre-serialized LLDP or BDDP frame for a single switch port, already
+ * wrapped in a packet-out carrying the discovery actions for that port.
+ * The frame is built once per port; only the fields that vary between
+ * probes, the direction and the send timestamp, are patched when a
+ * packet-out is requested.
+ *
+ * A template is only valid as long as the port's hardware address and the
+ * switch's OpenFlow version are unchanged, see {@link #isValidFor}.
+ */
+class LLDPTemplate {
+    private final MacAddress hwAddr;
+    private final OFVersion version;
+    private final OFPacketOut forwardPacketOut;
+    private final byte[] frame;
+    private final int directionOffset;
+    private final byte reverseValue;
+    private final int timestampOffset;
+
+    /**
+     * @param hwAddr the port hardware address the frames were built with
+     * @param forwardPacketOut packet-out, including actions, carrying the
+     *        forward frame
+     * @param reverseFrame the same frame with the reverse direction TLV set
+     *
+     * Both frames must end with the 8 byte timestamp TLV value followed by
+     * the 2 byte end of LLDPDU TLV.
+     */
+    LLDPTemplate(MacAddress hwAddr, OFPacketOut forwardPacketOut,
+                 byte[] reverseFrame) {
+        this.hwAddr = hwAddr;
+        this.version = forwardPacketOut.getVersion();
+        this.forwardPacketOut = forwardPacketOut;
+        this.frame = forwardPacketOut.getData();
+
+        // The forward and reverse frames only differ in the direction TLV
+        // value, so the first differing byte is the one to patch.
+        int offset = -1;
+        for (int i = 0; i < frame.length && i < reverseFrame.length; i++) {
+            if (frame[i] != reverseFrame[i]) {
+                offset = i;
+                break;
+            }
+        }
+        if (offset < 0 || frame.length != reverseFrame.length) {
+            throw new IllegalArgumentException("Forward and reverse " +
+                    "discovery frames must differ only in the direction TLV");
+        }
+        this.directionOffset = offset;
+        this.reverseValue = reverseFrame[offset];
+        this.timestampOffset = frame.length - 2 - 8;
+    }
+
+    /**
+     * Check whether this template can still be used for the given port
+     * @param port the current port description
+     * @param version the switch's current OpenFlow version
+     * @return true if the template matches the port and version
+     */
+    boolean isValidFor(OFPortDesc port, OFVersion version) {
+        return this.version == version && hwAddr.equals(port.getHwAddr());
+    }
+
+    /**
+     * Get the packet-out for this port, a copy of the cached frame with the
+     * direction and timestamp patched in.
+     * @param isReverse whether the probe is sent in response to a received
+     *        LLDP
+     * @param timestamp the send time, from System.nanoTime()
+     * @return the packet-out to write to the switch
+     */
+    OFPacketOut getPacketOut(boolean isReverse, long timestamp) {
+        byte[] data = Arrays.copyOf(frame, frame.length);
+        if (isReverse) {
+            data[directionOffset] = reverseValue;
+        }
+        ByteBuffer.wrap(data).putLong(timestampOffset, timestamp);
+        return forwardPacketOut.createBuilder().setData(data).build();
+    }
+}
@@ -38,7 +38,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Lock;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.HAListenerTypeMarker;
@@ -110,6 +110,9 @@ import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.Striped;
+
 /**
  * This class sends out LLDP messages containing the sending switch's datapath
  * id as well as the outgoing port number. Received LLrescDP messages that match
@@ -122,8 +125,8 @@ import org.slf4j.LoggerFactory;
  * SwitchPortTuple matches the map key -switchLinks contains LinkTuples where
  * one of the src or dst SwitchPortTuple's id matches the switch id -Each
  * LinkTuple will be indexed into switchLinks for both src.id and dst.id, and
- * portLinks for each src and dst -The updates queue is only added to from
- * within a held write lock
+ * portLinks for each src and dst -The updates queue is only added to while
+ * holding the switch lock stripes of the affected link
  * 
  * @edited Ryan Izard, rizard@g.clemson.edu, ryan.izard@bigswitch.com
  */
@@ -193,12 +196,39 @@ IFloodlightModule, IInfoProvider {
 			.setLength(TLV_DIRECTION_LENGTH)
 			.setValue(TLV_DIRECTION_VALUE_REVERSE);
 
+	// The timestamp TLV carries the controller's System.nanoTime() at the
+	// time a probe is sent, under the OpenFlow OUI 00-26-E1 with subtype 1.
+	// It is always the last TLV before the end of LLDPDU so that it can be
+	// patched in place in the cached frames.
+	private static final byte TLV_TIMESTAMP_TYPE = 127;
+	private static final short TLV_TIMESTAMP_LENGTH = 12;
+	private static final byte TLV_TIMESTAMP_SUBTYPE = 0x01;
+
+	// Link latency estimates are smoothed with an EWMA giving each new
+	// sample a weight of 1/LATENCY_EWMA_WEIGHT.
+	protected static final int LATENCY_EWMA_WEIGHT = 8;
+
 	// Link discovery task details.
 	protected SingletonTask discoveryTask;
 	protected final int DISCOVERY_TASK_INTERVAL = 1;
 	protected final int LINK_TIMEOUT = 35; // timeout as part of LLDP process.
 	protected final int LLDP_TO_ALL_INTERVAL = 15; // 15 seconds.
-	protected long lldpClock = 0;
+	protected long lastLinkTimeoutCheck = 0;
+	// Echo requests measuring the control channel latency of each switch
+	// are sent every ECHO_INTERVAL seconds.
+	protected final int ECHO_INTERVAL = 5;
+	protected long lastEchoTime = 0;
+
+	// LLDP probes are spread over LLDP_TO_ALL_INTERVAL. The discovery task
+	// runs every LLDP_TICK_INTERVAL ms and sends the probes that are due.
+	protected final int LLDP_TICK_INTERVAL = 100; // 100 ms.
+	// Ports with a recent port status change are probed every
+	// LLDP_FAST_INTERVAL seconds for LLDP_FAST_DURATION seconds.
+	protected final int LLDP_FAST_INTERVAL = 1;
+	protected final int LLDP_FAST_DURATION = 10;
+	protected int LLDP_MAX_PROBES_PER_SECOND = 5000;
+	protected int LLDP_MAX_PROBES_PER_SECOND_PER_SWITCH = 500;
+	protected LLDPScheduler lldpScheduler;
 	// This value is intentionally kept higher than LLDP_TO_ALL_INTERVAL.
 	// If we want to identify link failures faster, we could decrease this
 	// value to a small number, say 1 or 2 sec.
@@ -206,7 +236,21 @@ IFloodlightModule, IInfoProvider {
 	// links
 
 	protected LLDPTLV controllerTLV;
-	protected ReentrantReadWriteLock lock;
+
+	/**
+	 * Link state is kept in concurrent maps. Changes to the links of a
+	 * switch are serialized by that switch's stripe; a link holds the
+	 * stripes of both its endpoint switches.
+	 */
+	protected static final int SWITCH_LOCK_STRIPES = 64;
+	protected Striped<Lock> switchLocks;
+
+	/**
+	 * Serialized LLDP and BDDP frames per switch port, rebuilt only when
+	 * the port's hardware address or the switch's OpenFlow version change.
+	 */
+	protected Map<NodePortTuple, LLDPTemplate> lldpTemplates;
+	protected Map<NodePortTuple, LLDPTemplate> bddpTemplates;
 	int lldpTimeCount = 0;
 
 	/**
@@ -231,6 +275,16 @@ IFloodlightModule, IInfoProvider {
 	 */
 	protected Map<NodePortTuple, Set<Link>> portLinks;
 
+	/**
+	 * Link writes and deletes waiting for the link storage task, keyed by
+	 * link. A later change of the same link replaces the pending one;
+	 * LINK_DELETED marks a pending delete.
+	 */
+	protected Map<Link, LinkInfo> pendingLinkWrites;
+	protected static final LinkInfo LINK_DELETED = new LinkInfo();
+	protected SingletonTask linkStorageTask;
+	protected final int LINK_STORAGE_TASK_INTERVAL = 100; // 100 ms.
+
 	protected volatile boolean shuttingDown = false;
 
 	/*
@@ -294,11 +348,99 @@ IFloodlightModule, IInfoProvider {
 		IOFSwitch iofSwitch = switchService.getSwitch(sw);
 		OFPortDesc ofpPort = iofSwitch.getPort(port);
 
+		// The service contract returns the bare packet-out; the discovery
+		// actions are only added when the message is sent by this module.
+		OFPacketOut po = getDiscoveryTemplate(iofSwitch, ofpPort, isStandard)
+				.getPacketOut(isReverse, System.nanoTime());
+		return po.createBuilder()
+				.setActions(Collections.<OFAction>emptyList())
+				.build();
+	}
+
+	/**
+	 * Get the cached discovery template for a switch port, building it if
+	 * the port has not been probed before or if its hardware address or the
+	 * switch's OpenFlow version changed since the template was built.
+	 *
+	 * @param iofSwitch
+	 * @param ofpPort
+	 * @param isStandard
+	 *            indicates standard LLDP or BDDP
+	 * @return the template for the port
+	 */
+	protected LLDPTemplate getDiscoveryTemplate(IOFSwitch iofSwitch,
+			OFPortDesc ofpPort, boolean isStandard) {
+		Map<NodePortTuple, LLDPTemplate> templates =
+				isStandard ? lldpTemplates : bddpTemplates;
+		NodePortTuple npt = new NodePortTuple(iofSwitch.getId(), ofpPort.getPortNo());
+		OFVersion version = iofSwitch.getOFFactory().getVersion();
+
+		LLDPTemplate template = templates.get(npt);
+		if (template == null || !template.isValidFor(ofpPort, version)) {
+			byte[] forward = generateDiscoveryFrame(iofSwitch.getId(), ofpPort,
+					isStandard, false);
+			byte[] reverse = generateDiscoveryFrame(iofSwitch.getId(), ofpPort,
+					isStandard, true);
+
+			OFPacketOut.Builder pob = iofSwitch.getOFFactory().buildPacketOut();
+			pob.setBufferId(OFBufferId.NO_BUFFER);
+			pob.setInPort(OFPort.ANY);
+			pob.setActions(getDiscoveryActions(iofSwitch, ofpPort.getPortNo()));
+			pob.setData(forward);
+
+			template = new LLDPTemplate(ofpPort.getHwAddr(), pob.build(), reverse);
+			templates.put(npt, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Drop the cached discovery templates of a switch port.
+	 *
+	 * @param npt
+	 */
+	protected void removeDiscoveryTemplates(NodePortTuple npt) {
+		lldpTemplates.remove(npt);
+		bddpTemplates.remove(npt);
+	}
+
+	/**
+	 * Drop the cached discovery templates of all ports of a switch.
+	 *
+	 * @param sw
+	 */
+	protected void removeDiscoveryTemplates(DatapathId sw) {
+		Iterator<NodePortTuple> it = lldpTemplates.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().getNodeId().equals(sw)) it.remove();
+		}
+		it = bddpTemplates.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().getNodeId().equals(sw)) it.remove();
+		}
+	}
+
+	/**
+	 * Build and serialize the LLDP or BDDP frame sent out of a switch port.
+	 * This is only done when a port's discovery template is (re)built. The
+	 * timestamp TLV is left zero; it is filled in per probe by the template.
+	 *
+	 * @param sw
+	 * @param ofpPort
+	 * @param isStandard
+	 *            indicates standard LLDP or BDDP
+	 * @param isReverse
+	 *            indicates whether the LLDP was sent as a response
+	 * @return the serialized Ethernet frame
+	 */
+	protected byte[] generateDiscoveryFrame(DatapathId sw, OFPortDesc ofpPort,
+			boolean isStandard, boolean isReverse) {
+		OFPort port = ofpPort.getPortNo();
+
 		if (log.isTraceEnabled()) {
-			log.trace("Sending LLDP packet out of swich: {}, port: {}",
+			log.trace("Building LLDP packet for switch: {}, port: {}",
 					sw.toString(), port);
 		}
-
 		// using "nearest customer bridge" MAC address for broadest possible
 		// propagation
 		// through provider and TPMR bridges (see IEEE 802.1AB-2009 and
@@ -342,10 +484,6 @@ IFloodlightModule, IInfoProvider {
 
 		// set the portId to the outgoing port
 		portBB.putShort(port.getShortPortNumber());
-		if (log.isTraceEnabled()) {
-			log.trace("Sending LLDP out of interface: {}/{}",
-					sw.toString(), port);
-		}
 
 		LLDP lldp = new LLDP();
 		lldp.setChassisId(new LLDPTLV().setType((byte) 1)
@@ -367,6 +505,13 @@ IFloodlightModule, IInfoProvider {
 			lldp.getOptionalTLVList().add(forwardTLV);
 		}
 
+		// The timestamp must stay the last TLV, see LLDPTemplate.
+		byte[] timestampTLVValue = new byte[] { 0x0, 0x26, (byte) 0xe1,
+				TLV_TIMESTAMP_SUBTYPE, 0, 0, 0, 0, 0, 0, 0, 0 };
+		lldp.getOptionalTLVList().add(new LLDPTLV().setType(TLV_TIMESTAMP_TYPE)
+				.setLength(TLV_TIMESTAMP_LENGTH)
+				.setValue(timestampTLVValue));
+
 		Ethernet ethernet;
 		if (isStandard) {
 			ethernet = new Ethernet().setSourceMACAddress(ofpPort.getHwAddr())
@@ -383,16 +528,7 @@ IFloodlightModule, IInfoProvider {
 			ethernet.setPayload(bsn);
 		}
 
-		// serialize and wrap in a packet out
-		byte[] data = ethernet.serialize();
-		OFPacketOut.Builder pob = switchService.getSwitch(sw).getOFFactory().buildPacketOut();
-		pob.setBufferId(OFBufferId.NO_BUFFER);
-		pob.setInPort(OFPort.ANY);
-
-		// set data and data length
-		pob.setData(data);
-
-		return pob.build();
+		return ethernet.serialize();
 	}
 
 	/**
@@ -436,13 +572,17 @@ IFloodlightModule, IInfoProvider {
 
 	/**
 	 * Remove a switch port from the suppressed LLDP list. Discover links on
-	 * that switchport.
+	 * that switchport and schedule it for periodic probes, which it missed
+	 * if it came up while suppressed.
 	 */
 	@Override
 	public void RemoveFromSuppressLLDPs(DatapathId sw, OFPort port) {
 		NodePortTuple npt = new NodePortTuple(sw, port);
 		this.suppressLinkDiscovery.remove(npt);
 		discover(npt);
+		if (switchService.getSwitch(sw) != null) {
+			lldpScheduler.addPort(npt);
+		}
 	}
 
 	public boolean isShuttingDown() {
@@ -508,25 +648,22 @@ IFloodlightModule, IInfoProvider {
 
 	@Override
 	public Map<Link, LinkInfo> getLinks() {
-		lock.readLock().lock();
-		Map<Link, LinkInfo> result;
-		try {
-			result = new HashMap<Link, LinkInfo>(links);
-		} finally {
-			lock.readLock().unlock();
-		}
-		return result;
+		return new HashMap<Link, LinkInfo>(links);
+	}
+
+	@Override
+	public Long getLinkLatency(Link link) {
+		LinkInfo linkInfo = links.get(link);
+		return (linkInfo == null) ? null : linkInfo.getLatency();
 	}
 
 	@Override
 	public LinkInfo getLinkInfo(Link link) {
-		lock.readLock().lock();
 		LinkInfo linkInfo = links.get(link);
 		LinkInfo retLinkInfo = null;
 		if (linkInfo != null) {
 			retLinkInfo  = new LinkInfo(linkInfo);
 		}
-		lock.readLock().unlock();
 		return retLinkInfo;
 	}
 
@@ -628,6 +765,24 @@ IFloodlightModule, IInfoProvider {
 		return false;
 	}
 
+	/**
+	 * Estimate the one-way latency of a link from a probe that was sent at
+	 * the given time. The time from sending the packet-out to receiving the
+	 * packet-in includes the control channel latency of both switches,
+	 * which is subtracted.
+	 *
+	 * @param sentTime System.nanoTime() when the probe was sent
+	 * @param srcSwitch the switch the probe was sent out of
+	 * @param dstSwitch the switch the probe was received on
+	 * @return the latency sample in microseconds, never negative
+	 */
+	protected long getLatencySample(long sentTime, IOFSwitch srcSwitch,
+			IOFSwitch dstSwitch) {
+		long elapsed = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentTime);
+		long sample = elapsed - srcSwitch.getLatency() - dstSwitch.getLatency();
+		return Math.max(0, sample);
+	}
+
 	private Command handleLldp(LLDP lldp, DatapathId sw, OFPort inPort,
 			boolean isStandard, FloodlightContext cntx) {
 		// If LLDP is suppressed on this port, ignore received packet as well
@@ -645,6 +800,7 @@ IFloodlightModule, IInfoProvider {
 		long otherId = 0;
 		boolean myLLDP = false;
 		Boolean isReverse = null;
+		Long sentTime = null;
 
 		ByteBuffer portBB = ByteBuffer.wrap(lldp.getPortId().getValue());
 		portBB.position(1);
@@ -661,6 +817,13 @@ IFloodlightModule, IInfoProvider {
 					&& lldptlv.getValue()[3] == 0x0) {
 				ByteBuffer dpidBB = ByteBuffer.wrap(lldptlv.getValue());
 				remoteSwitch = switchService.getSwitch(DatapathId.of(dpidBB.getLong(4)));
+			} else if (lldptlv.getType() == TLV_TIMESTAMP_TYPE
+					&& lldptlv.getLength() == TLV_TIMESTAMP_LENGTH
+					&& lldptlv.getValue()[0] == 0x0
+					&& lldptlv.getValue()[1] == 0x26
+					&& lldptlv.getValue()[2] == (byte) 0xe1
+					&& lldptlv.getValue()[3] == TLV_TIMESTAMP_SUBTYPE) {
+				sentTime = ByteBuffer.wrap(lldptlv.getValue()).getLong(4);
 			} else if (lldptlv.getType() == 12 && lldptlv.getLength() == 8) {
 				otherId = ByteBuffer.wrap(lldptlv.getValue()).getLong();
 				if (myId == otherId) myLLDP = true;
@@ -756,6 +919,10 @@ IFloodlightModule, IInfoProvider {
 
 		LinkInfo newLinkInfo = new LinkInfo(firstSeenTime, lastLldpTime,
 				lastBddpTime);
+		if (sentTime != null) {
+			newLinkInfo.setLatency(getLatencySample(sentTime,
+					remoteSwitch, iofSwitch));
+		}
 
 		addOrUpdateLink(lt, newLinkInfo);
 
@@ -833,6 +1000,7 @@ IFloodlightModule, IInfoProvider {
 		NodePortTuple npt = new NodePortTuple(sw, p);
 		discover(sw, p);
 		addToQuarantineQueue(npt);
+		lldpScheduler.addPort(npt);
 	}
 
 	//***********************************
@@ -884,18 +1052,20 @@ IFloodlightModule, IInfoProvider {
 	}
 
 	protected void discoverLinks() {
+		long now = System.currentTimeMillis();
 
 		// timeout known links.
-		timeoutLinks();
-
-		// increment LLDP clock
-		lldpClock = (lldpClock + 1) % LLDP_TO_ALL_INTERVAL;
+		if (now - lastLinkTimeoutCheck >= DISCOVERY_TASK_INTERVAL * 1000) {
+			lastLinkTimeoutCheck = now;
+			timeoutLinks();
+		}
 
-		if (lldpClock == 0) {
-			if (log.isTraceEnabled())
-				log.trace("Sending LLDP out on all ports.");
-			discoverOnAllPorts();
+		if (now - lastEchoTime >= ECHO_INTERVAL * 1000) {
+			lastEchoTime = now;
+			sendEchoRequests();
 		}
+
+		discoverOnScheduledPorts(now);
 	}
 
 	/**
@@ -1155,9 +1325,36 @@ IFloodlightModule, IInfoProvider {
 	protected void sendDiscoveryMessage(DatapathId sw, OFPort port,
 			boolean isStandard, boolean isReverse) {
 
+		OFPacketOut po = buildDiscoveryMessage(sw, port, isStandard, isReverse);
+		if (po == null)
+			return;
+
+		// send
+		// no more try-catch. switch will silently fail
+		IOFSwitch iofSwitch = switchService.getSwitch(sw);
+		iofSwitch.write(po);
+		iofSwitch.flush();
+	}
+
+	/**
+	 * Get the packet-out, including actions, for a link discovery message
+	 * out of a given switch port, or null if discovery is not allowed on the
+	 * port. The packet-out comes from the port's cached template.
+	 *
+	 * @param sw
+	 * @param port
+	 * @param isStandard
+	 *            indicates standard or modified LLDP
+	 * @param isReverse
+	 *            indicates whether the LLDP was sent as a response
+	 * @return the packet-out, or null
+	 */
+	protected OFPacketOut buildDiscoveryMessage(DatapathId sw, OFPort port,
+			boolean isStandard, boolean isReverse) {
+
 		// Takes care of all checks including null pointer checks.
 		if (!isOutgoingDiscoveryAllowed(sw, port, isStandard, isReverse))
-			return;
+			return null;
 
 		IOFSwitch iofSwitch = switchService.getSwitch(sw);
 		OFPortDesc ofpPort = iofSwitch.getPort(port);
@@ -1166,44 +1363,75 @@ IFloodlightModule, IInfoProvider {
 			log.trace("Sending LLDP packet out of swich: {}, port: {}",
 					sw.toString(), port.getPortNumber());
 		}
-		OFPacketOut po = generateLLDPMessage(sw, port, isStandard, isReverse);
-		OFPacketOut.Builder pob = po.createBuilder();
-
-		// Add actions
-		List<OFAction> actions = getDiscoveryActions(iofSwitch, ofpPort.getPortNo());
-		pob.setActions(actions);
-		
-		// no need to set length anymore
-
-		// send
-		// no more try-catch. switch will silently fail
-		iofSwitch.write(pob.build());
-		iofSwitch.flush();
+		return getDiscoveryTemplate(iofSwitch, ofpPort, isStandard)
+				.getPacketOut(isReverse, System.nanoTime());
 	}
 
 	/**
-	 * Send LLDPs to all switch-ports
+	 * Send LLDPs to the switch-ports whose probe is due according to the
+	 * LLDP scheduler. The packet-outs for a switch are written to it as a
+	 * single batch.
+	 *
+	 * @param now
+	 *            current time in milliseconds
 	 */
-	protected void discoverOnAllPorts() {
-		log.info("Sending LLDP packets out of all the enabled ports");
-		// Send standard LLDPs
-		for (DatapathId sw : switchService.getAllSwitchDpids()) {
+	protected void discoverOnScheduledPorts(long now) {
+		Map<DatapathId, List<OFPort>> due = lldpScheduler.poll(now);
+		for (Entry<DatapathId, List<OFPort>> entry : due.entrySet()) {
+			DatapathId sw = entry.getKey();
 			IOFSwitch iofSwitch = switchService.getSwitch(sw);
-			if (iofSwitch == null) continue;
+			if (iofSwitch == null) {
+				lldpScheduler.removeSwitch(sw);
+				continue;
+			}
 			if (!iofSwitch.isActive()) continue; /* can't do anything if the switch is SLAVE */
-			if (iofSwitch.getEnabledPorts() != null) {
-				for (OFPortDesc ofp : iofSwitch.getEnabledPorts()) {
-					if (isLinkDiscoverySuppressed(sw, ofp.getPortNo())) {
-						continue;
-					}
 
-					sendDiscoveryMessage(sw, ofp.getPortNo(), true, false);
+			List<OFMessage> batch = new ArrayList<OFMessage>();
+			for (OFPort port : entry.getValue()) {
+				if (isLinkDiscoverySuppressed(sw, port)) {
+					continue;
+				}
 
-					// If the switch port is not already in the maintenance
-					// queue, add it.
-					NodePortTuple npt = new NodePortTuple(sw, ofp.getPortNo());
-					addToMaintenanceQueue(npt);
+				OFPacketOut po = buildDiscoveryMessage(sw, port, true, false);
+				if (po != null) {
+					batch.add(po);
 				}
+
+				// If the switch port is not already in the maintenance
+				// queue, add it.
+				addToMaintenanceQueue(new NodePortTuple(sw, port));
+			}
+			if (!batch.isEmpty()) {
+				iofSwitch.write(batch);
+			}
+		}
+	}
+
+	/**
+	 * Send a timestamped echo request to every active switch. The replies
+	 * update the control channel latency of the switch connection, which
+	 * is subtracted from the LLDP round trips when estimating link latency.
+	 */
+	protected void sendEchoRequests() {
+		for (DatapathId sw : switchService.getAllSwitchDpids()) {
+			IOFSwitch iofSwitch = switchService.getSwitch(sw);
+			if (iofSwitch == null || !iofSwitch.isActive()) continue;
+			iofSwitch.write(iofSwitch.getOFFactory().buildEchoRequest()
+					.setData(Longs.toByteArray(System.nanoTime()))
+					.build());
+		}
+	}
+
+	/**
+	 * Add the enabled ports of all switches to the LLDP scheduler.
+	 */
+	protected void scheduleAllPorts() {
+		for (DatapathId sw : switchService.getAllSwitchDpids()) {
+			IOFSwitch iofSwitch = switchService.getSwitch(sw);
+			if (iofSwitch == null || iofSwitch.getEnabledPortNumbers() == null)
+				continue;
+			for (OFPort p : iofSwitch.getEnabledPortNumbers()) {
+				lldpScheduler.addPort(new NodePortTuple(sw, p));
 			}
 		}
 	}
@@ -1240,38 +1468,89 @@ IFloodlightModule, IInfoProvider {
 		return true;
 	}
 
+	/**
+	 * Lock the stripes of both endpoint switches of a link. Striped returns
+	 * the locks in a consistent order, so two links sharing switches cannot
+	 * deadlock. Both ends may map to the same reentrant stripe.
+	 *
+	 * @param lt
+	 * @return the locks to pass to {@link #unlockLink(Iterable)}
+	 */
+	private Iterable<Lock> lockLink(Link lt) {
+		Iterable<Lock> locks = switchLocks.bulkGet(Arrays.asList(lt.getSrc(), lt.getDst()));
+		for (Lock l : locks) {
+			l.lock();
+		}
+		return locks;
+	}
+
+	private void unlockLink(Iterable<Lock> locks) {
+		for (Lock l : locks) {
+			l.unlock();
+		}
+	}
+
+	/**
+	 * Add a link to an index. Every index key belongs to a single switch, and
+	 * the caller holds that switch's stripe, so the get-or-create is safe.
+	 */
+	private <K> void addToIndex(Map<K, Set<Link>> index, K key, Link lt) {
+		Set<Link> set = index.get(key);
+		if (set == null) {
+			set = Collections.newSetFromMap(new ConcurrentHashMap<Link, Boolean>());
+			index.put(key, set);
+		}
+		set.add(lt);
+	}
+
+	private <K> void removeFromIndex(Map<K, Set<Link>> index, K key, Link lt) {
+		Set<Link> set = index.get(key);
+		if (set != null) {
+			set.remove(lt);
+			if (set.isEmpty())
+				index.remove(key);
+		}
+	}
+
+	/**
+	 * Index a new link by both switches and switch ports. The caller must
+	 * hold the link's switch stripes.
+	 */
 	private boolean addLink(Link lt, LinkInfo newInfo) {
 		NodePortTuple srcNpt, dstNpt;
 
 		srcNpt = new NodePortTuple(lt.getSrc(), lt.getSrcPort());
 		dstNpt = new NodePortTuple(lt.getDst(), lt.getDstPort());
 
-		// index it by switch source
-		if (!switchLinks.containsKey(lt.getSrc()))
-			switchLinks.put(lt.getSrc(),
-					new HashSet<Link>());
-		switchLinks.get(lt.getSrc()).add(lt);
-
-		// index it by switch dest
-		if (!switchLinks.containsKey(lt.getDst()))
-			switchLinks.put(lt.getDst(),
-					new HashSet<Link>());
-		switchLinks.get(lt.getDst()).add(lt);
+		// index it by switch source and dest
+		addToIndex(switchLinks, lt.getSrc(), lt);
+		addToIndex(switchLinks, lt.getDst(), lt);
 
 		// index both ends by switch:port
-		if (!portLinks.containsKey(srcNpt))
-			portLinks.put(srcNpt,
-					new HashSet<Link>());
-		portLinks.get(srcNpt).add(lt);
-
-		if (!portLinks.containsKey(dstNpt))
-			portLinks.put(dstNpt,
-					new HashSet<Link>());
-		portLinks.get(dstNpt).add(lt);
+		addToIndex(portLinks, srcNpt, lt);
+		addToIndex(portLinks, dstNpt, lt);
 
 		return true;
 	}
 
+	/**
+	 * Remove a link from the link map and all indices. The caller must hold
+	 * the link's switch stripes.
+	 *
+	 * @return the removed link info, or null if the link was not known
+	 */
+	private LinkInfo removeLink(Link lt) {
+		LinkInfo info = this.links.remove(lt);
+		if (info == null)
+			return null;
+
+		removeFromIndex(switchLinks, lt.getSrc(), lt);
+		removeFromIndex(switchLinks, lt.getDst(), lt);
+		removeFromIndex(portLinks, new NodePortTuple(lt.getSrc(), lt.getSrcPort()), lt);
+		removeFromIndex(portLinks, new NodePortTuple(lt.getDst(), lt.getDstPort()), lt);
+		return info;
+	}
+
 	protected boolean updateLink(Link lt, LinkInfo oldInfo, LinkInfo newInfo) {
 		boolean linkChanged = false;
 		// Since the link info is already there, we need to
@@ -1290,6 +1569,17 @@ IFloodlightModule, IInfoProvider {
 			}
 		}
 
+		// Latency changes are not reported as link changes; they are only
+		// smoothed into the running estimate.
+		Long oldLatency = oldInfo.getLatency();
+		Long newLatency = newInfo.getLatency();
+		if (newLatency == null) {
+			newInfo.setLatency(oldLatency);
+		} else if (oldLatency != null) {
+			newInfo.setLatency(oldLatency
+					+ (newLatency - oldLatency) / LATENCY_EWMA_WEIGHT);
+		}
+
 		Date oldTime = oldInfo.getUnicastValidTime();
 		Date newTime = newInfo.getUnicastValidTime();
 		// the link has changed its state between openflow and
@@ -1316,7 +1606,9 @@ IFloodlightModule, IInfoProvider {
 
 		boolean linkChanged = false;
 
-		lock.writeLock().lock();
+		// Only the stripes of the two endpoint switches are held, so
+		// LLDPs received on other switches are processed concurrently.
+		Iterable<Lock> locks = lockLink(lt);
 		try {
 			// put the new info. if an old info exists, it will be returned.
 			LinkInfo oldInfo = links.put(lt, newInfo);
@@ -1363,9 +1655,10 @@ IFloodlightModule, IInfoProvider {
 				}
 			}
 
-			// Write changes to storage. This will always write the updated
-			// valid time, plus the port states if they've changed (i.e. if
-			// they weren't set to null in the previous block of code.
+			// Queue the changes for storage. This will always write the
+			// updated valid time. The write itself happens in the link
+			// storage task; queueing under the stripes keeps the writes
+			// and deletes of a link in order.
 			writeLinkToStorage(lt, newInfo);
 
 			if (linkChanged) {
@@ -1376,7 +1669,7 @@ IFloodlightModule, IInfoProvider {
 						updateOperation));
 			}
 		} finally {
-			lock.writeLock().unlock();
+			unlockLink(locks);
 		}
 
 		return linkChanged;
@@ -1419,68 +1712,51 @@ IFloodlightModule, IInfoProvider {
 	protected void deleteLinks(List<Link> links, String reason,
 			List<LDUpdate> updateList) {
 
-		NodePortTuple srcNpt, dstNpt;
-		List<LDUpdate> linkUpdateList = new ArrayList<LDUpdate>();
-		lock.writeLock().lock();
-		try {
-			for (Link lt : links) {
-				srcNpt = new NodePortTuple(lt.getSrc(), lt.getSrcPort());
-				dstNpt = new NodePortTuple(lt.getDst(), lt.getDstPort());
-
-				if (switchLinks.containsKey(lt.getSrc())) {
-					switchLinks.get(lt.getSrc()).remove(lt);
-					if (switchLinks.get(lt.getSrc()).isEmpty())
-						this.switchLinks.remove(lt.getSrc());
-				}
-				if (this.switchLinks.containsKey(lt.getDst())) {
-					switchLinks.get(lt.getDst()).remove(lt);
-					if (this.switchLinks.get(lt.getDst()).isEmpty())
-						this.switchLinks.remove(lt.getDst());
-				}
-
-				if (this.portLinks.get(srcNpt) != null) {
-					this.portLinks.get(srcNpt).remove(lt);
-					if (this.portLinks.get(srcNpt).isEmpty())
-						this.portLinks.remove(srcNpt);
-				}
-				if (this.portLinks.get(dstNpt) != null) {
-					this.portLinks.get(dstNpt).remove(lt);
-					if (this.portLinks.get(dstNpt).isEmpty())
-						this.portLinks.remove(dstNpt);
-				}
-
-				LinkInfo info = this.links.remove(lt);
-				LinkType linkType = getLinkType(lt, info);
-				linkUpdateList.add(new LDUpdate(lt.getSrc(),
-						lt.getSrcPort(),
-						lt.getDst(),
-						lt.getDstPort(),
-						linkType,
-						UpdateOperation.LINK_REMOVED));
-
-				// FIXME: link type shows up as invalid now -- thus not checking if
-				// link type is a direct link
-				eventCategory.newEventWithFlush(new DirectLinkEvent(lt.getSrc(),
-						lt.getSrcPort(), lt.getDst(), lt.getDstPort(),
-						"link-deleted::" + reason));
-				// remove link from storage.
-				removeLinkFromStorage(lt);
-
-				// TODO Whenever link is removed, it has to checked if
-				// the switchports must be added to quarantine.
-
-				if (linkType == ILinkDiscovery.LinkType.DIRECT_LINK) {
-					log.info("Inter-switch link removed: {}", lt);
-					notifier.postNotification("Inter-switch link removed: " +
-							lt.toString());
-				} else if (log.isTraceEnabled()) {
-					log.trace("Deleted link {}", lt);
+		for (Link lt : links) {
+			Iterable<Lock> locks = lockLink(lt);
+			try {
+				LinkInfo info = removeLink(lt);
+				if (info != null) {
+					linkRemoved(lt, info, reason);
 				}
+			} finally {
+				unlockLink(locks);
 			}
-		} finally {
-			if (updateList != null) linkUpdateList.addAll(updateList);
-			updates.addAll(linkUpdateList);
-			lock.writeLock().unlock();
+		}
+		if (updateList != null) updates.addAll(updateList);
+	}
+
+	/**
+	 * Post-process a link that was removed from the link map: queue the
+	 * update and the storage delete, and log the removal. The caller must
+	 * hold the link's switch stripes.
+	 */
+	private void linkRemoved(Link lt, LinkInfo info, String reason) {
+		LinkType linkType = getLinkType(lt, info);
+		updates.add(new LDUpdate(lt.getSrc(),
+				lt.getSrcPort(),
+				lt.getDst(),
+				lt.getDstPort(),
+				linkType,
+				UpdateOperation.LINK_REMOVED));
+
+		// FIXME: link type shows up as invalid now -- thus not checking if
+		// link type is a direct link
+		eventCategory.newEventWithFlush(new DirectLinkEvent(lt.getSrc(),
+				lt.getSrcPort(), lt.getDst(), lt.getDstPort(),
+				"link-deleted::" + reason));
+		// remove link from storage.
+		removeLinkFromStorage(lt);
+
+		// TODO Whenever link is removed, it has to checked if
+		// the switchports must be added to quarantine.
+
+		if (linkType == ILinkDiscovery.LinkType.DIRECT_LINK) {
+			log.info("Inter-switch link removed: {}", lt);
+			notifier.postNotification("Inter-switch link removed: " +
+					lt.toString());
+		} else if (log.isTraceEnabled()) {
+			log.trace("Deleted link {}", lt);
 		}
 	}
 
@@ -1491,17 +1767,17 @@ IFloodlightModule, IInfoProvider {
 	 * @param reason
 	 */
 	protected void deleteLinksOnPort(NodePortTuple npt, String reason) {
-		List<Link> eraseList = new ArrayList<Link>();
-		if (this.portLinks.containsKey(npt)) {
+		Set<Link> portLinkSet = this.portLinks.get(npt);
+		if (portLinkSet != null) {
+			List<Link> eraseList = new ArrayList<Link>(portLinkSet);
 			if (log.isTraceEnabled()) {
 				log.trace("handlePortStatus: Switch {} port #{} "
 						+ "removing links {}",
 						new Object[] {
 								npt.getNodeId().toString(),
 								npt.getPortId(),
-								this.portLinks.get(npt) });
+								eraseList });
 			}
-			eraseList.addAll(this.portLinks.get(npt));
 			deleteLinks(eraseList, reason);
 		}
 	}
@@ -1511,19 +1787,17 @@ IFloodlightModule, IInfoProvider {
 	 * message reception time exceeds timeout values.
 	 */
 	protected void timeoutLinks() {
-		List<Link> eraseList = new ArrayList<Link>();
-		Long curTime = System.currentTimeMillis();
-		boolean linkChanged = false;
+		long curTime = System.currentTimeMillis();
 
-		// reentrant required here because deleteLink also write locks
-		lock.writeLock().lock();
-		try {
-			Iterator<Entry<Link, LinkInfo>> it = this.links.entrySet()
-					.iterator();
-			while (it.hasNext()) {
-				Entry<Link, LinkInfo> entry = it.next();
-				Link lt = entry.getKey();
-				LinkInfo info = entry.getValue();
+		// The link map is concurrent, so the scan does not block link
+		// updates; each link is re-read and handled under its own stripes.
+		for (Link lt : this.links.keySet()) {
+			Iterable<Lock> locks = lockLink(lt);
+			try {
+				LinkInfo info = this.links.get(lt);
+				if (info == null)
+					continue;
+				boolean linkChanged = false;
 
 				// Timeout the unicast and multicast LLDP valid times
 				// independently.
@@ -1539,25 +1813,20 @@ IFloodlightModule, IInfoProvider {
 					info.setMulticastValidTime(null);
 					linkChanged = true;
 				}
-				// Add to the erase list only if the unicast
-				// time is null.
+				// Remove the link only if both valid times are null.
 				if (info.getUnicastValidTime() == null
 						&& info.getMulticastValidTime() == null) {
-					eraseList.add(entry.getKey());
+					removeLink(lt);
+					linkRemoved(lt, info, "LLDP timeout");
 				} else if (linkChanged) {
 					updates.add(new LDUpdate(lt.getSrc(), lt.getSrcPort(),
 							lt.getDst(), lt.getDstPort(),
 							getLinkType(lt, info),
 							UpdateOperation.LINK_UPDATED));
 				}
+			} finally {
+				unlockLink(locks);
 			}
-
-			// if any link was deleted or any link was changed.
-			if ((eraseList.size() > 0) || linkChanged) {
-				deleteLinks(eraseList, "LLDP timeout");
-			}
-		} finally {
-			lock.writeLock().unlock();
 		}
 	}
 
@@ -1608,6 +1877,10 @@ IFloodlightModule, IInfoProvider {
 		this.controllerTLV = new LLDPTLV().setType((byte) 0x0c)
 				.setLength((short) controllerTLVValue.length)
 				.setValue(controllerTLVValue);
+
+		// Cached frames carry the old controller TLV.
+		lldpTemplates.clear();
+		bddpTemplates.clear();
 	}
 
 	//******************
@@ -1615,6 +1888,8 @@ IFloodlightModule, IInfoProvider {
 	//******************
 	private void handlePortDown(DatapathId switchId, OFPort portNumber) {
 		NodePortTuple npt = new NodePortTuple(switchId, portNumber);
+		removeDiscoveryTemplates(npt);
+		lldpScheduler.removePort(npt);
 		deleteLinksOnPort(npt, "Port Status Changed");
 		LDUpdate update = new LDUpdate(switchId, portNumber,
 				UpdateOperation.PORT_DOWN);
@@ -1633,6 +1908,10 @@ IFloodlightModule, IInfoProvider {
 		switch (type) {
 		case UP:
 			processNewPort(switchId, port.getPortNo());
+			// Probe the port more often for a while, so that links
+			// through a flapping port are detected quickly.
+			lldpScheduler.portChanged(new NodePortTuple(switchId,
+					port.getPortNo()), System.currentTimeMillis());
 			break;
 		case DELETE: case DOWN:
 			handlePortDown(switchId, port.getPortNo());
@@ -1655,32 +1934,28 @@ IFloodlightModule, IInfoProvider {
 
 	@Override
 	public void switchRemoved(DatapathId sw) {
-        List<Link> eraseList = new ArrayList<Link>();
-        lock.writeLock().lock();
-        try {
-            if (switchLinks.containsKey(sw)) {
-                if (log.isTraceEnabled()) {
-                    log.trace("Handle switchRemoved. Switch {}; removing links {}", sw.toString(), switchLinks.get(sw));
-                }
-
-                List<LDUpdate> updateList = new ArrayList<LDUpdate>();
-                updateList.add(new LDUpdate(sw, SwitchType.BASIC_SWITCH, UpdateOperation.SWITCH_REMOVED));
-                // add all tuples with an endpoint on this switch to erase list
-                eraseList.addAll(switchLinks.get(sw));
-
-                // Sending the updateList, will ensure the updates in this
-                // list will be added at the end of all the link updates.
-                // Thus, it is not necessary to explicitly add these updates
-                // to the queue.
-                deleteLinks(eraseList, "Switch Removed", updateList);
-            } else {
-                // Switch does not have any links.
-                updates.add(new LDUpdate(sw, SwitchType.BASIC_SWITCH, UpdateOperation.SWITCH_REMOVED));
+        removeDiscoveryTemplates(sw);
+        lldpScheduler.removeSwitch(sw);
+        List<LDUpdate> updateList = new ArrayList<LDUpdate>();
+        updateList.add(new LDUpdate(sw, SwitchType.BASIC_SWITCH, UpdateOperation.SWITCH_REMOVED));
+
+        Set<Link> switchLinkSet = switchLinks.get(sw);
+        if (switchLinkSet != null) {
+            // add all tuples with an endpoint on this switch to erase list
+            List<Link> eraseList = new ArrayList<Link>(switchLinkSet);
+            if (log.isTraceEnabled()) {
+                log.trace("Handle switchRemoved. Switch {}; removing links {}", sw.toString(), eraseList);
             }
-        } finally {
-            lock.writeLock().unlock();
-        }
 
+            // Sending the updateList, will ensure the updates in this
+            // list will be added at the end of all the link updates.
+            // Thus, it is not necessary to explicitly add these updates
+            // to the queue.
+            deleteLinks(eraseList, "Switch Removed", updateList);
+        } else {
+            // Switch does not have any links.
+            updates.addAll(updateList);
+        }
     }
 
 
@@ -1767,11 +2042,14 @@ IFloodlightModule, IInfoProvider {
 	 * Deletes all links from storage
 	 */
 	void clearAllLinks() {
+		pendingLinkWrites.clear();
 		storageSourceService.deleteRowsAsync(LINK_TABLE_NAME, null);
 	}
 
 	/**
-	 * Writes a LinkTuple and corresponding LinkInfo to storage
+	 * Queues a LinkTuple and corresponding LinkInfo to be written to storage
+	 * by the link storage task. A copy of the LinkInfo is queued, as the
+	 * original may change before it is written.
 	 *
 	 * @param lt
 	 *            The LinkTuple to write
@@ -1779,6 +2057,77 @@ IFloodlightModule, IInfoProvider {
 	 *            The LinkInfo to write
 	 */
 	protected void writeLinkToStorage(Link lt, LinkInfo linkInfo) {
+		pendingLinkWrites.put(lt, new LinkInfo(linkInfo));
+	}
+
+	/**
+	 * Queues a link to be removed from storage by the link storage task.
+	 *
+	 * @param lt
+	 *            The LinkTuple to delete.
+	 */
+	protected void removeLinkFromStorage(Link lt) {
+		pendingLinkWrites.put(lt, LINK_DELETED);
+	}
+
+	/**
+	 * Write all pending link changes to storage, as one batched update and
+	 * one batched delete.
+	 */
+	protected void writePendingLinksToStorage() {
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		Set<Object> deletedIds = new HashSet<Object>();
+
+		Iterator<Link> it = pendingLinkWrites.keySet().iterator();
+		while (it.hasNext()) {
+			Link lt = it.next();
+			LinkInfo info = pendingLinkWrites.remove(lt);
+			if (info == null) {
+				continue;
+			} else if (info == LINK_DELETED) {
+				deletedIds.add(getLinkId(lt));
+			} else {
+				rows.add(getLinkRow(lt, info));
+			}
+		}
+
+		if (!rows.isEmpty())
+			storageSourceService.updateRowsAsync(LINK_TABLE_NAME, rows);
+		if (!deletedIds.isEmpty())
+			storageSourceService.deleteRowsAsync(LINK_TABLE_NAME, deletedIds);
+	}
+
+	/**
+	 * Writes pending link changes to storage off the LLDP processing path.
+	 */
+	protected class LinkStorageWorker implements Runnable {
+		@Override
+		public void run() {
+			try {
+				writePendingLinksToStorage();
+			} catch (StorageException e) {
+				shutdownService.terminate("Storage exception in link storage task. Terminating process " + e, 0);
+			} catch (Exception e) {
+				log.error("Error in link storage worker thread", e);
+			} finally {
+				if (!shuttingDown) {
+					linkStorageTask.reschedule(LINK_STORAGE_TASK_INTERVAL,
+							TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the storage row for a LinkTuple and corresponding LinkInfo
+	 *
+	 * @param lt
+	 *            The LinkTuple to write
+	 * @param linkInfo
+	 *            The LinkInfo to write
+	 * @return the row values
+	 */
+	protected Map<String, Object> getLinkRow(Link lt, LinkInfo linkInfo) {
 		LinkType type = getLinkType(lt, linkInfo);
 
 		// Write only direct links. Do not write links to external
@@ -1808,18 +2157,7 @@ IFloodlightModule, IInfoProvider {
 		rowValues.put(LINK_DST_SWITCH, dstDpid);
 		rowValues.put(LINK_DST_PORT, lt.getDstPort());
 
-		storageSourceService.updateRowAsync(LINK_TABLE_NAME, rowValues);
-	}
-
-	/**
-	 * Removes a link from storage using an asynchronous call.
-	 *
-	 * @param lt
-	 *            The LinkTuple to delete.
-	 */
-	protected void removeLinkFromStorage(Link lt) {
-		String id = getLinkId(lt);
-		storageSourceService.deleteRowAsync(LINK_TABLE_NAME, id);
+		return rowValues;
 	}
 
 	public Long readLinkValidTime(Link lt) {
@@ -1919,18 +2257,41 @@ IFloodlightModule, IInfoProvider {
 			log.warn("Error event history size, using default of {} seconds", EVENT_HISTORY_SIZE);
 		}
 		log.debug("Event history size set to {}", EVENT_HISTORY_SIZE);
+		try {
+			String maxProbes = configOptions.get("lldpmaxprobespersecond");
+			if (maxProbes != null) {
+				LLDP_MAX_PROBES_PER_SECOND = Integer.parseInt(maxProbes);
+			}
+			maxProbes = configOptions.get("lldpmaxprobespersecondperswitch");
+			if (maxProbes != null) {
+				LLDP_MAX_PROBES_PER_SECOND_PER_SWITCH = Integer.parseInt(maxProbes);
+			}
+		} catch (NumberFormatException e) {
+			log.warn("Error LLDP probe rate, using defaults of {} per second " +
+					"and {} per second per switch",
+					LLDP_MAX_PROBES_PER_SECOND, LLDP_MAX_PROBES_PER_SECOND_PER_SWITCH);
+		}
+		log.debug("LLDP probe rate capped to {} per second and {} per second per switch",
+				LLDP_MAX_PROBES_PER_SECOND, LLDP_MAX_PROBES_PER_SECOND_PER_SWITCH);
 
 		// Set the autoportfast feature to false.
 		this.autoPortFastFeature = AUTOPORTFAST_DEFAULT;
 
 		// We create this here because there is no ordering guarantee
 		this.linkDiscoveryAware = new ArrayList<ILinkDiscoveryListener>();
-		this.lock = new ReentrantReadWriteLock();
+		this.switchLocks = Striped.lock(SWITCH_LOCK_STRIPES);
 		this.updates = new LinkedBlockingQueue<LDUpdate>();
-		this.links = new HashMap<Link, LinkInfo>();
-		this.portLinks = new HashMap<NodePortTuple, Set<Link>>();
+		this.links = new ConcurrentHashMap<Link, LinkInfo>();
+		this.pendingLinkWrites = new ConcurrentHashMap<Link, LinkInfo>();
+		this.lldpScheduler = new LLDPScheduler(LLDP_TO_ALL_INTERVAL * 1000,
+				LLDP_TICK_INTERVAL, LLDP_FAST_INTERVAL * 1000,
+				LLDP_FAST_DURATION * 1000, LLDP_MAX_PROBES_PER_SECOND,
+				LLDP_MAX_PROBES_PER_SECOND_PER_SWITCH);
+		this.lldpTemplates = new ConcurrentHashMap<NodePortTuple, LLDPTemplate>();
+		this.bddpTemplates = new ConcurrentHashMap<NodePortTuple, LLDPTemplate>();
+		this.portLinks = new ConcurrentHashMap<NodePortTuple, Set<Link>>();
 		this.suppressLinkDiscovery = Collections.synchronizedSet(new HashSet<NodePortTuple>());
-		this.switchLinks = new HashMap<DatapathId, Set<Link>>();
+		this.switchLinks = new ConcurrentHashMap<DatapathId, Set<Link>>();
 		this.quarantineQueue = new LinkedBlockingQueue<NodePortTuple>();
 		this.maintenanceQueue = new LinkedBlockingQueue<NodePortTuple>();
 		this.toRemoveFromQuarantineQueue = new LinkedBlockingQueue<NodePortTuple>();
@@ -2012,8 +2373,8 @@ IFloodlightModule, IInfoProvider {
 						if (role == null || role == HARole.ACTIVE) {
 							log.trace("Rescheduling discovery task as role = {}",
 									role);
-							discoveryTask.reschedule(DISCOVERY_TASK_INTERVAL,
-									TimeUnit.SECONDS);
+							discoveryTask.reschedule(LLDP_TICK_INTERVAL,
+									TimeUnit.MILLISECONDS);
 						} else {
 							log.trace("Stopped LLDP rescheduling due to role = {}.",
 									role);
@@ -2026,8 +2387,8 @@ IFloodlightModule, IInfoProvider {
 		// null role implies HA mode is not enabled.
 		if (role == null || role == HARole.ACTIVE) {
 			log.trace("Setup: Rescheduling discovery task. role = {}", role);
-			discoveryTask.reschedule(DISCOVERY_TASK_INTERVAL,
-					TimeUnit.SECONDS);
+			discoveryTask.reschedule(LLDP_TICK_INTERVAL,
+					TimeUnit.MILLISECONDS);
 		} else {
 			log.trace("Setup: Not scheduling LLDP as role = {}.", role);
 		}
@@ -2037,6 +2398,10 @@ IFloodlightModule, IInfoProvider {
 		bddpTask = new SingletonTask(ses, new QuarantineWorker());
 		bddpTask.reschedule(BDDP_TASK_INTERVAL, TimeUnit.MILLISECONDS);
 
+		// Link changes are written to storage in batches by this task.
+		linkStorageTask = new SingletonTask(ses, new LinkStorageWorker());
+		linkStorageTask.reschedule(LINK_STORAGE_TASK_INTERVAL, TimeUnit.MILLISECONDS);
+
 		updatesThread = new Thread(new Runnable() {
 			@Override
 			public void run() {
@@ -2164,6 +2529,7 @@ IFloodlightModule, IInfoProvider {
 			LinkDiscoveryManager.this.role = HARole.ACTIVE;
 			clearAllLinks();
 			readTopologyConfigFromStorage();
+			scheduleAllPorts();
 			log.debug("Role Change to Master: Rescheduling discovery task.");
 			discoveryTask.reschedule(1, TimeUnit.MICROSECONDS);
 		}
@@ -65,14 +65,16 @@ public class ExternalLinksResource extends ServerResource {
                         		&& srcPort.getPortNumber() < dstPort.getPortNumber())) {
                             lwt = new LinkWithType(link,
                                     type,
-                                    LinkDirection.BIDIRECTIONAL);
+                                    LinkDirection.BIDIRECTIONAL,
+                                    info.getLatency());
                             returnLinkSet.add(lwt);
                         }
                     } else {
                         // This is a unidirectional link.
                         lwt = new LinkWithType(link,
                                 type,
-                                LinkDirection.UNIDIRECTIONAL);
+                                LinkDirection.UNIDIRECTIONAL,
+                                info.getLatency());
                         returnLinkSet.add(lwt);
 
                     }
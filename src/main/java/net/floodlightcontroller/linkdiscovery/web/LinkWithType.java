@@ -44,6 +44,7 @@ public class LinkWithType extends JsonSerializer<LinkWithType> {
     public OFPort dstPort;
     public LinkType type;
     public LinkDirection direction;
+    public Long latency;
 
     // Do NOT delete this, it's required for the serializer
     public LinkWithType() {}
@@ -59,6 +60,14 @@ public class LinkWithType extends JsonSerializer<LinkWithType> {
         this.direction = direction;
     }
 
+    public LinkWithType(Link link,
+            LinkType type,
+            LinkDirection direction,
+            Long latency) {
+        this(link, type, direction);
+        this.latency = latency;
+    }
+
     @Override
     public void serialize(LinkWithType lwt, JsonGenerator jgen, SerializerProvider arg2)
             throws IOException, JsonProcessingException {
@@ -70,6 +79,9 @@ public class LinkWithType extends JsonSerializer<LinkWithType> {
         jgen.writeNumberField("dst-port", lwt.dstPort.getPortNumber());
         jgen.writeStringField("type", lwt.type.toString());
         jgen.writeStringField("direction", lwt.direction.toString());
+        if (lwt.latency != null) {
+            jgen.writeNumberField("latency", lwt.latency);
+        }
         jgen.writeEndObject();
     }
 
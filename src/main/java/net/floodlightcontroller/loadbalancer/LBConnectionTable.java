@@ -0,0 +1,248 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.loadbalancer;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.TransportPort;
+
+import net.floodlightcontroller.loadbalancer.LoadBalancer.IPClient;
+
+/**
+ * Bounded table of the member each client is bound to.  A client stays
+ * bound, and counted by the least connections method, for as long as the
+ * switches forward its traffic: it is forgotten when a switch reports the
+ * removal of one of the flows pushed for it, see {@link #removeFlow}.
+ *
+ * Clients whose flows are removed without a report, for instance from a
+ * switch that disconnected, only go when the table is full: the clients
+ * not seen for the idle timeout of the flows are swept first, then the
+ * oldest clients are evicted.
+ */
+public class LBConnectionTable {
+    // fraction of the table evicted when a sweep does not make room
+    protected static final int EVICT_DIVISOR = 8;
+
+    protected static class Connection {
+        final LBMember member;
+        volatile long lastSeen;
+
+        Connection(LBMember member, long lastSeen) {
+            this.member = member;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    protected final ConcurrentHashMap<IPClient, Connection> connections;
+    // the client whose flows match on each source, see flowKey
+    protected final ConcurrentHashMap<IPClient, IPClient> flows;
+    protected final int capacity;
+    protected final long idleTimeoutMs;
+    protected final AtomicBoolean sweeping;
+
+    /**
+     * @param capacity the maximum number of clients
+     * @param idleTimeoutMs the idle timeout of the flows of the clients
+     */
+    public LBConnectionTable(int capacity, long idleTimeoutMs) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.connections = new ConcurrentHashMap<IPClient, Connection>();
+        this.flows = new ConcurrentHashMap<IPClient, IPClient>();
+        this.sweeping = new AtomicBoolean(false);
+    }
+
+    /**
+     * The flows of a client match on its address, protocol and transport
+     * source port only, so clients that differ by their target port alone
+     * share their flows.
+     * @return the key of the flows of a client in the flows index
+     */
+    protected static IPClient flowKey(IPv4Address ipAddress, IpProtocol nw_proto,
+                                      TransportPort srcPort) {
+        IPClient key = new IPClient();
+        key.ipAddress = ipAddress;
+        key.nw_proto = nw_proto;
+        if (nw_proto.equals(IpProtocol.TCP) || nw_proto.equals(IpProtocol.UDP) ||
+                nw_proto.equals(IpProtocol.SCTP))
+            key.srcPort = srcPort;
+        return key;
+    }
+
+    protected static IPClient flowKey(IPClient client) {
+        return flowKey(client.ipAddress, client.nw_proto, client.srcPort);
+    }
+
+    /**
+     * Get the member a client is bound to, and mark the client as active
+     * @param client the client
+     * @param now the current time in ms
+     * @return the member, or null if the client is not bound
+     */
+    public LBMember get(IPClient client, long now) {
+        Connection c = connections.get(client);
+        if (c == null)
+            return null;
+        c.lastSeen = now;
+        return c.member;
+    }
+
+    /**
+     * Bind a client to a member.  If another thread bound the client first
+     * its member is kept, so that all the flows of a client go to the same
+     * member.
+     * @param client the client
+     * @param member the member
+     * @param now the current time in ms
+     * @return the member the client is bound to
+     */
+    public LBMember bind(IPClient client, LBMember member, long now) {
+        maybeSweep(now);
+        Connection c = new Connection(member, now);
+        Connection old = connections.putIfAbsent(client, c);
+        if (old != null) {
+            old.lastSeen = now;
+            return old.member;
+        }
+        member.activeConnections.incrementAndGet();
+        flows.put(flowKey(client), client);
+        return member;
+    }
+
+    /**
+     * Forget a client
+     * @param client the client
+     */
+    public void remove(IPClient client) {
+        Connection c = connections.get(client);
+        if (c != null)
+            forget(client, c);
+    }
+
+    /**
+     * Forget the client of a flow removed from a switch, unless the client
+     * came back to the controller within the idle timeout, in which case
+     * its new flows are being pushed
+     * @param ipAddress the source address matched by the flow
+     * @param nw_proto the protocol matched by the flow
+     * @param srcPort the transport source port matched by the flow
+     * @param now the current time in ms
+     * @return true if a client was forgotten
+     */
+    public boolean removeFlow(IPv4Address ipAddress, IpProtocol nw_proto,
+                              TransportPort srcPort, long now) {
+        IPClient client = flows.get(flowKey(ipAddress, nw_proto, srcPort));
+        if (client == null)
+            return false;
+        Connection c = connections.get(client);
+        return c != null && isExpired(c, now) && forget(client, c);
+    }
+
+    /**
+     * Forget all the clients bound to a member
+     * @param member the member
+     */
+    public void removeMember(LBMember member) {
+        for (Map.Entry<IPClient, Connection> e : connections.entrySet()) {
+            if (e.getValue().member == member)
+                forget(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * @return the number of clients in the table
+     */
+    public int size() {
+        return connections.size();
+    }
+
+    protected boolean isExpired(Connection c, long now) {
+        return now - c.lastSeen >= idleTimeoutMs;
+    }
+
+    /**
+     * Remove a client unless it was bound again meanwhile
+     * @return true if the client was removed
+     */
+    protected boolean forget(IPClient client, Connection c) {
+        if (!connections.remove(client, c))
+            return false;
+        c.member.activeConnections.decrementAndGet();
+        flows.remove(flowKey(client), client);
+        return true;
+    }
+
+    protected void maybeSweep(long now) {
+        // one thread sweeps at a time; the others go ahead
+        if (connections.size() < capacity || !sweeping.compareAndSet(false, true))
+            return;
+        try {
+            sweep(now);
+            if (connections.size() >= capacity)
+                evictOldest(connections.size() - capacity +
+                            Math.max(1, capacity / EVICT_DIVISOR));
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * Remove the clients not seen for the idle timeout
+     * @param now the current time in ms
+     */
+    protected void sweep(long now) {
+        for (Map.Entry<IPClient, Connection> e : connections.entrySet()) {
+            if (isExpired(e.getValue(), now))
+                forget(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Remove the clients that have been idle the longest
+     * @param count the number of clients to remove
+     */
+    protected void evictOldest(int count) {
+        long[] seen = new long[connections.size()];
+        int n = 0;
+        for (Connection c : connections.values()) {
+            if (n == seen.length)
+                break;
+            seen[n++] = c.lastSeen;
+        }
+        if (n == 0)
+            return;
+        Arrays.sort(seen, 0, n);
+        long cutoff = seen[Math.min(count, n) - 1];
+
+        Iterator<Map.Entry<IPClient, Connection>> it =
+                connections.entrySet().iterator();
+        while (it.hasNext() && count > 0) {
+            Map.Entry<IPClient, Connection> e = it.next();
+            Connection c = e.getValue();
+            if (c.lastSeen <= cutoff && forget(e.getKey(), c))
+                count--;
+        }
+    }
+}
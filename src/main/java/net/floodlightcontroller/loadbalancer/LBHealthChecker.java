@@ -0,0 +1,196 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.loadbalancer;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the liveness of the members of pools that have a health monitor.
+ * Each round sends one probe to every monitored member whose monitor delay
+ * has passed since its last probe, or to all of them when the monitor has
+ * no delay.  A probe that is still unanswered after the monitor timeout,
+ * capped at its delay, counts as a failure.  Delays and timeouts are in
+ * seconds and honoured to the precision of the rounds.  A member is
+ * marked down after a number of failures in a row and up again after a
+ * number of answered probes in a row, and the load balancer is told of
+ * each change.
+ *
+ * Rounds are run by the load balancer's scheduled task and replies are
+ * reported from the packet-in threads.
+ */
+public class LBHealthChecker {
+    protected static Logger log = LoggerFactory.getLogger(LBHealthChecker.class);
+
+    protected static class MemberHealth {
+        final LBMember member;
+        boolean up = true;
+        boolean probePending = false;
+        long probeSent = Long.MIN_VALUE;
+        int failures = 0;
+        int successes = 0;
+
+        MemberHealth(LBMember member) {
+            this.member = member;
+        }
+    }
+
+    protected final LoadBalancer loadBalancer;
+    protected final int failureThreshold;
+    protected final int successThreshold;
+    protected final ConcurrentHashMap<String, MemberHealth> health;
+
+    /**
+     * @param loadBalancer the load balancer that sends the probes and is
+     *        told of status changes
+     * @param failureThreshold the failures in a row that mark a member
+     *        down, unless its monitor sets its own
+     * @param successThreshold the answered probes in a row that mark a
+     *        member up again
+     */
+    public LBHealthChecker(LoadBalancer loadBalancer,
+                           int failureThreshold, int successThreshold) {
+        this.loadBalancer = loadBalancer;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.successThreshold = Math.max(1, successThreshold);
+        this.health = new ConcurrentHashMap<String, MemberHealth>();
+    }
+
+    /**
+     * Run one round of probes
+     */
+    public void runChecks() {
+        runChecks(System.currentTimeMillis());
+    }
+
+    /**
+     * Run one round of probes
+     * @param now the current time in ms
+     */
+    protected void runChecks(long now) {
+        for (LBMember member : loadBalancer.listMembers()) {
+            LBMonitor monitor = loadBalancer.getMonitor(member);
+            if (monitor == null) {
+                // no longer monitored: forget it, and bring it back if down
+                MemberHealth h = health.remove(member.id);
+                if (h != null && !h.up)
+                    loadBalancer.setMemberStatus(member, true);
+                continue;
+            }
+
+            MemberHealth h = health.get(member.id);
+            if (h == null || h.member != member) {
+                // a new member, or one replaced by an update
+                h = new MemberHealth(member);
+                health.put(member.id, h);
+                if (member.status == LBMember.STATUS_DOWN)
+                    loadBalancer.setMemberStatus(member, true);
+            }
+
+            long delayMs = monitor.delay > 0 ? monitor.delay * 1000L : 0;
+            long timeoutMs = monitor.timeout > 0 ?
+                    Math.min(monitor.timeout * 1000L, delayMs) : delayMs;
+            boolean changed = false;
+            boolean due;
+            synchronized (h) {
+                // Long.MIN_VALUE until the first probe
+                long elapsed = (h.probeSent == Long.MIN_VALUE) ?
+                        Long.MAX_VALUE : now - h.probeSent;
+                if (h.probePending && elapsed >= timeoutMs) {
+                    h.probePending = false;
+                    h.successes = 0;
+                    h.failures += 1;
+                    if (h.up && h.failures >= getFailureThreshold(monitor)) {
+                        h.up = false;
+                        changed = true;
+                    }
+                }
+                due = elapsed >= delayMs;
+                if (due) {
+                    h.probePending = true;
+                    h.probeSent = now;
+                }
+            }
+            if (changed) {
+                log.info("Member {} at {} failed {} health checks, marking it down",
+                         new Object[] { member.id,
+                                        IPv4Address.of(member.address),
+                                        h.failures });
+                loadBalancer.setMemberStatus(member, false);
+            }
+            if (due)
+                loadBalancer.sendHealthProbe(member, monitor);
+        }
+
+        // forget the removed members
+        Iterator<Map.Entry<String, MemberHealth>> it =
+                health.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, MemberHealth> e = it.next();
+            if (loadBalancer.members.get(e.getKey()) != e.getValue().member)
+                it.remove();
+        }
+    }
+
+    /**
+     * Record the answer to a probe
+     * @param member the member that answered
+     */
+    public void probeAnswered(LBMember member) {
+        MemberHealth h = health.get(member.id);
+        if (h == null || h.member != member)
+            return;
+
+        boolean changed = false;
+        synchronized (h) {
+            if (!h.probePending)
+                return;
+            h.probePending = false;
+            h.failures = 0;
+            h.successes += 1;
+            if (!h.up && h.successes >= successThreshold) {
+                h.up = true;
+                changed = true;
+            }
+        }
+        if (changed) {
+            log.info("Member {} at {} is answering health checks again",
+                     member.id, IPv4Address.of(member.address));
+            loadBalancer.setMemberStatus(member, true);
+        }
+    }
+
+    /**
+     * @param member the member
+     * @return false if the member has been marked down
+     */
+    public boolean isUp(LBMember member) {
+        MemberHealth h = health.get(member.id);
+        return h == null || h.member != member || h.up;
+    }
+
+    protected int getFailureThreshold(LBMonitor monitor) {
+        if (monitor.attemptsBeforeDeactivation > 0)
+            return monitor.attemptsBeforeDeactivation;
+        return failureThreshold;
+    }
+}
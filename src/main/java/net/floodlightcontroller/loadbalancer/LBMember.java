@@ -16,6 +16,8 @@
 
 package net.floodlightcontroller.loadbalancer;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 /**
@@ -27,6 +29,12 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 @JsonSerialize(using=LBMemberSerializer.class)
 public class LBMember {
+    // values of status
+    public static final short STATUS_ACTIVE = 0;
+    public static final short STATUS_DOWN = 1;
+    // weights are 1 to MAX_WEIGHT
+    public static final int MAX_WEIGHT = 256;
+
     protected String id;
     protected int address;
     protected short port;
@@ -35,6 +43,10 @@ public class LBMember {
     protected int connectionLimit;
     protected short adminState;
     protected short status;
+    protected int weight;
+
+    // clients bound to this member in the connection table
+    protected final AtomicInteger activeConnections;
 
     protected String poolId;
     protected String vipId;
@@ -47,7 +59,9 @@ public class LBMember {
         
         connectionLimit = 0;
         adminState = 0;
-        status = 0;
+        status = STATUS_ACTIVE;
+        weight = 1;
+        activeConnections = new AtomicInteger();
         poolId = null;
         vipId = null;
     }
@@ -0,0 +1,277 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.loadbalancer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.floodlightcontroller.loadbalancer.LoadBalancer.IPClient;
+
+/**
+ * Chooses the member of a pool that serves a new client.  A selector is
+ * built from a snapshot of the pool's members whenever the membership
+ * changes, so picking a member takes no locks and allocates nothing.
+ * The load balancing method of the pool decides which selector is used.
+ */
+public abstract class LBMemberSelector {
+    /**
+     * Weighted round robin; also used for unknown methods
+     */
+    public static final short ROUND_ROBIN = 1;
+
+    /**
+     * The member with the fewest clients in the connection table,
+     * relative to its weight
+     */
+    public static final short LEAST_CONNECTIONS = 2;
+
+    /**
+     * Consistent hashing of the client address, so that a client keeps
+     * its member and only the clients of a removed member move
+     */
+    public static final short SOURCE_IP = 3;
+
+    protected final LBMember[] members;
+
+    protected LBMemberSelector(List<LBMember> members) {
+        this.members = members.toArray(new LBMember[members.size()]);
+    }
+
+    /**
+     * Choose a member for a client
+     * @param client the client
+     * @return the chosen member, or null if the pool has no members
+     */
+    public abstract LBMember pickMember(IPClient client);
+
+    /**
+     * Build the selector for a load balancing method
+     * @param lbMethod the method of the pool
+     * @param members the members of the pool, in order
+     * @return the selector
+     */
+    public static LBMemberSelector create(short lbMethod,
+                                          List<LBMember> members) {
+        switch (lbMethod) {
+            case LEAST_CONNECTIONS:
+                return new LeastConnections(members);
+            case SOURCE_IP:
+                return new ConsistentHash(members);
+            default:
+                return new RoundRobin(members);
+        }
+    }
+
+    /**
+     * Parse a load balancing method given either by number or by its
+     * LBaaS name
+     * @param method the method
+     * @return the method number
+     */
+    public static short parseMethod(String method) {
+        if (method.equalsIgnoreCase("ROUND_ROBIN"))
+            return ROUND_ROBIN;
+        if (method.equalsIgnoreCase("LEAST_CONNECTIONS"))
+            return LEAST_CONNECTIONS;
+        if (method.equalsIgnoreCase("SOURCE_IP"))
+            return SOURCE_IP;
+        return Short.parseShort(method);
+    }
+
+    private static int getWeight(LBMember member) {
+        return Math.min(LBMember.MAX_WEIGHT, Math.max(1, member.weight));
+    }
+
+    /**
+     * Smooth weighted round robin: the members are interleaved in a
+     * precomputed schedule where each appears as many times as its weight
+     * (reduced by their common divisor).  With equal weights this is
+     * plain round robin in member order.
+     */
+    protected static class RoundRobin extends LBMemberSelector {
+        // bounds the schedule when the weights have no common divisor
+        private static final int MAX_SCHEDULE = 1 << 16;
+
+        private final int[] schedule;
+        private final AtomicInteger next = new AtomicInteger();
+
+        protected RoundRobin(List<LBMember> members) {
+            super(members);
+            int n = this.members.length;
+            int[] weights = new int[n];
+            int gcd = 0;
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                weights[i] = getWeight(this.members[i]);
+                gcd = gcd(gcd, weights[i]);
+                total += weights[i];
+            }
+            if (n > 0) {
+                total = 0;
+                for (int i = 0; i < n; i++) {
+                    weights[i] /= gcd;
+                    total += weights[i];
+                }
+            }
+            if (total > MAX_SCHEDULE) {
+                // scale down, keeping every member in the schedule
+                double scale = (double) MAX_SCHEDULE / total;
+                total = 0;
+                for (int i = 0; i < n; i++) {
+                    weights[i] = Math.max(1, (int) (weights[i] * scale));
+                    total += weights[i];
+                }
+            }
+
+            schedule = new int[(int) total];
+            long[] current = new long[n];
+            for (int s = 0; s < schedule.length; s++) {
+                int best = 0;
+                for (int i = 0; i < n; i++) {
+                    current[i] += weights[i];
+                    if (current[i] > current[best])
+                        best = i;
+                }
+                current[best] -= total;
+                schedule[s] = best;
+            }
+        }
+
+        private static int gcd(int a, int b) {
+            while (b != 0) {
+                int t = a % b;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+
+        @Override
+        public LBMember pickMember(IPClient client) {
+            if (schedule.length == 0)
+                return null;
+            int i = (next.getAndIncrement() & Integer.MAX_VALUE) %
+                    schedule.length;
+            return members[schedule[i]];
+        }
+    }
+
+    /**
+     * Least connections, weighted.  Ties go to the members in turn.
+     */
+    protected static class LeastConnections extends LBMemberSelector {
+        private final AtomicInteger next = new AtomicInteger();
+
+        protected LeastConnections(List<LBMember> members) {
+            super(members);
+        }
+
+        @Override
+        public LBMember pickMember(IPClient client) {
+            int n = members.length;
+            if (n == 0)
+                return null;
+            int start = (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+            LBMember best = null;
+            long bestConnections = 0;
+            long bestWeight = 1;
+            for (int k = 0; k < n; k++) {
+                LBMember m = members[(start + k) % n];
+                long connections = m.activeConnections.get();
+                long weight = getWeight(m);
+                // connections / weight < bestConnections / bestWeight
+                if (best == null ||
+                        connections * bestWeight < bestConnections * weight) {
+                    best = m;
+                    bestConnections = connections;
+                    bestWeight = weight;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Consistent hashing on a ring with a number of points per member
+     * proportional to its weight.  Adding or removing a member only moves
+     * the clients that hash next to its points.
+     */
+    protected static class ConsistentHash extends LBMemberSelector {
+        protected static final int POINTS_PER_WEIGHT = 100;
+        protected static final int MAX_POINTS_PER_MEMBER = 10000;
+
+        private final int[] points;
+        private final LBMember[] owners;
+
+        protected ConsistentHash(List<LBMember> members) {
+            super(members);
+            int total = 0;
+            for (LBMember m : this.members) {
+                total += pointCount(m);
+            }
+            long[] ring = new long[total];
+            int p = 0;
+            for (int i = 0; i < this.members.length; i++) {
+                int seed = this.members[i].id.hashCode();
+                int count = pointCount(this.members[i]);
+                for (int j = 0; j < count; j++) {
+                    int h = mix(mix(seed) + j);
+                    // sort by hash, then member
+                    ring[p++] = ((long) h << 32) | i;
+                }
+            }
+            Arrays.sort(ring);
+            points = new int[total];
+            owners = new LBMember[total];
+            for (int k = 0; k < total; k++) {
+                points[k] = (int) (ring[k] >> 32);
+                owners[k] = this.members[(int) ring[k]];
+            }
+        }
+
+        private static int pointCount(LBMember m) {
+            return Math.min(MAX_POINTS_PER_MEMBER,
+                            getWeight(m) * POINTS_PER_WEIGHT);
+        }
+
+        /**
+         * Spread the bits of a hash over the whole ring
+         */
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h;
+        }
+
+        @Override
+        public LBMember pickMember(IPClient client) {
+            if (points.length == 0)
+                return null;
+            int h = mix(client.ipAddress.getInt());
+            int i = Arrays.binarySearch(points, h);
+            if (i < 0)
+                i = -i - 1;
+            if (i == points.length)
+                i = 0;
+            return owners[i];
+        }
+    }
+}
@@ -34,6 +34,11 @@ public class LBMemberSerializer extends JsonSerializer<LBMember>{
         jGen.writeStringField("id", member.id);
         jGen.writeStringField("address", String.valueOf(member.address));
         jGen.writeStringField("port", Short.toString(member.port));
+        jGen.writeStringField("status",
+                              member.status == LBMember.STATUS_DOWN ? "DOWN" : "ACTIVE");
+        jGen.writeStringField("weight", Integer.toString(member.weight));
+        jGen.writeStringField("activeConnections",
+                              Integer.toString(member.activeConnections.get()));
         jGen.writeStringField("poolId", member.poolId);
         jGen.writeStringField("vipId", member.vipId);
 
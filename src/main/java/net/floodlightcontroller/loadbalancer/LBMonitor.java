@@ -24,6 +24,11 @@ package net.floodlightcontroller.loadbalancer;
  */
 
 public class LBMonitor {
+    // values of type
+    public static final short TYPE_PING = 0; // ICMP echo
+    public static final short TYPE_TCP = 1;  // TCP SYN to the member port
+    public static final short TYPE_ARP = 2;
+
     protected String id;
     protected String name;
     protected short type;
@@ -42,7 +47,7 @@ public class LBMonitor {
     protected short status;
 
     public LBMonitor() {
-        id = null;
+        id = String.valueOf((int) (Math.random()*10000));
         name = null;
         type = 0;
         delay = 0;
@@ -56,5 +61,22 @@ public class LBMonitor {
         status = 0;
         
     }
+
+    /**
+     * Parse a monitor type given either by number or by its LBaaS name.
+     * HTTP and HTTPS monitors only check that the port accepts connections.
+     * @param type the type
+     * @return the type number
+     */
+    public static short parseType(String type) {
+        if (type.equalsIgnoreCase("PING") || type.equalsIgnoreCase("ICMP"))
+            return TYPE_PING;
+        if (type.equalsIgnoreCase("TCP") || type.equalsIgnoreCase("HTTP") ||
+                type.equalsIgnoreCase("HTTPS"))
+            return TYPE_TCP;
+        if (type.equalsIgnoreCase("ARP"))
+            return TYPE_ARP;
+        return Short.parseShort(type);
+    }
     
 }
@@ -17,6 +17,8 @@
 package net.floodlightcontroller.loadbalancer;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
@@ -45,7 +47,8 @@ public class LBPool {
     
     protected String vipId;
     
-    protected int previousMemberIndex;
+    // rebuilt by the load balancer whenever the members change
+    protected volatile LBMemberSelector selector;
     
     public LBPool() {
         id = String.valueOf((int) (Math.random()*10000));
@@ -58,14 +61,22 @@ public class LBPool {
         monitors = new ArrayList<String>();
         adminState = 0;
         status = 0;
-        previousMemberIndex = -1;
+        selector = LBMemberSelector.create(lbMethod,
+                                           Collections.<LBMember>emptyList());
+    }
+    
+    /**
+     * Rebuild the member selector for the current members and method
+     * @param poolMembers the members of the pool, in the order of members
+     */
+    public void setMembers(List<LBMember> poolMembers) {
+        selector = LBMemberSelector.create(lbMethod, poolMembers);
     }
     
     public String pickMember(IPClient client) {
-        // simple round robin for now; add different lbmethod later
-        if (members.size() > 0) {
-            previousMemberIndex = (previousMemberIndex + 1) % members.size();
-            return members.get(previousMemberIndex);
+        LBMember member = selector.pickMember(client);
+        if (member != null) {
+            return member.id;
         } else {
             return null;
         }
@@ -19,13 +19,19 @@ package net.floodlightcontroller.loadbalancer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFFlowRemoved;
 import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.protocol.OFMessage;
@@ -56,6 +62,7 @@ import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.core.util.SingletonTask;
 import net.floodlightcontroller.debugcounter.IDebugCounter;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.debugcounter.IDebugCounterService.MetaData;
@@ -63,6 +70,7 @@ import net.floodlightcontroller.devicemanager.IDevice;
 import net.floodlightcontroller.devicemanager.IDeviceService;
 import net.floodlightcontroller.devicemanager.SwitchPort;
 import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.Data;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.ICMP;
 import net.floodlightcontroller.packet.IPacket;
@@ -73,6 +81,7 @@ import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.routing.IRoutingService;
 import net.floodlightcontroller.routing.Route;
 import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.topology.ITopologyService;
 import net.floodlightcontroller.topology.NodePortTuple;
 import net.floodlightcontroller.util.FlowModUtils;
@@ -83,10 +92,28 @@ import net.floodlightcontroller.util.FlowModUtils;
  * v1.0 API proposal. Since the proposal has not been final, no efforts have yet been 
  * made to confirm compatibility at this time. 
  * 
+ * Clients are bound to a member in a bounded connection table.  The flows
+ * pushed for them expire after an idle timeout (config parameter
+ * "idleTimeout", in seconds) and the client is forgotten when a switch
+ * reports the removal of its flows.  The table holds at most
+ * "maxConnections" clients.  Members are chosen by
+ * weighted round robin, least connections or consistent hashing of the
+ * client address, according to the lb_method of the pool.
+ * 
+ * The members of pools with a health monitor are probed every
+ * "healthCheckInterval" ms, or every delay of the monitor if it has one,
+ * with ARP, ICMP echo or TCP SYN packets sent from their vip.  A member that misses "healthCheckFailures" probes in a row
+ * is taken out of selection and the flows of its clients are deleted, so
+ * that they are balanced again on their next packet; it is put back after
+ * "healthCheckSuccesses" answered probes.
+ * 
  * Limitations:
- * - client records and static flows not purged after use, will exhaust switch flow tables over time
- * - round robin policy among servers based on connections, not traffic volume
- * - health monitoring feature not implemented yet
+ * - static flow entries that expire on the switches are only purged from
+ *   the static flow entry pusher when the switch reports their removal
+ * - selection policies are based on connections, not traffic volume
+ * - health probes only check reachability, not the application
+ * - clients whose flow removal is not reported, for instance by a switch
+ *   that disconnected, stay bound until the connection table fills up
  *  
  * @author kcwang
  * @edited Ryan Izard, rizard@g.clemson.edu, ryan.izard@bigswitch.com
@@ -107,14 +134,36 @@ public class LoadBalancer implements IFloodlightModule,
     protected ITopologyService topologyService;
     protected IStaticFlowEntryPusherService sfpService;
     protected IOFSwitchService switchService;
+    protected IThreadPoolService threadPoolService;
     
-    protected HashMap<String, LBVip> vips;
-    protected HashMap<String, LBPool> pools;
-    protected HashMap<String, LBMember> members;
-    protected HashMap<Integer, String> vipIpToId;
-    protected HashMap<Integer, MacAddress> vipIpToMac;
-    protected HashMap<Integer, String> memberIpToId;
-    protected HashMap<IPClient, LBMember> clientToMember;
+    // read by the packet-in threads; changed under the module lock. The
+    // maps keyed by ID are synchronized HashMaps, as REST may look up a
+    // null ID; iterate over them under their own lock.
+    protected Map<String, LBVip> vips;
+    protected Map<String, LBPool> pools;
+    protected Map<String, LBMember> members;
+    protected ConcurrentHashMap<IPv4Address, String> vipIpToId;
+    protected ConcurrentHashMap<IPv4Address, MacAddress> vipIpToMac;
+    protected ConcurrentHashMap<IPv4Address, String> memberIpToId;
+    protected ConcurrentHashMap<String, LBMonitor> monitors;
+    protected LBConnectionTable clientToMember;
+    protected LBHealthChecker healthChecker;
+    protected SingletonTask healthCheckTask;
+    
+    protected static final int DEFAULT_IDLE_TIMEOUT = 60; // s
+    protected static final int DEFAULT_MAX_CONNECTIONS = 100000;
+    protected int idleTimeout;
+    protected int maxConnections;
+
+    protected static final int DEFAULT_HEALTH_CHECK_INTERVAL = 250; // ms
+    protected static final int DEFAULT_HEALTH_CHECK_FAILURES = 3;
+    protected static final int DEFAULT_HEALTH_CHECK_SUCCESSES = 2;
+    // source port of the TCP health probes
+    protected static final TransportPort HEALTH_CHECK_PORT = TransportPort.of(65001);
+    protected static final short TCP_SYN = 0x02;
+    protected static final short TCP_RST = 0x04;
+    protected static final short TCP_ACK = 0x10;
+    protected int healthCheckInterval;
     
     //Copied from Forwarding with message damper routine for pushing proxy Arp 
     protected static int OFMESSAGE_DAMPER_CAPACITY = 10000; // ms. 
@@ -134,7 +183,7 @@ public class LoadBalancer implements IFloodlightModule,
             };
 
     // data structure for storing connected
-    public class IPClient {
+    public static class IPClient {
         IPv4Address ipAddress;
         IpProtocol nw_proto;
         TransportPort srcPort; // tcp/udp src port. icmp type (OFMatch convention)
@@ -146,6 +195,30 @@ public class LoadBalancer implements IFloodlightModule,
             srcPort = TransportPort.NONE;
             targetPort = TransportPort.NONE;
         }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ipAddress.hashCode();
+            result = prime * result + nw_proto.hashCode();
+            result = prime * result + srcPort.hashCode();
+            result = prime * result + targetPort.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof IPClient))
+                return false;
+            IPClient other = (IPClient) obj;
+            return ipAddress.equals(other.ipAddress) &&
+                    nw_proto.equals(other.nw_proto) &&
+                    srcPort.equals(other.srcPort) &&
+                    targetPort.equals(other.targetPort);
+        }
     }
     
     @Override
@@ -163,7 +236,9 @@ public class LoadBalancer implements IFloodlightModule,
 
     @Override
     public boolean isCallbackOrderingPostreq(OFType type, String name) {
-        return (type.equals(OFType.PACKET_IN) && name.equals("forwarding"));
+        // see the removal of client flows before the static flow entry pusher purges them
+        return (type.equals(OFType.PACKET_IN) && name.equals("forwarding")) ||
+                (type.equals(OFType.FLOW_REMOVED) && name.equals("staticflowentry"));
    }
 
     @Override
@@ -172,6 +247,8 @@ public class LoadBalancer implements IFloodlightModule,
         switch (msg.getType()) {
             case PACKET_IN:
                 return processPacketIn(sw, (OFPacketIn)msg, cntx);
+            case FLOW_REMOVED:
+                return processFlowRemoved(sw, (OFFlowRemoved)msg);
             default:
                 break;
         }
@@ -192,21 +269,33 @@ public class LoadBalancer implements IFloodlightModule,
 
                 IPv4Address targetProtocolAddress = arpRequest.getTargetProtocolAddress();
 
-                if (vipIpToId.containsKey(targetProtocolAddress.getInt())) {
-                    String vipId = vipIpToId.get(targetProtocolAddress.getInt());
+                String vipId = vipIpToId.get(targetProtocolAddress);
+                if (vipId != null) {
                     vipProxyArpReply(sw, pi, cntx, vipId);
                     return Command.STOP;
                 }
             }
         } else {
+            // answers to health probes are sent by members to their vip
+            if (pkt instanceof ARP) {
+                ARP arpReply = (ARP) pkt;
+                if (arpReply.getOpCode().equals(ARP.OP_REPLY) &&
+                        handleHealthReply(sw, pi, cntx, arpReply.getSenderProtocolAddress(),
+                                          arpReply.getTargetProtocolAddress(), arpReply))
+                    return Command.STOP;
+            }
             // currently only load balance IPv4 packets - no-op for other traffic 
             if (pkt instanceof IPv4) {
                 IPv4 ip_pkt = (IPv4) pkt;
                 
                 // If match Vip and port, check pool and choose member
-                int destIpAddress = ip_pkt.getDestinationAddress().getInt();
+                String vipId = vipIpToId.get(ip_pkt.getDestinationAddress());
                 
-                if (vipIpToId.containsKey(destIpAddress)){
+                if (vipId != null) {
+                    if (handleHealthReply(sw, pi, cntx, ip_pkt.getSourceAddress(),
+                                          ip_pkt.getDestinationAddress(), ip_pkt.getPayload()))
+                        return Command.STOP;
+
                     IPClient client = new IPClient();
                     client.ipAddress = ip_pkt.getSourceAddress();
                     client.nw_proto = ip_pkt.getProtocol();
@@ -225,9 +314,11 @@ public class LoadBalancer implements IFloodlightModule,
                         client.targetPort = TransportPort.of(0); 
                     }
                     
-                    LBVip vip = vips.get(vipIpToId.get(destIpAddress));
-                    LBPool pool = pools.get(vip.pickPool(client));
-                    LBMember member = members.get(pool.pickMember(client));
+                    LBMember member = pickMember(vipId, client);
+                    if (member == null) {
+                        log.debug("No member available for vip {}", vipId);
+                        return Command.CONTINUE;
+                    }
 
                     // for chosen member, check device manager and find and push routes, in both directions                    
                     pushBidirectionalVipRoutes(sw, pi, cntx, client, member);
@@ -244,6 +335,256 @@ public class LoadBalancer implements IFloodlightModule,
         return Command.CONTINUE;
     }
 
+    /**
+     * used to forget the client of an inbound flow removed from a switch,
+     * whose next packet comes back to the controller
+     * @param IOFSwitch sw
+     * @param OFFlowRemoved fr
+     */
+    private net.floodlightcontroller.core.IListener.Command processFlowRemoved(IOFSwitch sw, OFFlowRemoved fr) {
+        if ((fr.getPriority() & 0xffff) != LB_PRIORITY)
+            return Command.CONTINUE;
+        Match match = fr.getMatch();
+        // outbound flows match on the client as destination and expire with the inbound ones
+        IPv4Address ipAddress = match.get(MatchField.IPV4_SRC);
+        IpProtocol nw_proto = match.get(MatchField.IP_PROTO);
+        if (ipAddress == null || nw_proto == null)
+            return Command.CONTINUE;
+        TransportPort srcPort = TransportPort.NONE;
+        if (nw_proto.equals(IpProtocol.TCP)) {
+            srcPort = match.get(MatchField.TCP_SRC);
+        } else if (nw_proto.equals(IpProtocol.UDP)) {
+            srcPort = match.get(MatchField.UDP_SRC);
+        } else if (nw_proto.equals(IpProtocol.SCTP)) {
+            srcPort = match.get(MatchField.SCTP_SRC);
+        }
+        if (srcPort != null &&
+                clientToMember.removeFlow(ipAddress, nw_proto, srcPort, System.currentTimeMillis()))
+            log.debug("Client {} port {} removed from switch {}", new Object[] { ipAddress, srcPort, sw.getId() });
+        // the static flow entry pusher purges the flow from its storage
+        return Command.CONTINUE;
+    }
+
+    /**
+     * used to find the member serving a client, binding new clients to a
+     * member of the vip's pool
+     * @param String vipId
+     * @param IPClient client
+     * @return the member, or null if the vip has no pool or no members
+     */
+    protected LBMember pickMember(String vipId, IPClient client) {
+        long now = System.currentTimeMillis();
+        LBMember member = clientToMember.get(client, now);
+        if (member != null) {
+            if (members.get(member.id) == member)
+                return member;
+            // the member was replaced or removed since
+            clientToMember.remove(client);
+        }
+
+        LBVip vip = vips.get(vipId);
+        if (vip == null)
+            return null;
+        String poolId = vip.pickPool(client);
+        LBPool pool = (poolId != null) ? pools.get(poolId) : null;
+        if (pool == null)
+            return null;
+        String memberId = pool.pickMember(client);
+        member = (memberId != null) ? members.get(memberId) : null;
+        if (member == null)
+            return null;
+        return clientToMember.bind(client, member, now);
+    }
+
+    /**
+     * used to record the answers to health probes
+     * @param IOFSwitch sw
+     * @param OFPacketIn pi
+     * @param FloodlightContext cntx
+     * @param IPv4Address from
+     * @param IPv4Address to
+     * @param IPacket reply the ARP packet, or the payload of the IPv4 packet
+     * @return true if the packet was sent by a member to a vip, and
+     *         needs no further processing
+     */
+    protected boolean handleHealthReply(IOFSwitch sw, OFPacketIn pi, FloodlightContext cntx,
+                                        IPv4Address from, IPv4Address to, IPacket reply) {
+        String memberId = memberIpToId.get(from);
+        if (memberId == null || !vipIpToId.containsKey(to))
+            return false;
+        LBMember member = members.get(memberId);
+        if (member == null)
+            return false;
+
+        if (reply instanceof ARP) {
+            healthChecker.probeAnswered(member);
+        } else if (reply instanceof ICMP) {
+            if (((ICMP) reply).getIcmpType() == ICMP.ECHO_REPLY)
+                healthChecker.probeAnswered(member);
+        } else if (reply instanceof TCP) {
+            TCP tcp = (TCP) reply;
+            // a SYN-ACK means the member is listening; close the half-open
+            // connection it left behind
+            if (tcp.getDestinationPort().equals(HEALTH_CHECK_PORT) &&
+                    (tcp.getFlags() & (TCP_SYN | TCP_ACK)) == (TCP_SYN | TCP_ACK)) {
+                healthChecker.probeAnswered(member);
+                Ethernet eth = IFloodlightProviderService.bcStore.get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                IPacket rst = new Ethernet()
+                    .setSourceMACAddress(eth.getDestinationMACAddress())
+                    .setDestinationMACAddress(eth.getSourceMACAddress())
+                    .setEtherType(EthType.IPv4)
+                    .setVlanID(eth.getVlanID())
+                    .setPayload(new IPv4()
+                        .setSourceAddress(to)
+                        .setDestinationAddress(from)
+                        .setTtl((byte) 64)
+                        .setProtocol(IpProtocol.TCP)
+                        .setPayload(new TCP()
+                            .setSourcePort(tcp.getDestinationPort())
+                            .setDestinationPort(tcp.getSourcePort())
+                            .setSequence(tcp.getAcknowledge())
+                            .setFlags(TCP_RST)
+                            .setPayload(new Data(new byte[0]))));
+                pushPacket(rst, sw, OFBufferId.NO_BUFFER, OFPort.ANY, (pi.getVersion().compareTo(OFVersion.OF_12) < 0 ? pi.getInPort() : pi.getMatch().get(MatchField.IN_PORT)), cntx, true);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * used to send a health probe to a member, from its vip
+     * @param LBMember member
+     * @param LBMonitor monitor
+     * @return false if the probe could not be sent
+     */
+    protected boolean sendHealthProbe(LBMember member, LBMonitor monitor) {
+        LBVip vip = (member.vipId != null) ? vips.get(member.vipId) : null;
+        if (vip == null)
+            return false;
+        IPv4Address memberIp = IPv4Address.of(member.address);
+        Iterator<? extends IDevice> devices =
+                deviceManagerService.queryDevices(null, null, memberIp, null, null);
+        if (!devices.hasNext()) {
+            log.debug("Member {} at {} not known, health probe not sent", member.id, memberIp);
+            return false;
+        }
+        IDevice device = devices.next();
+
+        IPacket probe;
+        if (monitor.type == LBMonitor.TYPE_ARP) {
+            probe = new ARP()
+                .setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) 6)
+                .setProtocolAddressLength((byte) 4)
+                .setOpCode(ARP.OP_REQUEST)
+                .setSenderHardwareAddress(vip.proxyMac)
+                .setSenderProtocolAddress(IPv4Address.of(vip.address))
+                .setTargetHardwareAddress(MacAddress.NONE)
+                .setTargetProtocolAddress(memberIp);
+        } else {
+            IPacket transport;
+            if (monitor.type == LBMonitor.TYPE_TCP) {
+                short port = (monitor.port != 0) ? monitor.port : member.port;
+                transport = new TCP()
+                    .setSourcePort(HEALTH_CHECK_PORT)
+                    .setDestinationPort(TransportPort.of(port & 0xffff))
+                    .setSequence((int) System.nanoTime())
+                    .setFlags(TCP_SYN)
+                    .setWindowSize((short) 1024)
+                    .setPayload(new Data(new byte[0]));
+            } else {
+                transport = new ICMP()
+                    .setIcmpType(ICMP.ECHO_REQUEST)
+                    .setIcmpCode((byte) 0)
+                    .setPayload(new Data(new byte[] {0x01, 0x02, 0x03, 0x04}));
+            }
+            probe = new IPv4()
+                .setSourceAddress(IPv4Address.of(vip.address))
+                .setDestinationAddress(memberIp)
+                .setTtl((byte) 64)
+                .setProtocol(monitor.type == LBMonitor.TYPE_TCP ? IpProtocol.TCP : IpProtocol.ICMP)
+                .setPayload(transport);
+        }
+        IPacket eth = new Ethernet()
+            .setSourceMACAddress(vip.proxyMac)
+            .setDestinationMACAddress(device.getMACAddress())
+            .setEtherType(probe instanceof ARP ? EthType.ARP : EthType.IPv4)
+            .setPayload(probe);
+
+        boolean sent = false;
+        for (SwitchPort ap : device.getAttachmentPoints()) {
+            IOFSwitch sw = switchService.getActiveSwitch(ap.getSwitchDPID());
+            if (sw == null)
+                continue;
+            pushPacket(eth, sw, OFBufferId.NO_BUFFER, OFPort.ANY, ap.getPort(), null, true);
+            sent = true;
+        }
+        return sent;
+    }
+
+    /**
+     * used to take a member out of selection, or to put it back
+     * @param LBMember member
+     * @param boolean up
+     */
+    protected synchronized void setMemberStatus(LBMember member, boolean up) {
+        if (members.get(member.id) != member)
+            return;
+        short status = up ? LBMember.STATUS_ACTIVE : LBMember.STATUS_DOWN;
+        if (member.status == status)
+            return;
+        member.status = status;
+        if (member.poolId != null && pools.get(member.poolId) != null)
+            updatePoolSelector(pools.get(member.poolId));
+        if (!up) {
+            clientToMember.removeMember(member);
+            deleteMemberFlows(member);
+        }
+    }
+
+    /**
+     * used to delete the flows pushed towards and back from a member
+     * @param LBMember member
+     */
+    protected void deleteMemberFlows(LBMember member) {
+        String inbound = getEntryNamePrefix(true, member);
+        String outbound = getEntryNamePrefix(false, member);
+        List<String> names = new ArrayList<String>();
+        for (Map<String, OFFlowMod> flows : sfpService.getFlows().values()) {
+            for (String name : flows.keySet()) {
+                if (name.startsWith(inbound) || name.startsWith(outbound))
+                    names.add(name);
+            }
+        }
+        for (String name : names) {
+            sfpService.deleteFlow(name);
+        }
+        log.debug("Deleted {} flows of member {}", names.size(), member.id);
+    }
+
+    protected static String getEntryNamePrefix(boolean inBound, LBMember member) {
+        return (inBound ? "inbound" : "outbound") + "-vip-" + member.vipId +
+                "-member-" + member.id + "-";
+    }
+
+    /**
+     * used to find the health monitor of the pool of a member
+     * @param LBMember member
+     * @return the monitor, or null if the member is not monitored
+     */
+    protected LBMonitor getMonitor(LBMember member) {
+        LBPool pool = (member.poolId != null) ? pools.get(member.poolId) : null;
+        if (pool == null)
+            return null;
+        for (String monitorId : pool.monitors) {
+            LBMonitor monitor = monitors.get(monitorId);
+            if (monitor != null)
+                return monitor;
+        }
+        return null;
+    }
+
     /**
      * used to send proxy Arp for load balanced service requests
      * @param IOFSwitch sw
@@ -498,7 +839,8 @@ public class LoadBalancer implements IFloodlightModule,
                
                OFFlowMod.Builder fmb = pinSwitch.getOFFactory().buildFlowAdd();
 
-               fmb.setIdleTimeout(FlowModUtils.INFINITE_TIMEOUT);
+               // the client is forgotten when the switch reports the removal
+               fmb.setIdleTimeout(idleTimeout);
                fmb.setHardTimeout(FlowModUtils.INFINITE_TIMEOUT);
                fmb.setBufferId(OFBufferId.NO_BUFFER);
                fmb.setOutPort(OFPort.ANY);
@@ -506,7 +848,7 @@ public class LoadBalancer implements IFloodlightModule,
                fmb.setPriority(FlowModUtils.PRIORITY_MAX);
                
                if (inBound) {
-                   entryName = "inbound-vip-"+ member.vipId+"-client-"+client.ipAddress+"-port-"+client.targetPort
+                   entryName = getEntryNamePrefix(true, member)+"client-"+client.ipAddress+"-port-"+client.targetPort
                            +"-srcswitch-"+path.get(0).getNodeId()+"-sw-"+sw;
                    mb.setExact(MatchField.ETH_TYPE, EthType.IPv4)
                    .setExact(MatchField.IP_PROTO, client.nw_proto)
@@ -539,7 +881,7 @@ public class LoadBalancer implements IFloodlightModule,
                 	   actions.add(switchService.getSwitch(path.get(i+1).getNodeId()).getOFFactory().actions().output(path.get(i+1).getPortId(), Integer.MAX_VALUE));
                    }
                } else {
-                   entryName = "outbound-vip-"+ member.vipId+"-client-"+client.ipAddress+"-port-"+client.targetPort
+                   entryName = getEntryNamePrefix(false, member)+"client-"+client.ipAddress+"-port-"+client.targetPort
                            +"-srcswitch-"+path.get(0).getNodeId()+"-sw-"+sw;
                    mb.setExact(MatchField.ETH_TYPE, EthType.IPv4)
                    .setExact(MatchField.IP_PROTO, client.nw_proto)
@@ -585,38 +927,47 @@ public class LoadBalancer implements IFloodlightModule,
     
     @Override
     public Collection<LBVip> listVips() {
-        return vips.values();
+        synchronized (vips) {
+            return new ArrayList<LBVip>(vips.values());
+        }
     }
 
     @Override
     public Collection<LBVip> listVip(String vipId) {
         Collection<LBVip> result = new HashSet<LBVip>();
-        result.add(vips.get(vipId));
+        LBVip vip = (vipId != null) ? vips.get(vipId) : null;
+        if (vip != null)
+            result.add(vip);
         return result;
     }
 
     @Override
-    public LBVip createVip(LBVip vip) {
+    public synchronized LBVip createVip(LBVip vip) {
         if (vip == null)
             vip = new LBVip();
         
         vips.put(vip.id, vip);
-        vipIpToId.put(vip.address, vip.id);
-        vipIpToMac.put(vip.address, vip.proxyMac);
+        vipIpToId.put(IPv4Address.of(vip.address), vip.id);
+        vipIpToMac.put(IPv4Address.of(vip.address), vip.proxyMac);
         
         return vip;
     }
 
     @Override
-    public LBVip updateVip(LBVip vip) {
+    public synchronized LBVip updateVip(LBVip vip) {
         vips.put(vip.id, vip);
         return vip;
     }
 
     @Override
-    public int removeVip(String vipId) {
-        if(vips.containsKey(vipId)){
-            vips.remove(vipId);
+    public synchronized int removeVip(String vipId) {
+        if(vipId != null && vips.containsKey(vipId)){
+            LBVip vip = vips.remove(vipId);
+            IPv4Address address = IPv4Address.of(vip.address);
+            if (vipId.equals(vipIpToId.get(address))) {
+                vipIpToId.remove(address);
+                vipIpToMac.remove(address);
+            }
             return 0;
         } else {
             return -1;
@@ -625,21 +976,26 @@ public class LoadBalancer implements IFloodlightModule,
 
     @Override
     public Collection<LBPool> listPools() {
-        return pools.values();
+        synchronized (pools) {
+            return new ArrayList<LBPool>(pools.values());
+        }
     }
 
     @Override
     public Collection<LBPool> listPool(String poolId) {
         Collection<LBPool> result = new HashSet<LBPool>();
-        result.add(pools.get(poolId));
+        LBPool pool = (poolId != null) ? pools.get(poolId) : null;
+        if (pool != null)
+            result.add(pool);
         return result;
     }
 
     @Override
-    public LBPool createPool(LBPool pool) {
+    public synchronized LBPool createPool(LBPool pool) {
         if (pool == null)
             pool = new LBPool();
         
+        updatePoolSelector(pool);
         pools.put(pool.id, pool);
         if (pool.vipId != null && vips.containsKey(pool.vipId))
             vips.get(pool.vipId).pools.add(pool.id);
@@ -652,17 +1008,17 @@ public class LoadBalancer implements IFloodlightModule,
     }
 
     @Override
-    public LBPool updatePool(LBPool pool) {
+    public synchronized LBPool updatePool(LBPool pool) {
+        updatePoolSelector(pool);
         pools.put(pool.id, pool);
         return null;
     }
 
     @Override
-    public int removePool(String poolId) {
-        LBPool pool;
-        if (pools != null) {
-            pool = pools.get(poolId);
-            if (pool.vipId != null)
+    public synchronized int removePool(String poolId) {
+        LBPool pool = (poolId != null) ? pools.get(poolId) : null;
+        if (pool != null) {
+            if (pool.vipId != null && vips.get(pool.vipId) != null)
                 vips.get(pool.vipId).pools.remove(poolId);
             pools.remove(poolId);
             return 0;
@@ -673,13 +1029,17 @@ public class LoadBalancer implements IFloodlightModule,
 
     @Override
     public Collection<LBMember> listMembers() {
-        return members.values();
+        synchronized (members) {
+            return new ArrayList<LBMember>(members.values());
+        }
     }
 
     @Override
     public Collection<LBMember> listMember(String memberId) {
         Collection<LBMember> result = new HashSet<LBMember>();
-        result.add(members.get(memberId));
+        LBMember member = (memberId != null) ? members.get(memberId) : null;
+        if (member != null)
+            result.add(member);
         return result;
         }
 
@@ -687,7 +1047,7 @@ public class LoadBalancer implements IFloodlightModule,
     public Collection<LBMember> listMembersByPool(String poolId) {
         Collection<LBMember> result = new HashSet<LBMember>();
         
-        if(pools.containsKey(poolId)) {
+        if(poolId != null && pools.containsKey(poolId)) {
             ArrayList<String> memberIds = pools.get(poolId).members;
             for (int i = 0; i<memberIds.size(); i++)
                 result.add(members.get(memberIds.get(i)));
@@ -696,17 +1056,18 @@ public class LoadBalancer implements IFloodlightModule,
     }
     
     @Override
-    public LBMember createMember(LBMember member) {
+    public synchronized LBMember createMember(LBMember member) {
         if (member == null)
             member = new LBMember();
 
         members.put(member.id, member);
-        memberIpToId.put(member.address, member.id);
+        memberIpToId.put(IPv4Address.of(member.address), member.id);
 
         if (member.poolId != null && pools.get(member.poolId) != null) {
             member.vipId = pools.get(member.poolId).vipId;
             if (!pools.get(member.poolId).members.contains(member.id))
                 pools.get(member.poolId).members.add(member.id);
+            updatePoolSelector(pools.get(member.poolId));
         } else
             log.error("member must be specified with non-null pool_id");
         
@@ -714,49 +1075,84 @@ public class LoadBalancer implements IFloodlightModule,
     }
 
     @Override
-    public LBMember updateMember(LBMember member) {
-        members.put(member.id, member);
+    public synchronized LBMember updateMember(LBMember member) {
+        LBMember old = members.put(member.id, member);
+        if (old != null && old != member)
+            clientToMember.removeMember(old);
+        if (member.poolId != null && pools.get(member.poolId) != null)
+            updatePoolSelector(pools.get(member.poolId));
         return member;
     }
 
     @Override
-    public int removeMember(String memberId) {
+    public synchronized int removeMember(String memberId) {
         LBMember member;
-        member = members.get(memberId);
+        member = (memberId != null) ? members.get(memberId) : null;
         
         if(member != null){
-            if (member.poolId != null)
-                pools.get(member.poolId).members.remove(memberId);
             members.remove(memberId);
+            if (member.poolId != null && pools.get(member.poolId) != null) {
+                pools.get(member.poolId).members.remove(memberId);
+                updatePoolSelector(pools.get(member.poolId));
+            }
+            clientToMember.removeMember(member);
             return 0;
         } else {
             return -1;
         }    
     }
 
+    /**
+     * used to rebuild the member selector of a pool after its members,
+     * their status or its method changed
+     * @param LBPool pool
+     */
+    protected void updatePoolSelector(LBPool pool) {
+        List<LBMember> poolMembers = new ArrayList<LBMember>();
+        for (String memberId : pool.members) {
+            LBMember member = members.get(memberId);
+            if (member != null && member.status != LBMember.STATUS_DOWN)
+                poolMembers.add(member);
+        }
+        pool.setMembers(poolMembers);
+    }
+
     @Override
     public Collection<LBMonitor> listMonitors() {
-        return null;
+        return monitors.values();
     }
 
     @Override
     public Collection<LBMonitor> listMonitor(String monitorId) {
-        return null;
+        Collection<LBMonitor> result = new HashSet<LBMonitor>();
+        LBMonitor monitor = (monitorId != null) ? monitors.get(monitorId) : null;
+        if (monitor != null)
+            result.add(monitor);
+        return result;
     }
 
     @Override
-    public LBMonitor createMonitor(LBMonitor monitor) {
-        return null;
+    public synchronized LBMonitor createMonitor(LBMonitor monitor) {
+        if (monitor == null)
+            monitor = new LBMonitor();
+
+        monitors.put(monitor.id, monitor);
+        return monitor;
     }
 
     @Override
-    public LBMonitor updateMonitor(LBMonitor monitor) {
-        return null;
+    public synchronized LBMonitor updateMonitor(LBMonitor monitor) {
+        monitors.put(monitor.id, monitor);
+        return monitor;
     }
 
     @Override
-    public int removeMonitor(String monitorId) {
-        return 0;
+    public synchronized int removeMonitor(String monitorId) {
+        if (monitorId != null && monitors.remove(monitorId) != null) {
+            return 0;
+        } else {
+            return -1;
+        }
     }
 
     @Override
@@ -791,6 +1187,7 @@ public class LoadBalancer implements IFloodlightModule,
         l.add(ITopologyService.class);
         l.add(IRoutingService.class);
         l.add(IStaticFlowEntryPusherService.class);
+        l.add(IThreadPoolService.class);
 
         return l;
     }
@@ -806,20 +1203,68 @@ public class LoadBalancer implements IFloodlightModule,
         topologyService = context.getServiceImpl(ITopologyService.class);
         sfpService = context.getServiceImpl(IStaticFlowEntryPusherService.class);
         switchService = context.getServiceImpl(IOFSwitchService.class);
+        threadPoolService = context.getServiceImpl(IThreadPoolService.class);
         
-        vips = new HashMap<String, LBVip>();
-        pools = new HashMap<String, LBPool>();
-        members = new HashMap<String, LBMember>();
-        vipIpToId = new HashMap<Integer, String>();
-        vipIpToMac = new HashMap<Integer, MacAddress>();
-        memberIpToId = new HashMap<Integer, String>();
+        vips = Collections.synchronizedMap(new HashMap<String, LBVip>());
+        pools = Collections.synchronizedMap(new HashMap<String, LBPool>());
+        members = Collections.synchronizedMap(new HashMap<String, LBMember>());
+        vipIpToId = new ConcurrentHashMap<IPv4Address, String>();
+        vipIpToMac = new ConcurrentHashMap<IPv4Address, MacAddress>();
+        memberIpToId = new ConcurrentHashMap<IPv4Address, String>();
+        monitors = new ConcurrentHashMap<String, LBMonitor>();
+
+        Map<String, String> configParams = context.getConfigParams(this);
+        idleTimeout = getIntParam(configParams, "idleTimeout", DEFAULT_IDLE_TIMEOUT);
+        maxConnections = getIntParam(configParams, "maxConnections", DEFAULT_MAX_CONNECTIONS);
+        // flow idle timeouts are 16 bits
+        if (idleTimeout > 0xffff)
+            idleTimeout = 0xffff;
+        clientToMember = new LBConnectionTable(maxConnections, idleTimeout * 1000L);
+        log.debug("Client idle timeout {} s, at most {} clients", idleTimeout, maxConnections);
+
+        healthCheckInterval = getIntParam(configParams, "healthCheckInterval", DEFAULT_HEALTH_CHECK_INTERVAL);
+        int failures = getIntParam(configParams, "healthCheckFailures", DEFAULT_HEALTH_CHECK_FAILURES);
+        int successes = getIntParam(configParams, "healthCheckSuccesses", DEFAULT_HEALTH_CHECK_SUCCESSES);
+        healthChecker = new LBHealthChecker(this, failures, successes);
+        log.debug("Health checks every {} ms, down after {} failures, up after {} successes",
+                  new Object[] { healthCheckInterval, failures, successes });
+    }
+
+    private static int getIntParam(Map<String, String> configParams, String name, int defaultValue) {
+        String option = configParams.get(name);
+        if (option != null) {
+            try {
+                int value = Integer.parseInt(option);
+                if (value > 0)
+                    return value;
+            } catch (NumberFormatException e) {
+            }
+            log.error("Invalid {} {}, using default {}", new Object[] { name, option, defaultValue });
+        }
+        return defaultValue;
     }
 
     @Override
     public void startUp(FloodlightModuleContext context) {
         floodlightProviderService.addOFMessageListener(OFType.PACKET_IN, this);
+        floodlightProviderService.addOFMessageListener(OFType.FLOW_REMOVED, this);
         restApiService.addRestletRoutable(new LoadBalancerWebRoutable());
         debugCounterService.registerModule(this.getName());
         counterPacketOut = debugCounterService.registerCounter(this.getName(), "packet-outs-written", "Packet outs written by the LoadBalancer", MetaData.WARN);
+
+        ScheduledExecutorService ses = threadPoolService.getScheduledExecutor();
+        healthCheckTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    healthChecker.runChecks();
+                } catch (Exception e) {
+                    log.error("Exception in health check task", e);
+                } finally {
+                    healthCheckTask.reschedule(healthCheckInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+        healthCheckTask.reschedule(healthCheckInterval, TimeUnit.MILLISECONDS);
     }
 }
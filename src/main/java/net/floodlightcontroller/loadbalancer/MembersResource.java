@@ -136,6 +136,10 @@ public class MembersResource extends ServerResource {
             if (n.equals("pool_id")) {
                 member.poolId = jp.getText();
                 continue;
+            } else
+            if (n.equals("weight")) {
+                member.weight = Math.min(LBMember.MAX_WEIGHT, Math.max(1, Integer.parseInt(jp.getText())));
+                continue;
             } 
             
             log.warn("Unrecognized field {} in " +
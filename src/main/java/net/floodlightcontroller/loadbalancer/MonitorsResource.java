@@ -110,6 +110,7 @@ public class MonitorsResource extends ServerResource {
             else if (n.equals("monitor")) {
                 while (jp.nextToken() != JsonToken.END_OBJECT) {
                     String field = jp.getCurrentName();
+                    jp.nextToken();
                     
                     if (field.equals("id")) {
                         monitor.id = jp.getText();
@@ -120,7 +121,7 @@ public class MonitorsResource extends ServerResource {
                         continue;
                     }
                     if (field.equals("type")) {
-                        monitor.type = Short.parseShort(jp.getText());
+                        monitor.type = LBMonitor.parseType(jp.getText());
                         continue;
                     }
                     if (field.equals("delay")) {
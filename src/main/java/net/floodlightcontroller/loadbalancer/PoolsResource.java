@@ -128,7 +128,7 @@ public class PoolsResource extends ServerResource {
                 continue;
             }
             if (n.equals("lb_method")) {
-                pool.lbMethod = Short.parseShort(jp.getText());
+                pool.lbMethod = LBMemberSelector.parseMethod(jp.getText());
                 continue;
             }
             if (n.equals("protocol")) {
@@ -146,6 +146,10 @@ public class PoolsResource extends ServerResource {
                 pool.vipId = jp.getText();
                 continue;
             } 
+            if (n.equals("health_monitor")) {
+                pool.monitors.add(jp.getText());
+                continue;
+            }
             
             log.warn("Unrecognized field {} in " +
                     "parsing Pools", 
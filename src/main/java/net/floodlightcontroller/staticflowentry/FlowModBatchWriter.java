@@ -0,0 +1,235 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.staticflowentry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+
+import org.projectfloodlight.openflow.protocol.OFBarrierReply;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Writes large numbers of messages to one switch in batches, each followed
+ * by a barrier. Up to maxInFlight batches are sent before their barriers
+ * are answered; further batches wait for an answer, so a switch is never
+ * flooded faster than it can program its tables.
+ *
+ * The messages given to one call of write are never in the same batch as
+ * those of another call, so the barrier between them makes the switch
+ * finish the messages of one call before it starts on those of the next.
+ *
+ * Batches are written by one thread at a time, under the lock, and the
+ * futures returned by write are completed outside of it. A barrier that is
+ * answered while its batch is being sent does not send the next batch
+ * itself; the sending thread does, so batches are never sent recursively.
+ */
+@LogMessageCategory("Static Flow Pusher")
+public class FlowModBatchWriter {
+	protected static Logger log = LoggerFactory.getLogger(FlowModBatchWriter.class);
+
+	private final IOFSwitch sw;
+	private final int batchSize;
+	private final int maxInFlight;
+	private final IDebugCounter counterBatchesAcked;
+
+	private final Deque<Batch> pending = new ArrayDeque<Batch>();
+	private final List<Batch> inFlight = new ArrayList<Batch>();
+	private boolean failed = false;
+	// whether a thread is sending batches
+	private boolean sending = false;
+
+	private static class Batch {
+		final List<OFMessage> messages;
+		// set when this, the last batch of a write, is acknowledged
+		final SettableFuture<Void> done;
+		ListenableFuture<OFBarrierReply> barrier;
+
+		Batch(List<OFMessage> messages, SettableFuture<Void> done) {
+			this.messages = messages;
+			this.done = done;
+		}
+	}
+
+	/**
+	 * @param sw The switch to write to
+	 * @param batchSize The most messages in a batch
+	 * @param maxInFlight The most batches whose barrier is not yet answered
+	 * @param counterBatchesAcked Counts the barriers answered
+	 */
+	public FlowModBatchWriter(IOFSwitch sw, int batchSize, int maxInFlight, IDebugCounter counterBatchesAcked) {
+		this.sw = sw;
+		this.batchSize = batchSize;
+		this.maxInFlight = maxInFlight;
+		this.counterBatchesAcked = counterBatchesAcked;
+	}
+
+	public IOFSwitch getSwitch() {
+		return sw;
+	}
+
+	/**
+	 * Queue messages for the switch
+	 * @param messages The messages, in the order they are to be written
+	 * @return A future that is set once the switch has answered the barrier
+	 * after the last of the messages, or fails if a barrier is not answered
+	 */
+	public ListenableFuture<Void> write(List<? extends OFMessage> messages) {
+		SettableFuture<Void> done = SettableFuture.create();
+		boolean rejected;
+		synchronized (this) {
+			rejected = failed;
+			if (!failed) {
+				for (int i = 0; i < messages.size(); i += batchSize) {
+					int end = Math.min(i + batchSize, messages.size());
+					pending.add(new Batch(new ArrayList<OFMessage>(messages.subList(i, end)),
+							end == messages.size() ? done : null));
+				}
+			}
+		}
+		if (rejected) {
+			done.setException(new IllegalStateException("Writes to switch " + sw.getId() + " failed"));
+		} else if (messages.isEmpty()) {
+			done.set(null);
+		} else {
+			sendBatches();
+		}
+		return done;
+	}
+
+	/**
+	 * @return The number of batches not yet acknowledged
+	 */
+	public synchronized int getBacklog() {
+		return pending.size() + inFlight.size();
+	}
+
+	/**
+	 * Send the pending batches there is room for, until there are none,
+	 * unless another thread is already sending them
+	 */
+	private void sendBatches() {
+		synchronized (this) {
+			if (sending) {
+				return;
+			}
+			sending = true;
+		}
+		while (true) {
+			List<Batch> sent = new ArrayList<Batch>();
+			synchronized (this) {
+				while (!failed && inFlight.size() < maxInFlight && !pending.isEmpty()) {
+					Batch batch = pending.poll();
+					inFlight.add(batch);
+					sw.write(batch.messages);
+					batch.barrier = sw.writeRequest(sw.getOFFactory().buildBarrierRequest().build());
+					sent.add(batch);
+				}
+				if (sent.isEmpty()) {
+					sending = false;
+					return;
+				}
+				sw.flush();
+			}
+			// barriers already answered run their callback here, which
+			// leaves the next batches to this loop
+			for (final Batch batch : sent) {
+				Futures.addCallback(batch.barrier, new FutureCallback<OFBarrierReply>() {
+					@Override
+					public void onSuccess(OFBarrierReply reply) {
+						acknowledged(batch);
+					}
+
+					@Override
+					public void onFailure(Throwable t) {
+						fail(t);
+					}
+				});
+			}
+		}
+	}
+
+	private void acknowledged(Batch batch) {
+		synchronized (this) {
+			if (!inFlight.remove(batch)) {
+				return;
+			}
+			counterBatchesAcked.increment();
+		}
+		// outside the lock, as it runs the listeners of the future
+		if (batch.done != null) {
+			batch.done.set(null);
+		}
+		sendBatches();
+	}
+
+	/**
+	 * Give up on all the messages not yet acknowledged
+	 */
+	@LogMessageDoc(level="WARN",
+			message="Dropped {batches} batches of {messages} flow changes to switch {switch}",
+			explanation="A barrier following a batch of static flow changes " +
+					"was not answered, so the batches not yet acknowledged " +
+					"were given up",
+					recommendation=LogMessageDoc.CHECK_SWITCH)
+	public void fail(Throwable t) {
+		List<Batch> dropped = new ArrayList<Batch>();
+		synchronized (this) {
+			if (failed) {
+				return;
+			}
+			failed = true;
+			dropped.addAll(inFlight);
+			dropped.addAll(pending);
+			inFlight.clear();
+			pending.clear();
+		}
+		int messages = 0;
+		for (Batch batch : dropped) {
+			messages += batch.messages.size();
+		}
+		if (t == null) {
+			t = new IllegalStateException("Writes to switch " + sw.getId() + " failed");
+		}
+		if (!dropped.isEmpty()) {
+			log.warn("Dropped {} batches of {} flow changes to switch {} ({})",
+					new Object[] { dropped.size(), messages, sw.getId(), t.toString() });
+		}
+		for (Batch batch : dropped) {
+			if (batch.done != null) {
+				batch.done.setException(t);
+			}
+		}
+	}
+
+	public synchronized boolean isFailed() {
+		return failed;
+	}
+}
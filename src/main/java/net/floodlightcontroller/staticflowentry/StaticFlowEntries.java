@@ -605,13 +605,8 @@ public class StaticFlowEntries {
 	 * @throws IOException If there was an error parsing the JSON
 	 */
 	public static Map<String, Object> jsonToStorageEntry(String fmJson) throws IOException {
-		Map<String, Object> entry = new HashMap<String, Object>();
 		MappingJsonFactory f = new MappingJsonFactory();
 		JsonParser jp;
-		
-		String tpSrcPort = "NOT_SPECIFIED";
-		String tpDstPort = "NOT_SPECIFIED";
-		String ipProto = "NOT_SPECIFIED";
 
 		try {
 			jp = f.createJsonParser(fmJson);
@@ -620,6 +615,24 @@ public class StaticFlowEntries {
 		}
 
 		jp.nextToken();
+		return jsonToStorageEntry(jp);
+	}
+
+	/**
+	 * Turns the JSON object a parser is at into a storage entry, leaving
+	 * the parser at the end of the object. Used to read the entries of a
+	 * JSON array one at a time.
+	 * @param jp The parser, at the START_OBJECT of the entry
+	 * @return The map of the storage entry
+	 * @throws IOException If there was an error parsing the JSON
+	 */
+	public static Map<String, Object> jsonToStorageEntry(JsonParser jp) throws IOException {
+		Map<String, Object> entry = new HashMap<String, Object>();
+
+		String tpSrcPort = "NOT_SPECIFIED";
+		String tpDstPort = "NOT_SPECIFIED";
+		String ipProto = "NOT_SPECIFIED";
+
 		if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
 			throw new IOException("Expected START_OBJECT");
 		}
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.HAListenerTypeMarker;
@@ -36,6 +37,7 @@ import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IOFSwitchListener;
 import net.floodlightcontroller.core.PortChangeType;
+import net.floodlightcontroller.core.SwitchDisconnectedException;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.internal.IOFSwitchService;
@@ -44,6 +46,9 @@ import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.core.util.AppCookie;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.MetaData;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.staticflowentry.web.StaticFlowEntryWebRoutable;
 import net.floodlightcontroller.storage.IResultSet;
@@ -61,6 +66,9 @@ import org.projectfloodlight.openflow.protocol.OFFlowDeleteStrict;
 import org.projectfloodlight.openflow.protocol.OFFlowMod;
 import org.projectfloodlight.openflow.protocol.OFFlowRemoved;
 import org.projectfloodlight.openflow.protocol.OFFlowRemovedReason;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsReply;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsRequest;
 import org.projectfloodlight.openflow.protocol.OFPortDesc;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFType;
@@ -69,14 +77,21 @@ import org.projectfloodlight.openflow.protocol.ver10.OFFlowRemovedReasonSerializ
 import org.projectfloodlight.openflow.protocol.ver11.OFFlowRemovedReasonSerializerVer11;
 import org.projectfloodlight.openflow.protocol.ver12.OFFlowRemovedReasonSerializerVer12;
 import org.projectfloodlight.openflow.protocol.ver13.OFFlowRemovedReasonSerializerVer13;
+import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.ver14.OFFlowRemovedReasonSerializerVer14;
 import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFGroup;
+import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.TableId;
 import org.projectfloodlight.openflow.types.U16;
 import org.projectfloodlight.openflow.types.U64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 @LogMessageCategory("Static Flow Pusher")
 /**
  * This module is responsible for maintaining a set of static flows on
@@ -200,9 +215,40 @@ implements IOFSwitchListener, IFloodlightModule, IStaticFlowEntryPusherService,
 	protected IOFSwitchService switchService;
 	protected IStorageSourceService storageSourceService;
 	protected IRestApiService restApiService;
+	protected IDebugCounterService debugCounterService;
 
 	private IHAListener haListener;
 
+	// How a switch's flow table is brought in line with storage when it connects:
+	// "full" rewrites every entry, "differential" reads the switch's flows and
+	// writes only the differences
+	public static final String RESYNC_FULL = "full";
+	public static final String RESYNC_DIFFERENTIAL = "differential";
+	// The app ID bits of a cookie
+	private static final U64 APP_ID_COOKIE_MASK = U64.of(0xFFF0000000000000L);
+	protected boolean differentialResync = false;
+	// DPID -> differential resync in progress
+	protected ConcurrentMap<DatapathId, FlowTableResync> resyncs = new ConcurrentHashMap<DatapathId, FlowTableResync>();
+
+	// Resyncs and updates of more than batchSize flows are written in batches
+	// fenced by barriers, at most maxBatchesInFlight unacknowledged at a time
+	protected static final int DEFAULT_BATCH_SIZE = 1000;
+	protected static final int DEFAULT_MAX_BATCHES_IN_FLIGHT = 4;
+	protected int batchSize = DEFAULT_BATCH_SIZE;
+	protected int maxBatchesInFlight = DEFAULT_MAX_BATCHES_IN_FLIGHT;
+	// DPID -> batched writes to the switch
+	protected Map<DatapathId, FlowModBatchWriter> batchWriters = new HashMap<DatapathId, FlowModBatchWriter>();
+
+	protected IDebugCounter counterResyncStarted;
+	protected IDebugCounter counterResyncCompleted;
+	protected IDebugCounter counterResyncFailed;
+	protected IDebugCounter counterResyncFlowsUnchanged;
+	protected IDebugCounter counterResyncFlowsAdded;
+	protected IDebugCounter counterResyncFlowsModified;
+	protected IDebugCounter counterResyncFlowsDeleted;
+	protected IDebugCounter counterBatchesAcked;
+	protected IDebugCounter counterResyncDuration;
+
 	// Map<DPID, Map<Name, FlowMod>>; FlowMod can be null to indicate non-active
 	protected Map<String, Map<String, OFFlowMod>> entriesFromStorage;
 	// Entry Name -> DPID of Switch it's on
@@ -287,6 +333,318 @@ implements IOFSwitchListener, IFloodlightModule, IStaticFlowEntryPusherService,
 		}
 	}
 
+	/**
+	 * Brings the flow table of a switch in line with our entriesFromStorage
+	 * without rewriting it: the static flows on the switch are read with a
+	 * flow stats request and compared with the stored entries by table,
+	 * match, priority and cookie. Only the flows that differ are written,
+	 * deletes first and then adds and modifies (in the same order as
+	 * sendEntriesToSwitch), through the switch's FlowModBatchWriter.
+	 *
+	 * Falls back to sendEntriesToSwitch if the switch's flows can't be read.
+	 *
+	 * @param switchId The switch to resync
+	 */
+	protected void resyncEntriesToSwitch(DatapathId switchId) {
+		IOFSwitch sw = switchService.getSwitch(switchId);
+		if (sw == null)
+			return;
+
+		final FlowTableResync resync = new FlowTableResync(sw);
+		resyncs.put(switchId, resync);
+		counterResyncStarted.increment();
+
+		OFFlowStatsRequest.Builder b = sw.getOFFactory().buildFlowStatsRequest()
+				.setMatch(sw.getOFFactory().buildMatch().build())
+				.setOutPort(OFPort.ANY)
+				.setTableId(TableId.ALL);
+		if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) > 0) {
+			// only our flows, if the switch can filter by cookie
+			b.setOutGroup(OFGroup.ANY)
+			.setCookie(AppCookie.makeCookie(STATIC_FLOW_APP_ID, 0))
+			.setCookieMask(APP_ID_COOKIE_MASK);
+		}
+		ListenableFuture<List<OFFlowStatsReply>> future = sw.writeStatsRequest(b.build());
+		sw.flush();
+		Futures.addCallback(future, new FutureCallback<List<OFFlowStatsReply>>() {
+			@Override
+			public void onSuccess(List<OFFlowStatsReply> replies) {
+				resync.start(replies);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				resync.fail(t, true);
+			}
+		});
+	}
+
+	/**
+	 * The key a flow is identified by in a flow table
+	 */
+	private static class FlowKey {
+		private final TableId table; // null for OF1.0
+		private final Match match;
+		private final int priority;
+
+		FlowKey(TableId table, Match match, int priority) {
+			this.table = table;
+			this.match = match;
+			this.priority = priority;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + ((match == null) ? 0 : match.hashCode());
+			result = prime * result + priority;
+			result = prime * result + ((table == null) ? 0 : table.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof FlowKey))
+				return false;
+			FlowKey other = (FlowKey) obj;
+			if (priority != other.priority)
+				return false;
+			if (match == null ? other.match != null : !match.equals(other.match))
+				return false;
+			if (table == null ? other.table != null : !table.equals(other.table))
+				return false;
+			return true;
+		}
+	}
+
+	/**
+	 * A differential resync of one switch; see resyncEntriesToSwitch
+	 */
+	protected class FlowTableResync {
+		private final IOFSwitch sw;
+		private final long startTime = System.currentTimeMillis();
+
+		FlowTableResync(IOFSwitch sw) {
+			this.sw = sw;
+		}
+
+		private boolean isCurrent() {
+			return resyncs.get(sw.getId()) == this;
+		}
+
+		/**
+		 * Diff the flows read from the switch against storage and start
+		 * sending the differences
+		 */
+		void start(List<OFFlowStatsReply> replies) {
+			if (!isCurrent())
+				return;
+			boolean of10 = sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) == 0;
+
+			Map<FlowKey, OFFlowStatsEntry> installed = new HashMap<FlowKey, OFFlowStatsEntry>();
+			for (OFFlowStatsReply reply : replies) {
+				for (OFFlowStatsEntry e : reply.getEntries()) {
+					installed.put(new FlowKey(of10 ? null : e.getTableId(), e.getMatch(), e.getPriority()), e);
+				}
+			}
+
+			List<OFMessage> deletes = new ArrayList<OFMessage>();
+			List<OFMessage> changes = new ArrayList<OFMessage>();
+			int unchanged = 0, added = 0, modified = 0, deleted = 0;
+			String stringId = sw.getId().toString();
+			Map<String, OFFlowMod> entries = (entriesFromStorage == null) ? null : entriesFromStorage.get(stringId);
+			if (entries != null) {
+				List<String> sortedList = new ArrayList<String>(entries.keySet());
+				Collections.sort(sortedList, new FlowModSorter(stringId));
+				for (String entryName : sortedList) {
+					OFFlowMod flowMod = entries.get(entryName);
+					if (flowMod == null)
+						continue;
+					OFFlowStatsEntry e = installed.remove(new FlowKey(of10 ? null : flowMod.getTableId(),
+							flowMod.getMatch(), flowMod.getPriority()));
+					if (e == null || AppCookie.extractApp(e.getCookie()) != STATIC_FLOW_APP_ID) {
+						changes.add(FlowModUtils.toFlowAdd(flowMod));
+						added++;
+					} else if (!e.getCookie().equals(flowMod.getCookie())
+							|| e.getIdleTimeout() != flowMod.getIdleTimeout()
+							|| e.getHardTimeout() != flowMod.getHardTimeout()) {
+						// a modify changes neither the cookie nor the timeouts
+						deletes.add(toFlowDeleteStrict(e));
+						changes.add(FlowModUtils.toFlowAdd(flowMod));
+						modified++;
+					} else if (of10 ? !e.getActions().equals(flowMod.getActions())
+							: !e.getInstructions().equals(flowMod.getInstructions())) {
+						changes.add(FlowModUtils.toFlowModifyStrict(flowMod));
+						modified++;
+					} else {
+						unchanged++;
+					}
+				}
+			}
+			// what is left are static flows that are no longer stored
+			for (OFFlowStatsEntry e : installed.values()) {
+				if (AppCookie.extractApp(e.getCookie()) == STATIC_FLOW_APP_ID) {
+					deletes.add(toFlowDeleteStrict(e));
+					deleted++;
+				}
+			}
+
+			counterResyncFlowsUnchanged.add(unchanged);
+			counterResyncFlowsAdded.add(added);
+			counterResyncFlowsModified.add(modified);
+			counterResyncFlowsDeleted.add(deleted);
+			log.info("Resyncing static flows of switch {}: {} unchanged, {} added, {} modified, {} deleted",
+					new Object[] { stringId, unchanged, added, modified, deleted });
+
+			// the deletes and the changes are written in separate batches, so
+			// a barrier keeps a delete from removing the add that replaces it
+			FlowModBatchWriter writer = getBatchWriter(sw);
+			writer.write(deletes);
+			Futures.addCallback(writer.write(changes), new FutureCallback<Void>() {
+				@Override
+				public void onSuccess(Void result) {
+					finish();
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					fail(t, false);
+				}
+			});
+		}
+
+		private OFFlowDeleteStrict toFlowDeleteStrict(OFFlowStatsEntry e) {
+			OFFlowDeleteStrict.Builder b = sw.getOFFactory().buildFlowDeleteStrict()
+					.setCookie(e.getCookie())
+					.setMatch(e.getMatch())
+					.setPriority(e.getPriority())
+					.setOutPort(OFPort.ANY);
+			if (b.getVersion().compareTo(OFVersion.OF_10) > 0) {
+				b.setTableId(e.getTableId())
+				.setOutGroup(OFGroup.ANY);
+			}
+			return b.build();
+		}
+
+		void finish() {
+			if (!resyncs.remove(sw.getId(), this))
+				return;
+			long duration = System.currentTimeMillis() - startTime;
+			counterResyncCompleted.increment();
+			counterResyncDuration.add(duration);
+			log.info("Resynced static flows of switch {} in {} ms", sw.getId(), duration);
+		}
+
+		/**
+		 * Give up on the resync
+		 * @param t The cause, if any
+		 * @param rewrite Whether to fall back to rewriting all the entries
+		 */
+		@LogMessageDoc(level="WARN",
+				message="Resync of static flows of switch {switch} failed",
+				explanation="The flows of a switch could not be read, or a batch " +
+						"of flow changes was not acknowledged, while its static " +
+						"flows were being resynchronized",
+						recommendation=LogMessageDoc.CHECK_SWITCH)
+		void fail(Throwable t, boolean rewrite) {
+			if (!resyncs.remove(sw.getId(), this))
+				return;
+			counterResyncFailed.increment();
+			if (rewrite && sw.isConnected()) {
+				log.warn("Reading the flows of switch {} failed ({}); rewriting its static flows",
+						sw.getId(), t == null ? "disconnected" : t.toString());
+				sendEntriesToSwitch(sw.getId());
+			} else {
+				log.warn("Resync of static flows of switch {} failed ({})",
+						sw.getId(), t == null ? "disconnected" : t.toString());
+			}
+		}
+	}
+
+	/**
+	 * Returns the batch writer of a switch, replacing it if the switch has
+	 * reconnected or its writes have failed
+	 */
+	protected FlowModBatchWriter getBatchWriter(IOFSwitch sw) {
+		synchronized (batchWriters) {
+			FlowModBatchWriter writer = batchWriters.get(sw.getId());
+			if (writer == null || writer.getSwitch() != sw || writer.isFailed()) {
+				writer = new FlowModBatchWriter(sw, batchSize, maxBatchesInFlight, counterBatchesAcked);
+				batchWriters.put(sw.getId(), writer);
+			}
+			return writer;
+		}
+	}
+
+	/**
+	 * Queues messages behind the batches still being written to a switch, if
+	 * there are any, so that they do not overtake them
+	 * @return true if the messages were queued
+	 */
+	private boolean writeBehindBatches(IOFSwitch sw, List<OFMessage> messages) {
+		FlowModBatchWriter writer;
+		synchronized (batchWriters) {
+			writer = batchWriters.get(sw.getId());
+		}
+		if (writer == null || writer.getSwitch() != sw || writer.getBacklog() == 0) {
+			return false;
+		}
+		writeInBatches(writer, messages);
+		return true;
+	}
+
+	/**
+	 * Queues messages on a batch writer, rewriting the static flows of its
+	 * switch if the writes fail
+	 */
+	private void writeInBatches(final FlowModBatchWriter writer, List<OFMessage> messages) {
+		Futures.addCallback(writer.write(messages), new FutureCallback<Void>() {
+			@Override
+			public void onSuccess(Void result) {
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				batchedWritesFailed(writer, t);
+			}
+		});
+	}
+
+	/**
+	 * Called when a batch writer has dropped its batches. The first of the
+	 * writes that fail together retires the writer and, if the switch is
+	 * still connected, brings its flow table back in line with storage: by a
+	 * resync if enabled, which also removes the flows whose delete was
+	 * dropped, else by rewriting all the entries as on connect.
+	 */
+	@LogMessageDoc(level="WARN",
+			message="Batched writes to switch {switch} failed; rewriting its static flows",
+			explanation="A batch of static flow changes was not acknowledged " +
+					"by the switch, so its static flows are written again",
+					recommendation=LogMessageDoc.CHECK_SWITCH)
+	private void batchedWritesFailed(FlowModBatchWriter writer, Throwable t) {
+		IOFSwitch sw = writer.getSwitch();
+		synchronized (batchWriters) {
+			if (batchWriters.get(sw.getId()) != writer) {
+				// handled already, or the switch disconnected
+				return;
+			}
+			batchWriters.remove(sw.getId());
+		}
+		if (!sw.isConnected() || switchService.getSwitch(sw.getId()) != sw) {
+			return;
+		}
+		log.warn("Batched writes to switch {} failed ({}); rewriting its static flows", sw.getId(), t.toString());
+		if (differentialResync) {
+			resyncEntriesToSwitch(sw.getId());
+		} else {
+			sendEntriesToSwitch(sw.getId());
+		}
+	}
+
 	/**
 	 * Used only for bundle-local indexing
 	 *
@@ -454,13 +812,25 @@ implements IOFSwitchListener, IFloodlightModule, IStaticFlowEntryPusherService,
 	public void switchAdded(DatapathId switchId) {
 		log.debug("Switch {} connected; processing its static entries",
 				switchId.toString());
-		sendEntriesToSwitch(switchId);
+		if (differentialResync) {
+			resyncEntriesToSwitch(switchId);
+		} else {
+			sendEntriesToSwitch(switchId);
+		}
 	}
 
 	@Override
 	public void switchRemoved(DatapathId switchId) {
 		// do NOT delete from our internal state; we're tracking the rules,
 		// not the switches
+		resyncs.remove(switchId);
+		FlowModBatchWriter writer;
+		synchronized (batchWriters) {
+			writer = batchWriters.remove(switchId);
+		}
+		if (writer != null) {
+			writer.fail(new SwitchDisconnectedException(switchId));
+		}
 	}
 
 	@Override
@@ -556,7 +926,11 @@ implements IOFSwitchListener, IFloodlightModule, IStaticFlowEntryPusherService,
 				}
 			}
 			/* Batch-write all queued messages to the switch */
-			writeOFMessagesToSwitch(DatapathId.of(dpid), outQueue);
+			if (outQueue.size() > batchSize) {
+				writeOFMessagesToSwitchInBatches(DatapathId.of(dpid), outQueue);
+			} else {
+				writeOFMessagesToSwitch(DatapathId.of(dpid), outQueue);
+			}
 		}
 	}
 
@@ -627,11 +1001,30 @@ implements IOFSwitchListener, IFloodlightModule, IStaticFlowEntryPusherService,
 			if (log.isDebugEnabled()) {
 				log.debug("Sending {} new entries to {}", messages.size(), dpid);
 			}
+			if (writeBehindBatches(ofswitch, messages))
+				return;
 			ofswitch.write(messages);
 			ofswitch.flush();
 		}
 	}
 
+	/**
+	 * Writes a list of OFMessages to a switch in batches, each followed by a
+	 * barrier, and only a few batches ahead of the barriers answered
+	 * @param dpid The datapath ID of the switch to write to
+	 * @param messages The list of OFMessages to write.
+	 */
+	private void writeOFMessagesToSwitchInBatches(DatapathId dpid, List<OFMessage> messages) {
+		IOFSwitch ofswitch = switchService.getSwitch(dpid);
+		if (ofswitch != null) {  // is the switch connected
+			if (log.isDebugEnabled()) {
+				log.debug("Sending {} new entries to {} in batches of {}",
+						new Object[] { messages.size(), dpid, batchSize });
+			}
+			writeInBatches(getBatchWriter(ofswitch), messages);
+		}
+	}
+
 	/**
 	 * Writes a single OFMessage to a switch
 	 * @param dpid The datapath ID of the switch to write to
@@ -648,6 +1041,8 @@ implements IOFSwitchListener, IFloodlightModule, IStaticFlowEntryPusherService,
 			if (log.isDebugEnabled()) {
 				log.debug("Sending 1 new entries to {}", dpid.toString());
 			}
+			if (writeBehindBatches(ofswitch, Collections.singletonList(message)))
+				return;
 			ofswitch.write(message);
 			ofswitch.flush();
 		}
@@ -681,6 +1076,8 @@ implements IOFSwitchListener, IFloodlightModule, IStaticFlowEntryPusherService,
 					"static flow to a switch",
 					recommendation=LogMessageDoc.CHECK_SWITCH)
 	private void writeFlowModToSwitch(IOFSwitch sw, OFFlowMod flowMod) {
+		if (writeBehindBatches(sw, Collections.<OFMessage>singletonList(flowMod)))
+			return;
 		sw.write(flowMod);
 		sw.flush();
 	}
@@ -830,6 +1227,7 @@ implements IOFSwitchListener, IFloodlightModule, IStaticFlowEntryPusherService,
 		l.add(IOFSwitchService.class);
 		l.add(IStorageSourceService.class);
 		l.add(IRestApiService.class);
+		l.add(IDebugCounterService.class);
 		return l;
 	}
 
@@ -839,8 +1237,56 @@ implements IOFSwitchListener, IFloodlightModule, IStaticFlowEntryPusherService,
 		switchService = context.getServiceImpl(IOFSwitchService.class);
 		storageSourceService = context.getServiceImpl(IStorageSourceService.class);
 		restApiService = context.getServiceImpl(IRestApiService.class);
+		debugCounterService = context.getServiceImpl(IDebugCounterService.class);
 		haListener = new HAListenerDelegate();
-	} 
+
+		Map<String, String> configOptions = context.getConfigParams(this);
+		String resyncMode = configOptions.get("resync-mode");
+		if (resyncMode != null) {
+			if (resyncMode.equalsIgnoreCase(RESYNC_DIFFERENTIAL)) {
+				differentialResync = true;
+			} else if (!resyncMode.equalsIgnoreCase(RESYNC_FULL)) {
+				log.warn("Unknown resync mode {}, using {}", resyncMode, RESYNC_FULL);
+			}
+		}
+		try {
+			String value = configOptions.get("batch-size");
+			if (value != null) {
+				batchSize = Integer.parseInt(value);
+				if (batchSize <= 0) {
+					throw new NumberFormatException(value);
+				}
+			}
+		} catch (NumberFormatException e) {
+			log.warn("Error parsing batch size, using default of {}", DEFAULT_BATCH_SIZE);
+			batchSize = DEFAULT_BATCH_SIZE;
+		}
+		try {
+			String value = configOptions.get("max-batches-in-flight");
+			if (value != null) {
+				maxBatchesInFlight = Integer.parseInt(value);
+				if (maxBatchesInFlight <= 0) {
+					throw new NumberFormatException(value);
+				}
+			}
+		} catch (NumberFormatException e) {
+			log.warn("Error parsing max batches in flight, using default of {}", DEFAULT_MAX_BATCHES_IN_FLIGHT);
+			maxBatchesInFlight = DEFAULT_MAX_BATCHES_IN_FLIGHT;
+		}
+		log.debug("Static flow resync mode set to {}, {} flows per batch, {} batches in flight",
+				new Object[] { differentialResync ? RESYNC_DIFFERENTIAL : RESYNC_FULL, batchSize, maxBatchesInFlight });
+
+		debugCounterService.registerModule(this.getName());
+		counterResyncStarted = debugCounterService.registerCounter(this.getName(), "resyncs-started", "Differential resyncs of switches started");
+		counterResyncCompleted = debugCounterService.registerCounter(this.getName(), "resyncs-completed", "Differential resyncs of switches completed");
+		counterResyncFailed = debugCounterService.registerCounter(this.getName(), "resyncs-failed", "Differential resyncs of switches given up", MetaData.WARN);
+		counterResyncFlowsUnchanged = debugCounterService.registerCounter(this.getName(), "resync-flows-unchanged", "Flows found up to date by resyncs");
+		counterResyncFlowsAdded = debugCounterService.registerCounter(this.getName(), "resync-flows-added", "Flows added by resyncs");
+		counterResyncFlowsModified = debugCounterService.registerCounter(this.getName(), "resync-flows-modified", "Flows modified by resyncs");
+		counterResyncFlowsDeleted = debugCounterService.registerCounter(this.getName(), "resync-flows-deleted", "Flows deleted by resyncs");
+		counterBatchesAcked = debugCounterService.registerCounter(this.getName(), "flow-batches-acked", "Batches of flow changes acknowledged by a barrier");
+		counterResyncDuration = debugCounterService.registerCounter(this.getName(), "resync-duration-ms", "Total time taken by completed resyncs, in milliseconds");
+	}
 
 	@Override
 	public void startUp(FloodlightModuleContext context) {
@@ -0,0 +1,275 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.staticflowentry.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Post;
+import org.restlet.resource.ServerResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.staticflowentry.StaticFlowEntries;
+import net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher;
+import net.floodlightcontroller.storage.IStorageSourceService;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+/**
+ * Pushes a JSON array of static flow entries to the storage source at once.
+ * The array is read from the request as it arrives, the entries are
+ * validated (in parallel on a small pool of our own when there are many of
+ * them, so big pushes do not hold up the controller's shared threads) and the
+ * valid ones are
+ * inserted in a single storage batch. The response gives the status of each
+ * entry, in the order they were posted.
+ */
+@LogMessageCategory("Static Flow Pusher")
+public class StaticFlowEntryBulkResource extends ServerResource {
+	protected static Logger log = LoggerFactory.getLogger(StaticFlowEntryBulkResource.class);
+
+	// below this many entries validating in parallel is not worth it
+	protected static final int PARALLEL_THRESHOLD = 1000;
+	protected static final int VALIDATION_CHUNK_SIZE = 500;
+
+	protected static final String STATUS_PUSHED = "Entry pushed";
+
+	protected static final int VALIDATION_THREADS =
+			Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	/**
+	 * Validates the chunks of big pushes. Bounded in threads and queued
+	 * chunks; once full, the request thread validates the chunk itself.
+	 * Idle threads time out so the pool costs nothing between pushes.
+	 */
+	protected static final ThreadPoolExecutor validationExecutor = createValidationExecutor();
+
+	private static ThreadPoolExecutor createValidationExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(VALIDATION_THREADS, VALIDATION_THREADS,
+				60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(VALIDATION_THREADS * 4),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "StaticFlowBulkValidator-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Validates one entry
+	 * @return null if the entry is valid, else why it is not
+	 */
+	protected static String validate(Map<String, Object> entry) {
+		if (entry.get(StaticFlowEntryPusher.COLUMN_NAME) == null) {
+			return "Error! No name provided. The flow has been discarded.";
+		}
+		if (entry.get(StaticFlowEntryPusher.COLUMN_SWITCH) == null) {
+			return "Error! No switch provided. The flow has been discarded.";
+		}
+		try {
+			DatapathId.of((String) entry.get(StaticFlowEntryPusher.COLUMN_SWITCH));
+			return StaticFlowEntryPusherResource.getCheckFlowStatus(
+					StaticFlowEntryPusherResource.checkFlow(entry));
+		} catch (IllegalArgumentException e) {
+			// NumberFormatException included
+			return "Error! Invalid field value: " + e.getMessage() + ". The flow has been discarded.";
+		}
+	}
+
+	/**
+	 * Validates the entries from start up to end
+	 * @return the status of each entry, null for the valid ones
+	 */
+	protected static List<String> validate(List<Map<String, Object>> entries, int start, int end) {
+		List<String> statuses = new ArrayList<String>(end - start);
+		for (int i = start; i < end; i++) {
+			statuses.add(validate(entries.get(i)));
+		}
+		return statuses;
+	}
+
+	/**
+	 * Validates a list of entries, splitting the work across the executor
+	 * if one is given and the list is long
+	 * @return the status of each entry, null for the valid ones
+	 */
+	protected static List<String> validateAll(final List<Map<String, Object>> entries,
+			ExecutorService executor) throws InterruptedException {
+		if (executor == null || entries.size() < PARALLEL_THRESHOLD) {
+			return validate(entries, 0, entries.size());
+		}
+		List<Future<List<String>>> chunks = new ArrayList<Future<List<String>>>();
+		for (int i = 0; i < entries.size(); i += VALIDATION_CHUNK_SIZE) {
+			final int start = i;
+			final int end = Math.min(i + VALIDATION_CHUNK_SIZE, entries.size());
+			chunks.add(executor.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() {
+					return validate(entries, start, end);
+				}
+			}));
+		}
+		List<String> statuses = new ArrayList<String>(entries.size());
+		for (Future<List<String>> chunk : chunks) {
+			try {
+				statuses.addAll(chunk.get());
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return statuses;
+	}
+
+	/**
+	 * Reads a JSON array of static flow entries
+	 * @param jp The parser, before the start of the array
+	 * @return The storage entries
+	 * @throws IOException If the request is not an array of entries
+	 */
+	protected static List<Map<String, Object>> readEntries(JsonParser jp) throws IOException {
+		if (jp.nextToken() != JsonToken.START_ARRAY) {
+			throw new IOException("Expected START_ARRAY");
+		}
+		List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+		while (jp.nextToken() != JsonToken.END_ARRAY) {
+			if (jp.getCurrentToken() == null) {
+				throw new IOException("Unexpected end of input");
+			}
+			entries.add(StaticFlowEntries.jsonToStorageEntry(jp));
+		}
+		return entries;
+	}
+
+	/**
+	 * Takes a JSON array of Static Flow Pusher entries, parses them into
+	 * our database schema and pushes the valid ones to the database in one
+	 * batch. Nothing is pushed if the array cannot be parsed.
+	 * @param entity The request, a JSON array of entries
+	 * @return The overall status and the status of each entry
+	 */
+	@Post
+	@LogMessageDoc(level="ERROR",
+	message="Error parsing bulk push flow mod request",
+	explanation="An invalid request was sent to static flow pusher",
+	recommendation="Fix the format of the static flow mod request")
+	public Map<String, Object> store(Representation entity) {
+		IStorageSourceService storageSource =
+				(IStorageSourceService)getContext().getAttributes().
+				get(IStorageSourceService.class.getCanonicalName());
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		if (entity == null) {
+			setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+			result.put("status", "Error! No data posted.");
+			return result;
+		}
+
+		List<Map<String, Object>> entries;
+		try {
+			JsonParser jp;
+			try {
+				jp = new MappingJsonFactory().createJsonParser(entity.getStream());
+			} catch (JsonParseException e) {
+				throw new IOException(e);
+			}
+			try {
+				entries = readEntries(jp);
+			} finally {
+				jp.close();
+			}
+		} catch (IOException e) {
+			log.error("Error parsing bulk push flow mod request", e);
+			setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+			result.put("status", "Error! Could not parse flow mods, see log for details.");
+			return result;
+		}
+
+		List<String> statuses;
+		try {
+			statuses = validateAll(entries, validationExecutor);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+			result.put("status", "Error! Interrupted while validating flow mods.");
+			return result;
+		}
+
+		// a name posted twice is kept the first time only
+		Set<String> names = new HashSet<String>();
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		List<Map<String, String>> entryStatuses = new ArrayList<Map<String, String>>(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			Map<String, Object> entry = entries.get(i);
+			String name = (String) entry.get(StaticFlowEntryPusher.COLUMN_NAME);
+			String status = statuses.get(i);
+			if (status == null && !names.add(name)) {
+				status = "Error! Duplicate name. The flow has been discarded.";
+			}
+			if (status == null) {
+				status = STATUS_PUSHED;
+				rows.add(entry);
+			}
+			Map<String, String> entryStatus = new HashMap<String, String>();
+			entryStatus.put("name", name);
+			entryStatus.put("status", status);
+			entryStatuses.add(entryStatus);
+		}
+
+		if (!rows.isEmpty()) {
+			storageSource.insertRows(StaticFlowEntryPusher.TABLE_NAME, rows);
+		}
+		if (rows.size() < entries.size()) {
+			log.error("Discarded {} of {} flow entries in bulk push",
+					entries.size() - rows.size(), entries.size());
+		}
+		result.put("status", rows.size() + " of " + entries.size() + " entries pushed");
+		result.put("entries", entryStatuses);
+		return result;
+	}
+}
@@ -48,7 +48,7 @@ public class StaticFlowEntryPusherResource extends ServerResource {
 	 * @param Map containing the fields of the flow
 	 * @return state indicating whether a flow is valid or not
 	 */
-	private int checkFlow(Map<String, Object> rows) {    
+	static int checkFlow(Map<String, Object> rows) {    
 		//Declaring & Initializing flags
 		int state = 0;
 		boolean dl_type = false;
@@ -219,6 +219,33 @@ public class StaticFlowEntryPusherResource extends ServerResource {
 
 	}
 
+	/**
+	 * Describes why checkFlow rejected a flow
+	 * @param state The state returned by checkFlow
+	 * @return The status message, or null if the flow is valid
+	 */
+	static String getCheckFlowStatus(int state) {
+		switch (state) {
+		case 0:
+			return null;
+		case 1:
+			return "Warning! Must specify eth_type of IPv4/IPv6 to " +
+					"match on IPv4/IPv6 fields! The flow has been discarded.";
+		case 2:
+			return "Warning! eth_type not recognized! The flow has been discarded.";
+		case 3:
+			return "Warning! Must specify ip_proto to match! The flow has been discarded.";
+		case 4:
+			return "Warning! ip_proto invalid! The flow has been discarded.";
+		case 5:
+			return "Warning! Must specify icmp6_type to match! The flow has been discarded.";
+		case 6:
+			return "Warning! icmp6_type invalid! The flow has been discarded.";
+		default:
+			return "Warning! IPv4 & IPv6 fields cannot be specified in the same flow! The flow has been discarded.";
+		}
+	}
+
 	/**
 	 * Validates actions/instructions
 	 * 
@@ -297,31 +324,12 @@ public class StaticFlowEntryPusherResource extends ServerResource {
 			String status = null;
 
 			int state = checkFlow(rowValues);
-			if (state == 1) {
-				status = "Warning! Must specify eth_type of IPv4/IPv6 to " +
-						"match on IPv4/IPv6 fields! The flow has been discarded.";
-				log.error(status);
-			} else if (state == 2) {
-				status = "Warning! eth_type not recognized! The flow has been discarded.";
-				log.error(status);
-			} else if (state == 3) {
-				status = "Warning! Must specify ip_proto to match! The flow has been discarded.";
-				log.error(status);
-			} else if (state == 4) {
-				status = "Warning! ip_proto invalid! The flow has been discarded.";
-				log.error(status);
-			} else if (state == 5) {
-				status = "Warning! Must specify icmp6_type to match! The flow has been discarded.";
-				log.error(status);
-			} else if (state == 6) {
-				status = "Warning! icmp6_type invalid! The flow has been discarded.";
-				log.error(status);
-			} else if (state == 7) {
-				status = "Warning! IPv4 & IPv6 fields cannot be specified in the same flow! The flow has been discarded.";
-				log.error(status);
-			} else if (state == 0) {
+			if (state == 0) {
 				status = "Entry pushed";            
 				storageSource.insertRowAsync(StaticFlowEntryPusher.TABLE_NAME, rowValues);
+			} else {
+				status = getCheckFlowStatus(state);
+				log.error(status);
 			}
 			return ("{\"status\" : \"" + status + "\"}");
 		} catch (IOException e) {
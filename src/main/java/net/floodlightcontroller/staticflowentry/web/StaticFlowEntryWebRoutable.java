@@ -32,6 +32,7 @@ public class StaticFlowEntryWebRoutable implements RestletRoutable {
         router.attach("/json", StaticFlowEntryPusherResource.class);
         router.attach("/json/store", StaticFlowEntryPusherResource.class);
         router.attach("/json/delete", StaticFlowEntryDeleteResource.class);
+        router.attach("/json/bulk", StaticFlowEntryBulkResource.class);
         router.attach("/clear/{switch}/json", ClearStaticFlowEntriesResource.class);
         router.attach("/list/{switch}/json", ListStaticFlowEntriesResource.class);
         return router;
@@ -20,6 +20,8 @@ package net.floodlightcontroller.storage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -75,6 +77,57 @@ implements IStorageSourceService, IFloodlightModule {
 	private Map<String, Set<IStorageSourceListener>> listeners =
 			new ConcurrentHashMap<String, Set<IStorageSourceListener>>();
 
+	/**
+	 * The notification batch open on the current thread, if any
+	 */
+	private ThreadLocal<NotificationBatch> notificationBatch =
+			new ThreadLocal<NotificationBatch>();
+
+	/**
+	 * Notifications collected between startNotificationBatch and
+	 * endNotificationBatch, coalesced to the last action for each row
+	 */
+	private static class NotificationBatch {
+		int depth = 0;
+		Map<String, Map<Object, StorageSourceNotification.Action>> tables =
+				new LinkedHashMap<String, Map<Object, StorageSourceNotification.Action>>();
+
+		void add(StorageSourceNotification notification) {
+			Map<Object, StorageSourceNotification.Action> actions =
+					tables.get(notification.getTableName());
+			if (actions == null) {
+				actions = new LinkedHashMap<Object, StorageSourceNotification.Action>();
+				tables.put(notification.getTableName(), actions);
+			}
+			for (Object key : notification.getKeys())
+				actions.put(key, notification.getAction());
+		}
+
+		List<StorageSourceNotification> getNotifications() {
+			List<StorageSourceNotification> notifications =
+					new ArrayList<StorageSourceNotification>();
+			for (Map.Entry<String, Map<Object, StorageSourceNotification.Action>> entry :
+					tables.entrySet()) {
+				Set<Object> deleted = new HashSet<Object>();
+				Set<Object> modified = new HashSet<Object>();
+				for (Map.Entry<Object, StorageSourceNotification.Action> action :
+						entry.getValue().entrySet()) {
+					if (action.getValue() == StorageSourceNotification.Action.DELETE)
+						deleted.add(action.getKey());
+					else
+						modified.add(action.getKey());
+				}
+				if (!deleted.isEmpty())
+					notifications.add(new StorageSourceNotification(entry.getKey(),
+							StorageSourceNotification.Action.DELETE, deleted));
+				if (!modified.isEmpty())
+					notifications.add(new StorageSourceNotification(entry.getKey(),
+							StorageSourceNotification.Action.MODIFY, modified));
+			}
+			return notifications;
+		}
+	}
+
 	// Our dependencies
 	protected IRestApiService restApi = null;
 
@@ -254,6 +307,18 @@ implements IStorageSourceService, IFloodlightModule {
 		return future;
 	}
 
+	@Override
+	public Future<?> insertRowsAsync(final String tableName,
+			final List<Map<String,Object>> rows) {
+		Future<?> future = executorService.submit(
+				new StorageRunnable() {
+					public void doStorageOperation() {
+						insertRows(tableName, rows);
+					}
+				}, null);
+		return future;
+	}
+
 	@Override
 	public Future<?> updateRowsAsync(final String tableName, final List<Map<String,Object>> rows) {
 		Future<?> future = executorService.submit(    
@@ -364,6 +429,14 @@ implements IStorageSourceService, IFloodlightModule {
 
 	protected abstract void insertRowImpl(String tableName, Map<String, Object> values);
 
+	@Override
+	public void insertRows(String tableName, List<Map<String, Object>> rows) {
+		updateCounters(STORAGE_UPDATE_COUNTER_NAME, tableName);
+		insertRowsImpl(tableName, rows);
+	}
+
+	protected abstract void insertRowsImpl(String tableName, List<Map<String, Object>> rows);
+
 
 	@Override
 	public void updateRows(String tableName, List<Map<String,Object>> rows) {
@@ -464,7 +537,16 @@ implements IStorageSourceService, IFloodlightModule {
 			explanation="An unknown error occured while trying to notify" +
 					" storage listeners",
 					recommendation=LogMessageDoc.GENERIC_ACTION)
-	protected synchronized void notifyListeners(StorageSourceNotification notification) {
+	protected void notifyListeners(StorageSourceNotification notification) {
+		NotificationBatch batch = notificationBatch.get();
+		if (batch != null) {
+			batch.add(notification);
+			return;
+		}
+		deliverNotification(notification);
+	}
+
+	protected synchronized void deliverNotification(StorageSourceNotification notification) {
 		if (logger.isTraceEnabled()) {
 			logger.trace("Notifying storage listeneres: {}", notification);
 		}
@@ -492,8 +574,37 @@ implements IStorageSourceService, IFloodlightModule {
 
 	@Override
 	public void notifyListeners(List<StorageSourceNotification> notifications) {
-		for (StorageSourceNotification notification : notifications)
-			notifyListeners(notification);
+		startNotificationBatch();
+		try {
+			for (StorageSourceNotification notification : notifications)
+				notifyListeners(notification);
+		}
+		finally {
+			endNotificationBatch();
+		}
+	}
+
+	@Override
+	public void startNotificationBatch() {
+		NotificationBatch batch = notificationBatch.get();
+		if (batch == null) {
+			batch = new NotificationBatch();
+			notificationBatch.set(batch);
+		}
+		batch.depth += 1;
+	}
+
+	@Override
+	public void endNotificationBatch() {
+		NotificationBatch batch = notificationBatch.get();
+		if (batch == null)
+			throw new IllegalStateException("No notification batch in progress");
+		batch.depth -= 1;
+		if (batch.depth > 0)
+			return;
+		notificationBatch.remove();
+		for (StorageSourceNotification notification : batch.getNotifications())
+			deliverNotification(notification);
 	}
 
 	// IFloodlightModule
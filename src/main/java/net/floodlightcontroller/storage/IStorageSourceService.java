@@ -114,6 +114,14 @@ public interface IStorageSourceService extends IFloodlightService {
      */
     void insertRow(String tableName, Map<String,Object> values);
 
+    /** Insert a list of rows in the table, replacing any existing rows
+     * with the same primary keys. Listeners on the table are notified once
+     * for all the rows.
+     * @param tableName The name of the table to which to add the rows
+     * @param rows The column names/values of each row to add
+     */
+    void insertRows(String tableName, List<Map<String,Object>> rows);
+
     /** Update or insert a list of rows in the table.
      * The primary key must be included in the map of values for each row.
      * @param tableName The table to update or insert into
@@ -225,6 +233,14 @@ public interface IStorageSourceService extends IFloodlightService {
      */
     public Future<?> insertRowAsync(final String tableName, final Map<String,Object> values);
 
+    /**
+     * Asynchronous variant of insertRows
+     * @param tableName
+     * @param rows
+     * @return
+     */
+    public Future<?> insertRowsAsync(final String tableName, final List<Map<String,Object>> rows);
+
     /**
      * Asynchronous variant of updateRows
      * @param tableName
@@ -322,6 +338,21 @@ public interface IStorageSourceService extends IFloodlightService {
      * @param listener The previously installed listener instance
      */
     public void removeListener(String tableName, IStorageSourceListener listener);
+
+    /** Start collecting the notifications for the changes made by the
+     * calling thread instead of delivering them right away. Batches may be
+     * nested; the collected notifications are delivered when the
+     * outermost batch ends.
+     */
+    public void startNotificationBatch();
+
+    /** End a batch started with startNotificationBatch. When the outermost
+     * batch ends, listeners are called once per table with all the rows
+     * deleted in the batch, and then once with all the rows modified in
+     * the batch. A row deleted and then written again is reported as
+     * modified, and a row written and then deleted is reported as deleted.
+     */
+    public void endNotificationBatch();
     
     /** This is logically a private method and should not be called by
      * clients of this interface.
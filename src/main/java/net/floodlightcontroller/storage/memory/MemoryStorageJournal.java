@@ -0,0 +1,687 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.storage.memory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the contents of a {@link MemoryStorageSource} on disk, so that
+ * they survive a restart.
+ *
+ * Every change to a row is appended to a write-ahead log as the full new
+ * row, or as a deletion. Changes are queued by the writers and written by
+ * a background thread, so writers never wait for the disk; the log is
+ * flushed whenever the queue runs empty. Once the log holds enough
+ * records, the background thread starts a new log file and writes a
+ * snapshot of all the tables, after which the older files are removed.
+ *
+ * Log files and snapshots are numbered. A snapshot holds everything in the
+ * log files with lower numbers, and may also hold some of the changes in
+ * the log file with the same number; replaying those again is harmless
+ * since each record sets a whole row. On startup the newest complete
+ * snapshot is loaded and the log files from its number on are replayed,
+ * stopping at the first record that wasn't completely written.
+ */
+@LogMessageCategory("System Database")
+public class MemoryStorageJournal {
+    protected static Logger logger =
+            LoggerFactory.getLogger(MemoryStorageJournal.class);
+
+    private static final int LOG_MAGIC = 0x464c574c; // FLWL
+    private static final int SNAPSHOT_MAGIC = 0x464c534e; // FLSN
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".db";
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_INTEGER = 2;
+    private static final byte T_LONG = 3;
+    private static final byte T_BOOLEAN = 4;
+    private static final byte T_SHORT = 5;
+    private static final byte T_BYTE = 6;
+    private static final byte T_DOUBLE = 7;
+    private static final byte T_FLOAT = 8;
+    private static final byte T_BYTES = 9;
+    private static final byte T_OBJECT = 10;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Default number of log records after which a snapshot is written
+     */
+    public static final int DEFAULT_SNAPSHOT_RECORDS = 100000;
+
+    /**
+     * How long the background thread waits for more changes before it
+     * flushes the log, in milliseconds
+     */
+    private static final int FLUSH_INTERVAL = 100;
+
+    /**
+     * Receives the contents of the journal when it is loaded
+     */
+    public interface IJournalListener {
+        void rowLoaded(String tableName, Object rowKey, Map<String,Object> row);
+        void rowDeleted(String tableName, Object rowKey);
+    }
+
+    /**
+     * Gives the journal access to the tables when it writes a snapshot
+     */
+    public interface ISnapshotSource {
+        Collection<String> getTableNames();
+        /**
+         * Get a consistent snapshot of the rows of a table
+         * @param tableName the table
+         * @param rowKeys filled with the key of each row returned
+         * @return the rows
+         */
+        List<Map<String,Object>> getRows(String tableName, List<Object> rowKeys);
+    }
+
+    /**
+     * A change waiting to be logged
+     */
+    private static class Record {
+        final String tableName;
+        final Object rowKey;
+        final Map<String,Object> row;
+
+        Record(String tableName, Object rowKey, Map<String,Object> row) {
+            this.tableName = tableName;
+            this.rowKey = rowKey;
+            this.row = row;
+        }
+    }
+
+    /**
+     * Marks the end of the queue
+     */
+    private static final Record STOP = new Record(null, null, null);
+
+    private final File directory;
+    private final int snapshotRecords;
+    private ISnapshotSource snapshotSource;
+
+    private final LinkedBlockingQueue<Record> queue =
+            new LinkedBlockingQueue<Record>();
+    private Thread writer;
+    private volatile boolean failed = false;
+
+    // The following are only used by the writer thread after start
+    private long sequence = 0;
+    private FileOutputStream logFile;
+    private DataOutputStream logStream;
+    private int logRecords = 0;
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Create a journal
+     * @param directory the directory holding the journal files
+     * @param snapshotRecords the number of log records after which a
+     * snapshot is written
+     */
+    public MemoryStorageJournal(File directory, int snapshotRecords) {
+        this.directory = directory;
+        this.snapshotRecords = snapshotRecords;
+    }
+
+    /**
+     * Load the newest snapshot and replay the log files after it
+     * @param listener receives the rows
+     * @return the number of log records replayed
+     * @throws IOException if the directory can't be read
+     */
+    @LogMessageDoc(level="WARN",
+            message="Ignoring corrupt storage snapshot {file}",
+            explanation="A storage snapshot was damaged, so the storage " +
+                    "contents are rebuilt from the older files",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    public int load(IJournalListener listener) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create storage directory " + directory);
+
+        TreeMap<Long,File> snapshots = listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        TreeMap<Long,File> logs = listFiles(LOG_PREFIX, LOG_SUFFIX);
+        long first = 0;
+        for (Map.Entry<Long,File> entry : snapshots.descendingMap().entrySet()) {
+            ByteBuffer buf = map(entry.getValue());
+            if (!checkSnapshot(buf)) {
+                logger.warn("Ignoring corrupt storage snapshot {}", entry.getValue());
+                continue;
+            }
+            long start = System.nanoTime();
+            int rows = readSnapshot(buf, listener);
+            logger.info("Loaded {} rows from {} in {} ms",
+                        new Object[] { rows, entry.getValue(),
+                                       (System.nanoTime() - start) / 1000000 });
+            first = entry.getKey();
+            break;
+        }
+
+        int records = 0;
+        for (Map.Entry<Long,File> entry : logs.tailMap(first).entrySet()) {
+            records += readLog(entry.getValue(), listener);
+        }
+        if (!logs.isEmpty())
+            sequence = logs.lastKey();
+        if (!snapshots.isEmpty())
+            sequence = Math.max(sequence, snapshots.lastKey());
+        if (records > 0)
+            logger.info("Replayed {} storage log records", records);
+        return records;
+    }
+
+    /**
+     * Start logging changes. A snapshot is written first, which replaces
+     * the files that were loaded and also covers any changes made before
+     * logging started.
+     * @param snapshotSource the tables to snapshot
+     * @throws IOException if the log can't be created
+     */
+    public void start(ISnapshotSource snapshotSource) throws IOException {
+        this.snapshotSource = snapshotSource;
+        openLog();
+        writer = new Thread("MemoryStorageJournal") {
+            @Override
+            public void run() {
+                writeSnapshot();
+                runWriter();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Log the new contents of a row
+     * @param tableName the table
+     * @param rowKey the row key
+     * @param row the row, which must not change afterwards
+     */
+    public void logPut(String tableName, Object rowKey, Map<String,Object> row) {
+        if (!failed)
+            queue.add(new Record(tableName, rowKey, row));
+    }
+
+    /**
+     * Log the deletion of a row
+     * @param tableName the table
+     * @param rowKey the row key
+     */
+    public void logDelete(String tableName, Object rowKey) {
+        if (!failed)
+            queue.add(new Record(tableName, rowKey, null));
+    }
+
+    /**
+     * Write out the queued changes and stop logging
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        if (writer == null)
+            return;
+        queue.add(STOP);
+        writer.join();
+        writer = null;
+    }
+
+    // *************
+    // Local methods
+    // *************
+
+    @LogMessageDoc(level="ERROR",
+            message="Failed to write the storage log; changes are no longer saved",
+            explanation="The storage log could not be written, so changes " +
+                    "made from now on will be lost on restart",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    private void runWriter() {
+        List<Record> batch = new ArrayList<Record>();
+        try {
+            while (true) {
+                Record r = queue.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                if (r == null) {
+                    continue;
+                }
+                batch.add(r);
+                queue.drainTo(batch);
+                boolean stop = false;
+                for (Record record : batch) {
+                    if (record == STOP) {
+                        stop = true;
+                        break;
+                    }
+                    writeRecord(record);
+                }
+                batch.clear();
+                logStream.flush();
+                if (stop) {
+                    logFile.getFD().sync();
+                    logStream.close();
+                    return;
+                }
+                if (logRecords >= snapshotRecords) {
+                    openLog();
+                    writeSnapshot();
+                }
+            }
+        } catch (InterruptedException e) {
+            // exit
+        } catch (IOException e) {
+            logger.error("Failed to write the storage log; changes are no longer saved", e);
+            failed = true;
+            queue.clear();
+        }
+    }
+
+    private void writeRecord(Record record) throws IOException {
+        recordBuffer.reset();
+        DataOutputStream out = new DataOutputStream(recordBuffer);
+        out.writeByte((record.row != null) ? OP_PUT : OP_DELETE);
+        writeString(out, record.tableName);
+        writeValue(out, record.rowKey);
+        if (record.row != null)
+            writeRow(out, record.row);
+        out.flush();
+
+        crc.reset();
+        crc.update(recordBuffer.toByteArray(), 0, recordBuffer.size());
+        logStream.writeInt(recordBuffer.size());
+        logStream.writeInt((int)crc.getValue());
+        recordBuffer.writeTo(logStream);
+        logRecords += 1;
+    }
+
+    /**
+     * Close the current log file and start the next one
+     */
+    private void openLog() throws IOException {
+        if (logStream != null) {
+            logStream.flush();
+            logFile.getFD().sync();
+            logStream.close();
+        }
+        sequence += 1;
+        logFile = new FileOutputStream(getFile(LOG_PREFIX, sequence, LOG_SUFFIX));
+        logStream = new DataOutputStream(new BufferedOutputStream(logFile, 64 * 1024));
+        logStream.writeInt(LOG_MAGIC);
+        logStream.writeInt(FORMAT_VERSION);
+        logRecords = 0;
+    }
+
+    /**
+     * Write a snapshot numbered like the current log file, and remove the
+     * older files
+     */
+    @LogMessageDoc(level="ERROR",
+            message="Failed to write storage snapshot",
+            explanation="A storage snapshot could not be written; the " +
+                    "storage log keeps growing until one is written",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    private void writeSnapshot() {
+        long start = System.nanoTime();
+        File file = getFile(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX);
+        File tmp = new File(file.getPath() + ".tmp");
+        int rows = 0;
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                CRC32 snapshotCrc = new CRC32();
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new CheckedOutputStream(fos, snapshotCrc),
+                                                 64 * 1024));
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                Collection<String> tableNames = snapshotSource.getTableNames();
+                out.writeInt(tableNames.size());
+                List<Object> rowKeys = new ArrayList<Object>();
+                for (String tableName : tableNames) {
+                    List<Map<String,Object>> tableRows =
+                            snapshotSource.getRows(tableName, rowKeys);
+                    writeString(out, tableName);
+                    out.writeInt(tableRows.size());
+                    for (int i = 0; i < tableRows.size(); i++) {
+                        writeValue(out, rowKeys.get(i));
+                        writeRow(out, tableRows.get(i));
+                    }
+                    rows += tableRows.size();
+                }
+                out.flush();
+                // The trailer isn't covered by the checksum
+                DataOutputStream trailer = new DataOutputStream(fos);
+                trailer.writeLong(snapshotCrc.getValue());
+                trailer.writeInt(SNAPSHOT_MAGIC);
+                trailer.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            if (!tmp.renameTo(file))
+                throw new IOException("Can't rename " + tmp + " to " + file);
+        } catch (IOException e) {
+            logger.error("Failed to write storage snapshot", e);
+            tmp.delete();
+            return;
+        }
+
+        for (Map.Entry<Long,File> entry :
+                listFiles(LOG_PREFIX, LOG_SUFFIX).headMap(sequence).entrySet())
+            entry.getValue().delete();
+        for (Map.Entry<Long,File> entry :
+                listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(sequence).entrySet())
+            entry.getValue().delete();
+        logger.debug("Wrote {} rows to {} in {} ms",
+                     new Object[] { rows, file,
+                                    (System.nanoTime() - start) / 1000000 });
+    }
+
+    private boolean checkSnapshot(ByteBuffer buf) {
+        int length = buf.limit() - 12;
+        if (length < 12)
+            return false;
+        if (buf.getInt(0) != SNAPSHOT_MAGIC ||
+                buf.getInt(4) != FORMAT_VERSION ||
+                buf.getInt(length + 8) != SNAPSHOT_MAGIC)
+            return false;
+        CRC32 c = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        ByteBuffer data = buf.duplicate();
+        data.limit(length);
+        while (data.hasRemaining()) {
+            int n = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, n);
+            c.update(chunk, 0, n);
+        }
+        return buf.getLong(length) == c.getValue();
+    }
+
+    private int readSnapshot(ByteBuffer buf, IJournalListener listener)
+            throws IOException {
+        buf.position(8);
+        int rows = 0;
+        int tables = buf.getInt();
+        for (int t = 0; t < tables; t++) {
+            String tableName = readString(buf);
+            int count = buf.getInt();
+            for (int i = 0; i < count; i++) {
+                Object rowKey = readValue(buf);
+                listener.rowLoaded(tableName, rowKey, readRow(buf));
+            }
+            rows += count;
+        }
+        return rows;
+    }
+
+    @LogMessageDoc(level="WARN",
+            message="Storage log {file} ends with an incomplete record",
+            explanation="The controller stopped while writing a change to " +
+                    "the storage log; the change was lost",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    private int readLog(File file, IJournalListener listener) throws IOException {
+        ByteBuffer buf = map(file);
+        if (buf.limit() < 8 ||
+                buf.getInt() != LOG_MAGIC || buf.getInt() != FORMAT_VERSION) {
+            logger.warn("Ignoring invalid storage log {}", file);
+            return 0;
+        }
+        int records = 0;
+        CRC32 c = new CRC32();
+        byte[] data = new byte[1024];
+        while (buf.remaining() >= 8) {
+            int length = buf.getInt();
+            int checksum = buf.getInt();
+            if (length < 0 || length > buf.remaining())
+                break;
+            if (data.length < length)
+                data = new byte[Math.max(length, data.length * 2)];
+            buf.get(data, 0, length);
+            c.reset();
+            c.update(data, 0, length);
+            if ((int)c.getValue() != checksum)
+                break;
+
+            ByteBuffer record = ByteBuffer.wrap(data, 0, length);
+            try {
+                byte op = record.get();
+                String tableName = readString(record);
+                Object rowKey = readValue(record);
+                if (op == OP_PUT)
+                    listener.rowLoaded(tableName, rowKey, readRow(record));
+                else
+                    listener.rowDeleted(tableName, rowKey);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Corrupt record in storage log " + file, e);
+            }
+            records += 1;
+        }
+        if (buf.hasRemaining())
+            logger.warn("Storage log {} ends with an incomplete record", file);
+        return records;
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private File getFile(String prefix, long seq, String suffix) {
+        return new File(directory, String.format("%s%016x%s", prefix, seq, suffix));
+    }
+
+    private TreeMap<Long,File> listFiles(String prefix, String suffix) {
+        TreeMap<Long,File> files = new TreeMap<Long,File>();
+        File[] list = directory.listFiles();
+        if (list == null)
+            return files;
+        for (File f : list) {
+            String name = f.getName();
+            if (!name.startsWith(prefix) || !name.endsWith(suffix))
+                continue;
+            try {
+                files.put(Long.parseLong(name.substring(prefix.length(),
+                                                        name.length() - suffix.length()),
+                                         16), f);
+            } catch (NumberFormatException e) {
+                // not ours
+            }
+        }
+        return files;
+    }
+
+    // ********
+    // Encoding
+    // ********
+
+    private static void writeRow(DataOutputStream out, Map<String,Object> row)
+            throws IOException {
+        out.writeInt(row.size());
+        for (Map.Entry<String,Object> entry : row.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static Map<String,Object> readRow(ByteBuffer buf) throws IOException {
+        int columns = buf.getInt();
+        Map<String,Object> row = new HashMap<String,Object>();
+        for (int i = 0; i < columns; i++) {
+            String name = readString(buf);
+            row.put(name, readValue(buf));
+        }
+        return row;
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] b = s.getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer buf) throws IOException {
+        byte[] b = readBytes(buf);
+        return new String(b, UTF8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buf) throws IOException {
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining())
+            throw new IOException("Corrupt storage record");
+        byte[] b = new byte[length];
+        buf.get(b);
+        return b;
+    }
+
+    @LogMessageDoc(level="WARN",
+            message="Storing a value of {class} as a string",
+            explanation="A storage value of an unexpected type was saved " +
+                    "as a string, and will be read back as a string",
+            recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    private static void writeValue(DataOutputStream out, Object value)
+            throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(T_STRING);
+            writeString(out, (String)value);
+        } else if (value instanceof Integer) {
+            out.writeByte(T_INTEGER);
+            out.writeInt((Integer)value);
+        } else if (value instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeLong((Long)value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean)value);
+        } else if (value instanceof Short) {
+            out.writeByte(T_SHORT);
+            out.writeShort((Short)value);
+        } else if (value instanceof Byte) {
+            out.writeByte(T_BYTE);
+            out.writeByte((Byte)value);
+        } else if (value instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double)value);
+        } else if (value instanceof Float) {
+            out.writeByte(T_FLOAT);
+            out.writeFloat((Float)value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(T_BYTES);
+            out.writeInt(((byte[])value).length);
+            out.write((byte[])value);
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(value);
+            oos.close();
+            out.writeByte(T_OBJECT);
+            out.writeInt(bos.size());
+            bos.writeTo(out);
+        } else {
+            logger.warn("Storing a value of {} as a string", value.getClass());
+            out.writeByte(T_STRING);
+            writeString(out, value.toString());
+        }
+    }
+
+    private static Object readValue(ByteBuffer buf) throws IOException {
+        try {
+            byte type = buf.get();
+            switch (type) {
+                case T_NULL:
+                    return null;
+                case T_STRING:
+                    return readString(buf);
+                case T_INTEGER:
+                    return buf.getInt();
+                case T_LONG:
+                    return buf.getLong();
+                case T_BOOLEAN:
+                    return buf.get() != 0;
+                case T_SHORT:
+                    return buf.getShort();
+                case T_BYTE:
+                    return buf.get();
+                case T_DOUBLE:
+                    return buf.getDouble();
+                case T_FLOAT:
+                    return buf.getFloat();
+                case T_BYTES:
+                    return readBytes(buf);
+                case T_OBJECT:
+                    ObjectInputStream ois = new ObjectInputStream(
+                            new ByteArrayInputStream(readBytes(buf)));
+                    try {
+                        return ois.readObject();
+                    } finally {
+                        ois.close();
+                    }
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt storage record", e);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Corrupt storage record", e);
+        }
+    }
+}
@@ -17,6 +17,8 @@
 
 package net.floodlightcontroller.storage.memory;
 
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.perfmon.IPktInProcessingTimeService;
 import net.floodlightcontroller.storage.nosql.NoSqlStorageSource;
@@ -24,27 +26,44 @@ import net.floodlightcontroller.storage.SynchronousExecutorService;
 import net.floodlightcontroller.storage.IStorageSourceService;
 import net.floodlightcontroller.core.module.IFloodlightService;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.floodlightcontroller.storage.StorageException;
 
+@LogMessageCategory("System Database")
 public class MemoryStorageSource extends NoSqlStorageSource {
     
-    private Map<String, MemoryTable> tableMap = new HashMap<String,MemoryTable>();
+    // Readers don't lock, either here or in the tables; see MemoryTable
+    private ConcurrentMap<String, MemoryTable> tableMap = new ConcurrentHashMap<String,MemoryTable>();
     IPktInProcessingTimeService pktinProcessingTime;
     
-    synchronized private MemoryTable getTable(String tableName, boolean create) {
+    /**
+     * Saves the tables to disk, if a persistence directory is configured
+     */
+    protected volatile MemoryStorageJournal journal;
+    // stops the journal when the JVM exits; registered once while it runs
+    protected volatile Thread shutdownHook;
+    private File persistenceDir;
+    private int snapshotRecords = MemoryStorageJournal.DEFAULT_SNAPSHOT_RECORDS;
+    
+    private MemoryTable getTable(String tableName, boolean create) {
         MemoryTable table = tableMap.get(tableName);
         if (table == null) {
             if (!create)
                 throw new StorageException("Table " + tableName + " does not exist");
             table = new MemoryTable(tableName);
-            tableMap.put(tableName, table);
+            MemoryTable existing = tableMap.putIfAbsent(tableName, table);
+            if (existing != null)
+                table = existing;
         }
         return table;
     }
@@ -65,17 +84,18 @@ public class MemoryStorageSource extends NoSqlStorageSource {
     protected List<Map<String,Object>> executeEqualityQuery(String tableName,
             String[] columnNameList, String predicateColumnName, Comparable<?> value) {
         MemoryTable table = getTable(tableName, false);
+        List<Map<String,Object>> indexedRows = table.getRowsByValue(predicateColumnName, value);
+        if (indexedRows != null)
+            return indexedRows;
         List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
-        synchronized (table) {
-            Collection<Map<String,Object>> allRows = table.getAllRows();
-            for (Map<String,Object> row : allRows) {
-                Object v = row.get(predicateColumnName);
-                if (value != null) {
-                    if ((v != null) && value.equals(v))
-                        result.add(row);
-                } else if (v == null) {
+        Collection<Map<String,Object>> allRows = table.getAllRows();
+        for (Map<String,Object> row : allRows) {
+            Object v = row.get(predicateColumnName);
+            if (value != null) {
+                if ((v != null) && value.equals(v))
                     result.add(row);
-                }
+            } else if (v == null) {
+                result.add(row);
             }
         }
         return result;
@@ -87,30 +107,42 @@ public class MemoryStorageSource extends NoSqlStorageSource {
             String[] columnNameList, String predicateColumnName,
             Comparable<?> startValue, boolean startInclusive, Comparable<?> endValue, boolean endInclusive) {
         MemoryTable table = getTable(tableName, false);
+        List<Map<String,Object>> indexedRows = table.getRowsInRange(predicateColumnName,
+                startValue, startInclusive, endValue, endInclusive);
+        if (indexedRows != null)
+            return indexedRows;
+        // Compare the values as the range predicate does, converting
+        // them to the class of the bounds
         List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
-        synchronized (table) {
-            Collection<Map<String,Object>> allRows = table.getAllRows();
-            for (Map<String,Object> row : allRows) {
-                Comparable value = (Comparable) row.get(predicateColumnName);
-                if (value != null) {
-                    int compareResult = value.compareTo(startValue);
-                    if ((compareResult > 0) || (startInclusive && (compareResult >= 0))) {
-                        compareResult = value.compareTo(endValue);
-                        if ((compareResult < 0) || (startInclusive && (compareResult <= 0))) {
-                            result.add(row);
-                        }
-                    }
+        Collection<Map<String,Object>> allRows = table.getAllRows();
+        for (Map<String,Object> row : allRows) {
+            Comparable value = (Comparable) row.get(predicateColumnName);
+            if (value != null) {
+                if (startValue != null) {
+                    Comparable v = coerceValue(value, startValue.getClass());
+                    int compareResult = v.compareTo(startValue);
+                    if ((compareResult < 0) || (!startInclusive && (compareResult == 0)))
+                        continue;
+                }
+                if (endValue != null) {
+                    Comparable v = coerceValue(value, endValue.getClass());
+                    int compareResult = v.compareTo(endValue);
+                    if ((compareResult > 0) || (!endInclusive && (compareResult == 0)))
+                        continue;
                 }
+                result.add(row);
             }
         }
         return result;
     }
     
     @Override
-    protected void insertRows(String tableName, List<Map<String,Object>> insertRowList) {
+    protected void insertRowList(String tableName, List<Map<String,Object>> insertRowList) {
+        MemoryStorageJournal journal = this.journal;
         MemoryTable table = getTable(tableName, false);
         String primaryKeyName = getTablePrimaryKeyName(tableName);
-        synchronized (table) {
+        table.beginWrite();
+        try {
             for (Map<String,Object> row : insertRowList) {
                 Object primaryKey = row.get(primaryKeyName);
                 if (primaryKey == null) {
@@ -120,52 +152,63 @@ public class MemoryStorageSource extends NoSqlStorageSource {
                         row.put(primaryKeyName, primaryKey);
                     }
                 }
-                table.insertRow(primaryKey, row);
+                Map<String,Object> stored = table.insertRow(primaryKey, row);
+                if (journal != null)
+                    journal.logPut(tableName, primaryKey, stored);
             }
+        } finally {
+            table.endWrite();
         }
     }
     
     @Override
     protected void updateRows(String tableName, Set<Object> rowKeys, Map<String,Object> updateRowList) {
+        MemoryStorageJournal journal = this.journal;
         MemoryTable table = getTable(tableName, false);
-        synchronized (table) {
+        table.beginWrite();
+        try {
             for (Object rowKey : rowKeys) {
-                Map<String,Object> row = table.getRow(rowKey);
-                if (row == null)
-                    row = table.newRow(rowKey);
-                for (Map.Entry<String,Object> entry: updateRowList.entrySet()) {
-                    row.put(entry.getKey(), entry.getValue());
-                }
+                Map<String,Object> stored = table.updateRow(rowKey, updateRowList);
+                if (journal != null)
+                    journal.logPut(tableName, rowKey, stored);
             }
+        } finally {
+            table.endWrite();
         }
     }
     
     @Override
     protected void updateRowsImpl(String tableName, List<Map<String,Object>> updateRowList) {
+        MemoryStorageJournal journal = this.journal;
         MemoryTable table = getTable(tableName, false);
         String primaryKeyName = getTablePrimaryKeyName(tableName);
-        synchronized (table) {
+        table.beginWrite();
+        try {
             for (Map<String,Object> updateRow : updateRowList) {
                 Object rowKey = updateRow.get(primaryKeyName);
                 if (rowKey == null)
                     throw new StorageException("Primary key not found.");
-                Map<String,Object> row = table.getRow(rowKey);
-                if (row == null)
-                    row = table.newRow(rowKey);
-                for (Map.Entry<String,Object> entry: updateRow.entrySet()) {
-                    row.put(entry.getKey(), entry.getValue());
-                }
+                Map<String,Object> stored = table.updateRow(rowKey, updateRow);
+                if (journal != null)
+                    journal.logPut(tableName, rowKey, stored);
             }
+        } finally {
+            table.endWrite();
         }
     }
     
     @Override
     protected void deleteRowsImpl(String tableName, Set<Object> rowKeys) {
+        MemoryStorageJournal journal = this.journal;
         MemoryTable table = getTable(tableName, false);
-        synchronized (table) {
+        table.beginWrite();
+        try {
             for (Object rowKey : rowKeys) {
-                table.deleteRow(rowKey);
+                if (table.deleteRow(rowKey) && (journal != null))
+                    journal.logDelete(tableName, rowKey);
             }
+        } finally {
+            table.endWrite();
         }
     }
     
@@ -173,6 +216,19 @@ public class MemoryStorageSource extends NoSqlStorageSource {
     public void createTable(String tableName, Set<String> indexedColumnNames) {
         super.createTable(tableName, indexedColumnNames);
         getTable(tableName, true);
+        // Sorted indexes are cheap to keep in memory, so let the indexed
+        // columns serve range queries as well as equality queries
+        if (indexedColumnNames != null) {
+            for (String columnName : indexedColumnNames)
+                setColumnIndexMode(tableName, columnName, ColumnIndexMode.RANGE_INDEXED);
+        }
+    }
+    
+    @Override
+    public void setColumnIndexMode(String tableName, String columnName, ColumnIndexMode indexMode) {
+        super.setColumnIndexMode(tableName, columnName, indexMode);
+        MemoryTable table = getTable(tableName, true);
+        table.setColumnIndex(columnName, indexMode);
     }
     
     public void setPktinProcessingTime(
@@ -186,12 +242,120 @@ public class MemoryStorageSource extends NoSqlStorageSource {
     public void startUp(FloodlightModuleContext context) {
         super.startUp(context);
         executorService = new SynchronousExecutorService();
+        // Modules that depend on us start after this, so they see the
+        // saved tables
+        if (persistenceDir != null)
+            startJournal(persistenceDir, snapshotRecords);
     }
     
     @Override
     public void init(FloodlightModuleContext context) throws net.floodlightcontroller.core.module.FloodlightModuleException {
     	super.init(context);
+        Map<String, String> configOptions = context.getConfigParams(this);
+        String dir = configOptions.get("persistenceDir");
+        if (dir != null && !dir.isEmpty())
+            persistenceDir = new File(dir);
+        String records = configOptions.get("snapshotRecords");
+        if (records != null) {
+            try {
+                snapshotRecords = Integer.parseInt(records);
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid snapshotRecords {}, using default of {}",
+                            records, snapshotRecords);
+            }
+        }
     };
+    
+    /**
+     * Load the tables saved in a directory, and save all changes made
+     * from now on
+     * @param dir the directory
+     * @param snapshotRecords the number of changes logged before the tables
+     * are written out in full
+     */
+    @LogMessageDoc(level="ERROR",
+            message="Failed to load saved storage from {dir}",
+            explanation="The saved storage tables could not be read, so " +
+                    "the controller starts without them and doesn't save changes",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    public void startJournal(File dir, int snapshotRecords) {
+        MemoryStorageJournal j = new MemoryStorageJournal(dir, snapshotRecords);
+        try {
+            j.load(new MemoryStorageJournal.IJournalListener() {
+                @Override
+                public void rowLoaded(String tableName, Object rowKey,
+                                      Map<String, Object> row) {
+                    MemoryTable table = getTable(tableName, true);
+                    table.beginWrite();
+                    try {
+                        table.reserveId(rowKey);
+                        table.insertRow(rowKey, row);
+                    } finally {
+                        table.endWrite();
+                    }
+                }
+
+                @Override
+                public void rowDeleted(String tableName, Object rowKey) {
+                    MemoryTable table = getTable(tableName, true);
+                    table.beginWrite();
+                    try {
+                        table.deleteRow(rowKey);
+                    } finally {
+                        table.endWrite();
+                    }
+                }
+            });
+            j.start(new MemoryStorageJournal.ISnapshotSource() {
+                @Override
+                public Collection<String> getTableNames() {
+                    return new ArrayList<String>(tableMap.keySet());
+                }
+
+                @Override
+                public List<Map<String, Object>> getRows(String tableName,
+                                                         List<Object> rowKeys) {
+                    return getTable(tableName, false).getAllRows(rowKeys);
+                }
+            });
+        } catch (IOException e) {
+            logger.error("Failed to load saved storage from " + dir, e);
+            return;
+        }
+        journal = j;
+        if (shutdownHook == null) {
+            shutdownHook = new Thread("MemoryStorageJournal shutdown") {
+                @Override
+                public void run() {
+                    try {
+                        stopJournal();
+                    } catch (InterruptedException e) {
+                        // exit
+                    }
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+    
+    /**
+     * Write out the pending changes and stop saving changes
+     * @throws InterruptedException
+     */
+    public void stopJournal() throws InterruptedException {
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // already shutting down, possibly in the hook itself
+            }
+            shutdownHook = null;
+        }
+        if (journal != null) {
+            journal.stop();
+            journal = null;
+        }
+    }
 
     @Override
     public Map<Class<? extends IFloodlightService>,
@@ -17,20 +17,358 @@
 
 package net.floodlightcontroller.storage.memory;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
 
+import net.floodlightcontroller.storage.nosql.NoSqlStorageSource.ColumnIndexMode;
+
+/**
+ * An in-memory table that gives readers a consistent snapshot without
+ * locking.
+ *
+ * Each row key maps to a chain of row versions, newest first. Writers
+ * are serialized by a lock: a batch of writes between
+ * {@link #beginWrite()} and {@link #endWrite()} adds versions numbered one
+ * past the current table version, and then publishes that number as the
+ * new table version so the whole batch becomes visible at once. A reader
+ * takes the table version as its snapshot and, for each key, uses the
+ * newest version of the row that isn't newer than the snapshot.
+ *
+ * To keep memory bounded, a write keeps only the version it replaces,
+ * and deleted rows and stale index entries are purged in bulk. A reader
+ * that needed something that was pruned or purged since its snapshot
+ * simply starts over with a new snapshot, and falls back to reading
+ * under the write lock if it keeps losing the race.
+ *
+ * Rows are immutable and store their values in an array indexed by a
+ * column numbering shared by the whole table.
+ */
 public class MemoryTable {
 
+    /**
+     * Number of lock-free attempts a reader makes before it takes the
+     * write lock
+     */
+    private static final int MAX_READ_ATTEMPTS = 8;
+
+    /**
+     * Number of deleted rows and stale index entries tolerated before
+     * they are purged, in addition to a quarter of the table size
+     */
+    private static final int PURGE_THRESHOLD = 64;
+
+    /**
+     * Marks a column that a row doesn't have
+     */
+    private static final Object ABSENT = new Object();
+
+    /**
+     * Stands for null values in the hash indexes
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    /**
+     * Marks the end of a version chain whose older versions were pruned
+     */
+    private static final RowVersion PRUNED = new RowVersion(0, null, null);
+
     private String tableName;
-    private Map<Object,Map<String,Object>> rowMap;
+    private ConcurrentSkipListMap<Object,RowVersion> rowMap;
+    private ConcurrentMap<String,ColumnIndex> indexMap;
+    private volatile ColumnSet columns = new ColumnSet();
     private int nextId;
+
+    /**
+     * The version of the last committed batch of writes
+     */
+    private volatile long version = 0;
+    /**
+     * Readers with a snapshot older than this must start over, since rows
+     * or index entries they may need have been purged
+     */
+    private volatile long purgeVersion = 0;
+
+    // The following are protected by writeLock
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private long writeVersion;
+    private int rowCount = 0;
+    private List<Object> deletedKeys = new ArrayList<Object>();
+    private List<StaleEntry> staleEntries = new ArrayList<StaleEntry>();
+
+    /**
+     * One version of a row
+     */
+    private static final class RowVersion {
+        final long version;
+        /**
+         * The row, or null if the row was deleted in this version
+         */
+        final Row row;
+        volatile RowVersion prev;
+
+        RowVersion(long version, Row row, RowVersion prev) {
+            this.version = version;
+            this.row = row;
+            this.prev = prev;
+        }
+    }
+
+    /**
+     * The names of the columns of a table, numbered in the order they were
+     * first used. Columns are only ever added, so a row can keep using
+     * the column set that was current when it was written.
+     */
+    private static final class ColumnSet {
+        final String[] names;
+        final Map<String,Integer> numbers;
+
+        ColumnSet() {
+            names = new String[0];
+            numbers = Collections.emptyMap();
+        }
+
+        ColumnSet(ColumnSet base, String name) {
+            names = new String[base.names.length + 1];
+            System.arraycopy(base.names, 0, names, 0, base.names.length);
+            names[base.names.length] = name;
+            numbers = new HashMap<String,Integer>(base.numbers);
+            numbers.put(name, base.names.length);
+        }
+    }
+
+    /**
+     * An immutable row
+     */
+    static final class Row extends AbstractMap<String,Object> {
+        private final ColumnSet columns;
+        private final Object[] values;
+        private final int size;
+
+        Row(ColumnSet columns, Object[] values) {
+            this.columns = columns;
+            this.values = values;
+            int n = 0;
+            for (Object v : values) {
+                if (v != ABSENT)
+                    n++;
+            }
+            this.size = n;
+        }
+
+        private Object getValue(Object column) {
+            Integer i = columns.numbers.get(column);
+            if ((i == null) || (i >= values.length))
+                return ABSENT;
+            return values[i];
+        }
+
+        @Override
+        public Object get(Object column) {
+            Object value = getValue(column);
+            return (value == ABSENT) ? null : value;
+        }
+
+        @Override
+        public boolean containsKey(Object column) {
+            return getValue(column) != ABSENT;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Map.Entry<String,Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String,Object>>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Map.Entry<String,Object>> iterator() {
+                    return new Iterator<Map.Entry<String,Object>>() {
+                        int next = advance(0);
+
+                        private int advance(int i) {
+                            while ((i < values.length) && (values[i] == ABSENT))
+                                i++;
+                            return i;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < values.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String,Object> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            Map.Entry<String,Object> entry =
+                                    new AbstractMap.SimpleImmutableEntry<String,Object>(
+                                            columns.names[next], values[next]);
+                            next = advance(next + 1);
+                            return entry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * An index entry that may no longer match its row
+     */
+    private static final class StaleEntry {
+        final String columnName;
+        final Object value;
+        final Object rowKey;
+
+        StaleEntry(String columnName, Object value, Object rowKey) {
+            this.columnName = columnName;
+            this.value = value;
+            this.rowKey = rowKey;
+        }
+    }
+
+    /**
+     * A secondary index over the values of one column. The hash index maps
+     * each value to the keys of the rows that hold it; rows that don't have
+     * a value for the column are indexed under null. A range index also
+     * keeps the non-null values sorted, with a separate tree for each class
+     * of value since values of different classes don't compare.
+     *
+     * The index may list a row under values it no longer has, so readers
+     * check the rows they find. Entries are only removed when purging.
+     */
+    static class ColumnIndex {
+        private ConcurrentMap<Object,Set<Object>> hashIndex =
+                new ConcurrentHashMap<Object,Set<Object>>();
+        private ConcurrentMap<Class<?>,ConcurrentSkipListMap<Object,Set<Object>>> rangeIndex;
+        
+        ColumnIndex(boolean range) {
+            if (range)
+                rangeIndex = new ConcurrentHashMap<Class<?>,ConcurrentSkipListMap<Object,Set<Object>>>();
+        }
+        
+        void add(Object value, Object rowKey) {
+            Object hashValue = (value == null) ? NULL_VALUE : value;
+            Set<Object> rowKeys = hashIndex.get(hashValue);
+            if (rowKeys == null) {
+                rowKeys = new ConcurrentSkipListSet<Object>();
+                hashIndex.put(hashValue, rowKeys);
+                if ((rangeIndex != null) && (value instanceof Comparable)) {
+                    ConcurrentSkipListMap<Object,Set<Object>> tree = rangeIndex.get(value.getClass());
+                    if (tree == null) {
+                        tree = new ConcurrentSkipListMap<Object,Set<Object>>();
+                        rangeIndex.put(value.getClass(), tree);
+                    }
+                    // The tree shares the key sets with the hash index
+                    tree.put(value, rowKeys);
+                }
+            }
+            rowKeys.add(rowKey);
+        }
+        
+        void remove(Object value, Object rowKey) {
+            Object hashValue = (value == null) ? NULL_VALUE : value;
+            Set<Object> rowKeys = hashIndex.get(hashValue);
+            if (rowKeys == null)
+                return;
+            rowKeys.remove(rowKey);
+            if (!rowKeys.isEmpty())
+                return;
+            hashIndex.remove(hashValue);
+            if ((rangeIndex != null) && (value instanceof Comparable)) {
+                ConcurrentSkipListMap<Object,Set<Object>> tree = rangeIndex.get(value.getClass());
+                if (tree != null) {
+                    tree.remove(value);
+                    if (tree.isEmpty())
+                        rangeIndex.remove(value.getClass());
+                }
+            }
+        }
+        
+        Set<Object> getRowKeys(Object value) {
+            return hashIndex.get((value == null) ? NULL_VALUE : value);
+        }
+        
+        boolean isRangeIndex() {
+            return rangeIndex != null;
+        }
+        
+        /**
+         * Check whether the values in the index have the same class as
+         * the given value, so that they compare the same way
+         */
+        boolean hasOnlyClass(Class<?> valueClass) {
+            for (Class<?> c : rangeIndex.keySet()) {
+                if (c != valueClass)
+                    return false;
+            }
+            return true;
+        }
+        
+        Collection<Set<Object>> getRowKeys(Class<?> valueClass,
+                Comparable<?> startValue, boolean startInclusive,
+                Comparable<?> endValue, boolean endInclusive) {
+            NavigableMap<Object,Set<Object>> tree = rangeIndex.get(valueClass);
+            if (tree == null)
+                return new ArrayList<Set<Object>>();
+            if (startValue != null)
+                tree = tree.tailMap(startValue, startInclusive);
+            if (endValue != null)
+                tree = tree.headMap(endValue, endInclusive);
+            return tree.values();
+        }
+    }
+    
+    /**
+     * Selects the rows for a read
+     */
+    private static class RowQuery {
+        /**
+         * Get the keys of the candidate rows. This is called after the
+         * read has taken its snapshot, so that whatever it finds in the
+         * indexes covers the rows in the snapshot.
+         * @return the keys in order, or null to scan all the rows
+         */
+        Iterable<Object> getKeys() {
+            return null;
+        }
+
+        boolean matches(Row row) {
+            return true;
+        }
+    }
     
     MemoryTable(String tableName) {
         this.tableName = tableName;
-        rowMap = new TreeMap<Object,Map<String,Object>>();
+        rowMap = new ConcurrentSkipListMap<Object,RowVersion>();
+        indexMap = new ConcurrentHashMap<String,ColumnIndex>();
         nextId = 0;
     }
     
@@ -38,35 +376,393 @@ public class MemoryTable {
         return tableName;
     }
     
+    // *******
+    // Readers
+    // *******
+    
     Collection<Map<String,Object>> getAllRows() {
-        return rowMap.values();
+        return read(new RowQuery(), null);
     }
     
-    Map<String,Object> getRow(Object key) {
-        Map<String,Object> row = rowMap.get(key);
-        return row;
+    /**
+     * Get all the rows along with their keys
+     * @param rowKeys filled with the key of each row returned
+     * @return the rows ordered by key
+     */
+    List<Map<String,Object>> getAllRows(List<Object> rowKeys) {
+        return read(new RowQuery(), rowKeys);
     }
     
-    // rkv: Do we still need this? Probably needs to be tweaked a bit
-    // to work with the support for specifying which column to use as the
-    // primary key
-    Map<String,Object> newRow(Object key) {
-        Map<String,Object> row = new HashMap<String, Object>();
-        row.put("id", key);
-        rowMap.put(key, row);
-        return row;
+    Map<String,Object> getRow(final Object key) {
+        List<Map<String,Object>> rows = read(new RowQuery() {
+            @Override
+            Iterable<Object> getKeys() {
+                return Collections.singleton(key);
+            }
+        }, null);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+    
+    /**
+     * Look up the rows with the given value for a column using its index
+     * @param columnName the column
+     * @param value the value, or null for rows without a value
+     * @return the matching rows ordered by key, or null if the column
+     * isn't indexed
+     */
+    List<Map<String,Object>> getRowsByValue(final String columnName, final Object value) {
+        if (!indexMap.containsKey(columnName))
+            return null;
+        return read(new RowQuery() {
+            @Override
+            Iterable<Object> getKeys() {
+                ColumnIndex index = indexMap.get(columnName);
+                if (index == null)
+                    return null;
+                Set<Object> rowKeys = index.getRowKeys(value);
+                if (rowKeys == null)
+                    return Collections.emptySet();
+                return rowKeys;
+            }
+
+            @Override
+            boolean matches(Row row) {
+                Object v = row.get(columnName);
+                return (value == null) ? (v == null) : value.equals(v);
+            }
+        }, null);
+    }
+    
+    /**
+     * Look up the rows whose value for a column falls in a range using
+     * its range index. A null start or end value leaves that end of the
+     * range open.
+     * @return the matching rows ordered by key, or null if the index can't
+     * answer the query, because the column doesn't have a range index or
+     * holds values of a different class than the bounds
+     */
+    List<Map<String,Object>> getRowsInRange(final String columnName,
+            final Comparable<?> startValue, final boolean startInclusive,
+            final Comparable<?> endValue, final boolean endInclusive) {
+        ColumnIndex index = indexMap.get(columnName);
+        if ((index == null) || !index.isRangeIndex())
+            return null;
+        if ((startValue == null) && (endValue == null))
+            return null;
+        final Class<?> valueClass = (startValue != null) ? startValue.getClass() : endValue.getClass();
+        if ((endValue != null) && (endValue.getClass() != valueClass))
+            return null;
+        if (!index.hasOnlyClass(valueClass))
+            return null;
+        return read(new RowQuery() {
+            @Override
+            Iterable<Object> getKeys() {
+                ColumnIndex index = indexMap.get(columnName);
+                if ((index == null) || !index.isRangeIndex())
+                    return null;
+                Set<Object> rowKeys = new TreeSet<Object>();
+                for (Set<Object> keys : index.getRowKeys(valueClass, startValue, startInclusive,
+                                                         endValue, endInclusive)) {
+                    // Not addAll, which relies on the size of a sorted set
+                    // not changing while it is copied
+                    for (Object key : keys)
+                        rowKeys.add(key);
+                }
+                return rowKeys;
+            }
+
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            @Override
+            boolean matches(Row row) {
+                Object value = row.get(columnName);
+                if ((value == null) || (value.getClass() != valueClass))
+                    return false;
+                if (startValue != null) {
+                    int result = ((Comparable)value).compareTo(startValue);
+                    if ((result < 0) || (!startInclusive && (result == 0)))
+                        return false;
+                }
+                if (endValue != null) {
+                    int result = ((Comparable)value).compareTo(endValue);
+                    if ((result > 0) || (!endInclusive && (result == 0)))
+                        return false;
+                }
+                return true;
+            }
+        }, null);
     }
     
-    void insertRow(Object key, Map<String,Object> rowValues) {
+    // *******
+    // Writers
+    // *******
+    
+    /**
+     * Start a batch of writes. The writes become visible to readers
+     * together when {@link #endWrite()} is called.
+     */
+    void beginWrite() {
+        writeLock.lock();
+        writeVersion = version + 1;
+    }
+    
+    /**
+     * Publish the current batch of writes
+     */
+    void endWrite() {
+        try {
+            version = writeVersion;
+            int garbage = deletedKeys.size() + staleEntries.size();
+            if (garbage > PURGE_THRESHOLD + rowCount / 4)
+                purge();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Build or drop the index for a column
+     * @param columnName the column
+     * @param indexMode the kind of index to keep
+     */
+    void setColumnIndex(String columnName, ColumnIndexMode indexMode) {
+        writeLock.lock();
+        try {
+            if (indexMode == ColumnIndexMode.NOT_INDEXED) {
+                indexMap.remove(columnName);
+                return;
+            }
+            ColumnIndex index = new ColumnIndex(indexMode == ColumnIndexMode.RANGE_INDEXED);
+            for (Map.Entry<Object,RowVersion> entry : rowMap.entrySet()) {
+                Row row = entry.getValue().row;
+                if (row != null)
+                    index.add(row.get(columnName), entry.getKey());
+            }
+            // The index only knows the current rows
+            purgeVersion = version;
+            indexMap.put(columnName, index);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Insert a row, replacing any row with the same key
+     * @param key the row key
+     * @param rowValues the column values
+     * @return the row as stored
+     */
+    Map<String,Object> insertRow(Object key, Map<String,Object> rowValues) {
         assert(key != null);
-        rowMap.put(key, rowValues);
+        Row row = newRow(null, rowValues);
+        write(key, row);
+        return row;
     }
     
-    void deleteRow(Object rowKey) {
-        rowMap.remove(rowKey);
+    /**
+     * Set column values in a row, creating the row if it doesn't exist
+     * @param key the row key
+     * @param values the column values to set
+     * @return the updated row
+     */
+    Map<String,Object> updateRow(Object key, Map<String,Object> values) {
+        RowVersion head = rowMap.get(key);
+        Row base = (head != null) ? head.row : null;
+        if (base == null) {
+            // rkv: Do we still need this? Probably needs to be tweaked a bit
+            // to work with the support for specifying which column to use as the
+            // primary key
+            base = newRow(null, Collections.<String,Object>singletonMap("id", key));
+        }
+        Row row = newRow(base, values);
+        write(key, row);
+        return row;
+    }
+    
+    /**
+     * Delete a row
+     * @param rowKey the row key
+     * @return true if the row existed
+     */
+    boolean deleteRow(Object rowKey) {
+        RowVersion head = rowMap.get(rowKey);
+        if ((head == null) || (head.row == null))
+            return false;
+        write(rowKey, null);
+        return true;
     }
     
     Integer getNextId() {
+        assert(writeLock.isHeldByCurrentThread());
         return new Integer(++nextId);
     }
+    
+    /**
+     * Make sure that generated ids don't collide with a key that was
+     * assigned before, such as a row loaded from disk
+     * @param key the row key
+     */
+    void reserveId(Object key) {
+        assert(writeLock.isHeldByCurrentThread());
+        if ((key instanceof Integer) && ((Integer)key > nextId))
+            nextId = (Integer)key;
+    }
+    
+    // *************
+    // Local methods
+    // *************
+    
+    /**
+     * Read the rows selected by a query as of a single snapshot of the
+     * table
+     * @param query the query
+     * @param rowKeys if not null, filled with the key of each row returned
+     * @return the rows ordered by key
+     */
+    private List<Map<String,Object>> read(RowQuery query, List<Object> rowKeys) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            List<Map<String,Object>> result = read(query, rowKeys, version);
+            if (result != null)
+                return result;
+        }
+        // Writers keep changing what we need; wait for them instead
+        writeLock.lock();
+        try {
+            return read(query, rowKeys, version);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * @return the rows, or null if the read has to start over
+     */
+    private List<Map<String,Object>> read(RowQuery query, List<Object> rowKeys,
+                                          long snapshot) {
+        List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+        if (rowKeys != null)
+            rowKeys.clear();
+        Iterable<Object> keys = query.getKeys();
+        Iterator<Map.Entry<Object,RowVersion>> heads =
+                (keys == null) ? rowMap.entrySet().iterator() : null;
+        Iterator<Object> keyIterator = (keys != null) ? keys.iterator() : null;
+        while ((heads != null) ? heads.hasNext() : keyIterator.hasNext()) {
+            Object key;
+            RowVersion v;
+            if (heads != null) {
+                Map.Entry<Object,RowVersion> entry = heads.next();
+                key = entry.getKey();
+                v = entry.getValue();
+            } else {
+                key = keyIterator.next();
+                v = rowMap.get(key);
+            }
+            while ((v != null) && (v != PRUNED) && (v.version > snapshot))
+                v = v.prev;
+            if (v == PRUNED)
+                return null;
+            if ((v == null) || (v.row == null))
+                continue;
+            if (query.matches(v.row)) {
+                result.add(v.row);
+                if (rowKeys != null)
+                    rowKeys.add(key);
+            }
+        }
+        if (purgeVersion > snapshot)
+            return null;
+        return result;
+    }
+    
+    /**
+     * Build a row from a base row and new column values
+     */
+    private Row newRow(Row base, Map<String,Object> values) {
+        ColumnSet cs = columns;
+        for (String name : values.keySet()) {
+            if (!cs.numbers.containsKey(name))
+                cs = new ColumnSet(cs, name);
+        }
+        columns = cs;
+        Object[] rowValues = new Object[cs.names.length];
+        int i = 0;
+        if (base != null) {
+            System.arraycopy(base.values, 0, rowValues, 0, base.values.length);
+            i = base.values.length;
+        }
+        for (; i < rowValues.length; i++)
+            rowValues[i] = ABSENT;
+        for (Map.Entry<String,Object> entry : values.entrySet())
+            rowValues[cs.numbers.get(entry.getKey())] = entry.getValue();
+        return new Row(cs, rowValues);
+    }
+    
+    /**
+     * Add a new version of a row
+     * @param key the row key
+     * @param row the row, or null to delete it
+     */
+    private void write(Object key, Row row) {
+        assert(writeLock.isHeldByCurrentThread());
+        RowVersion head = rowMap.get(key);
+        Row oldRow = (head != null) ? head.row : null;
+        RowVersion v;
+        if ((head != null) && (head.version == writeVersion)) {
+            // Written earlier in this batch, so no reader can see it yet
+            v = new RowVersion(writeVersion, row, head.prev);
+        } else {
+            v = new RowVersion(writeVersion, row, head);
+            // Readers with a snapshot from before head was written may
+            // still need the version it replaced, but not anything older
+            if ((head != null) && (head.prev != null))
+                head.prev = PRUNED;
+        }
+        rowMap.put(key, v);
+        
+        if (oldRow == null && row != null)
+            rowCount++;
+        else if (oldRow != null && row == null) {
+            rowCount--;
+            deletedKeys.add(key);
+        }
+        
+        for (Map.Entry<String,ColumnIndex> entry : indexMap.entrySet()) {
+            String columnName = entry.getKey();
+            Object newValue = (row != null) ? row.get(columnName) : null;
+            if (row != null)
+                entry.getValue().add(newValue, key);
+            if (oldRow != null) {
+                Object oldValue = oldRow.get(columnName);
+                if ((row == null) || !equal(oldValue, newValue))
+                    staleEntries.add(new StaleEntry(columnName, oldValue, key));
+            }
+        }
+    }
+    
+    /**
+     * Remove deleted rows and index entries that no longer match their
+     * rows. Readers with an older snapshot will start over.
+     */
+    private void purge() {
+        purgeVersion = version;
+        for (Object key : deletedKeys) {
+            RowVersion head = rowMap.get(key);
+            if ((head != null) && (head.row == null))
+                rowMap.remove(key);
+        }
+        for (StaleEntry stale : staleEntries) {
+            ColumnIndex index = indexMap.get(stale.columnName);
+            if (index == null)
+                continue;
+            RowVersion head = rowMap.get(stale.rowKey);
+            if ((head == null) || (head.row == null) ||
+                    !equal(head.row.get(stale.columnName), stale.value))
+                index.remove(stale.value, stale.rowKey);
+        }
+        deletedKeys.clear();
+        staleEntries.clear();
+    }
+    
+    private static boolean equal(Object a, Object b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
 }
@@ -99,14 +99,21 @@ public class NoSqlResultSet implements IResultSet {
     public void save() {
         endCurrentRowUpdate();
         
-        if (rowUpdateList != null) {
-            storageSource.updateRows(tableName, rowUpdateList);
-            rowUpdateList = null;
+        // Report the updates and deletes together
+        storageSource.startNotificationBatch();
+        try {
+            if (rowUpdateList != null) {
+                storageSource.updateRows(tableName, rowUpdateList);
+                rowUpdateList = null;
+            }
+            
+            if (rowDeleteSet != null) {
+                storageSource.deleteRows(tableName, rowDeleteSet);
+                rowDeleteSet = null;
+            }
         }
-        
-        if (rowDeleteSet != null) {
-            storageSource.deleteRows(tableName, rowDeleteSet);
-            rowDeleteSet = null;
+        finally {
+            storageSource.endNotificationBatch();
         }
     }
 
@@ -235,60 +235,6 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
             return rowList;
         }
         
-        Comparable<?> coerceValue(Comparable<?> value, Class targetClass) {
-            
-            if (value == null)
-                return null;
-            
-            if (value.getClass() == targetClass)
-                return value;
-            
-            // FIXME: For now we convert by first converting the source value to a
-            // string and then converting to the target type. This logic probably needs
-            // another pass to make it more robust/optimized.
-            
-            String s = value.toString();
-            Comparable<?> obj = null;
-            
-            try {
-                if (targetClass == Integer.class) {
-                    obj = new Integer(s);
-                } else if (targetClass == Long.class) {
-                    obj = new Long(s);
-                } else if (targetClass == Short.class) {
-                    obj = new Short(s);
-                } else if (targetClass == Boolean.class) {
-                    obj = new Boolean(s);
-                } else if (targetClass == Float.class) {
-                    obj = new Float(s);
-                } else if (targetClass == Double.class) {
-                    obj = new Double(s);
-                } else if (targetClass == Byte.class) {
-                    obj = new Byte(s);
-                } else if (targetClass == String.class) {
-                    obj = s;
-                } else if (targetClass == Date.class) {
-                    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-                    dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-                    try {
-                        obj = dateFormat.parse(s);
-                    }
-                    catch (ParseException exc) {
-                        throw new TypeMismatchStorageException(Date.class.getName(), value.getClass().getName(), "???");
-                    }
-                }
-            }
-            catch (Exception exc) {
-                // Ignore the exception here. In this case obj will not be set, so we'll
-                // throw the StorageException below when we check for a null obj.
-            }
-            
-            if (obj == null)
-                throw new StorageException("Column value could not be coerced to the correct type");
-            
-            return obj;
-        }
-        
         boolean matchesValue(Comparable<?> value) {
             boolean isNullEqPredicate = (startValue == null) && (endValue == null) && startInclusive && endInclusive;
             if (value == null)
@@ -529,11 +475,15 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
 
             List<Map<String,Object>> filteredRowList = new ArrayList<Map<String,Object>>();
             for (Map<String,Object> row: combinedRowList) {
+                boolean matches = true;
                 for (NoSqlPredicate predicate: inefficientPredicates) {
-                    if (predicate.matchesRow(row)) {
-                        filteredRowList.add(row);
+                    if (!predicate.matchesRow(row)) {
+                        matches = false;
+                        break;
                     }
                 }
+                if (matches)
+                    filteredRowList.add(row);
             }
 
             return filteredRowList;
@@ -562,6 +512,69 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
     public NoSqlStorageSource() {
         super();
     }
+
+    /**
+     * Convert a value to the given class, e.g. to compare a query value
+     * with the values stored in a column
+     * @param value the value
+     * @param targetClass the class to convert to
+     * @return the converted value
+     * @throws StorageException if the value can't be converted
+     */
+    @SuppressWarnings("rawtypes")
+    protected static Comparable<?> coerceValue(Comparable<?> value, Class targetClass) {
+        
+        if (value == null)
+            return null;
+        
+        if (value.getClass() == targetClass)
+            return value;
+        
+        // FIXME: For now we convert by first converting the source value to a
+        // string and then converting to the target type. This logic probably needs
+        // another pass to make it more robust/optimized.
+        
+        String s = value.toString();
+        Comparable<?> obj = null;
+        
+        try {
+            if (targetClass == Integer.class) {
+                obj = new Integer(s);
+            } else if (targetClass == Long.class) {
+                obj = new Long(s);
+            } else if (targetClass == Short.class) {
+                obj = new Short(s);
+            } else if (targetClass == Boolean.class) {
+                obj = new Boolean(s);
+            } else if (targetClass == Float.class) {
+                obj = new Float(s);
+            } else if (targetClass == Double.class) {
+                obj = new Double(s);
+            } else if (targetClass == Byte.class) {
+                obj = new Byte(s);
+            } else if (targetClass == String.class) {
+                obj = s;
+            } else if (targetClass == Date.class) {
+                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+                dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+                try {
+                    obj = dateFormat.parse(s);
+                }
+                catch (ParseException exc) {
+                    throw new TypeMismatchStorageException(Date.class.getName(), value.getClass().getName(), "???");
+                }
+            }
+        }
+        catch (Exception exc) {
+            // Ignore the exception here. In this case obj will not be set, so we'll
+            // throw the StorageException below when we check for a null obj.
+        }
+        
+        if (obj == null)
+            throw new StorageException("Column value could not be coerced to the correct type");
+        
+        return obj;
+    }
     
     @Override
     public void createTable(String tableName, Set<String> indexedColumns) {
@@ -772,10 +785,15 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
     }
     
     protected void insertRowsAndNotify(String tableName, List<Map<String,Object>> insertRowList) {
-        insertRows(tableName, insertRowList);
+        insertRowList(tableName, insertRowList);
         sendNotification(tableName, StorageSourceNotification.Action.MODIFY, insertRowList);
     }
 
+    @Override
+    public void insertRowsImpl(String tableName, List<Map<String,Object>> rows) {
+        insertRowsAndNotify(tableName, rows);
+    }
+
     @Override
     public void insertRowImpl(String tableName, Map<String, Object> values) {
         ArrayList<Map<String,Object>> rowList = new ArrayList<Map<String,Object>>();
@@ -789,10 +807,16 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
     }
 
     protected void updateRowsAndNotify(String tableName, List<Map<String,Object>> updateRowList) {
-        updateRows(tableName, updateRowList);
+        updateRowsImpl(tableName, updateRowList);
         sendNotification(tableName, StorageSourceNotification.Action.MODIFY, updateRowList);
     }
 
+    @Override
+    public void updateRows(String tableName, List<Map<String,Object>> rows) {
+        updateCounters(STORAGE_UPDATE_COUNTER_NAME, tableName);
+        updateRowsAndNotify(tableName, rows);
+    }
+
     @Override
     public void updateMatchingRowsImpl(String tableName, IPredicate predicate, Map<String,Object> values) {
         String primaryKeyName = getTablePrimaryKeyName(tableName);
@@ -824,10 +848,16 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
     }
 
    protected void deleteRowsAndNotify(String tableName, Set<Object> rowKeyList) {
-       deleteRows(tableName, rowKeyList);
+       deleteRowsImpl(tableName, rowKeyList);
        sendNotification(tableName, StorageSourceNotification.Action.DELETE, rowKeyList);
    }
 
+    @Override
+    public void deleteRows(String tableName, Set<Object> rowKeys) {
+        updateCounters(STORAGE_DELETE_COUNTER_NAME, tableName);
+        deleteRowsAndNotify(tableName, rowKeys);
+    }
+
     @Override
     public void deleteRowImpl(String tableName, Object key) {
         HashSet<Object> keys = new HashSet<Object>();
@@ -858,7 +888,7 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
             String[] columnNameList, String predicateColumnName,
             Comparable<?> startValue, boolean startInclusive, Comparable<?> endValue, boolean endInclusive);
     
-    protected abstract void insertRows(String tableName, List<Map<String,Object>> insertRowList);
+    protected abstract void insertRowList(String tableName, List<Map<String,Object>> insertRowList);
     
     protected abstract void updateRows(String tableName, Set<Object> rowKeys, Map<String,Object> updateColumnMap);
 }
@@ -0,0 +1,156 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.topology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LinkType;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.UpdateOperation;
+
+/**
+ * Reduces a batch of link discovery updates to its net change, so that
+ * topology listeners see one update per link, port and switch no matter
+ * how many times it changed while the batch was collected.
+ *
+ * For every link, port and switch only the last update is kept, in the
+ * order of the last updates. Link updates are dropped altogether when the
+ * link ends up the way it was before the batch: a link that was added and
+ * removed again, or one that was removed and re-added with its old type.
+ * A switch that is removed and updated again keeps both updates, removal
+ * first, so that listeners still clean up after the old connection.
+ */
+class LDUpdateCoalescer {
+    private enum Kind { LINK, PORT, SWITCH, SWITCH_REMOVED, TUNNEL_PORT }
+
+    private static class LinkHistory {
+        final LinkType priorType;
+        final UpdateOperation firstOperation;
+
+        LinkHistory(LinkType priorType, UpdateOperation firstOperation) {
+            this.priorType = priorType;
+            this.firstOperation = firstOperation;
+        }
+    }
+
+    private final Map<List<Object>, LDUpdate> updates =
+            new LinkedHashMap<List<Object>, LDUpdate>();
+    private final Map<List<Object>, LinkHistory> linkHistory =
+            new HashMap<List<Object>, LinkHistory>();
+    private int received = 0;
+
+    /**
+     * Add an update to the batch.
+     * @param update the update
+     * @param priorType for link updates, the type of the link in the
+     *        topology before the update was applied, or null if the link
+     *        did not exist or its type is not tracked
+     */
+    void add(LDUpdate update, LinkType priorType) {
+        received++;
+        List<Object> key = getKey(update);
+
+        if (!linkHistory.containsKey(key) && isLinkUpdate(update)) {
+            linkHistory.put(key, new LinkHistory(priorType,
+                    update.getOperation()));
+        }
+        if (update.getOperation() == UpdateOperation.SWITCH_REMOVED) {
+            // supersedes a removal kept from earlier in the batch
+            updates.remove(getRemovalKey(update));
+        } else if (update.getOperation() == UpdateOperation.SWITCH_UPDATED) {
+            LDUpdate previous = updates.get(key);
+            if (previous != null && previous.getOperation() ==
+                    UpdateOperation.SWITCH_REMOVED) {
+                updates.remove(key);
+                updates.put(getRemovalKey(previous), previous);
+            }
+        }
+        // re-insert to keep the map ordered by last update
+        updates.remove(key);
+        updates.put(key, update);
+    }
+
+    /**
+     * @return the number of updates added to the batch
+     */
+    int getReceivedCount() {
+        return received;
+    }
+
+    /**
+     * @return the net updates of the batch
+     */
+    List<LDUpdate> getUpdates() {
+        List<LDUpdate> result = new ArrayList<LDUpdate>(updates.size());
+        for (Map.Entry<List<Object>, LDUpdate> e : updates.entrySet()) {
+            LDUpdate update = e.getValue();
+            LinkHistory history = linkHistory.get(e.getKey());
+            if (history != null && isNoop(update, history)) continue;
+            result.add(update);
+        }
+        return result;
+    }
+
+    private static boolean isNoop(LDUpdate last, LinkHistory history) {
+        if (last.getOperation() == UpdateOperation.LINK_REMOVED) {
+            // added and removed again within the batch
+            return history.priorType == null
+                    && history.firstOperation == UpdateOperation.LINK_UPDATED;
+        }
+        // back to the type it had before the batch
+        return history.priorType != null
+                && history.priorType == last.getType();
+    }
+
+    private static boolean isLinkUpdate(LDUpdate update) {
+        return update.getOperation() == UpdateOperation.LINK_UPDATED
+                || update.getOperation() == UpdateOperation.LINK_REMOVED;
+    }
+
+    private static List<Object> getRemovalKey(LDUpdate update) {
+        return Arrays.<Object>asList(Kind.SWITCH_REMOVED, update.getSrc());
+    }
+
+    private static List<Object> getKey(LDUpdate update) {
+        if (update.getOperation() == null)
+            return Collections.<Object>singletonList(update);
+        switch (update.getOperation()) {
+            case LINK_UPDATED:
+            case LINK_REMOVED:
+                return Arrays.<Object>asList(Kind.LINK, update.getSrc(),
+                        update.getSrcPort(), update.getDst(),
+                        update.getDstPort());
+            case PORT_UP:
+            case PORT_DOWN:
+                return Arrays.<Object>asList(Kind.PORT, update.getSrc(),
+                        update.getSrcPort());
+            case SWITCH_UPDATED:
+            case SWITCH_REMOVED:
+                return Arrays.<Object>asList(Kind.SWITCH, update.getSrc());
+            case TUNNEL_PORT_ADDED:
+            case TUNNEL_PORT_REMOVED:
+                return Arrays.<Object>asList(Kind.TUNNEL_PORT,
+                        update.getSrc(), update.getSrcPort());
+            default:
+                return Collections.<Object>singletonList(update);
+        }
+    }
+}
@@ -163,6 +163,22 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 
 	protected int TOPOLOGY_COMPUTE_INTERVAL_MS = 500;
 
+	/**
+	 * Link discovery updates are debounced before the topology is
+	 * recomputed. The first update after a quiet period is applied right
+	 * away; updates that follow are coalesced until none arrived for the
+	 * debounce window, but for no longer than TOPOLOGY_MAX_DEBOUNCE_MS after
+	 * the first of them. The window grows to the duration of the last
+	 * recomputation so that slow recomputations are not run back to back.
+	 */
+	protected int TOPOLOGY_DEBOUNCE_MS = 100;
+	protected int TOPOLOGY_MAX_DEBOUNCE_MS = 1000;
+	private final Object debounceLock = new Object();
+	private long firstPendingUpdateTime = -1;
+	private long nextComputeTime = 0;
+	private long lastComputeTime = 0;
+	private long lastComputeDuration = 0;
+
 	private IHAListener haListener;
 
 	/**
@@ -170,6 +186,7 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 	 */
 	protected static final String PACKAGE = TopologyManager.class.getPackage().getName();
 	protected IDebugCounter ctrIncoming;
+	protected IDebugCounter ctrUpdatesCoalesced;
 
 	/**
 	 * Debug Events
@@ -280,20 +297,68 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 		@Override
 		public void run() {
 			try {
-				if (ldUpdates.peek() != null)
+				if (ldUpdates.peek() != null && isTopologyUpdateDue())
 					updateTopology();
 				handleMiscellaneousPeriodicEvents();
 			}
 			catch (Exception e) {
 				log.error("Error in topology instance task thread", e);
 			} finally {
-				if (floodlightProviderService.getRole() != HARole.STANDBY)
-					newInstanceTask.reschedule(TOPOLOGY_COMPUTE_INTERVAL_MS,
-							TimeUnit.MILLISECONDS);
+				if (floodlightProviderService.getRole() != HARole.STANDBY) {
+					synchronized (debounceLock) {
+						newInstanceTask.reschedule(getNextRunDelay(),
+								TimeUnit.MILLISECONDS);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Note that link discovery updates were queued and schedule the
+	 * topology update. It runs right away for the first update after a
+	 * quiet period, and at the end of the debounce window otherwise.
+	 */
+	protected void scheduleTopologyUpdate() {
+		if (newInstanceTask == null) return;
+		synchronized (debounceLock) {
+			long now = System.currentTimeMillis();
+			if (firstPendingUpdateTime < 0) {
+				firstPendingUpdateTime = now;
+				if (now - lastComputeTime >= getDebounceWindow()) {
+					nextComputeTime = now;
+					newInstanceTask.reschedule(0, TimeUnit.MILLISECONDS);
+					return;
+				}
 			}
+			nextComputeTime = Math.min(now + getDebounceWindow(),
+					firstPendingUpdateTime + TOPOLOGY_MAX_DEBOUNCE_MS);
+			newInstanceTask.reschedule(Math.max(0, nextComputeTime - now),
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private long getDebounceWindow() {
+		return Math.min(TOPOLOGY_MAX_DEBOUNCE_MS,
+				Math.max(TOPOLOGY_DEBOUNCE_MS, lastComputeDuration));
+	}
+
+	private boolean isTopologyUpdateDue() {
+		synchronized (debounceLock) {
+			// Updates that were queued without being scheduled are applied
+			// on the next periodic run.
+			return firstPendingUpdateTime < 0
+					|| System.currentTimeMillis() >= nextComputeTime;
 		}
 	}
 
+	private long getNextRunDelay() {
+		if (firstPendingUpdateTime < 0)
+			return TOPOLOGY_COMPUTE_INTERVAL_MS;
+		long delay = nextComputeTime - System.currentTimeMillis();
+		return Math.max(0, Math.min(delay, TOPOLOGY_COMPUTE_INTERVAL_MS));
+	}
+
 	// To be used for adding any periodic events that's required by topology.
 	protected void handleMiscellaneousPeriodicEvents() {
 		return;
@@ -301,13 +366,24 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 
 	public boolean updateTopology() {
 		boolean newInstanceFlag;
+		long start = System.currentTimeMillis();
+		// Updates queued from here on start a new debounce window, even if
+		// they are still picked up by this run.
+		synchronized (debounceLock) {
+			firstPendingUpdateTime = -1;
+		}
 		linksUpdated = false;
 		dtLinksUpdated = false;
 		tunnelPortsUpdated = false;
 		List<LDUpdate> appliedUpdates = applyUpdates();
 		newInstanceFlag = createNewInstance("link-discovery-updates");
 		lastUpdateTime = new Date();
-		informListeners(appliedUpdates);
+		synchronized (debounceLock) {
+			lastComputeTime = System.currentTimeMillis();
+			lastComputeDuration = lastComputeTime - start;
+		}
+		if (!appliedUpdates.isEmpty())
+			informListeners(appliedUpdates);
 		return newInstanceFlag;
 	}
 
@@ -320,6 +396,7 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 			log.trace("Queuing update: {}", updateList);
 		}
 		ldUpdates.addAll(updateList);
+		scheduleTopologyUpdate();
 	}
 
 	@Override
@@ -328,6 +405,7 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 			log.trace("Queuing update: {}", update);
 		}
 		ldUpdates.add(update);
+		scheduleTopologyUpdate();
 	}
 
 	// ****************
@@ -906,6 +984,10 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 		ctrIncoming = debugCounterService.registerCounter(
 				PACKAGE, "incoming",
 				"All incoming packets seen by this module");
+		ctrUpdatesCoalesced = debugCounterService.registerCounter(
+				PACKAGE, "ldupdates-coalesced",
+				"Link discovery updates that were merged into other updates " +
+				"of the same batch and not passed on to topology listeners");
 	}
 
 	protected void addRestletRoutable() {
@@ -1106,15 +1188,16 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 	/**
 	 * Updates concerning switch disconnect and port down are not processed.
 	 * LinkDiscoveryManager is expected to process those messages and send
-	 * multiple link removed messages.  However, all the updates from
-	 * LinkDiscoveryManager would be propagated to the listeners of topology.
+	 * multiple link removed messages.  The updates from LinkDiscoveryManager
+	 * are propagated to the listeners of topology as their net change, see
+	 * {@link LDUpdateCoalescer}.
 	 */
 	@LogMessageDoc(level="ERROR",
 			message="Error reading link discovery update.",
 			explanation="Unable to process link discovery update",
 			recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
 	public List<LDUpdate> applyUpdates() {
-		List<LDUpdate> appliedUpdates = new ArrayList<LDUpdate>();
+		LDUpdateCoalescer appliedUpdates = new LDUpdateCoalescer();
 		LDUpdate update = null;
 		while (ldUpdates.peek() != null) {
 			try {
@@ -1125,6 +1208,8 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 			if (log.isTraceEnabled()) {
 				log.trace("Applying update: {}", update);
 			}
+			LinkType priorType = getLinkType(update.getSrc(),
+					update.getSrcPort(), update.getDst(), update.getDstPort());
 
 			switch (update.getOperation()) {
 			case LINK_UPDATED:
@@ -1152,9 +1237,32 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 				break;
 			}
 			// Add to the list of applied updates.
-			appliedUpdates.add(update);
+			appliedUpdates.add(update, priorType);
 		}
-		return (Collections.unmodifiableList(appliedUpdates));
+		List<LDUpdate> netUpdates = appliedUpdates.getUpdates();
+		ctrUpdatesCoalesced.add(appliedUpdates.getReceivedCount()
+				- netUpdates.size());
+		return (Collections.unmodifiableList(netUpdates));
+	}
+
+	/**
+	 * Get the type of a link as currently known to topology
+	 * @return DIRECT_LINK or MULTIHOP_LINK, or null if the link is not
+	 *         known or the arguments do not describe a link
+	 */
+	protected LinkType getLinkType(DatapathId srcId, OFPort srcPort,
+			DatapathId dstId, OFPort dstPort) {
+		if (srcId == null || srcPort == null || dstId == null || dstPort == null)
+			return null;
+		Link link = new Link(srcId, srcPort, dstId, dstPort);
+		NodePortTuple npt = new NodePortTuple(srcId, srcPort);
+		Set<Link> links = directLinks.get(npt);
+		if (links != null && links.contains(link))
+			return LinkType.DIRECT_LINK;
+		links = portBroadcastDomainLinks.get(npt);
+		if (links != null && links.contains(link))
+			return LinkType.MULTIHOP_LINK;
+		return null;
 	}
 
 	protected void addOrUpdateSwitch(DatapathId sw) {
@@ -93,6 +93,11 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 	protected Map<MacAddress, String> macToGuid; // Host MAC -> Network ID
 	protected Map<String, MacAddress> portToMac; // Host MAC -> logical port name
 
+	// What the packet-in threads check against, rebuilt from the maps above
+	// whenever they change
+	protected volatile VirtualNetworkSnapshot snapshot;
+	private long snapshotVersion;
+
 	// Device Listener impl class
 	protected DeviceListenerImpl deviceListener;
 
@@ -135,10 +140,18 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 			vNetsByGuid.get(guid).setGateway(null);
 	}
 
+	/**
+	 * Publishes a new snapshot of the networks. Must be called with the
+	 * filter locked after changing any of the maps it is built from.
+	 */
+	protected void updateSnapshot() {
+		snapshot = new VirtualNetworkSnapshot(++snapshotVersion, macToGuid, guidToGateway, macToGateway);
+	}
+
 	// IVirtualNetworkService
 
 	@Override
-	public void createNetwork(String guid, String network, IPv4Address gateway) {
+	public synchronized void createNetwork(String guid, String network, IPv4Address gateway) {
 		if (log.isDebugEnabled()) {
 			String gw = null;
 			try {
@@ -172,10 +185,11 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 			if (vNetsByGuid.get(guid) != null)
 				vNetsByGuid.get(guid).setGateway(gateway.toString());
 		}
+		updateSnapshot();
 	}
 
 	@Override
-	public void deleteNetwork(String guid) {
+	public synchronized void deleteNetwork(String guid) {
 		String name = null;
 		if (nameToGuid.isEmpty()) {
 			log.warn("Could not delete network with ID {}, network doesn't exist",
@@ -217,10 +231,11 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 				}
 			}
 		}
+		updateSnapshot();
 	}
 
 	@Override
-	public void addHost(MacAddress mac, String guid, String port) {
+	public synchronized void addHost(MacAddress mac, String guid, String port) {
 		if (guid != null) {
 			if (log.isDebugEnabled()) {
 				log.debug("Adding {} to network ID {} on port {}",
@@ -231,6 +246,7 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 			portToMac.put(port, mac);
 			if (vNetsByGuid.get(guid) != null)
 				vNetsByGuid.get(guid).addHost(port, mac);
+			updateSnapshot();
 		} else {
 			log.warn("Could not add MAC {} to network ID {} on port {}, the network does not exist",
 					new Object[] {mac.toString(), guid, port});
@@ -238,7 +254,7 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 	}
 
 	@Override
-	public void deleteHost(MacAddress mac, String port) {
+	public synchronized void deleteHost(MacAddress mac, String port) {
 		if (log.isDebugEnabled()) {
 			log.debug("Removing host {} from port {}", mac, port);
 		}
@@ -257,11 +273,12 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 							vNetsByGuid.get(macToGuid.get(entry.getValue())).removeHost(entry.getValue());
 						portToMac.remove(entry.getKey());
 						macToGuid.remove(entry.getValue());
-						return;
+						break;
 					}
 				}
 			}
 		}
+		updateSnapshot();
 	}
 
 	// IFloodlightModule
@@ -309,6 +326,7 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 		macToGuid = new ConcurrentHashMap<MacAddress, String>();
 		portToMac = new ConcurrentHashMap<String, MacAddress>();
 		macToGateway = new ConcurrentHashMap<MacAddress, IPv4Address>();
+		updateSnapshot();
 		deviceListener = new DeviceListenerImpl();
 
 	}
@@ -358,21 +376,7 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 	 * @return True if it is to/from a gateway, false otherwise.
 	 */
 	protected boolean isDefaultGateway(Ethernet frame) {
-		if (macToGateway.containsKey(frame.getSourceMACAddress()))
-			return true;
-
-		IPv4Address gwIp = macToGateway.get(frame.getDestinationMACAddress());
-		if (gwIp != null) {
-			MacAddress host = frame.getSourceMACAddress();
-			String srcNet = macToGuid.get(host);
-			if (srcNet != null) {
-				IPv4Address gwIpSrcNet = guidToGateway.get(srcNet);
-				if ((gwIpSrcNet != null) && (gwIp.equals(gwIpSrcNet)))
-					return true;
-			}
-		}
-
-		return false;
+		return snapshot.isGateway(frame.getSourceMACAddress(), frame.getDestinationMACAddress());
 	}
 
 	/**
@@ -383,11 +387,7 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 	 *          false otherwise.
 	 */
 	protected boolean oneSameNetwork(MacAddress m1, MacAddress m2) {
-		String net1 = macToGuid.get(m1);
-		String net2 = macToGuid.get(m2);
-		if (net1 == null) return false;
-		if (net2 == null) return false;
-		return net1.equals(net2);
+		return snapshot.isSameNetwork(m1, m2);
 	}
 
 	/**
@@ -417,17 +417,12 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 		Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
 				IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
 		Command ret = Command.STOP;
-		String srcNetwork = macToGuid.get(eth.getSourceMACAddress());
-		// If the host is on an unknown network we deny it.
+		// Traffic to or from the gateway of the source's network, or between
+		// hosts on the same network, is allowed; hosts on no network are denied.
 		// We make exceptions for ARP and DHCP.
-		if (eth.isBroadcast() || eth.isMulticast() || isDefaultGateway(eth) || isDhcpPacket(eth)) {
-			ret = Command.CONTINUE;
-		} else if (srcNetwork == null) {
-			log.trace("Blocking traffic from host {} because it is not attached to any network.",
-					eth.getSourceMACAddress().toString());
-			ret = Command.STOP;
-		} else if (oneSameNetwork(eth.getSourceMACAddress(), eth.getDestinationMACAddress())) {
-			// if they are on the same network continue
+		if (eth.isBroadcast() || eth.isMulticast()
+				|| snapshot.isAllowed(eth.getSourceMACAddress(), eth.getDestinationMACAddress())
+				|| isDhcpPacket(eth)) {
 			ret = Command.CONTINUE;
 		}
 
@@ -499,7 +494,10 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 						log.debug("Adding MAC {} with IP {} a a gateway",
 								mac.toString(),
 								i.toString());
-					macToGateway.put(mac, i);
+					synchronized (VirtualNetworkFilter.this) {
+						macToGateway.put(mac, i);
+						updateSnapshot();
+					}
 				}
 			}
 		}
@@ -511,7 +509,10 @@ implements IFloodlightModule, IVirtualNetworkService, IOFMessageListener {
 			if (macToGateway.containsKey(mac)) {
 				if (log.isDebugEnabled())
 					log.debug("Removing MAC {} as a gateway", mac.toString());
-				macToGateway.remove(mac);
+				synchronized (VirtualNetworkFilter.this) {
+					macToGateway.remove(mac);
+					updateSnapshot();
+				}
 			}
 		}
 
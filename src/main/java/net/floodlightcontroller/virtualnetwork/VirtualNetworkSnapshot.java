@@ -0,0 +1,211 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.virtualnetwork;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+/**
+ * An immutable view of the virtual networks, built by VirtualNetworkFilter
+ * whenever its networks, hosts or gateways change and read by the packet-in
+ * threads without locking.
+ *
+ * Everything the filter needs to know about a MAC (its network and that
+ * network's gateway, and the gateway IP if the MAC is itself a gateway) is
+ * kept in one entry of an open-addressed table keyed by the MAC as a long,
+ * so a check takes one lookup per MAC. The admission decision for a pair of
+ * MACs is also cached in a small direct-mapped table; the cache belongs to
+ * the snapshot, so a change to the networks starts it afresh.
+ */
+public class VirtualNetworkSnapshot {
+	private static final long EMPTY = -1L; // MACs are 48 bits
+	private static final int ADMISSION_CACHE_SIZE = 4096;
+
+	/**
+	 * What the filter knows about a MAC
+	 */
+	protected static class HostInfo {
+		// index of the host's network, or -1 if it is not on one
+		final int network;
+		final String guid;
+		// the gateway of the host's network, or null
+		final IPv4Address networkGateway;
+		// the IP of the gateway this MAC is, or null
+		final IPv4Address gatewayIp;
+
+		HostInfo(int network, String guid, IPv4Address networkGateway, IPv4Address gatewayIp) {
+			this.network = network;
+			this.guid = guid;
+			this.networkGateway = networkGateway;
+			this.gatewayIp = gatewayIp;
+		}
+	}
+
+	private static class Admission {
+		final long src;
+		final long dst;
+		final boolean allowed;
+
+		Admission(long src, long dst, boolean allowed) {
+			this.src = src;
+			this.dst = dst;
+			this.allowed = allowed;
+		}
+	}
+
+	private final long version;
+	private final int mask;
+	private final long[] keys;
+	private final HostInfo[] hosts;
+	// racy but safe: each slot holds an immutable entry or null
+	private final Admission[] admissionCache = new Admission[ADMISSION_CACHE_SIZE];
+
+	/**
+	 * @param version the version of the snapshot
+	 * @param macToGuid host MAC -> network ID
+	 * @param guidToGateway network ID -> gateway IP
+	 * @param macToGateway gateway MAC -> gateway IP
+	 */
+	public VirtualNetworkSnapshot(long version, Map<MacAddress, String> macToGuid,
+			Map<String, IPv4Address> guidToGateway, Map<MacAddress, IPv4Address> macToGateway) {
+		this.version = version;
+
+		Map<String, Integer> networks = new HashMap<String, Integer>();
+		Map<Long, HostInfo> infos = new HashMap<Long, HostInfo>();
+		for (Entry<MacAddress, String> e : macToGuid.entrySet()) {
+			Integer network = networks.get(e.getValue());
+			if (network == null) {
+				network = networks.size();
+				networks.put(e.getValue(), network);
+			}
+			infos.put(e.getKey().getLong(), new HostInfo(network, e.getValue(),
+					guidToGateway.get(e.getValue()), macToGateway.get(e.getKey())));
+		}
+		for (Entry<MacAddress, IPv4Address> e : macToGateway.entrySet()) {
+			if (!infos.containsKey(e.getKey().getLong())) {
+				infos.put(e.getKey().getLong(), new HostInfo(-1, null, null, e.getValue()));
+			}
+		}
+
+		int slots = Integer.highestOneBit(Math.max(1, infos.size()) * 2 - 1) << 1;
+		mask = slots - 1;
+		keys = new long[slots];
+		hosts = new HostInfo[slots];
+		Arrays.fill(keys, EMPTY);
+		for (Entry<Long, HostInfo> e : infos.entrySet()) {
+			long key = e.getKey();
+			int i = hash(key) & mask;
+			while (keys[i] != EMPTY) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			hosts[i] = e.getValue();
+		}
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param mac a MAC as a long
+	 * @return what is known about the MAC, or null if nothing
+	 */
+	protected HostInfo getHost(long mac) {
+		for (int i = hash(mac) & mask; ; i = (i + 1) & mask) {
+			if (keys[i] == mac) {
+				return hosts[i];
+			}
+			if (keys[i] == EMPTY) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return the ID of the network of a host, or null if it is not on one
+	 */
+	public String getNetwork(MacAddress mac) {
+		HostInfo h = getHost(mac.getLong());
+		return (h == null) ? null : h.guid;
+	}
+
+	/**
+	 * Checks whether traffic between two MACs is to or from a gateway: the
+	 * source is a gateway, or the destination is the gateway of the
+	 * source's network.
+	 */
+	public boolean isGateway(MacAddress src, MacAddress dst) {
+		return isGateway(getHost(src.getLong()), getHost(dst.getLong()));
+	}
+
+	/**
+	 * Checks whether two MACs are on the same network
+	 */
+	public boolean isSameNetwork(MacAddress m1, MacAddress m2) {
+		return isSameNetwork(getHost(m1.getLong()), getHost(m2.getLong()));
+	}
+
+	/**
+	 * Checks whether traffic between two MACs is allowed, that is whether it
+	 * is to or from a gateway or between hosts on the same network. The
+	 * answer is cached, so the same pair is decided with one lookup.
+	 * @param src the source MAC
+	 * @param dst the destination MAC
+	 * @return true if the traffic is allowed
+	 */
+	public boolean isAllowed(MacAddress src, MacAddress dst) {
+		long s = src.getLong();
+		long d = dst.getLong();
+		int slot = hash(s * 31 + d) & (ADMISSION_CACHE_SIZE - 1);
+		Admission a = admissionCache[slot];
+		if (a != null && a.src == s && a.dst == d) {
+			return a.allowed;
+		}
+		HostInfo srcHost = getHost(s);
+		HostInfo dstHost = getHost(d);
+		boolean allowed = isGateway(srcHost, dstHost) || isSameNetwork(srcHost, dstHost);
+		admissionCache[slot] = new Admission(s, d, allowed);
+		return allowed;
+	}
+
+	private static boolean isGateway(HostInfo src, HostInfo dst) {
+		if (src == null) {
+			return false;
+		}
+		if (src.gatewayIp != null) {
+			return true;
+		}
+		return dst != null && dst.gatewayIp != null && dst.gatewayIp.equals(src.networkGateway);
+	}
+
+	private static boolean isSameNetwork(HostInfo h1, HostInfo h2) {
+		return h1 != null && h2 != null && h1.network >= 0 && h1.network == h2.network;
+	}
+}
@@ -1,9 +1,12 @@
 package org.sdnplatform.sync.internal;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -19,6 +22,7 @@ import org.sdnplatform.sync.error.SyncException;
 import org.sdnplatform.sync.internal.store.IStorageEngine;
 import org.sdnplatform.sync.internal.store.InMemoryStorageEngine;
 import org.sdnplatform.sync.internal.store.JavaDBStorageEngine;
+import org.sdnplatform.sync.internal.store.LogStorageEngine;
 import org.sdnplatform.sync.internal.store.SynchronizingStorageEngine;
 import org.sdnplatform.sync.internal.util.ByteArray;
 import org.slf4j.Logger;
@@ -48,6 +52,40 @@ public class StoreRegistry {
      */
     private ConnectionPoolDataSource persistentDataSource; 
 
+    /**
+     * Storage engine implementations available for persistent stores
+     */
+    public enum PersistentEngine {
+        /**
+         * Keep the data in a Java DB database
+         * @see JavaDBStorageEngine
+         */
+        JAVADB,
+        /**
+         * Keep the data in a memory-mapped append-only log
+         * @see LogStorageEngine
+         */
+        LOG
+    }
+
+    /**
+     * The storage engine to use for persistent stores
+     */
+    private PersistentEngine defaultEngine = PersistentEngine.JAVADB;
+
+    /**
+     * Storage engines to use for specific persistent stores, overriding
+     * {@link #defaultEngine}
+     */
+    private Map<String, PersistentEngine> storeEngines =
+            new HashMap<String, PersistentEngine>();
+
+    /**
+     * Whether writes to log stores must reach the disk before they
+     * complete
+     */
+    private boolean syncWrites = false;
+
     /**
      * The storage engines that contain the locally-stored data
      */
@@ -63,6 +101,13 @@ public class StoreRegistry {
      * A queue containing pending hints.  
      */
     private ArrayDeque<HintKey> hintQueue = new ArrayDeque<HintKey>();
+
+    /**
+     * When each pending hint was first queued and how many writes have
+     * been folded into it since
+     */
+    private HashMap<HintKey, HintStats> hintStats =
+            new HashMap<HintKey, HintStats>();
     private Lock hintLock = new ReentrantLock();
     private Condition hintsAvailable = hintLock.newCondition();
     
@@ -111,9 +156,7 @@ public class StoreRegistry {
                 
         IStorageEngine<ByteArray, byte[]> dstore;
         if (persistent) {
-            if (persistentDataSource == null)
-                persistentDataSource = JavaDBStorageEngine.getDataSource(dbPath, false);
-            dstore = new JavaDBStorageEngine(storeName, persistentDataSource);
+            dstore = getPersistentEngine(storeName);
         } else {
             dstore = new InMemoryStorageEngine<ByteArray, byte[]>(storeName);
         }
@@ -124,6 +167,23 @@ public class StoreRegistry {
         return store;
     }
 
+    /**
+     * Select the storage engine used for persistent stores.  This only
+     * affects stores that are registered afterwards.
+     * @param engine the default engine for persistent stores
+     * @param storeEngines engines for specific stores, by store name
+     * @param syncWrites whether writes to log stores must reach the disk
+     * before they complete
+     */
+    public synchronized void
+        setPersistentEngine(PersistentEngine engine,
+                            Map<String, PersistentEngine> storeEngines,
+                            boolean syncWrites) {
+        this.defaultEngine = engine;
+        this.storeEngines = new HashMap<String, PersistentEngine>(storeEngines);
+        this.syncWrites = syncWrites;
+    }
+
     /**
      * Get a collection containing all the currently-registered stores
      * @return the {@link Collection<SynchronizingStorageEngine>}
@@ -153,7 +213,12 @@ public class StoreRegistry {
                 needed &= hints.doput(hk, value);
                 if (needed) {
                     hintQueue.add(hk);
+                    hintStats.put(hk, new HintStats());
                     hintsAvailable.signal();
+                } else {
+                    // Coalesced into the hint that is already pending
+                    HintStats stats = hintStats.get(hk);
+                    if (stats != null) stats.writes += 1;
                 }
             } finally {
                 hintLock.unlock();
@@ -183,10 +248,16 @@ public class StoreRegistry {
                     HintKey hintKey = hintQueue.pollFirst();
                     if (hintKey != null) {
                         List<Versioned<byte[]>> values = hints.remove(hintKey);
+                        HintStats stats = hintStats.remove(hintKey);
                         if (values == null) {
                             continue;
                         }
-                        c.add(new Hint(hintKey, values));
+                        Hint hint = new Hint(hintKey, values);
+                        if (stats != null) {
+                            hint.queueTime = stats.queueTime;
+                            hint.writes = stats.writes;
+                        }
+                        c.add(hint);
                         count += 1;
                     }
                 }
@@ -196,8 +267,71 @@ public class StoreRegistry {
         }
     }
 
+    // *************
+    // Local methods
+    // *************
+
+    private ConnectionPoolDataSource getPersistentDataSource() {
+        if (persistentDataSource == null)
+            persistentDataSource = JavaDBStorageEngine.getDataSource(dbPath, false);
+        return persistentDataSource;
+    }
+
+    private File getPersistentFile(String name) {
+        if (dbPath == null) return new File(name);
+        return new File(dbPath, name);
+    }
+
+    @LogMessageDoc(level="INFO",
+                   message="Migrated {count} keys of store {storeName} " +
+                           "from Java DB",
+                   explanation="A persistent store was converted to the " +
+                           "log storage engine")
+    private IStorageEngine<ByteArray, byte[]>
+        getPersistentEngine(String storeName) throws PersistException {
+        PersistentEngine engine = storeEngines.get(storeName);
+        if (engine == null) engine = defaultEngine;
+        if (!PersistentEngine.LOG.equals(engine)) {
+            return new JavaDBStorageEngine(storeName,
+                                           getPersistentDataSource());
+        }
+
+        File dir = new File(getPersistentFile("SyncLog"), storeName);
+        File marker = new File(dir, ".migrating");
+        boolean migrate = !dir.exists() || marker.exists();
+        LogStorageEngine store =
+                new LogStorageEngine(storeName, dir,
+                                     LogStorageEngine.DEFAULT_SEGMENT_SIZE,
+                                     syncWrites);
+
+        // Bring along the data from an existing Java DB store.  The
+        // marker lets us start over if we are interrupted; the Java DB
+        // data is left in place.
+        if (migrate && getPersistentFile("SyncDB").exists()) {
+            try {
+                if (!marker.exists() && !marker.createNewFile())
+                    throw new IOException("Could not create " + marker);
+                store.truncate();
+                int count =
+                        store.copyFrom(new JavaDBStorageEngine(storeName,
+                                           getPersistentDataSource()));
+                if (!marker.delete())
+                    throw new IOException("Could not remove " + marker);
+                if (count > 0) {
+                    logger.info("Migrated {} keys of store {} from Java DB",
+                                count, storeName);
+                }
+            } catch (IOException e) {
+                throw new PersistException("Could not migrate store " +
+                                           storeName, e);
+            }
+        }
+        return store;
+    }
+
     public void shutdown() {
         hintQueue.clear();
+        hintStats.clear();
         hints.close();
     }
 
@@ -272,6 +406,8 @@ public class StoreRegistry {
     public static class Hint {
         private HintKey hintKey;
         private List<Versioned<byte[]>> values;
+        private long queueTime = System.nanoTime();
+        private int writes = 1;
         public Hint(HintKey hintKey, List<Versioned<byte[]>> values) {
             super();
             this.hintKey = hintKey;
@@ -283,5 +419,26 @@ public class StoreRegistry {
         public List<Versioned<byte[]>> getValues() {
             return values;
         }
+        /**
+         * @return the {@link System#nanoTime()} at which the first write
+         * covered by this hint was queued
+         */
+        public long getQueueTime() {
+            return queueTime;
+        }
+        /**
+         * @return the number of local writes coalesced into this hint
+         */
+        public int getWrites() {
+            return writes;
+        }
+    }
+
+    /**
+     * Bookkeeping for a pending hint
+     */
+    private static class HintStats {
+        private final long queueTime = System.nanoTime();
+        private int writes = 1;
     }
 }
@@ -3,11 +3,14 @@ package org.sdnplatform.sync.internal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -27,6 +30,7 @@ import org.sdnplatform.sync.error.SyncException;
 import org.sdnplatform.sync.error.SyncRuntimeException;
 import org.sdnplatform.sync.error.UnknownStoreException;
 import org.sdnplatform.sync.internal.StoreRegistry.Hint;
+import org.sdnplatform.sync.internal.StoreRegistry.PersistentEngine;
 import org.sdnplatform.sync.internal.config.ClusterConfig;
 import org.sdnplatform.sync.internal.config.DelegatingCCProvider;
 import org.sdnplatform.sync.internal.config.FallbackCCProvider;
@@ -37,15 +41,25 @@ import org.sdnplatform.sync.internal.config.StorageCCProvider;
 import org.sdnplatform.sync.internal.config.SyncStoreCCProvider;
 import org.sdnplatform.sync.internal.rpc.RPCService;
 import org.sdnplatform.sync.internal.rpc.TProtocolUtil;
+import org.sdnplatform.sync.internal.rpc.TVersionedValueIterable;
+import org.sdnplatform.sync.internal.rpc.ThriftFrameEncoder;
 import org.sdnplatform.sync.internal.store.IStorageEngine;
 import org.sdnplatform.sync.internal.store.IStore;
 import org.sdnplatform.sync.internal.store.MappingStoreListener;
+import org.sdnplatform.sync.internal.store.MerkleTree;
 import org.sdnplatform.sync.internal.store.SynchronizingStorageEngine;
 import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.util.Pair;
 import org.sdnplatform.sync.internal.version.VectorClock;
+import org.sdnplatform.sync.thrift.AsyncMessageHeader;
+import org.sdnplatform.sync.thrift.MessageType;
+import org.sdnplatform.sync.thrift.SnapshotChunkMessage;
+import org.sdnplatform.sync.thrift.SnapshotRequestMessage;
+import org.sdnplatform.sync.thrift.Store;
 import org.sdnplatform.sync.thrift.SyncMessage;
 import org.sdnplatform.sync.thrift.KeyedValues;
 import org.sdnplatform.sync.thrift.KeyedVersions;
+import org.sdnplatform.sync.thrift.SyncDigestMessage;
 import org.sdnplatform.sync.thrift.SyncOfferMessage;
 import org.sdnplatform.sync.thrift.SyncValueMessage;
 import org.slf4j.Logger;
@@ -125,6 +139,30 @@ public class SyncManager extends AbstractSyncManager {
      */
     private static final int SYNC_WORKER_POOL = 2;
 
+    /**
+     * Maximum number of hints a {@link HintWorker} takes from the queue
+     * at once
+     */
+    private static final int MAX_HINT_BATCH = 500;
+
+    /**
+     * Approximate budget for the values in a single sync value message.
+     * This must stay well below the maximum RPC frame size.
+     */
+    private static final int MAX_SYNC_VALUE_BYTES = 256 * 1024;
+
+    /**
+     * Time a node must have been cut off from all other nodes before it
+     * bootstraps from a snapshot again, in milliseconds
+     */
+    private static final long SNAPSHOT_PARTITION_INTERVAL = 30 * 60 * 1000;
+
+    /**
+     * Time without progress after which a snapshot transfer is abandoned,
+     * in milliseconds
+     */
+    private static final long SNAPSHOT_TIMEOUT = 60 * 1000;
+
     /**
      * A thread pool for the {@link HintWorker} threads.
      */
@@ -147,6 +185,33 @@ public class SyncManager extends AbstractSyncManager {
      */
     private boolean persistenceEnabled = true;
 
+    /**
+     * Whether to offer compression on connections to other nodes
+     */
+    private boolean rpcCompression = true;
+
+    /**
+     * Whether to bootstrap from a snapshot streamed by a remote node
+     * rather than from antientropy alone
+     */
+    private boolean snapshotBootstrap = true;
+
+    // The following are protected by this
+    /**
+     * Whether this node still needs a snapshot: it has just started, or
+     * it has been partitioned from the cluster for a long time
+     */
+    private boolean snapshotNeeded = true;
+    /**
+     * The snapshot transfer currently in progress, if any
+     */
+    private SnapshotTransfer snapshot = null;
+    /**
+     * The time at which this node was last found not to be connected to
+     * any other node, or 0 if it is connected
+     */
+    private long isolatedSince = 0;
+
     private static final String PACKAGE =
             ISyncService.class.getPackage().getName();
 
@@ -155,7 +220,23 @@ public class SyncManager extends AbstractSyncManager {
      */
     public static IDebugCounter counterHints;
     public static IDebugCounter counterSentValues;
+    public static IDebugCounter counterSentValueMessages;
+    public static IDebugCounter counterHintWrites;
+    public static IDebugCounter counterReplicationLag;
+    public static IDebugCounter counterRpcSentBytes;
+    public static IDebugCounter counterRpcCompressedIn;
+    public static IDebugCounter counterRpcCompressedOut;
+    public static IDebugCounter counterRpcBatchedMessages;
+    public static IDebugCounter counterRpcWindowGrows;
+    public static IDebugCounter counterRpcWindowShrinks;
+    public static IDebugCounter counterRpcWindowWaits;
     public static IDebugCounter counterReceivedValues;
+    public static IDebugCounter counterSnapshotsServed;
+    public static IDebugCounter counterSnapshotValues;
+    public static IDebugCounter counterSnapshotChunks;
+    public static IDebugCounter counterSnapshotsCompleted;
+    public static IDebugCounter counterSnapshotReadyMs;
+    public static IDebugCounter counterSnapshotErrors;
     public static IDebugCounter counterPuts;
     public static IDebugCounter counterGets;
     public static IDebugCounter counterIterators;
@@ -208,11 +289,22 @@ public class SyncManager extends AbstractSyncManager {
     }
 
     /**
-     * Perform a synchronization with the node specified
+     * Perform a synchronization with the node specified.  This sends the
+     * root digest of the hash tree for each store; the remote node replies
+     * with the nodes of the tree that differ, and we descend from there
+     * until we reach the leaves holding the keys to offer.
+     * @see #handleSyncDigestResponse(short, String, List)
      */
-    @LogMessageDoc(level="INFO",
-                   message="[{id}->{id}] Synchronizing local state to remote node",
-                   explanation="Normal state resynchronization is occurring")
+    @LogMessageDocs({
+        @LogMessageDoc(level="INFO",
+                message="[{id}->{id}] Synchronizing local state to remote node",
+                explanation="Normal state resynchronization is occurring"),
+        @LogMessageDoc(level="ERROR",
+                message="[{id}->{id}] Could not compute digest for {store}",
+                explanation="Failed to read the local store while " +
+                        "synchronizing state to a remote node",
+                recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    })
     public void antientropy(Node node) {
         if (!rpcService.isConnected(node.getNodeId())) return;
 
@@ -220,45 +312,22 @@ public class SyncManager extends AbstractSyncManager {
                     getLocalNodeId(), node.getNodeId());
 
         for (SynchronizingStorageEngine store : storeRegistry.values()) {
-            if (Scope.LOCAL.equals(store.getScope())) {
-                if (node.getDomainId() !=
-                        getClusterConfig().getNode().getDomainId())
-                    continue;
-            } else if (Scope.UNSYNCHRONIZED.equals(store.getScope())) {
-                continue;
-            }
+            if (!isSynchronized(store, node)) continue;
 
-            IClosableIterator<Entry<ByteArray,
-                                  List<Versioned<byte[]>>>> entries =
-                    store.entries();
             try {
                 SyncMessage bsm =
-                        TProtocolUtil.getTSyncOfferMessage(store.getName(),
-                                                           store.getScope(),
-                                                           store.isPersistent());
-                int count = 0;
-                while (entries.hasNext()) {
-                    if (!rpcService.isConnected(node.getNodeId())) return;
-
-                    Entry<ByteArray, List<Versioned<byte[]>>> pair =
-                            entries.next();
-                    KeyedVersions kv =
-                            TProtocolUtil.getTKeyedVersions(pair.getKey(),
-                                                            pair.getValue());
-                    bsm.getSyncOffer().addToVersions(kv);
-                    count += 1;
-                    if (count >= 50) {
-                        sendSyncOffer(node.getNodeId(), bsm);
-                        bsm.getSyncOffer().unsetVersions();
-                        count = 0;
-                    }
-                }
-                sendSyncOffer(node.getNodeId(), bsm);
+                        TProtocolUtil.getTSyncDigestMessage(store.getName(),
+                                                            store.getScope(),
+                                                            store.isPersistent());
+                addDigest(bsm.getSyncDigest(), store, 0);
+                sendSyncDigest(node.getNodeId(), bsm);
+            } catch (SyncException e) {
+                logger.error("[{}->{}] Could not compute digest for {}",
+                             new Object[]{getLocalNodeId(), node.getNodeId(),
+                                          store.getName(), e});
             } catch (InterruptedException e) {
                 // This can't really happen
                 throw new RuntimeException(e);
-            } finally {
-                entries.close();
             }
         }
     }
@@ -280,6 +349,146 @@ public class SyncManager extends AbstractSyncManager {
         antientropy(nodes[rn]);
     }
 
+    /**
+     * Ask a newly-connected node to stream a snapshot of its stores to
+     * this node.  This is only done while this node is bootstrapping, and
+     * only one snapshot transfer is in progress at a time.
+     * @param nodeId the remote node
+     * @return <code>true</code> if a snapshot was requested; otherwise the
+     * caller should fall back to a full synchronization
+     * @see #handleSnapshotChunk(short, SnapshotChunkMessage)
+     */
+    @LogMessageDoc(level="INFO",
+            message="[{id}<-{id}] Requesting snapshot from remote node",
+            explanation="This node is bootstrapping its state from " +
+                    "a snapshot of another node")
+    public boolean requestSnapshot(short nodeId) {
+        if (!snapshotBootstrap ||
+                !rpcService.hasFeature(nodeId, RPCService.FEATURE_SNAPSHOT))
+            return false;
+        SnapshotTransfer transfer;
+        synchronized (this) {
+            if (!snapshotNeeded || snapshot != null) return false;
+            transfer = snapshot = new SnapshotTransfer(nodeId);
+        }
+
+        logger.info("[{}<-{}] Requesting snapshot from remote node",
+                    getLocalNodeId(), nodeId);
+        SnapshotRequestMessage srm = new SnapshotRequestMessage();
+        AsyncMessageHeader header = new AsyncMessageHeader();
+        header.setTransactionId(rpcService.getTransactionId());
+        srm.setHeader(header);
+        SyncMessage bsm = new SyncMessage(MessageType.SNAPSHOT_REQUEST);
+        bsm.setSnapshotRequest(srm);
+        try {
+            if (rpcService.writeToNode(nodeId, bsm)) return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (snapshot == transfer) snapshot = null;
+        }
+        return false;
+    }
+
+    /**
+     * Stream a snapshot of all the stores synchronized with the given node
+     * to that node in the background
+     * @param nodeId the remote node
+     */
+    public void sendSnapshot(short nodeId) {
+        Node node = clusterConfig.getNode(nodeId);
+        ExecutorService pool = hintThreadPool;
+        if (node == null || pool == null) return;
+        pool.execute(new SnapshotTask(node));
+    }
+
+    /**
+     * Apply a chunk of a snapshot streamed from a remote node.  Chunks
+     * must arrive in sequence and match their checksum; otherwise the
+     * transfer is abandoned and retried later from
+     * {@link AntientropyTask}.
+     * @param nodeId the remote node
+     * @param scm the chunk
+     * @throws PersistException
+     */
+    @LogMessageDocs({
+        @LogMessageDoc(level="WARN",
+                message="[{id}<-{id}] Corrupt snapshot chunk {sequence}",
+                explanation="A snapshot chunk arrived out of order or " +
+                        "failed its checksum",
+                recommendation="The snapshot will be retried " +
+                        "automatically; if this persists, check the " +
+                        "network between the nodes"),
+        @LogMessageDoc(level="INFO",
+                message="[{id}<-{id}] Snapshot complete: {values} " +
+                        "values in {time} ms",
+                explanation="This node has finished bootstrapping its " +
+                        "state from another node")
+    })
+    public void handleSnapshotChunk(short nodeId, SnapshotChunkMessage scm)
+            throws PersistException {
+        synchronized (this) {
+            if (snapshot == null || snapshot.nodeId != nodeId ||
+                    snapshot.failed)
+                return;
+            if (scm.getSequence() != snapshot.sequence ||
+                    scm.getChecksum() !=
+                    TProtocolUtil.getChecksum(scm.getValues())) {
+                logger.warn("[{}<-{}] Corrupt snapshot chunk {}",
+                            new Object[]{getLocalNodeId(), nodeId,
+                                         scm.getSequence()});
+                snapshot.failed = true;
+                counterSnapshotErrors.increment();
+                return;
+            }
+            snapshot.sequence += 1;
+            snapshot.values += scm.getValuesSize();
+            counterSnapshotChunks.increment();
+            snapshot.lastProgress = System.currentTimeMillis();
+        }
+
+        if (scm.isSetStore() && scm.isSetValues()) {
+            Store tstore = scm.getStore();
+            SynchronizingStorageEngine store =
+                    storeRegistry.get(tstore.getStoreName());
+            if (store == null) {
+                store = storeRegistry.register(tstore.getStoreName(),
+                                               TProtocolUtil.
+                                               getScope(tstore.getScope()),
+                                               tstore.isPersist());
+            }
+            List<Entry<ByteArray, Iterable<Versioned<byte[]>>>> values =
+                    new ArrayList<Entry<ByteArray,
+                                        Iterable<Versioned<byte[]>>>>();
+            for (KeyedValues kv : scm.getValues()) {
+                if (!kv.isSetValues()) continue;
+                values.add(new Pair<ByteArray, Iterable<Versioned<byte[]>>>
+                           (new ByteArray(kv.getKey()),
+                            new TVersionedValueIterable(kv.getValues())));
+            }
+            store.writeSnapshot(values);
+            counterSnapshotValues.add(values.size());
+        }
+
+        if (scm.isLast()) {
+            long elapsed;
+            int count;
+            synchronized (this) {
+                if (snapshot == null || snapshot.nodeId != nodeId) return;
+                elapsed = System.currentTimeMillis() - snapshot.startTime;
+                count = snapshot.values;
+                snapshot = null;
+                snapshotNeeded = false;
+            }
+            logger.info("[{}<-{}] Snapshot complete: {} values in {} ms",
+                        new Object[]{getLocalNodeId(), nodeId,
+                                     count, elapsed});
+            counterSnapshotsCompleted.increment();
+            counterSnapshotReadyMs.add(elapsed);
+        }
+    }
+
     /**
      * Write a value synchronized from another node, bypassing some of the
      * usual logic when a client writes data.  If the store is not known,
@@ -333,6 +542,71 @@ public class SyncManager extends AbstractSyncManager {
         return false;
     }
 
+    /**
+     * Compare the digests of a remote node's hash tree against our own
+     * @param storeName the store to check
+     * @param nodes the nodes in the {@link MerkleTree}
+     * @param digests the remote digests for each node
+     * @return the nodes whose digests differ from ours
+     * @throws SyncException
+     */
+    public List<Integer> handleSyncDigest(String storeName,
+                                          List<Integer> nodes,
+                                          List<Long> digests)
+                                                  throws SyncException {
+        SynchronizingStorageEngine store = storeRegistry.get(storeName);
+        List<Integer> result = new ArrayList<Integer>();
+        if (nodes == null || digests == null) return result;
+
+        for (int i = 0; i < nodes.size() && i < digests.size(); i++) {
+            int node = nodes.get(i);
+            if (!MerkleTree.isValid(node)) continue;
+            // A store we don't have is the same as an empty one
+            long digest = (store == null) ? 0 : store.getDigest(node);
+            if (digest != digests.get(i).longValue())
+                result.add(node);
+        }
+        return result;
+    }
+
+    /**
+     * Continue antientropy with the nodes of the hash tree that differ
+     * on the remote node.  Interior nodes are resolved by sending the
+     * digests of their children, and the keys in differing leaves are
+     * offered to the remote node.
+     * @param nodeId the remote node
+     * @param storeName the store
+     * @param nodes the nodes in the {@link MerkleTree} that differ
+     * @throws SyncException
+     * @throws InterruptedException
+     */
+    public void handleSyncDigestResponse(short nodeId, String storeName,
+                                         List<Integer> nodes)
+            throws SyncException, InterruptedException {
+        SynchronizingStorageEngine store = storeRegistry.get(storeName);
+        if (store == null || nodes == null) return;
+
+        SyncMessage bsm =
+                TProtocolUtil.getTSyncDigestMessage(store.getName(),
+                                                    store.getScope(),
+                                                    store.isPersistent());
+        Set<Integer> leaves = new HashSet<Integer>();
+        for (Integer node : nodes) {
+            if (!MerkleTree.isValid(node)) continue;
+            if (MerkleTree.isLeaf(node)) {
+                leaves.add(MerkleTree.getLeafIndex(node));
+            } else {
+                for (int i = 0; i < MerkleTree.FANOUT; i++) {
+                    addDigest(bsm.getSyncDigest(), store,
+                              MerkleTree.getChild(node, i));
+                }
+            }
+        }
+        sendSyncDigest(nodeId, bsm);
+        if (leaves.size() > 0)
+            sendSyncOffers(nodeId, store, leaves);
+    }
+
     /**
      * Get access to the raw storage engine.  This is useful for some
      * on-the-wire communication
@@ -474,6 +748,14 @@ public class SyncManager extends AbstractSyncManager {
                 persistenceEnabled =
                         Boolean.parseBoolean(config.get("persistenceEnabled"));
             }
+            if (config.containsKey("rpcCompression")) {
+                rpcCompression =
+                        Boolean.parseBoolean(config.get("rpcCompression"));
+            }
+            if (config.containsKey("snapshotBootstrap")) {
+                snapshotBootstrap =
+                        Boolean.parseBoolean(config.get("snapshotBootstrap"));
+            }
             if (config.containsKey("configProviders")) {
                 configProviders = config.get("configProviders").split(",");
             }
@@ -491,6 +773,35 @@ public class SyncManager extends AbstractSyncManager {
                     "providers " + Arrays.toString(configProviders), e);
         }
 
+        PersistentEngine engine = PersistentEngine.JAVADB;
+        Map<String, PersistentEngine> storeEngines =
+                new HashMap<String, PersistentEngine>();
+        String engineString = config.get("persistentEngine");
+        String storeEngineString = config.get("persistentEngineStores");
+        try {
+            if (engineString != null) {
+                engine = PersistentEngine.valueOf(engineString.trim()
+                                                  .toUpperCase());
+            }
+            if (storeEngineString != null) {
+                Map<String, String> m =
+                        (new ObjectMapper()).readValue(storeEngineString,
+                                new TypeReference<Map<String, String>>() {});
+                for (Entry<String, String> e : m.entrySet()) {
+                    storeEngines.put(e.getKey(),
+                                     PersistentEngine.valueOf(e.getValue()
+                                                              .trim()
+                                                              .toUpperCase()));
+                }
+            }
+        } catch (Exception e) {
+            throw new FloodlightModuleException("Failed to parse sync " +
+                    "manager persistent engine: " + engineString + " " +
+                    storeEngineString, e);
+        }
+        storeRegistry.setPersistentEngine(engine, storeEngines,
+                Boolean.parseBoolean(config.get("persistentSyncWrites")));
+
         String manualStoreString = config.get("manualStores");
         if (manualStoreString != null) {
             List<String> manualStores = null;
@@ -517,8 +828,60 @@ public class SyncManager extends AbstractSyncManager {
     				"Queued sync events processed");
     		counterSentValues = debugCounter.registerCounter(PACKAGE, "sent-values",
     				"Values synced to remote node");
+    		counterSentValueMessages = debugCounter.registerCounter(PACKAGE,
+    				"sent-value-messages",
+    				"Sync value messages sent to remote nodes");
+    		counterHintWrites = debugCounter.registerCounter(PACKAGE,
+    				"hint-writes",
+    				"Local writes queued for sync; the ratio to hints " +
+    				"is the coalescing ratio");
+    		counterReplicationLag = debugCounter.registerCounter(PACKAGE,
+    				"replication-lag-ms",
+    				"Total time queued hints waited before being sent, " +
+    				"in milliseconds");
+    		counterRpcSentBytes = debugCounter.registerCounter(PACKAGE,
+    				"rpc-sent-bytes",
+    				"Bytes written to remote node connections");
+    		counterRpcCompressedIn = debugCounter.registerCounter(PACKAGE,
+    				"rpc-compressed-in-bytes",
+    				"Bytes of RPC frames before compression");
+    		counterRpcCompressedOut = debugCounter.registerCounter(PACKAGE,
+    				"rpc-compressed-out-bytes",
+    				"Bytes of RPC frames after compression");
+    		counterRpcBatchedMessages = debugCounter.registerCounter(PACKAGE,
+    				"rpc-batched-messages",
+    				"Messages sent together with others in one RPC frame");
+    		counterRpcWindowGrows = debugCounter.registerCounter(PACKAGE,
+    				"rpc-window-grows",
+    				"Times a remote node's message window grew");
+    		counterRpcWindowShrinks = debugCounter.registerCounter(PACKAGE,
+    				"rpc-window-shrinks",
+    				"Times a remote node's message window shrank");
+    		counterRpcWindowWaits = debugCounter.registerCounter(PACKAGE,
+    				"rpc-window-waits",
+    				"Writes that waited for a full message window");
     		counterReceivedValues = debugCounter.registerCounter(PACKAGE, "received-values",
     				"Values received from remote node");
+    		counterSnapshotsServed = debugCounter.registerCounter(PACKAGE,
+    				"snapshots-served",
+    				"Store snapshots streamed to bootstrapping nodes");
+    		counterSnapshotValues = debugCounter.registerCounter(PACKAGE,
+    				"snapshot-received-values",
+    				"Values received in store snapshots");
+    		counterSnapshotChunks = debugCounter.registerCounter(PACKAGE,
+    				"snapshot-chunks",
+    				"Store snapshot chunks received");
+    		counterSnapshotsCompleted = debugCounter.registerCounter(PACKAGE,
+    				"snapshots-completed",
+    				"Store snapshots received completely");
+    		counterSnapshotReadyMs = debugCounter.registerCounter(PACKAGE,
+    				"snapshot-ready-ms",
+    				"Total time from requesting a snapshot until it was " +
+    				"complete, in milliseconds");
+    		counterSnapshotErrors = debugCounter.registerCounter(PACKAGE,
+    				"snapshot-errors",
+    				"Snapshot chunks that were out of order or corrupt",
+    				IDebugCounterService.MetaData.ERROR);
     		counterPuts = debugCounter.registerCounter(PACKAGE, "puts",
     				"Local puts to store");
     		counterGets = debugCounter.registerCounter(PACKAGE, "gets",
@@ -541,6 +904,10 @@ public class SyncManager extends AbstractSyncManager {
             throws FloodlightModuleException {
 
         rpcService = new RPCService(this, debugCounter);
+        if (!rpcCompression) {
+            rpcService.setFeatures(rpcService.getFeatures() &
+                                   ~ThriftFrameEncoder.FEATURE_COMPRESSION);
+        }
 
         cleanupTask = new SingletonTask(threadPool.getScheduledExecutor(),
                                         new CleanupTask());
@@ -656,6 +1023,140 @@ public class SyncManager extends AbstractSyncManager {
         return store;
     }
 
+    /**
+     * Check whether a store is synchronized with the given node
+     * @param store the store
+     * @param node the remote node
+     * @return <code>true</code> if the store's scope includes the node
+     */
+    private boolean isSynchronized(SynchronizingStorageEngine store,
+                                   Node node) {
+        if (Scope.LOCAL.equals(store.getScope())) {
+            return node.getDomainId() ==
+                    getClusterConfig().getNode().getDomainId();
+        }
+        return !Scope.UNSYNCHRONIZED.equals(store.getScope());
+    }
+
+    /**
+     * Keep track of bootstrapping from a snapshot: note when this node
+     * has been partitioned from the rest of the cluster for long enough
+     * that it should bootstrap again, abandon transfers that have stalled,
+     * and retry with another node when needed
+     */
+    @LogMessageDoc(level="WARN",
+            message="[{id}<-{id}] Abandoning snapshot transfer",
+            explanation="A snapshot transfer from a remote node failed " +
+                    "or stopped making progress",
+            recommendation="The snapshot will be retried with another " +
+                    "node automatically")
+    protected void checkSnapshot() {
+        if (!snapshotBootstrap) return;
+        long now = System.currentTimeMillis();
+        boolean connected = false;
+        ArrayList<Short> candidates = new ArrayList<Short>();
+        for (Node n : clusterConfig.getNodes()) {
+            if (n.getNodeId() == getLocalNodeId() ||
+                    !rpcService.isConnected(n.getNodeId()))
+                continue;
+            connected = true;
+            if (rpcService.hasFeature(n.getNodeId(),
+                                      RPCService.FEATURE_SNAPSHOT))
+                candidates.add(n.getNodeId());
+        }
+
+        synchronized (this) {
+            if (!connected) {
+                if (isolatedSince == 0) isolatedSince = now;
+            } else {
+                if (isolatedSince != 0 &&
+                        now - isolatedSince > SNAPSHOT_PARTITION_INTERVAL)
+                    snapshotNeeded = true;
+                isolatedSince = 0;
+            }
+
+            if (snapshot != null &&
+                    (snapshot.failed ||
+                     now - snapshot.lastProgress > SNAPSHOT_TIMEOUT ||
+                     !rpcService.isConnected(snapshot.nodeId))) {
+                logger.warn("[{}<-{}] Abandoning snapshot transfer",
+                            getLocalNodeId(), snapshot.nodeId);
+                snapshot = null;
+            }
+            if (!snapshotNeeded || snapshot != null || candidates.isEmpty())
+                return;
+        }
+        requestSnapshot(candidates.get(random.nextInt(candidates.size())));
+    }
+
+    private void addDigest(SyncDigestMessage sdm,
+                           SynchronizingStorageEngine store,
+                           int node) throws SyncException {
+        // A subtree where we hold nothing has nothing for us to offer
+        long digest = store.getDigest(node);
+        if (digest == 0) return;
+        sdm.addToNodes(node);
+        sdm.addToDigests(digest);
+    }
+
+    private void sendSyncDigest(short nodeId, SyncMessage bsm)
+            throws InterruptedException {
+        SyncDigestMessage sdm = bsm.getSyncDigest();
+        if (!sdm.isSetNodes()) return;
+        if (logger.isTraceEnabled()) {
+            logger.trace("[{}->{}] Sending SyncDigest with {} elements",
+                         new Object[]{getLocalNodeId(), nodeId,
+                                      sdm.getNodesSize()});
+        }
+
+        sdm.getHeader().setTransactionId(rpcService.getTransactionId());
+        rpcService.writeToNode(nodeId, bsm);
+    }
+
+    /**
+     * Offer the keys in the given leaves of the hash tree to a remote node
+     * @param nodeId the remote node
+     * @param store the store
+     * @param leaves the leaf numbers
+     * @throws InterruptedException
+     */
+    private void sendSyncOffers(short nodeId,
+                                SynchronizingStorageEngine store,
+                                Set<Integer> leaves)
+                                        throws InterruptedException {
+        IClosableIterator<Entry<ByteArray,
+                              List<Versioned<byte[]>>>> entries =
+                store.entries();
+        try {
+            SyncMessage bsm =
+                    TProtocolUtil.getTSyncOfferMessage(store.getName(),
+                                                       store.getScope(),
+                                                       store.isPersistent());
+            int count = 0;
+            while (entries.hasNext()) {
+                if (!rpcService.isConnected(nodeId)) return;
+
+                Entry<ByteArray, List<Versioned<byte[]>>> pair =
+                        entries.next();
+                if (!leaves.contains(MerkleTree.getLeaf(pair.getKey())))
+                    continue;
+                KeyedVersions kv =
+                        TProtocolUtil.getTKeyedVersions(pair.getKey(),
+                                                        pair.getValue());
+                bsm.getSyncOffer().addToVersions(kv);
+                count += 1;
+                if (count >= 50) {
+                    sendSyncOffer(nodeId, bsm);
+                    bsm.getSyncOffer().unsetVersions();
+                    count = 0;
+                }
+            }
+            sendSyncOffer(nodeId, bsm);
+        } finally {
+            entries.close();
+        }
+    }
+
     private void sendSyncOffer(short nodeId, SyncMessage bsm)
             throws InterruptedException {
         SyncOfferMessage som = bsm.getSyncOffer();
@@ -707,8 +1208,10 @@ public class SyncManager extends AbstractSyncManager {
         @Override
         public void run() {
             try {
-                if (rpcService != null)
+                if (rpcService != null) {
+                    checkSnapshot();
                     antientropy();
+                }
             } catch (Exception e) {
                 logger.error("Antientropy task failed", e);
             }
@@ -721,6 +1224,135 @@ public class SyncManager extends AbstractSyncManager {
         }
     }
 
+    /**
+     * Task that streams a snapshot of the stores to a remote node.  The
+     * snapshot is read store by store while the stores keep changing;
+     * writes made meanwhile reach the remote node as hints, since it is
+     * already connected, so each key ends up consistent.
+     */
+    @LogMessageDocs({
+        @LogMessageDoc(level="INFO",
+                message="[{id}->{id}] Sent snapshot of {values} values " +
+                        "in {chunks} chunks",
+                explanation="A bootstrapping node has been sent a " +
+                        "snapshot of the local state"),
+        @LogMessageDoc(level="ERROR",
+                message="[{id}->{id}] Failed to send snapshot",
+                explanation="An error occured while sending a snapshot " +
+                        "to a bootstrapping node",
+                recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    })
+    protected class SnapshotTask implements Runnable {
+        private final Node node;
+        private int sequence = 0;
+        private int values = 0;
+
+        public SnapshotTask(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (SynchronizingStorageEngine store :
+                        storeRegistry.values()) {
+                    if (!isSynchronized(store, node)) continue;
+                    if (!sendStore(store)) return;
+                }
+                SyncMessage bsm = TProtocolUtil.getTSnapshotChunkMessage(null);
+                bsm.getSnapshotChunk().setLast(true);
+                if (!sendChunk(bsm)) return;
+
+                logger.info("[{}->{}] Sent snapshot of {} values " +
+                            "in {} chunks",
+                            new Object[]{getLocalNodeId(),
+                                         node.getNodeId(),
+                                         values, sequence});
+                counterSnapshotsServed.increment();
+            } catch (Exception e) {
+                logger.error("[{}->{}] Failed to send snapshot",
+                             new Object[]{getLocalNodeId(),
+                                          node.getNodeId(), e});
+            }
+        }
+
+        /**
+         * Send the contents of a store in chunks that stay within the
+         * message size budget
+         * @param store the store
+         * @return <code>false</code> if the node has disconnected
+         * @throws InterruptedException
+         */
+        private boolean sendStore(SynchronizingStorageEngine store)
+                throws InterruptedException {
+            Store tstore = TProtocolUtil.getTStore(store.getName(),
+                                                   store.getScope(),
+                                                   store.isPersistent());
+            IClosableIterator<Entry<ByteArray,
+                                  List<Versioned<byte[]>>>> entries =
+                    store.entries();
+            try {
+                SyncMessage bsm = null;
+                int size = 0;
+                while (entries.hasNext()) {
+                    Entry<ByteArray, List<Versioned<byte[]>>> pair =
+                            entries.next();
+                    KeyedValues kv =
+                            TProtocolUtil.getTKeyedValues(pair.getKey(),
+                                                          pair.getValue());
+                    int kvSize = TProtocolUtil.getSize(kv);
+                    if (bsm != null && size + kvSize > MAX_SYNC_VALUE_BYTES) {
+                        if (!sendChunk(bsm)) return false;
+                        bsm = null;
+                    }
+                    if (bsm == null) {
+                        bsm = TProtocolUtil.getTSnapshotChunkMessage(tstore);
+                        size = 0;
+                    }
+                    bsm.getSnapshotChunk().addToValues(kv);
+                    size += kvSize;
+                    values += 1;
+                }
+                if (bsm != null) return sendChunk(bsm);
+                return true;
+            } finally {
+                entries.close();
+            }
+        }
+
+        private boolean sendChunk(SyncMessage bsm)
+                throws InterruptedException {
+            SnapshotChunkMessage scm = bsm.getSnapshotChunk();
+            scm.setSequence(sequence++);
+            scm.setChecksum(TProtocolUtil.getChecksum(scm.getValues()));
+            scm.getHeader().setTransactionId(rpcService.getTransactionId());
+            return rpcService.writeToNode(node.getNodeId(), bsm);
+        }
+    }
+
+    /**
+     * The state of a snapshot transfer to this node
+     */
+    protected static class SnapshotTransfer {
+        protected final short nodeId;
+        protected final long startTime;
+        protected long lastProgress;
+        /**
+         * The sequence number of the next expected chunk
+         */
+        protected int sequence = 0;
+        /**
+         * Number of values received so far
+         */
+        protected int values = 0;
+        protected boolean failed = false;
+
+        public SnapshotTransfer(short nodeId) {
+            this.nodeId = nodeId;
+            this.startTime = this.lastProgress = System.currentTimeMillis();
+        }
+    }
+
     /**
      * Worker task to periodically rescan the configuration
      * @author readams
@@ -755,53 +1387,45 @@ public class SyncManager extends AbstractSyncManager {
             explanation="Failed to synchronize state to remote node",
             recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     protected class HintWorker implements Runnable {
-        ArrayList<Hint> tasks = new ArrayList<Hint>(50);
-        protected Map<String, SyncMessage> messages =
-                new LinkedHashMap<String, SyncMessage>();
+        ArrayList<Hint> tasks = new ArrayList<Hint>(MAX_HINT_BATCH);
+        protected Map<String, PendingValues> messages =
+                new LinkedHashMap<String, PendingValues>();
 
         @Override
         public void run() {
             while (rpcService != null) {
                 try {
-                    // Batch up sync tasks so we use fewer, larger messages
+                    // Batch up sync tasks so we use fewer, larger messages.
+                    // Writes to the same key are already coalesced in the
+                    // hint queue, so each task carries only the latest
+                    // versions of its key
                     // XXX - todo - handle hints targeted to specific nodes
-                    storeRegistry.takeHints(tasks, 50);
+                    storeRegistry.takeHints(tasks, MAX_HINT_BATCH);
                     for (Hint task : tasks) {
                         counterHints.increment();
+                        counterHintWrites.add(task.getWrites());
                         SynchronizingStorageEngine store =
                                 storeRegistry.get(task.getHintKey().
                                                   getStoreName());
-                        SyncMessage bsm = getMessage(store);
                         KeyedValues kv =
                                 TProtocolUtil.
                                 getTKeyedValues(task.getHintKey().getKey(),
                                                 task.getValues());
-                        bsm.getSyncValue().addToValues(kv);
+                        int size = TProtocolUtil.getSize(kv);
+                        PendingValues pv = getMessage(store);
+                        if (pv.size > 0 &&
+                                pv.size + size > MAX_SYNC_VALUE_BYTES) {
+                            // Flush full messages as we go so they stay
+                            // within the frame size limit
+                            sendMessage(pv);
+                            messages.remove(store.getName());
+                            pv = getMessage(store);
+                        }
+                        pv.add(kv, size, task.getQueueTime());
                     }
 
-                    Iterable<Node> nodes = getClusterConfig().getNodes();
-                    short localDomainId =
-                            getClusterConfig().getNode().getDomainId();
-                    short localNodeId =
-                            getClusterConfig().getNode().getNodeId();
-                    for (Node n : nodes) {
-                        if (localNodeId == n.getNodeId())
-                            continue;
-                        for (SyncMessage bsm : messages.values()) {
-                            SyncValueMessage svm = bsm.getSyncValue();
-                            if (svm.getStore().getScope().
-                                    equals(org.sdnplatform.sync.thrift.
-                                           Scope.LOCAL) &&
-                                           n.getDomainId() != localDomainId) {
-                                // This message is only for local domain
-                                continue;
-                            }
-
-                            svm.getHeader().
-                            setTransactionId(rpcService.getTransactionId());
-                            counterSentValues.add(bsm.getSyncValue().getValuesSize());
-                            rpcService.writeToNode(n.getNodeId(), bsm);
-                        }
+                    for (PendingValues pv : messages.values()) {
+                        sendMessage(pv);
                     }
                     tasks.clear();
                     clearMessages();
@@ -812,6 +1436,44 @@ public class SyncManager extends AbstractSyncManager {
             }
         }
 
+        /**
+         * Write a message to all the nodes that should receive it.  The
+         * write only blocks when the message window for a node is full, so
+         * the acknowledgements from the remote nodes are pipelined with
+         * the following messages.
+         * @param pv the message to write
+         * @throws InterruptedException
+         */
+        private void sendMessage(PendingValues pv)
+                throws InterruptedException {
+            SyncMessage bsm = pv.bsm;
+            SyncValueMessage svm = bsm.getSyncValue();
+            Iterable<Node> nodes = getClusterConfig().getNodes();
+            short localDomainId =
+                    getClusterConfig().getNode().getDomainId();
+            short localNodeId =
+                    getClusterConfig().getNode().getNodeId();
+            for (Node n : nodes) {
+                if (localNodeId == n.getNodeId())
+                    continue;
+                if (svm.getStore().getScope().
+                        equals(org.sdnplatform.sync.thrift.
+                               Scope.LOCAL) &&
+                               n.getDomainId() != localDomainId) {
+                    // This message is only for local domain
+                    continue;
+                }
+
+                svm.getHeader().
+                setTransactionId(rpcService.getTransactionId());
+                counterSentValues.add(svm.getValuesSize());
+                counterSentValueMessages.increment();
+                rpcService.writeToNode(n.getNodeId(), bsm);
+            }
+            counterReplicationLag.add(TimeUnit.NANOSECONDS.
+                    toMillis(pv.hints * System.nanoTime() - pv.queueTimes));
+        }
+
         /**
          * Clear the current list of pending messages
          */
@@ -823,18 +1485,49 @@ public class SyncManager extends AbstractSyncManager {
          * Allocate a partially-initialized {@link SyncMessage} object for
          * the given store
          * @param store the store
-         * @return the {@link SyncMessage} object
+         * @return the {@link PendingValues} object wrapping the message
          */
-        private SyncMessage getMessage(SynchronizingStorageEngine store) {
+        private PendingValues getMessage(SynchronizingStorageEngine store) {
             String storeName = store.getName();
-            SyncMessage bsm = messages.get(storeName);
-            if (bsm == null) {
-                bsm = TProtocolUtil.getTSyncValueMessage(storeName,
-                                                         store.getScope(),
-                                                         store.isPersistent());
-                messages.put(storeName, bsm);
-            }
-            return bsm;
+            PendingValues pv = messages.get(storeName);
+            if (pv == null) {
+                pv = new PendingValues(TProtocolUtil.
+                                       getTSyncValueMessage(storeName,
+                                                            store.getScope(),
+                                                            store.isPersistent()));
+                messages.put(storeName, pv);
+            }
+            return pv;
+        }
+    }
+
+    /**
+     * A sync value message being assembled by a {@link HintWorker}
+     */
+    protected static class PendingValues {
+        protected final SyncMessage bsm;
+        /**
+         * Approximate encoded size of the values in the message
+         */
+        protected int size = 0;
+        /**
+         * Number of hints in the message
+         */
+        protected int hints = 0;
+        /**
+         * Sum of the queue times of the hints in the message
+         */
+        protected long queueTimes = 0;
+
+        public PendingValues(SyncMessage bsm) {
+            this.bsm = bsm;
+        }
+
+        protected void add(KeyedValues kv, int size, long queueTime) {
+            bsm.getSyncValue().addToValues(kv);
+            this.size += size;
+            this.hints += 1;
+            this.queueTimes += queueTime;
         }
     }
 }
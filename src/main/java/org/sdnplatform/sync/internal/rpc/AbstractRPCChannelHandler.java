@@ -51,6 +51,10 @@ import org.sdnplatform.sync.thrift.PutRequestMessage;
 import org.sdnplatform.sync.thrift.PutResponseMessage;
 import org.sdnplatform.sync.thrift.RegisterRequestMessage;
 import org.sdnplatform.sync.thrift.RegisterResponseMessage;
+import org.sdnplatform.sync.thrift.SnapshotChunkMessage;
+import org.sdnplatform.sync.thrift.SnapshotRequestMessage;
+import org.sdnplatform.sync.thrift.SyncDigestMessage;
+import org.sdnplatform.sync.thrift.SyncDigestResponseMessage;
 import org.sdnplatform.sync.thrift.SyncOfferMessage;
 import org.sdnplatform.sync.thrift.SyncRequestMessage;
 import org.sdnplatform.sync.thrift.SyncValueMessage;
@@ -96,6 +100,8 @@ public abstract class AbstractRPCChannelHandler
         HelloMessage m = new HelloMessage();
         if (getLocalNodeId() != null)
             m.setNodeId(getLocalNodeId());
+        if (getFeatures() != 0)
+            m.setFeatures(getFeatures());
         AsyncMessageHeader header = new AsyncMessageHeader();
         header.setTransactionId(getTransactionId());
         m.setHeader(header);
@@ -326,6 +332,18 @@ public abstract class AbstractRPCChannelHandler
             case CLUSTER_JOIN_RESPONSE:
                 handleClusterJoinResponse(bsm.getClusterJoinResponse(), channel);
                 break;
+            case SYNC_DIGEST:
+                handleSyncDigest(bsm.getSyncDigest(), channel);
+                break;
+            case SYNC_DIGEST_RESPONSE:
+                handleSyncDigestResponse(bsm.getSyncDigestResponse(), channel);
+                break;
+            case SNAPSHOT_REQUEST:
+                handleSnapshotRequest(bsm.getSnapshotRequest(), channel);
+                break;
+            case SNAPSHOT_CHUNK:
+                handleSnapshotChunk(bsm.getSnapshotChunk(), channel);
+                break;
             case ERROR:
                 handleError(bsm.getError(), channel);
                 break;
@@ -386,6 +404,8 @@ public abstract class AbstractRPCChannelHandler
             HelloMessage m = new HelloMessage();
             if (getLocalNodeId() != null)
                 m.setNodeId(getLocalNodeId());
+            if (getFeatures() != 0)
+                m.setFeatures(getFeatures());
             AsyncMessageHeader header = new AsyncMessageHeader();
             header.setTransactionId(getTransactionId());
             m.setHeader(header);
@@ -527,6 +547,30 @@ public abstract class AbstractRPCChannelHandler
                           MessageType.CLUSTER_JOIN_RESPONSE, channel);
     }
 
+    protected void handleSyncDigest(SyncDigestMessage request,
+                                    Channel channel) {
+        unexpectedMessage(request.getHeader().getTransactionId(),
+                          MessageType.SYNC_DIGEST, channel);
+    }
+
+    protected void handleSyncDigestResponse(SyncDigestResponseMessage response,
+                                            Channel channel) {
+        unexpectedMessage(response.getHeader().getTransactionId(),
+                          MessageType.SYNC_DIGEST_RESPONSE, channel);
+    }
+
+    protected void handleSnapshotRequest(SnapshotRequestMessage request,
+                                         Channel channel) {
+        unexpectedMessage(request.getHeader().getTransactionId(),
+                          MessageType.SNAPSHOT_REQUEST, channel);
+    }
+
+    protected void handleSnapshotChunk(SnapshotChunkMessage message,
+                                       Channel channel) {
+        unexpectedMessage(message.getHeader().getTransactionId(),
+                          MessageType.SNAPSHOT_CHUNK, channel);
+    }
+
     @LogMessageDoc(level="ERROR",
                    message="[{id}->{id}] Error for message {id} ({type}): " + 
                            "{message} {error code}",
@@ -647,6 +691,15 @@ public abstract class AbstractRPCChannelHandler
      */
     protected abstract AuthScheme getAuthScheme();
 
+    /**
+     * Get the optional {@link ThriftFrameEncoder} features to offer to
+     * the remote end in the handshake
+     * @return a bitmask of features
+     */
+    protected int getFeatures() {
+        return 0;
+    }
+
     /**
      * Get a shared secret to be used for authentication handshake.  
      * Throwing an exception will cause authentication to fail
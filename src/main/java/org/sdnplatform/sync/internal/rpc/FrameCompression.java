@@ -0,0 +1,191 @@
+package org.sdnplatform.sync.internal.rpc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A small, pure Java compressor for RPC frames.  The output uses the LZ4
+ * block format: a sequence of tokens, each holding a run of literals
+ * followed by a back-reference of at least 4 bytes into the previous
+ * 64KB of output.  The compressor uses a single hash probe per position,
+ * which favors speed over ratio; sync payloads are mostly repetitive
+ * store names, keys and vector clocks, which compress well even so.
+ */
+public class FrameCompression {
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    private static final int MAX_OFFSET = 0xffff;
+    /**
+     * The last bytes of the input are always literals
+     */
+    private static final int LAST_LITERALS = 5;
+    /**
+     * The last match must start at least this far from the end
+     */
+    private static final int MF_LIMIT = 12;
+
+    /**
+     * Get the largest possible size of the compressed form of an input
+     * @param length the length of the input
+     * @return the maximum size of the output
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compress the given bytes
+     * @param src the input buffer
+     * @param off the offset of the input in the buffer
+     * @param len the length of the input
+     * @return the compressed data
+     */
+    public static byte[] compress(byte[] src, int off, int len) {
+        byte[] dst = new byte[maxCompressedLength(len)];
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+
+        int end = off + len;
+        int matchLimit = end - LAST_LITERALS;
+        int mfLimit = end - MF_LIMIT;
+        int anchor = off;
+        int ip = off;
+        int op = 0;
+
+        while (ip < mfLimit) {
+            int seq = readInt(src, ip);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET ||
+                    readInt(src, ref) != seq) {
+                ip += 1;
+                continue;
+            }
+
+            while (ip > anchor && ref > off && src[ip - 1] == src[ref - 1]) {
+                ip -= 1;
+                ref -= 1;
+            }
+            int matchLen = MIN_MATCH;
+            while (ip + matchLen < matchLimit &&
+                    src[ip + matchLen] == src[ref + matchLen]) {
+                matchLen += 1;
+            }
+
+            op = writeSequence(dst, op, src, anchor, ip - anchor,
+                               ip - ref, matchLen);
+            ip += matchLen;
+            anchor = ip;
+        }
+        op = writeSequence(dst, op, src, anchor, end - anchor, 0, 0);
+        return Arrays.copyOf(dst, op);
+    }
+
+    /**
+     * Decompress data produced by {@link #compress(byte[], int, int)}
+     * @param src the input buffer
+     * @param off the offset of the compressed data in the buffer
+     * @param len the length of the compressed data
+     * @param rawLength the length of the uncompressed data
+     * @return the uncompressed data
+     * @throws IOException if the compressed data is corrupt
+     */
+    public static byte[] decompress(byte[] src, int off, int len,
+                                    int rawLength) throws IOException {
+        byte[] dst = new byte[rawLength];
+        int end = off + len;
+        int ip = off;
+        int op = 0;
+
+        while (ip < end) {
+            int token = src[ip++] & 0xff;
+
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (ip >= end) throw corrupt();
+                    b = src[ip++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > end - ip || literals > rawLength - op)
+                throw corrupt();
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip == end) break;
+
+            if (end - ip < 2) throw corrupt();
+            int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+            ip += 2;
+            if (offset == 0 || offset > op) throw corrupt();
+
+            int matchLen = token & 0xf;
+            if (matchLen == 15) {
+                int b;
+                do {
+                    if (ip >= end) throw corrupt();
+                    b = src[ip++] & 0xff;
+                    matchLen += b;
+                } while (b == 255);
+            }
+            matchLen += MIN_MATCH;
+            if (matchLen > rawLength - op) throw corrupt();
+            // the match may overlap the bytes it produces
+            for (int i = 0; i < matchLen; i++) {
+                dst[op + i] = dst[op - offset + i];
+            }
+            op += matchLen;
+        }
+        if (op != rawLength) throw corrupt();
+        return dst;
+    }
+
+    // *************
+    // Local methods
+    // *************
+
+    private static int writeSequence(byte[] dst, int op,
+                                     byte[] src, int literalStart,
+                                     int literals, int offset, int matchLen) {
+        int tokenOff = op++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15) op = writeLength(dst, op, literals - 15);
+        System.arraycopy(src, literalStart, dst, op, literals);
+        op += literals;
+
+        if (matchLen > 0) {
+            dst[op++] = (byte)offset;
+            dst[op++] = (byte)(offset >>> 8);
+            int extra = matchLen - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            if (extra >= 15) op = writeLength(dst, op, extra - 15);
+        }
+        dst[tokenOff] = (byte)token;
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 255) {
+            dst[op++] = (byte)255;
+            length -= 255;
+        }
+        dst[op++] = (byte)length;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) |
+                ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Corrupt compressed frame");
+    }
+}
@@ -113,13 +113,27 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
             channel.close();
             return;
         }
-        rpcService.nodeConnected(remoteNode.getNodeId(), channel);
+        // Use the features both sides support from here on
+        int features = 0;
+        if (hello.isSetFeatures())
+            features = hello.getFeatures() & getFeatures();
+        ThriftFrameEncoder encoder =
+                channel.getPipeline().get(ThriftFrameEncoder.class);
+        if (encoder != null)
+            encoder.setFeatures(features & ThriftFrameEncoder.FRAME_FEATURES);
+
+        rpcService.nodeConnected(remoteNode.getNodeId(), channel, features);
+
+        // A node that is bootstrapping asks for a snapshot instead
+        if (syncManager.requestSnapshot(remoteNode.getNodeId()))
+            return;
 
         FullSyncRequestMessage srm = new FullSyncRequestMessage();
         AsyncMessageHeader header = new AsyncMessageHeader();
         header.setTransactionId(getTransactionId());
         srm.setHeader(header);
         SyncMessage bsm = new SyncMessage(MessageType.FULL_SYNC_REQUEST);
+        bsm.setFullSyncRequest(srm);
         channel.write(bsm);
 
         // XXX - TODO - if last connection was longer ago than the tombstone
@@ -249,7 +263,8 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
                                    Channel channel) {
         if (request.isSetResponseTo())
             rpcService.messageAcked(MessageType.SYNC_REQUEST,
-                                    getRemoteNodeId());
+                                    getRemoteNodeId(),
+                                    request.getHeader().getTransactionId());
         try {
             if (logger.isTraceEnabled()) {
                 logger.trace("[{}->{}] Got syncvalue {}",
@@ -289,7 +304,8 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
     @Override
     protected void handleSyncValueResponse(SyncValueResponseMessage message,
                                            Channel channel) {
-        rpcService.messageAcked(MessageType.SYNC_VALUE, getRemoteNodeId());
+        rpcService.messageAcked(MessageType.SYNC_VALUE, getRemoteNodeId(),
+                                message.getHeader().getTransactionId());
     }
 
     @Override
@@ -335,7 +351,8 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
     @Override
     protected void handleSyncRequest(SyncRequestMessage request,
                                      Channel channel) {
-        rpcService.messageAcked(MessageType.SYNC_OFFER, getRemoteNodeId());
+        rpcService.messageAcked(MessageType.SYNC_OFFER, getRemoteNodeId(),
+                                request.getHeader().getTransactionId());
         if (!request.isSetKeys()) return;
 
         String storeName = request.getStore().getStoreName();
@@ -371,12 +388,120 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
         }
     }
 
+    @Override
+    protected void handleSyncDigest(final SyncDigestMessage request,
+                                    final Channel channel) {
+        // Comparing digests may need to build the hash tree for the
+        // store, so don't do it on an I/O thread
+        Runnable digestTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SyncDigestResponseMessage sdrm =
+                            new SyncDigestResponseMessage();
+                    AsyncMessageHeader header = new AsyncMessageHeader();
+                    header.setTransactionId(request.getHeader().
+                                            getTransactionId());
+                    sdrm.setHeader(header);
+                    sdrm.setStore(request.getStore());
+                    sdrm.setNodes(syncManager.
+                                  handleSyncDigest(request.getStore().
+                                                   getStoreName(),
+                                                   request.getNodes(),
+                                                   request.getDigests()));
+
+                    SyncMessage bsm =
+                            new SyncMessage(MessageType.SYNC_DIGEST_RESPONSE);
+                    bsm.setSyncDigestResponse(sdrm);
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("[{}->{}] Sending SyncDigestResponse " +
+                                     "with {} elements",
+                                     new Object[]{getLocalNodeIdString(),
+                                                  getRemoteNodeIdString(),
+                                                  sdrm.getNodesSize()});
+                    }
+                    channel.write(bsm);
+                } catch (Exception e) {
+                    channel.write(getError(request.getHeader().
+                                           getTransactionId(),
+                                           e, MessageType.SYNC_DIGEST));
+                }
+            }
+        };
+        syncManager.getThreadPool().getScheduledExecutor().execute(digestTask);
+    }
+
+    @Override
+    @LogMessageDoc(level="ERROR",
+              message="[{id}->{id}] Failed to synchronize store {store}",
+              explanation="An error occurred while synchronizing the " +
+                      "differences in a store to a remote node",
+              recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    protected void handleSyncDigestResponse(final SyncDigestResponseMessage response,
+                                            Channel channel) {
+        if (!response.isSetNodes() || response.getNodesSize() == 0) return;
+
+        // Resolving the differences writes windowed sync offers, which
+        // may block, so run in a background task
+        final Short remoteNodeId = getRemoteNodeId();
+        if (remoteNodeId == null) return;
+        Runnable digestTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    syncManager.handleSyncDigestResponse(remoteNodeId,
+                                                         response.getStore().
+                                                         getStoreName(),
+                                                         response.getNodes());
+                } catch (Exception e) {
+                    logger.error("[{}->{}] Failed to synchronize store {}",
+                                 new Object[]{getLocalNodeIdString(),
+                                              getRemoteNodeIdString(),
+                                              response.getStore().
+                                              getStoreName(), e});
+                }
+            }
+        };
+        syncManager.getThreadPool().getScheduledExecutor().execute(digestTask);
+    }
+
     @Override
     protected void handleFullSyncRequest(FullSyncRequestMessage request,
                                          Channel channel) {
         startAntientropy();
     }
 
+    @Override
+    protected void handleSnapshotRequest(SnapshotRequestMessage request,
+                                         Channel channel) {
+        if (remoteNode == null) return;
+        syncManager.sendSnapshot(remoteNode.getNodeId());
+    }
+
+    @Override
+    protected void handleSnapshotChunk(SnapshotChunkMessage message,
+                                       Channel channel) {
+        try {
+            if (remoteNode != null)
+                syncManager.handleSnapshotChunk(remoteNode.getNodeId(),
+                                                message);
+        } catch (Exception e) {
+            channel.write(getError(message.getHeader().getTransactionId(),
+                                   e, MessageType.SNAPSHOT_CHUNK));
+        }
+
+        // Acknowledge the chunk even if it failed so that the sender's
+        // message window keeps moving
+        SyncValueResponseMessage m = new SyncValueResponseMessage();
+        m.setCount(message.getValuesSize());
+        AsyncMessageHeader header = new AsyncMessageHeader();
+        header.setTransactionId(message.getHeader().getTransactionId());
+        m.setHeader(header);
+        SyncMessage bsm = new SyncMessage(MessageType.SYNC_VALUE_RESPONSE);
+        bsm.setSyncValueResponse(m);
+        channel.write(bsm);
+    }
+
     @Override
     protected void handleCursorRequest(CursorRequestMessage request,
                                        Channel channel) {
@@ -531,7 +656,8 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
 
     @Override
     protected void handleError(ErrorMessage error, Channel channel) {
-        rpcService.messageAcked(error.getType(), getRemoteNodeId());
+        rpcService.messageAcked(error.getType(), getRemoteNodeId(),
+                                error.getHeader().getTransactionId());
         updateCounter(SyncManager.counterErrorRemote, 1);
         super.handleError(error, channel);
     }
@@ -572,6 +698,11 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
         return syncManager.getClusterConfig().getAuthScheme();
     }
 
+    @Override
+    protected int getFeatures() {
+        return rpcService.getFeatures();
+    }
+
     @Override
     protected byte[] getSharedSecret() throws AuthException {
         String path = syncManager.getClusterConfig().getKeyStorePath();
@@ -4,6 +4,7 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -20,6 +21,7 @@ import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
 import net.floodlightcontroller.core.util.SingletonTask;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
@@ -137,7 +139,8 @@ public class RPCService {
     protected ConcurrentHashMap<Short, MessageWindow> messageWindows;
     protected static final EnumSet<MessageType> windowedTypes = 
             EnumSet.of(MessageType.SYNC_VALUE,
-                       MessageType.SYNC_OFFER);
+                       MessageType.SYNC_OFFER,
+                       MessageType.SNAPSHOT_CHUNK);
 
     /**
      * A thread pool for handling sync messages.  These messages require
@@ -167,6 +170,48 @@ public class RPCService {
      */
     protected static final int MAX_PENDING_MESSAGES = 500;
 
+    /**
+     * The initial size of the message window for a node, in bytes
+     */
+    protected static final long INITIAL_WINDOW_BYTES = 1024 * 1024;
+
+    /**
+     * The smallest the message window for a node can get, in bytes
+     */
+    protected static final long MIN_WINDOW_BYTES = 64 * 1024;
+
+    /**
+     * The largest the message window for a node can get, in bytes
+     */
+    protected static final long MAX_WINDOW_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Time after which a windowed message that was never acknowledged is
+     * considered lost, in nanoseconds
+     */
+    protected static final long ACK_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Interval after which the minimum round trip time for a node is
+     * measured afresh, in nanoseconds
+     */
+    protected static final long MIN_RTT_INTERVAL =
+            TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Feature flag: the node can serve snapshots of its stores to nodes
+     * that are bootstrapping.  This is not a frame feature, so it is never
+     * enabled in the {@link ThriftFrameEncoder}.
+     */
+    public static final int FEATURE_SNAPSHOT = 1 << 8;
+
+    /**
+     * The optional features to offer to remote nodes
+     */
+    protected int features = ThriftFrameEncoder.FEATURE_BATCH |
+                             ThriftFrameEncoder.FEATURE_COMPRESSION |
+                             FEATURE_SNAPSHOT;
+
     public RPCService(SyncManager syncManager, 
                       IDebugCounterService debugCounter) {
         super();
@@ -281,7 +326,7 @@ public class RPCService {
         if (nodeId == null) return false;
         NodeConnection nc = connections.get(nodeId);
         if (nc != null && nc.state == NodeConnectionState.CONNECTED) {
-            waitForMessageWindow(bsm.getType(), nodeId, 0);
+            waitForMessageWindow(bsm, nodeId, 0);
             nc.nodeChannel.write(bsm);
             return true;
         }
@@ -349,23 +394,63 @@ public class RPCService {
      * Called when a message is acknowledged by a remote node
      * @param type the message type
      * @param nodeId the remote node
+     * @param transactionId the transaction ID of the acknowledged message
      */
-    public void messageAcked(MessageType type, Short nodeId) {
+    public void messageAcked(MessageType type, Short nodeId,
+                             int transactionId) {
         if (nodeId == null) return;
         if (!windowedTypes.contains(type)) return;
 
         MessageWindow mw = messageWindows.get(nodeId);
         if (mw == null) return;
 
-        int pending = mw.pending.decrementAndGet();
-        if (pending < MAX_PENDING_MESSAGES) {
-            mw.lock.lock();
-            try {
-                mw.full.signalAll();
-            } finally {
-                mw.lock.unlock();
-            }
-        }
+        int change = mw.ack(transactionId, System.nanoTime());
+        if (change > 0)
+            updateCounter(SyncManager.counterRpcWindowGrows);
+        else if (change < 0)
+            updateCounter(SyncManager.counterRpcWindowShrinks);
+    }
+
+    /**
+     * Get the current size of the message window for the given node
+     * @param nodeId the remote node
+     * @return the window size in bytes, or 0 if there is no window
+     */
+    public long getMessageWindowBytes(short nodeId) {
+        MessageWindow mw = messageWindows.get(Short.valueOf(nodeId));
+        if (mw == null) return 0;
+        return mw.getWindow();
+    }
+
+    /**
+     * Get the optional features to offer to remote nodes
+     * @return a bitmask of features
+     */
+    public int getFeatures() {
+        return features;
+    }
+
+    /**
+     * Check whether both ends of the connection to a node support the
+     * given feature
+     * @param nodeId the remote node
+     * @param feature the feature flag
+     * @return <code>true</code> if the node is connected and the feature
+     * was agreed in the handshake
+     */
+    public boolean hasFeature(short nodeId, int feature) {
+        NodeConnection nc = connections.get(nodeId);
+        return (nc != null && nc.state == NodeConnectionState.CONNECTED &&
+                (nc.features & feature) != 0);
+    }
+
+    /**
+     * Set the optional features to offer to remote nodes.  This only
+     * affects connections established afterwards.
+     * @param features a bitmask of features
+     */
+    public void setFeatures(int features) {
+        this.features = features;
     }
 
     // *************
@@ -393,46 +478,33 @@ public class RPCService {
     }
     
     /**
-     * Wait for a message window slow to be available for the given node and 
-     * message type
-     * @param type the type of the message
+     * Wait for a message window slot to be available for the given node
+     * and message
+     * @param bsm the message
      * @param nodeId the node Id
      * @param maxWait the maximum time to wait in milliseconds
      * @throws InterruptedException 
      * @return <code>true</code> if the message can be safely written
      */
-    private boolean waitForMessageWindow(MessageType type, short nodeId,
+    private boolean waitForMessageWindow(SyncMessage bsm, short nodeId,
                                          long maxWait) 
             throws InterruptedException {
-        if (!windowedTypes.contains(type)) return true;
+        if (!windowedTypes.contains(bsm.getType())) return true;
 
-        long start = System.nanoTime();
-        
-        // note that this can allow slightly more than the maximum number
-        // of messages.  This is fine.
         MessageWindow mw = getMW(nodeId);
-        if (!mw.disconnected && 
-            mw.pending.get() >= MAX_PENDING_MESSAGES) {
-            mw.lock.lock();
-            try {
-                while (!mw.disconnected && 
-                       mw.pending.get() >= MAX_PENDING_MESSAGES) {
-                    long now = System.nanoTime();
-                    if (maxWait > 0 && 
-                        (now - start) > maxWait * 1000) return false;
-                    mw.full.awaitNanos(now - start);
-                }
-            } finally {
-                mw.lock.unlock();
-            }
-        }
-        mw = getMW(nodeId);
-        if (mw != null)
-            mw.pending.getAndIncrement();
-        
+        if (mw == null) return true;
+        int result = mw.acquire(TProtocolUtil.getTransactionId(bsm),
+                                TProtocolUtil.getSize(bsm),
+                                TimeUnit.MILLISECONDS.toNanos(maxWait));
+        if (result < 0) return false;
+        if (result > 0) updateCounter(SyncManager.counterRpcWindowWaits);
         return true;
     }
-    
+
+    private static void updateCounter(IDebugCounter counter) {
+        if (counter != null) counter.increment();
+    }
+
     /**
      * Start listening sockets
      */
@@ -508,8 +580,10 @@ public class RPCService {
      * Add the node connection to the node connection map
      * @param nodeId the node ID for the channel
      * @param channel the new channel
+     * @param features the optional features both ends support
      */
-    protected void nodeConnected(short nodeId, Channel channel) {
+    protected void nodeConnected(short nodeId, Channel channel,
+                                 int features) {
         logger.debug("[{}->{}] Connection established",
                      syncManager.getLocalNodeId(),
                      nodeId);
@@ -519,6 +593,7 @@ public class RPCService {
                 connections.put(nodeId, c = new NodeConnection());
             }
             c.nodeChannel = channel;
+            c.features = features;
             c.state = NodeConnectionState.CONNECTED;
         }
     }
@@ -631,9 +706,11 @@ public class RPCService {
         volatile NodeConnectionState state = NodeConnectionState.NONE;        
         protected ChannelFuture pendingFuture;
         protected Channel nodeChannel;
+        protected volatile int features;
         
         protected void nuke() {
             state = NodeConnectionState.NONE;
+            features = 0;
             if (pendingFuture != null) pendingFuture.cancel();
             if (nodeChannel != null) nodeChannel.close();
             pendingFuture = null;
@@ -642,16 +719,150 @@ public class RPCService {
     }
     
     /**
-     * Maintain state for the pending message window for a given message type
-     * @author readams
+     * Maintain state for the pending message window for a given node.
+     *
+     * The window limits the bytes in windowed messages that have been
+     * written to the node but not yet acknowledged.  It adapts to the
+     * round trip time of the acknowledgements: while the smoothed round
+     * trip time stays close to the minimum observed, the link and the
+     * remote node are keeping up and the window grows by the size of each
+     * acknowledged message, roughly doubling every round trip.  Once the
+     * round trip time reaches twice the minimum, messages are queueing
+     * somewhere, and the window shrinks by a quarter, at most once per
+     * round trip.  A message that is never acknowledged halves the window.
      */
     protected static class MessageWindow {
-        AtomicInteger pending = new AtomicInteger();
         volatile boolean disconnected = false;
         Lock lock = new ReentrantLock();
         Condition full = lock.newCondition();
+
+        // All of the following are protected by lock
+        private final HashMap<Integer, long[]> inflight =
+                new HashMap<Integer, long[]>();
+        private long inflightBytes = 0;
+        private long window = INITIAL_WINDOW_BYTES;
+        private long minRtt = 0;
+        private long minRttTime = 0;
+        private long srtt = 0;
+        private long lastShrink = 0;
+
+        /**
+         * Reserve space in the window for a message, waiting until there
+         * is room.  A message always fits into an empty window.
+         * @param transactionId the transaction ID of the message
+         * @param bytes the size of the message
+         * @param maxWait the maximum time to wait in nanoseconds, or 0 to
+         * wait indefinitely
+         * @return 0 if the message fit right away, 1 if it fit after
+         * waiting, or -1 if it timed out
+         * @throws InterruptedException
+         */
+        int acquire(int transactionId, long bytes, long maxWait)
+                throws InterruptedException {
+            lock.lock();
+            try {
+                long start = System.nanoTime();
+                int result = 0;
+                while (!disconnected && !hasRoom(bytes)) {
+                    long now = System.nanoTime();
+                    expire(now);
+                    if (hasRoom(bytes)) break;
+                    long wait = TimeUnit.SECONDS.toNanos(1);
+                    if (maxWait > 0) {
+                        long left = maxWait - (now - start);
+                        if (left <= 0) return -1;
+                        wait = Math.min(wait, left);
+                    }
+                    result = 1;
+                    full.awaitNanos(wait);
+                }
+                long[] old = inflight.put(transactionId,
+                                          new long[] {bytes,
+                                                      System.nanoTime()});
+                if (old != null) inflightBytes -= old[0];
+                inflightBytes += bytes;
+                return result;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Release the space used by an acknowledged message and adapt the
+         * window to the round trip time
+         * @param transactionId the transaction ID of the message
+         * @param now the current {@link System#nanoTime()}
+         * @return 1 if the window grew, -1 if it shrank, 0 otherwise
+         */
+        int ack(int transactionId, long now) {
+            lock.lock();
+            try {
+                long[] entry = inflight.remove(transactionId);
+                if (entry == null) return 0;
+                long bytes = entry[0];
+                boolean limited = inflightBytes >= window / 2;
+                inflightBytes -= bytes;
+                full.signalAll();
+
+                long rtt = Math.max(1, now - entry[1]);
+                if (minRtt == 0 || rtt < minRtt ||
+                        now - minRttTime > MIN_RTT_INTERVAL) {
+                    minRtt = rtt;
+                    minRttTime = now;
+                }
+                srtt = srtt == 0 ? rtt : srtt + (rtt - srtt) / 8;
+
+                if (srtt >= 2 * minRtt) {
+                    if (lastShrink != 0 && now - lastShrink < srtt) return 0;
+                    lastShrink = now;
+                    return resize(window - window / 4);
+                }
+                // Only grow a window that is actually in use
+                if (limited && 2 * srtt <= 3 * minRtt)
+                    return resize(window + bytes);
+                return 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getWindow() {
+            lock.lock();
+            try {
+                return window;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean hasRoom(long bytes) {
+            if (inflight.isEmpty()) return true;
+            return inflightBytes + bytes <= window &&
+                    inflight.size() < MAX_PENDING_MESSAGES;
+        }
+
+        private void expire(long now) {
+            boolean lost = false;
+            Iterator<long[]> it = inflight.values().iterator();
+            while (it.hasNext()) {
+                long[] entry = it.next();
+                if (now - entry[1] > ACK_TIMEOUT) {
+                    inflightBytes -= entry[0];
+                    it.remove();
+                    lost = true;
+                }
+            }
+            if (lost) resize(window / 2);
+        }
+
+        private int resize(long size) {
+            long old = window;
+            window = Math.max(MIN_WINDOW_BYTES,
+                              Math.min(MAX_WINDOW_BYTES, size));
+            return Long.signum(window - old);
+        }
     }
-    
+
     /**
      * A pending message to be sent to a particular mode.
      * @author readams
@@ -2,6 +2,7 @@ package org.sdnplatform.sync.internal.rpc;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32;
 
 import org.sdnplatform.sync.Versioned;
 import org.sdnplatform.sync.ISyncService.Scope;
@@ -14,6 +15,8 @@ import org.sdnplatform.sync.thrift.KeyedValues;
 import org.sdnplatform.sync.thrift.KeyedVersions;
 import org.sdnplatform.sync.thrift.MessageType;
 import org.sdnplatform.sync.thrift.Store;
+import org.sdnplatform.sync.thrift.SnapshotChunkMessage;
+import org.sdnplatform.sync.thrift.SyncDigestMessage;
 import org.sdnplatform.sync.thrift.SyncOfferMessage;
 import org.sdnplatform.sync.thrift.SyncValueMessage;
 import org.sdnplatform.sync.thrift.VersionedValue;
@@ -40,11 +43,11 @@ public class TProtocolUtil {
         org.sdnplatform.sync.thrift.VectorClock tvc =
                 new org.sdnplatform.sync.thrift.VectorClock();
         tvc.setTimestamp(vc.getTimestamp());
-        for (ClockEntry ce : vc.getEntries()) {
+        for (int i = 0; i < vc.size(); i++) {
             org.sdnplatform.sync.thrift.ClockEntry tce =
                     new org.sdnplatform.sync.thrift.ClockEntry();
-            tce.setNodeId(ce.getNodeId());
-            tce.setVersion(ce.getVersion());
+            tce.setNodeId(vc.getNodeId(i));
+            tce.setVersion(vc.getVersion(i));
             tvc.addToVersions(tce);
         }
         
@@ -247,6 +250,81 @@ public class TProtocolUtil {
         return bsm;
     }
 
+    /**
+     * Get a partially-initialized {@link SyncDigestMessage} wrapped with a 
+     * {@link SyncMessage}.
+     * @param storeName the name of the store associated with the message
+     * @param scope the {@link Scope} for the store
+     * @param persist whether the store is persistent
+     * @return the {@link SyncMessage}
+     */
+    public static SyncMessage getTSyncDigestMessage(String storeName,
+                                                    Scope scope,
+                                                    boolean persist) {
+        SyncMessage bsm = new SyncMessage(MessageType.SYNC_DIGEST);
+        AsyncMessageHeader header = new AsyncMessageHeader();
+        SyncDigestMessage sdm = new SyncDigestMessage();
+        sdm.setHeader(header);
+        sdm.setStore(getTStore(storeName, scope, persist));
+
+        bsm.setSyncDigest(sdm);
+        return bsm;
+    }
+
+    /**
+     * Get a partially-initialized {@link SnapshotChunkMessage} wrapped with
+     * a {@link SyncMessage}.  The values, sequence number and checksum will
+     * not be set, and the transaction ID will not be set in the
+     * {@link AsyncMessageHeader}.
+     * @param store the {@link Store} for the chunk, or <code>null</code>
+     * for a final chunk that carries no values
+     * @return the {@link SyncMessage}
+     */
+    public static SyncMessage getTSnapshotChunkMessage(Store store) {
+        SyncMessage bsm = new SyncMessage(MessageType.SNAPSHOT_CHUNK);
+        AsyncMessageHeader header = new AsyncMessageHeader();
+        SnapshotChunkMessage scm = new SnapshotChunkMessage();
+        scm.setHeader(header);
+        if (store != null)
+            scm.setStore(store);
+
+        bsm.setSnapshotChunk(scm);
+        return bsm;
+    }
+
+    /**
+     * Compute a checksum over the keys, values and versions in a list of
+     * keyed values.  This is used to verify snapshot chunks end to end.
+     * @param values the keyed values
+     * @return the checksum
+     */
+    public static long getChecksum(List<KeyedValues> values) {
+        CRC32 crc = new CRC32();
+        if (values == null) return crc.getValue();
+        for (KeyedValues kv : values) {
+            crc.update(kv.getKey());
+            if (kv.getValues() == null) continue;
+            for (VersionedValue v : kv.getValues()) {
+                if (v.getValue() != null) {
+                    crc.update(1);
+                    crc.update(v.getValue());
+                } else {
+                    crc.update(0);
+                }
+                org.sdnplatform.sync.thrift.VectorClock vc = v.getVersion();
+                if (vc == null) continue;
+                updateChecksum(crc, vc.getTimestamp());
+                if (vc.getVersions() == null) continue;
+                for (org.sdnplatform.sync.thrift.ClockEntry ce :
+                        vc.getVersions()) {
+                    updateChecksum(crc, ce.getNodeId());
+                    updateChecksum(crc, ce.getVersion());
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
     /**
      * Convert a thrift {@link org.sdnplatform.sync.thrift.VectorClock} into
      * a {@link VectorClock}.
@@ -294,4 +372,99 @@ public class TProtocolUtil {
         }
         return values;
     }
+
+    /**
+     * Estimate the encoded size of the given keyed values
+     * @param kv the keyed values
+     * @return the approximate size in bytes
+     */
+    public static int getSize(KeyedValues kv) {
+        int size = 16 + kv.getKey().length;
+        if (kv.getValues() == null) return size;
+        for (VersionedValue v : kv.getValues()) {
+            size += 16;
+            if (v.getValue() != null) size += v.getValue().length;
+            size += getSize(v.getVersion());
+        }
+        return size;
+    }
+
+    /**
+     * Estimate the encoded size of the given keyed versions
+     * @param kv the keyed versions
+     * @return the approximate size in bytes
+     */
+    public static int getSize(KeyedVersions kv) {
+        int size = 16 + kv.getKey().length;
+        if (kv.getVersions() == null) return size;
+        for (org.sdnplatform.sync.thrift.VectorClock vc : kv.getVersions()) {
+            size += getSize(vc);
+        }
+        return size;
+    }
+
+    /**
+     * Estimate the encoded size of a {@link MessageType#SYNC_VALUE},
+     * {@link MessageType#SYNC_OFFER} or {@link MessageType#SNAPSHOT_CHUNK}
+     * message
+     * @param bsm the message
+     * @return the approximate size in bytes
+     */
+    public static int getSize(SyncMessage bsm) {
+        int size = 64;
+        switch (bsm.getType()) {
+            case SYNC_VALUE:
+                if (bsm.getSyncValue().getValues() != null) {
+                    for (KeyedValues kv : bsm.getSyncValue().getValues())
+                        size += getSize(kv);
+                }
+                break;
+            case SYNC_OFFER:
+                if (bsm.getSyncOffer().getVersions() != null) {
+                    for (KeyedVersions kv : bsm.getSyncOffer().getVersions())
+                        size += getSize(kv);
+                }
+                break;
+            case SNAPSHOT_CHUNK:
+                if (bsm.getSnapshotChunk().getValues() != null) {
+                    for (KeyedValues kv : bsm.getSnapshotChunk().getValues())
+                        size += getSize(kv);
+                }
+                break;
+            default:
+                break;
+        }
+        return size;
+    }
+
+    /**
+     * Get the transaction ID of a {@link MessageType#SYNC_VALUE},
+     * {@link MessageType#SYNC_OFFER} or {@link MessageType#SNAPSHOT_CHUNK}
+     * message
+     * @param bsm the message
+     * @return the transaction ID, or 0 for other message types
+     */
+    public static int getTransactionId(SyncMessage bsm) {
+        switch (bsm.getType()) {
+            case SYNC_VALUE:
+                return bsm.getSyncValue().getHeader().getTransactionId();
+            case SYNC_OFFER:
+                return bsm.getSyncOffer().getHeader().getTransactionId();
+            case SNAPSHOT_CHUNK:
+                return bsm.getSnapshotChunk().getHeader().getTransactionId();
+            default:
+                return 0;
+        }
+    }
+
+    private static int getSize(org.sdnplatform.sync.thrift.VectorClock vc) {
+        if (vc == null || vc.getVersions() == null) return 8;
+        return 8 + 16 * vc.getVersionsSize();
+    }
+
+    private static void updateChecksum(CRC32 crc, long value) {
+        for (int i = 0; i < 8; i++) {
+            crc.update((int)(value >>> (i * 8)));
+        }
+    }
 }
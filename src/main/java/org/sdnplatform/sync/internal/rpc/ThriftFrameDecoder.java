@@ -1,5 +1,6 @@
 package org.sdnplatform.sync.internal.rpc;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -7,19 +8,24 @@ import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.transport.TIOStreamTransport;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
 import org.sdnplatform.sync.thrift.SyncMessage;
 
 /**
- * Decode a {@link SyncMessage} from the channel
+ * Decode a {@link SyncMessage} from the channel.  This accepts both
+ * plain frames and the envelope frames described in 
+ * {@link ThriftFrameEncoder}.
  * @author readams
  */
 public class ThriftFrameDecoder extends LengthFieldBasedFrameDecoder {
+    private final int maxSize;
 
     public ThriftFrameDecoder(int maxSize) {
         super(maxSize, 0, 4, 0, 4);
+        this.maxSize = maxSize;
     }
 
     @Override
@@ -31,12 +37,13 @@ public class ThriftFrameDecoder extends LengthFieldBasedFrameDecoder {
         while (null != (frame = (ChannelBuffer) super.decode(ctx, channel, 
                                                              buffer))) {
             if (ms == null) ms = new ArrayList<SyncMessage>();
-            ChannelBufferInputStream is = new ChannelBufferInputStream(frame);
-            TCompactProtocol thriftProtocol =
-                    new TCompactProtocol(new TIOStreamTransport(is));
-            SyncMessage bsm = new SyncMessage();
-            bsm.read(thriftProtocol);
-            ms.add(bsm);
+            if (frame.readable() && 
+                frame.getByte(frame.readerIndex()) ==
+                    ThriftFrameEncoder.ENVELOPE) {
+                readEnvelope(frame, ms);
+            } else {
+                ms.add(read(frame));
+            }
         }
         return ms;
     }
@@ -46,4 +53,36 @@ public class ThriftFrameDecoder extends LengthFieldBasedFrameDecoder {
                                          int index, int length) {
         return buffer.slice(index, length);
     }
+
+    private void readEnvelope(ChannelBuffer frame,
+                              List<SyncMessage> ms) throws Exception {
+        frame.skipBytes(1);
+        int flags = frame.readUnsignedByte();
+        if ((flags & ThriftFrameEncoder.FLAG_COMPRESSED) != 0) {
+            int rawLength = frame.readInt();
+            if (rawLength < 0 || rawLength > maxSize)
+                throw new IOException("Invalid uncompressed frame length " +
+                                      rawLength);
+            int length = frame.readableBytes();
+            byte[] compressed = new byte[length];
+            frame.readBytes(compressed);
+            frame = ChannelBuffers.wrappedBuffer(
+                FrameCompression.decompress(compressed, 0, length, rawLength));
+        }
+        while (frame.readable()) {
+            int length = frame.readInt();
+            if (length < 0 || length > frame.readableBytes())
+                throw new IOException("Invalid message length " + length);
+            ms.add(read(frame.readSlice(length)));
+        }
+    }
+
+    private static SyncMessage read(ChannelBuffer buffer) throws Exception {
+        ChannelBufferInputStream is = new ChannelBufferInputStream(buffer);
+        TCompactProtocol thriftProtocol =
+                new TCompactProtocol(new TIOStreamTransport(is));
+        SyncMessage bsm = new SyncMessage();
+        bsm.read(thriftProtocol);
+        return bsm;
+    }
 }
@@ -1,39 +1,285 @@
 package org.sdnplatform.sync.internal.rpc;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.transport.TIOStreamTransport;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.buffer.DynamicChannelBuffer;
-import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.sdnplatform.sync.internal.SyncManager;
 import org.sdnplatform.sync.thrift.SyncMessage;
 
 
 /**
- * Encode a {@link SyncMessage} into the channel
- * @author readams
+ * Encode a {@link SyncMessage} into the channel.
  *
+ * Each frame starts with its length.  By default a frame holds a single
+ * message, serialized with the thrift compact protocol.  Once both ends
+ * have agreed on the optional features in the handshake, frames can also
+ * be envelopes: a zero byte, which can never start a serialized message,
+ * a flags byte, and then a sequence of length-prefixed messages, possibly
+ * compressed with {@link FrameCompression}.
+ *
+ * With batching enabled, messages written while the previous frame is
+ * still being written to the channel are collected into a single frame.
+ * @author readams
  */
-public class ThriftFrameEncoder extends OneToOneEncoder {
+public class ThriftFrameEncoder extends SimpleChannelDownstreamHandler {
+    /**
+     * Feature flag: send several messages in one frame
+     */
+    public static final int FEATURE_BATCH = 1 << 0;
+
+    /**
+     * Feature flag: compress large frames
+     */
+    public static final int FEATURE_COMPRESSION = 1 << 1;
+
+    /**
+     * All the feature flags that apply to framing
+     */
+    public static final int FRAME_FEATURES = FEATURE_BATCH |
+                                             FEATURE_COMPRESSION;
+
+    /**
+     * The first byte of an envelope frame
+     */
+    static final byte ENVELOPE = 0;
+
+    /**
+     * Envelope flag: the contents are compressed, and preceded by their
+     * uncompressed length
+     */
+    static final int FLAG_COMPRESSED = 1 << 0;
+
+    /**
+     * Frames smaller than this are not worth compressing
+     */
+    static final int COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     * Maximum size of the messages collected into one frame
+     */
+    static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private volatile int features = 0;
+
+    // The following are protected by this
+    private final ArrayDeque<PendingMessage> pending =
+            new ArrayDeque<PendingMessage>();
+    private boolean writing = false;
+
+    /**
+     * Get the features that are enabled for this channel
+     * @return a bitmask of features
+     */
+    public int getFeatures() {
+        return features;
+    }
+
+    /**
+     * Enable optional features for this channel.  Only features that
+     * the remote end has offered may be enabled.
+     * @param features a bitmask of features
+     */
+    public void setFeatures(int features) {
+        this.features = features;
+    }
 
     @Override
-    protected Object encode(ChannelHandlerContext ctx, Channel channel,
-                            Object message) throws Exception {
-        if (message instanceof SyncMessage) {
-            ChannelBuffer buf = new DynamicChannelBuffer(512);
-            ChannelBufferOutputStream os = new ChannelBufferOutputStream(buf);
-            TCompactProtocol thriftProtocol =
-                    new TCompactProtocol(new TIOStreamTransport(os));
-            ((SyncMessage) message).write(thriftProtocol);
+    public void writeRequested(ChannelHandlerContext ctx,
+                               MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof SyncMessage)) {
+            ctx.sendDownstream(e);
+            return;
+        }
+        ChannelBuffer body = serialize((SyncMessage) e.getMessage());
+        if (features == 0) {
+            write(ctx, e.getFuture(), getFrame(body));
+            return;
+        }
+        synchronized (this) {
+            pending.add(new PendingMessage(body, e.getFuture()));
+            if (writing) return;
+            writing = true;
+        }
+        flush(ctx);
+    }
+
+    /**
+     * Serialize a message without any framing
+     * @param message the message
+     * @return a buffer containing the serialized message
+     * @throws Exception
+     */
+    public static ChannelBuffer serialize(SyncMessage message)
+            throws Exception {
+        ChannelBuffer buf = new DynamicChannelBuffer(512);
+        ChannelBufferOutputStream os = new ChannelBufferOutputStream(buf);
+        TCompactProtocol thriftProtocol =
+                new TCompactProtocol(new TIOStreamTransport(os));
+        message.write(thriftProtocol);
+        return buf;
+    }
 
-            ChannelBuffer len = ChannelBuffers.buffer(4);
-            len.writeInt(buf.readableBytes());
-            return ChannelBuffers.wrappedBuffer(len, buf);
+    // *************
+    // Local methods
+    // *************
+
+    /**
+     * Write the pending messages as one frame, and arrange for the next
+     * frame to be written once it is done
+     * @param ctx the channel handler context
+     */
+    private void flush(final ChannelHandlerContext ctx) {
+        final List<PendingMessage> batch = new ArrayList<PendingMessage>();
+        int bytes = 0;
+        synchronized (this) {
+            boolean batching = (features & FEATURE_BATCH) != 0;
+            while (!pending.isEmpty()) {
+                PendingMessage m = pending.peek();
+                if (batch.size() > 0 &&
+                        (!batching ||
+                         bytes + m.body.readableBytes() > MAX_BATCH_BYTES))
+                    break;
+                pending.poll();
+                batch.add(m);
+                bytes += 4 + m.body.readableBytes();
+            }
+            if (batch.isEmpty()) {
+                writing = false;
+                return;
+            }
+        }
+
+        ChannelFuture future = Channels.future(ctx.getChannel());
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future)
+                    throws Exception {
+                if (future.isSuccess()) {
+                    for (PendingMessage m : batch)
+                        m.future.setSuccess();
+                    flush(ctx);
+                } else {
+                    // The channel is unusable; fail everything at once
+                    List<PendingMessage> failed =
+                            new ArrayList<PendingMessage>(batch);
+                    synchronized (ThriftFrameEncoder.this) {
+                        failed.addAll(pending);
+                        pending.clear();
+                        writing = false;
+                    }
+                    for (PendingMessage m : failed)
+                        m.future.setFailure(future.getCause());
+                }
+            }
+        });
+
+        ChannelBuffer frame;
+        try {
+            frame = getFrame(batch, bytes);
+        } catch (Exception e) {
+            future.setFailure(e);
+            return;
         }
-        return message;
+        write(ctx, future, frame);
+    }
+
+    /**
+     * Build a frame for a batch of messages
+     * @param batch the messages
+     * @param bytes the size of the messages including their lengths
+     * @return the frame
+     */
+    private ChannelBuffer getFrame(List<PendingMessage> batch, int bytes) {
+        boolean compress = (features & FEATURE_COMPRESSION) != 0 &&
+                bytes >= COMPRESSION_THRESHOLD;
+        if (batch.size() == 1 && !compress)
+            return getFrame(batch.get(0).body);
+
+        ChannelBuffer raw = ChannelBuffers.buffer(bytes);
+        for (PendingMessage m : batch) {
+            raw.writeInt(m.body.readableBytes());
+            raw.writeBytes(m.body, m.body.readerIndex(),
+                           m.body.readableBytes());
+        }
+        if (batch.size() > 1)
+            updateCounter(SyncManager.counterRpcBatchedMessages,
+                          batch.size());
+
+        if (compress) {
+            byte[] c = FrameCompression.compress(raw.array(),
+                                                 raw.arrayOffset(), bytes);
+            if (c.length + 4 < bytes) {
+                updateCounter(SyncManager.counterRpcCompressedIn, bytes);
+                updateCounter(SyncManager.counterRpcCompressedOut, c.length);
+                ChannelBuffer header = ChannelBuffers.buffer(10);
+                header.writeInt(2 + 4 + c.length);
+                header.writeByte(ENVELOPE);
+                header.writeByte(FLAG_COMPRESSED);
+                header.writeInt(bytes);
+                return count(ChannelBuffers.wrappedBuffer(header,
+                                 ChannelBuffers.wrappedBuffer(c)));
+            }
+            if (batch.size() == 1)
+                return getFrame(batch.get(0).body);
+        }
+
+        ChannelBuffer header = ChannelBuffers.buffer(6);
+        header.writeInt(2 + bytes);
+        header.writeByte(ENVELOPE);
+        header.writeByte(0);
+        return count(ChannelBuffers.wrappedBuffer(header, raw));
     }
 
+    /**
+     * Build a frame holding a single uncompressed message
+     * @param body the serialized message
+     * @return the frame
+     */
+    private static ChannelBuffer getFrame(ChannelBuffer body) {
+        ChannelBuffer len = ChannelBuffers.buffer(4);
+        len.writeInt(body.readableBytes());
+        return count(ChannelBuffers.wrappedBuffer(len, body));
+    }
+
+    private static ChannelBuffer count(ChannelBuffer frame) {
+        updateCounter(SyncManager.counterRpcSentBytes, frame.readableBytes());
+        return frame;
+    }
+
+    private static void write(ChannelHandlerContext ctx,
+                              ChannelFuture future, ChannelBuffer frame) {
+        Channels.write(ctx, future, frame);
+    }
+
+    private static void updateCounter(IDebugCounter counter, long incr) {
+        if (counter != null) counter.add(incr);
+    }
+
+    /**
+     * A serialized message waiting to be written
+     */
+    private static class PendingMessage {
+        final ChannelBuffer body;
+        final ChannelFuture future;
+
+        PendingMessage(ChannelBuffer body, ChannelFuture future) {
+            this.body = body;
+            this.future = future;
+        }
+    }
 }
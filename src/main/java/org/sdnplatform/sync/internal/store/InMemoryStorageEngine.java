@@ -18,6 +18,7 @@
 package org.sdnplatform.sync.internal.store;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
@@ -35,10 +36,19 @@ import org.sdnplatform.sync.internal.util.Pair;
 
 /**
  * A simple non-persistent, in-memory store.
+ *
+ * Almost every key has exactly one version, so the map holds that
+ * {@link Versioned} directly, and only keys with concurrent versions get a
+ * list.  The mapped values are never modified once they are in the map;
+ * writes build a new value and swap it in with a compare-and-set.
  */
 public class InMemoryStorageEngine<K, V> implements IStorageEngine<K, V> {
 
-    private final ConcurrentMap<K, List<Versioned<V>>> map;
+    /**
+     * Maps each key to either a single {@link Versioned} or an immutable
+     * list of concurrent versions
+     */
+    private final ConcurrentMap<K, Object> map;
     private final String name;
     
     /**
@@ -48,13 +58,7 @@ public class InMemoryStorageEngine<K, V> implements IStorageEngine<K, V> {
 
     public InMemoryStorageEngine(String name) {
         this.name = name;
-        this.map = new ConcurrentHashMap<K, List<Versioned<V>>>();
-    }
-
-    public InMemoryStorageEngine(String name, 
-                                 ConcurrentMap<K, List<Versioned<V>>> map) {
-        this.name = name;
-        this.map = map;
+        this.map = new ConcurrentHashMap<K, Object>();
     }
 
     // ******************
@@ -72,13 +76,7 @@ public class InMemoryStorageEngine<K, V> implements IStorageEngine<K, V> {
     @Override
     public List<Versioned<V>> get(K key) throws SyncException {
         StoreUtils.assertValidKey(key);
-        List<Versioned<V>> results = map.get(key);
-        if(results == null) {
-            return new ArrayList<Versioned<V>>(0);
-        }
-        synchronized(results) {
-            return new ArrayList<Versioned<V>>(results);
-        }
+        return new ArrayList<Versioned<V>>(asList(map.get(key)));
     }
 
     @Override
@@ -93,37 +91,37 @@ public class InMemoryStorageEngine<K, V> implements IStorageEngine<K, V> {
         IVersion version = value.getVersion();
 
         while(true) {
-            List<Versioned<V>> items = map.get(key);
+            Object current = map.get(key);
             // If we have no value, optimistically try to add one
-            if(items == null) {
-                items = new ArrayList<Versioned<V>>();
-                items.add(new Versioned<V>(value.getValue(), version));
-                if (map.putIfAbsent(key, items) != null)
+            if(current == null) {
+                if (map.putIfAbsent(key, value) != null)
                     continue;
                 return true;
-            } else {
-                synchronized(items) {
-                    // if this check fails, items has been removed from the map
-                    // by delete, so we try again.
-                    if(map.get(key) != items)
-                        continue;
-
-                    // Check for existing versions - remember which items to
-                    // remove in case of success
-                    List<Versioned<V>> itemsToRemove = new ArrayList<Versioned<V>>(items.size());
-                    for(Versioned<V> versioned: items) {
-                        Occurred occurred = value.getVersion().compare(versioned.getVersion());
-                        if(occurred == Occurred.BEFORE) {
-                            return false;
-                        } else if(occurred == Occurred.AFTER) {
-                            itemsToRemove.add(versioned);
-                        }
-                    }
-                    items.removeAll(itemsToRemove);
-                    items.add(value);
+            }
+
+            // Check for existing versions and keep only those that are
+            // concurrent with the new value
+            List<Versioned<V>> items = asList(current);
+            List<Versioned<V>> itemsToKeep = null;
+            for(Versioned<V> versioned: items) {
+                Occurred occurred = version.compare(versioned.getVersion());
+                if(occurred == Occurred.BEFORE) {
+                    return false;
+                } else if(occurred != Occurred.AFTER) {
+                    if (itemsToKeep == null)
+                        itemsToKeep = new ArrayList<Versioned<V>>(items.size());
+                    itemsToKeep.add(versioned);
                 }
-                return true;
             }
+            Object update = value;
+            if (itemsToKeep != null) {
+                itemsToKeep.add(value);
+                update = Collections.unmodifiableList(itemsToKeep);
+            }
+            // if this fails, another writer got there first, so we try
+            // again against its value.
+            if (map.replace(key, current, update))
+                return true;
         }
     }
 
@@ -168,15 +166,11 @@ public class InMemoryStorageEngine<K, V> implements IStorageEngine<K, V> {
         // threshold.  If a value is deleted and the tombstone has been 
         // cleaned up before the cluster is fully synchronized, then there
         // is a chance that deleted values could be resurrected
-        Iterator<Entry<K, List<Versioned<V>>>> iter = map.entrySet().iterator();
-        while (iter.hasNext()) {
-            Entry<K, List<Versioned<V>>> e = iter.next();
-            List<Versioned<V>> items = e.getValue();
-
-            synchronized (items) {
-                if (StoreUtils.canDelete(items, tombstoneDeletion))
-                    iter.remove();
-            }
+        for (Entry<K, Object> e : map.entrySet()) {
+            Object current = e.getValue();
+            // only remove the key if it hasn't been written since we looked
+            if (StoreUtils.canDelete(asList(current), tombstoneDeletion))
+                map.remove(e.getKey(), current);
         }
     }
 
@@ -209,13 +203,9 @@ public class InMemoryStorageEngine<K, V> implements IStorageEngine<K, V> {
      * @return the mapped values
      */
     public List<Versioned<V>> remove(K key) {
-        while (true) {
-            List<Versioned<V>> items = map.get(key);
-            synchronized (items) {
-                if (map.remove(key, items))
-                    return items;                
-            }
-        }
+        Object items = map.remove(key);
+        if (items == null) return null;
+        return asList(items);
     }
 
     /**
@@ -244,26 +234,40 @@ public class InMemoryStorageEngine<K, V> implements IStorageEngine<K, V> {
         StringBuilder builder = new StringBuilder();
         builder.append("{");
         int count = 0;
-        for(Entry<K, List<Versioned<V>>> entry: map.entrySet()) {
+        for(Entry<K, Object> entry: map.entrySet()) {
             if(count > size) {
                 builder.append("...");
                 break;
             }
             builder.append(entry.getKey());
             builder.append(':');
-            builder.append(entry.getValue());
+            builder.append(asList(entry.getValue()));
             builder.append(',');
         }
         builder.append('}');
         return builder.toString();
     }
 
+    /**
+     * Get the versions from a mapped value
+     * @param value the value from the map, or <code>null</code>
+     * @return the versions for the value
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> List<Versioned<V>> asList(Object value) {
+        if (value == null)
+            return Collections.emptyList();
+        if (value instanceof Versioned)
+            return Collections.singletonList((Versioned<V>)value);
+        return (List<Versioned<V>>)value;
+    }
+
     private static class InMemoryIterator<K, V> implements 
         IClosableIterator<Entry<K, List<Versioned<V>>>> {
 
-        private final Iterator<Entry<K, List<Versioned<V>>>> iterator;
+        private final Iterator<Entry<K, Object>> iterator;
 
-        public InMemoryIterator(ConcurrentMap<K, List<Versioned<V>>> map) {
+        public InMemoryIterator(ConcurrentMap<K, Object> map) {
             this.iterator = map.entrySet().iterator();
         }
 
@@ -272,9 +276,9 @@ public class InMemoryStorageEngine<K, V> implements IStorageEngine<K, V> {
         }
 
         public Pair<K, List<Versioned<V>>> next() {
-            Entry<K, List<Versioned<V>>> entry = iterator.next();
+            Entry<K, Object> entry = iterator.next();
             return new Pair<K, List<Versioned<V>>>(entry.getKey(), 
-                    entry.getValue());
+                    InMemoryStorageEngine.<V>asList(entry.getValue()));
         }
 
         public void remove() {
@@ -0,0 +1,291 @@
+package org.sdnplatform.sync.internal.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A single memory-mapped segment file of a {@link LogStorageEngine}.
+ *
+ * A segment is a sequence of records, each of which is laid out as
+ * <pre>
+ * int   payload length
+ * int   CRC32 of the payload
+ * int   key length
+ * byte[] key
+ * byte[] value, empty for a removal
+ * </pre>
+ * The file is allocated at its full capacity up front, so the first
+ * record with a zero length marks the end of the data.  A record whose
+ * length or checksum doesn't match is the torn tail of an interrupted
+ * write and ends the segment as well.
+ *
+ * Appends must be serialized by the caller; reads of records that have
+ * already been appended may happen concurrently.
+ */
+class LogSegment {
+    /**
+     * Size of the record header preceding the payload
+     */
+    static final int HEADER_SIZE = 8;
+
+    /**
+     * Suffix for segment file names
+     */
+    static final String SUFFIX = ".log";
+
+    /**
+     * Callback for each record found while scanning a segment
+     */
+    interface RecordVisitor {
+        /**
+         * @param key the key of the record
+         * @param value the value of the record, or null for a removal
+         * @param offset the offset of the record in the segment
+         * @param size the size of the record in the segment
+         */
+        void visit(byte[] key, byte[] value, int offset, int size);
+    }
+
+    private final long id;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    /**
+     * The offset at which the next record will be appended
+     */
+    private volatile int position;
+
+    /**
+     * Bytes in this segment that are no longer referenced by the index
+     */
+    private final AtomicLong deadBytes = new AtomicLong();
+
+    private LogSegment(long id, File file, int capacity) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Create a new, empty segment
+     * @param dir the directory of the store
+     * @param id the segment ID
+     * @param capacity the size of the segment in bytes
+     * @return the segment
+     * @throws IOException
+     */
+    static LogSegment create(File dir, long id, int capacity)
+            throws IOException {
+        File file = new File(dir, getFileName(id));
+        if (file.exists() && !file.delete())
+            throw new IOException("Could not remove stale segment " + file);
+        return new LogSegment(id, file, capacity);
+    }
+
+    /**
+     * Open an existing segment.  The segment must be recovered before
+     * anything can be appended to it.
+     * @param file the segment file
+     * @return the segment
+     * @throws IOException
+     * @see #recover(RecordVisitor)
+     */
+    static LogSegment open(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("Segment too large: " + file);
+        return new LogSegment(getId(file), file, (int)length);
+    }
+
+    /**
+     * Get the segment ID from a segment file name
+     * @param file the file
+     * @return the ID, or -1 if the file is not a segment
+     */
+    static long getId(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(0, name.length() -
+                                                    SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static String getFileName(long id) {
+        return String.format("%020d%s", id, SUFFIX);
+    }
+
+    /**
+     * Get the size a record will take up in a segment
+     * @param key the key
+     * @param value the value, or null for a removal
+     * @return the size in bytes
+     */
+    static int getRecordSize(byte[] key, byte[] value) {
+        return HEADER_SIZE + 4 + key.length +
+                (value == null ? 0 : value.length);
+    }
+
+    long getId() {
+        return id;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    long getDeadBytes() {
+        return deadBytes.get();
+    }
+
+    void addDeadBytes(int size) {
+        deadBytes.addAndGet(size);
+    }
+
+    /**
+     * Append a record to the segment
+     * @param key the key
+     * @param value the value, or null for a removal
+     * @return the offset of the record, or -1 if it doesn't fit
+     */
+    int append(byte[] key, byte[] value) {
+        int size = getRecordSize(key, value);
+        int offset = position;
+        if ((long)offset + size > capacity)
+            return -1;
+
+        int payloadLength = size - HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        byte[] klen = new byte[] {(byte)(key.length >>> 24),
+                                  (byte)(key.length >>> 16),
+                                  (byte)(key.length >>> 8),
+                                  (byte)key.length};
+        crc.update(klen);
+        crc.update(key);
+        if (value != null) crc.update(value);
+
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset + HEADER_SIZE);
+        b.putInt(key.length);
+        b.put(key);
+        if (value != null) b.put(value);
+        // write the header last so a partial record is never valid
+        buffer.putInt(offset + 4, (int)crc.getValue());
+        buffer.putInt(offset, payloadLength);
+
+        position = offset + size;
+        return offset;
+    }
+
+    /**
+     * Read the value of the record at the given offset
+     * @param offset the offset returned by {@link #append}
+     * @return the value, or null for a removal
+     */
+    byte[] readValue(int offset) {
+        int payloadLength = buffer.getInt(offset);
+        int keyLength = buffer.getInt(offset + HEADER_SIZE);
+        int valueLength = payloadLength - 4 - keyLength;
+        if (valueLength == 0) return null;
+        byte[] value = new byte[valueLength];
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset + HEADER_SIZE + 4 + keyLength);
+        b.get(value);
+        return value;
+    }
+
+    /**
+     * Scan the records in this segment up to the end of the valid data
+     * @param visitor called for each record
+     * @return the offset after the last valid record
+     */
+    int scan(RecordVisitor visitor) {
+        int offset = 0;
+        while (offset + HEADER_SIZE + 4 <= capacity) {
+            int payloadLength = buffer.getInt(offset);
+            if (payloadLength < 4 ||
+                    (long)offset + HEADER_SIZE + payloadLength > capacity)
+                break;
+            int keyLength = buffer.getInt(offset + HEADER_SIZE);
+            if (keyLength < 0 || keyLength > payloadLength - 4)
+                break;
+
+            byte[] payload = new byte[payloadLength];
+            ByteBuffer b = buffer.duplicate();
+            b.position(offset + HEADER_SIZE);
+            b.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int)crc.getValue() != buffer.getInt(offset + 4))
+                break;
+
+            byte[] key = new byte[keyLength];
+            System.arraycopy(payload, 4, key, 0, keyLength);
+            byte[] value = null;
+            int valueLength = payloadLength - 4 - keyLength;
+            if (valueLength > 0) {
+                value = new byte[valueLength];
+                System.arraycopy(payload, 4 + keyLength, value, 0,
+                                 valueLength);
+            }
+            int size = HEADER_SIZE + payloadLength;
+            visitor.visit(key, value, offset, size);
+            offset += size;
+        }
+        return offset;
+    }
+
+    /**
+     * Scan the records of an opened segment and position it for appends
+     * after the last valid record
+     * @param visitor called for each valid record in order
+     */
+    void recover(RecordVisitor visitor) {
+        position = scan(visitor);
+    }
+
+    /**
+     * Flush the appended records to disk
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Close the segment file.  The mapping remains readable until it is
+     * garbage collected.
+     * @throws IOException
+     */
+    void close() throws IOException {
+        channel.close();
+        raf.close();
+    }
+
+    /**
+     * Close and remove the segment file
+     * @throws IOException
+     */
+    void delete() throws IOException {
+        close();
+        if (!file.delete())
+            throw new IOException("Could not delete segment " + file);
+    }
+}
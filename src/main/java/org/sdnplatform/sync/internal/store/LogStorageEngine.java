@@ -0,0 +1,683 @@
+package org.sdnplatform.sync.internal.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+
+import org.sdnplatform.sync.IClosableIterator;
+import org.sdnplatform.sync.IVersion;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.IVersion.Occurred;
+import org.sdnplatform.sync.error.ObsoleteVersionException;
+import org.sdnplatform.sync.error.PersistException;
+import org.sdnplatform.sync.error.SyncException;
+import org.sdnplatform.sync.error.SyncRuntimeException;
+import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Persistent storage engine that keeps its data in an append-only log of
+ * memory-mapped segment files, with an in-memory index from each key to
+ * the record holding its current versions.
+ *
+ * Every write appends a record with the complete list of versions for the
+ * key, so a read is a single lookup in the index and a copy out of the
+ * mapped segment.  When a segment is full a new one is started.  Records
+ * that have been superseded are reclaimed by compacting segments that are
+ * mostly dead during {@link #cleanupTask()}.  On startup the index is
+ * rebuilt by scanning the segments in order.
+ *
+ * By default writes are durable once they reach the operating system's
+ * page cache, which survives a restart of the controller, and segments
+ * are flushed to disk when they are closed.  With synchronous writes
+ * enabled each write returns only once it has been flushed; concurrent
+ * writers share a single flush (group commit).
+ */
+@LogMessageCategory("State Synchronization")
+public class LogStorageEngine implements IStorageEngine<ByteArray, byte[]> {
+    protected static final Logger logger =
+            LoggerFactory.getLogger(LogStorageEngine.class.getName());
+
+    /**
+     * Default size of a segment file
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Fraction of dead bytes at which a segment will be compacted
+     */
+    protected static final double COMPACTION_THRESHOLD = 0.5;
+
+    private static final ObjectMapper mapper =
+            new ObjectMapper(new SmileFactory());
+
+    /**
+     * Location of the current record for a key
+     */
+    private static class Location {
+        final LogSegment segment;
+        final int offset;
+        final int size;
+
+        Location(LogSegment segment, int offset, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private final String name;
+    private final File dir;
+    private final int segmentSize;
+    private final boolean syncWrites;
+
+    private final ConcurrentHashMap<ByteArray, Location> index =
+            new ConcurrentHashMap<ByteArray, Location>();
+    private final ConcurrentSkipListMap<Long, LogSegment> segments =
+            new ConcurrentSkipListMap<Long, LogSegment>();
+
+    /**
+     * Locks serializing the read-modify-write of each key
+     */
+    private final Striped<Lock> keyLocks = Striped.lock(256);
+
+    /**
+     * Lock for appending to the active segment
+     */
+    private final Object writeLock = new Object();
+    private LogSegment active;
+    private long writeSeq = 0;
+
+    /**
+     * Group commit state
+     */
+    private final Object syncLock = new Object();
+    private long syncedSeq = 0;
+    private boolean syncing = false;
+
+    /**
+     * Interval in milliseconds before tombstones will be cleared.
+     */
+    private int tombstoneDeletion = 24 * 60 * 60 * 1000;
+
+    /**
+     * Open or create a log storage engine in the given directory
+     * @param name the name of the store
+     * @param dir the directory for the segment files of this store
+     * @param segmentSize the size of each segment file
+     * @param syncWrites whether writes should be flushed to disk before
+     * they return
+     * @throws PersistException
+     */
+    public LogStorageEngine(String name, File dir,
+                            int segmentSize, boolean syncWrites)
+            throws PersistException {
+        this.name = name;
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncWrites = syncWrites;
+
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new PersistException("Could not open persistent storage " +
+                                       "in " + dir, e);
+        }
+    }
+
+    /**
+     * Open or create a log storage engine with default settings
+     * @param name the name of the store
+     * @param dir the directory for the segment files of this store
+     * @throws PersistException
+     */
+    public LogStorageEngine(String name, File dir) throws PersistException {
+        this(name, dir, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    // *******************************
+    // StorageEngine<ByteArray,byte[]>
+    // *******************************
+
+    @Override
+    public List<Versioned<byte[]>> get(ByteArray key) throws SyncException {
+        StoreUtils.assertValidKey(key);
+        return doGet(key);
+    }
+
+    @Override
+    public IClosableIterator<Entry<ByteArray, List<Versioned<byte[]>>>>
+            entries() {
+        return new LogIterator(new ArrayList<ByteArray>(index.keySet()));
+    }
+
+    @Override
+    public void put(ByteArray key, Versioned<byte[]> value)
+            throws SyncException {
+        StoreUtils.assertValidKey(key);
+        long seq;
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            List<Versioned<byte[]>> values = doGet(key);
+            if (!merge(values, value))
+                throw new ObsoleteVersionException("Obsolete version for key '" +
+                                                   key + "': " +
+                                                   value.getVersion());
+            seq = write(key, values);
+        } finally {
+            lock.unlock();
+        }
+        commit(seq);
+    }
+
+    @Override
+    public IClosableIterator<ByteArray> keys() {
+        return StoreUtils.keys(entries());
+    }
+
+    @Override
+    public void truncate() throws SyncException {
+        lockAll();
+        try {
+            synchronized (writeLock) {
+                index.clear();
+                for (LogSegment segment : segments.values()) {
+                    segment.delete();
+                }
+                segments.clear();
+                active = null;
+                roll(segmentSize);
+            }
+        } catch (IOException e) {
+            throw new PersistException("Could not truncate store " + name, e);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void close() throws SyncException {
+        try {
+            synchronized (writeLock) {
+                for (LogSegment segment : segments.values()) {
+                    segment.force();
+                    segment.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new PersistException("Could not close store " + name, e);
+        }
+    }
+
+    @Override
+    @LogMessageDoc(level="ERROR",
+                   message="Failed to sync value because of " +
+                           "persistence exception",
+                   explanation="A value could not be written to the " +
+                           "persistent store",
+                   recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    public boolean writeSyncValue(ByteArray key,
+                                  Iterable<Versioned<byte[]>> values) {
+        long seq;
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            List<Versioned<byte[]>> current = doGet(key);
+            boolean success = false;
+            for (Versioned<byte[]> value : values) {
+                success |= merge(current, value);
+            }
+            if (!success) return false;
+            seq = write(key, current);
+        } catch (SyncException e) {
+            logger.error("Failed to sync value because of " +
+                         "persistence exception", e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            commit(seq);
+        } catch (SyncException e) {
+            logger.error("Failed to sync value because of " +
+                         "persistence exception", e);
+        }
+        return true;
+    }
+
+    @Override
+    public List<IVersion> getVersions(ByteArray key) throws SyncException {
+        return StoreUtils.getVersions(get(key));
+    }
+
+    @Override
+    public void cleanupTask() throws SyncException {
+        // Remove keys whose tombstones are old enough
+        for (ByteArray key : new ArrayList<ByteArray>(index.keySet())) {
+            Lock lock = keyLocks.get(key);
+            lock.lock();
+            try {
+                List<Versioned<byte[]>> values = doGet(key);
+                if (values.size() > 0 &&
+                        StoreUtils.canDelete(values, tombstoneDeletion))
+                    remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Compact sealed segments that are mostly dead, oldest first so
+        // that removals never end up behind the values they remove
+        for (LogSegment segment : segments.values()) {
+            if (segment == getActive()) break;
+            if (segment.getDeadBytes() >=
+                    segment.getPosition() * COMPACTION_THRESHOLD)
+                compact(segment);
+        }
+        synchronized (writeLock) {
+            active.force();
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public void setTombstoneInterval(int interval) {
+        this.tombstoneDeletion = interval;
+    }
+
+    // ****************
+    // LogStorageEngine
+    // ****************
+
+    /**
+     * Get the number of keys currently in the store
+     * @return the number of keys
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Get the number of segment files currently in use
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Copy all the data from another storage engine into this one.  Used
+     * to migrate a store from a different persistent storage engine.
+     * @param source the engine to copy from
+     * @return the number of keys copied
+     */
+    public int copyFrom(IStorageEngine<ByteArray, byte[]> source) {
+        int count = 0;
+        IClosableIterator<Entry<ByteArray, List<Versioned<byte[]>>>> entries =
+                source.entries();
+        try {
+            while (entries.hasNext()) {
+                Entry<ByteArray, List<Versioned<byte[]>>> e = entries.next();
+                if (writeSyncValue(e.getKey(), e.getValue()))
+                    count += 1;
+            }
+        } finally {
+            entries.close();
+        }
+        synchronized (writeLock) {
+            active.force();
+        }
+        return count;
+    }
+
+    // *************
+    // Local methods
+    // *************
+
+    /**
+     * Add a value to a list of versions, removing versions that it
+     * supersedes
+     * @return false if the value is obsolete
+     */
+    private static boolean merge(List<Versioned<byte[]>> values,
+                                 Versioned<byte[]> value) {
+        List<Versioned<byte[]>> itemsToRemove =
+                new ArrayList<Versioned<byte[]>>(values.size());
+        for (Versioned<byte[]> versioned : values) {
+            Occurred occurred =
+                    value.getVersion().compare(versioned.getVersion());
+            if (occurred == Occurred.BEFORE) {
+                return false;
+            } else if (occurred == Occurred.AFTER) {
+                itemsToRemove.add(versioned);
+            }
+        }
+        values.removeAll(itemsToRemove);
+        values.add(value);
+        return true;
+    }
+
+    private List<Versioned<byte[]>> doGet(ByteArray key)
+            throws PersistException {
+        Location loc = index.get(key);
+        if (loc == null) return new ArrayList<Versioned<byte[]>>(0);
+        return decode(loc.segment.readValue(loc.offset));
+    }
+
+    private static List<Versioned<byte[]>> decode(byte[] data)
+            throws PersistException {
+        try {
+            return mapper.readValue(data,
+                                    new TypeReference<List<VCVersioned<byte[]>>>() {});
+        } catch (IOException e) {
+            throw new PersistException("Could not decode stored value", e);
+        }
+    }
+
+    /**
+     * Append the versions for a key to the log and point the index at it.
+     * Must be called with the lock for the key held.
+     * @return the sequence number to pass to {@link #commit(long)}
+     */
+    private long write(ByteArray key, List<Versioned<byte[]>> values)
+            throws PersistException {
+        byte[] data;
+        try {
+            data = mapper.writeValueAsBytes(values);
+        } catch (IOException e) {
+            throw new PersistException("Could not encode value", e);
+        }
+        synchronized (writeLock) {
+            Location loc = append(key.get(), data);
+            replace(key, loc);
+            return ++writeSeq;
+        }
+    }
+
+    /**
+     * Append a removal for a key to the log and drop it from the index.
+     * Must be called with the lock for the key held.
+     */
+    private void remove(ByteArray key) throws PersistException {
+        synchronized (writeLock) {
+            Location loc = append(key.get(), null);
+            // The removal itself is only needed until the older segments
+            // holding values for the key have been compacted
+            loc.segment.addDeadBytes(loc.size);
+            replace(key, null);
+            writeSeq += 1;
+        }
+    }
+
+    private void replace(ByteArray key, Location loc) {
+        Location old = (loc == null) ? index.remove(key) : index.put(key, loc);
+        if (old != null)
+            old.segment.addDeadBytes(old.size);
+    }
+
+    /**
+     * Append a record, starting a new segment if the active one is full.
+     * Must be called with the write lock held.
+     */
+    private Location append(byte[] key, byte[] value)
+            throws PersistException {
+        int size = LogSegment.getRecordSize(key, value);
+        try {
+            int offset = active.append(key, value);
+            if (offset < 0) {
+                roll(Math.max(segmentSize, size));
+                offset = active.append(key, value);
+            }
+            return new Location(active, offset, size);
+        } catch (IOException e) {
+            throw new PersistException("Could not allocate a new segment " +
+                                       "for store " + name, e);
+        }
+    }
+
+    /**
+     * Seal the active segment and start a new one.  Must be called with
+     * the write lock held.
+     */
+    private void roll(int capacity) throws IOException {
+        long id = 0;
+        if (active != null) {
+            active.force();
+            id = active.getId() + 1;
+            // everything written so far is now on disk
+            synchronized (syncLock) {
+                syncedSeq = writeSeq;
+            }
+        } else if (!segments.isEmpty()) {
+            id = segments.lastKey() + 1;
+        }
+        active = LogSegment.create(dir, id, capacity);
+        segments.put(id, active);
+    }
+
+    private LogSegment getActive() {
+        synchronized (writeLock) {
+            return active;
+        }
+    }
+
+    /**
+     * Wait until the write with the given sequence number has been flushed
+     * to disk.  The first writer to arrive flushes on behalf of all the
+     * writers that are waiting.
+     */
+    private void commit(long seq) throws PersistException {
+        if (!syncWrites) return;
+        synchronized (syncLock) {
+            while (syncedSeq < seq && syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PersistException("Interrupted waiting for " +
+                                               "write to complete", e);
+                }
+            }
+            if (syncedSeq >= seq) return;
+            syncing = true;
+        }
+
+        long target;
+        LogSegment segment;
+        synchronized (writeLock) {
+            target = writeSeq;
+            segment = active;
+        }
+        try {
+            segment.force();
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                syncedSeq = Math.max(syncedSeq, target);
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Move the live records out of a sealed segment and delete it
+     */
+    private void compact(final LogSegment segment) throws SyncException {
+        final boolean hasOlder = segments.firstKey() < segment.getId();
+        final List<SyncException> errors = new ArrayList<SyncException>();
+        segment.scan(new LogSegment.RecordVisitor() {
+            @Override
+            public void visit(byte[] keyBytes, byte[] value,
+                              int offset, int size) {
+                ByteArray key = new ByteArray(keyBytes);
+                Lock lock = keyLocks.get(key);
+                lock.lock();
+                try {
+                    Location loc = index.get(key);
+                    if (value != null) {
+                        if (loc == null || loc.segment != segment ||
+                                loc.offset != offset)
+                            return;
+                        synchronized (writeLock) {
+                            replace(key, append(keyBytes, value));
+                        }
+                    } else if (loc == null && hasOlder) {
+                        // still needed to mask values in older segments
+                        synchronized (writeLock) {
+                            Location r = append(keyBytes, null);
+                            r.segment.addDeadBytes(r.size);
+                        }
+                    }
+                } catch (SyncException e) {
+                    errors.add(e);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        if (errors.size() > 0) throw errors.get(0);
+
+        synchronized (writeLock) {
+            // the moved records must be on disk before the originals go
+            active.force();
+            segments.remove(segment.getId());
+        }
+        try {
+            segment.delete();
+        } catch (IOException e) {
+            throw new PersistException("Could not delete segment", e);
+        }
+    }
+
+    @LogMessageDoc(level="INFO",
+                   message="Recovered {count} keys from {count} segments " +
+                           "for store {name}",
+                   explanation="A persistent store was loaded from disk")
+    private void recover() throws IOException {
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Could not create directory " + dir);
+
+        File[] files = dir.listFiles();
+        if (files == null) files = new File[0];
+        Arrays.sort(files);
+        for (File file : files) {
+            if (LogSegment.getId(file) < 0) continue;
+            final LogSegment segment = LogSegment.open(file);
+            segment.recover(new LogSegment.RecordVisitor() {
+                @Override
+                public void visit(byte[] key, byte[] value,
+                                  int offset, int size) {
+                    if (value != null) {
+                        replace(new ByteArray(key),
+                                new Location(segment, offset, size));
+                    } else {
+                        replace(new ByteArray(key), null);
+                        segment.addDeadBytes(size);
+                    }
+                }
+            });
+            segments.put(segment.getId(), segment);
+        }
+
+        synchronized (writeLock) {
+            if (segments.isEmpty()) {
+                roll(segmentSize);
+            } else {
+                // Continue appending to the newest segment
+                active = segments.lastEntry().getValue();
+            }
+        }
+        if (index.size() > 0) {
+            logger.info("Recovered {} keys from {} segments for store {}",
+                        new Object[]{index.size(), segments.size(), name});
+        }
+    }
+
+    private void lockAll() {
+        for (int i = 0; i < keyLocks.size(); i++) {
+            keyLocks.getAt(i).lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = keyLocks.size() - 1; i >= 0; i--) {
+            keyLocks.getAt(i).unlock();
+        }
+    }
+
+    private class LogIterator implements
+        IClosableIterator<Entry<ByteArray,List<Versioned<byte[]>>>> {
+
+        private final Iterator<ByteArray> keys;
+        private Pair<ByteArray, List<Versioned<byte[]>>> next;
+
+        public LogIterator(List<ByteArray> keys) {
+            this.keys = keys.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            // skip keys removed since the iterator was created
+            while (next == null && keys.hasNext()) {
+                ByteArray key = keys.next();
+                try {
+                    List<Versioned<byte[]>> values = doGet(key);
+                    if (values.size() > 0) {
+                        next = new Pair<ByteArray,
+                                        List<Versioned<byte[]>>>(key, values);
+                    }
+                } catch (PersistException e) {
+                    throw new SyncRuntimeException("Error in log iterator",
+                                                   e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Pair<ByteArray, List<Versioned<byte[]>>> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Pair<ByteArray, List<Versioned<byte[]>>> r = next;
+            next = null;
+            return r;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+}
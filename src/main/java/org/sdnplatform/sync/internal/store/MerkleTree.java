@@ -0,0 +1,170 @@
+package org.sdnplatform.sync.internal.store;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.version.VectorClock;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * A fixed-shape hash tree over the keys of a store, used to find the parts
+ * of two stores that differ without exchanging the keys themselves.
+ *
+ * Keys are hashed into one of {@link #LEAVES} leaves.  The digest of a leaf
+ * is the XOR of the hashes of the entries in it, and the digest of an
+ * interior node is the XOR of the digests of its {@link #FANOUT} children,
+ * so the tree can be updated incrementally by applying the difference
+ * between the old and new hash of an entry along the path to the root.
+ * The hash of an entry covers the key and its vector clocks, but not the
+ * values or timestamps, so two nodes that hold the same versions of a key
+ * produce the same hash.
+ *
+ * Nodes are numbered breadth first, starting with the root at 0; the
+ * children of node n are n * FANOUT + 1 through n * FANOUT + FANOUT.
+ */
+public class MerkleTree {
+    /**
+     * Number of children of each interior node
+     */
+    public static final int FANOUT = 16;
+
+    /**
+     * Number of levels below the root
+     */
+    public static final int DEPTH = 3;
+
+    /**
+     * Number of leaves
+     */
+    public static final int LEAVES = 4096;
+
+    /**
+     * Node number of the first leaf
+     */
+    public static final int FIRST_LEAF = (LEAVES - 1) / (FANOUT - 1);
+
+    /**
+     * Total number of nodes in the tree
+     */
+    public static final int SIZE = FIRST_LEAF + LEAVES;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final long[] nodes = new long[SIZE];
+
+    /**
+     * Get the digest for the given node
+     * @param node the node number
+     * @return the digest
+     */
+    public synchronized long getDigest(int node) {
+        return nodes[node];
+    }
+
+    /**
+     * Replace the hash of an entry in the given leaf
+     * @param leaf the leaf number, between 0 and {@link #LEAVES}
+     * @param oldHash the previous hash of the entry, or 0 if it was absent
+     * @param newHash the new hash of the entry, or 0 if it was removed
+     */
+    public synchronized void update(int leaf, long oldHash, long newHash) {
+        long delta = oldHash ^ newHash;
+        if (delta == 0) return;
+        int node = FIRST_LEAF + leaf;
+        while (true) {
+            nodes[node] ^= delta;
+            if (node == 0) break;
+            node = (node - 1) / FANOUT;
+        }
+    }
+
+    /**
+     * Reset all digests to 0
+     */
+    public synchronized void clear() {
+        Arrays.fill(nodes, 0);
+    }
+
+    // **************
+    // Static methods
+    // **************
+
+    /**
+     * Get the leaf for the given key
+     * @param key the key
+     * @return the leaf number, between 0 and {@link #LEAVES}
+     */
+    public static int getLeaf(ByteArray key) {
+        return HASH.hashBytes(key.get()).asInt() & (LEAVES - 1);
+    }
+
+    /**
+     * Check whether the given node is a leaf
+     * @param node the node number
+     * @return <code>true</code> if the node is a leaf
+     */
+    public static boolean isLeaf(int node) {
+        return node >= FIRST_LEAF;
+    }
+
+    /**
+     * Check whether the given node number is within the tree
+     * @param node the node number
+     * @return <code>true</code> if the node exists
+     */
+    public static boolean isValid(int node) {
+        return node >= 0 && node < SIZE;
+    }
+
+    /**
+     * Get the node number of a child of an interior node
+     * @param node the interior node
+     * @param i the index of the child, between 0 and {@link #FANOUT}
+     * @return the node number of the child
+     */
+    public static int getChild(int node, int i) {
+        return node * FANOUT + 1 + i;
+    }
+
+    /**
+     * Get the leaf number for a leaf node
+     * @param node the node number of a leaf
+     * @return the leaf number
+     */
+    public static int getLeafIndex(int node) {
+        return node - FIRST_LEAF;
+    }
+
+    /**
+     * Compute the hash of an entry from its key and versions.  The result
+     * does not depend on the order of the versions.
+     * @param key the key
+     * @param values the versioned values for the key
+     * @return the hash, or 0 if there are no values
+     */
+    public static long hashEntry(ByteArray key,
+                                 List<Versioned<byte[]>> values) {
+        if (values == null || values.size() == 0) return 0;
+        long versions = 0;
+        for (Versioned<byte[]> v : values) {
+            Hasher h = HASH.newHasher();
+            VectorClock vc = (VectorClock)v.getVersion();
+            for (int i = 0; i < vc.size(); i++) {
+                h.putShort(vc.getNodeId(i));
+                h.putLong(vc.getVersion(i));
+            }
+            versions += h.hash().asLong();
+        }
+        long hash = HASH.newHasher()
+                .putBytes(key.get())
+                .putLong(versions)
+                .hash().asLong();
+        // reserve 0 for an absent entry
+        return hash == 0 ? 1 : hash;
+    }
+}
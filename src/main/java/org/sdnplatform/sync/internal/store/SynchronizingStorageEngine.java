@@ -1,15 +1,24 @@
 package org.sdnplatform.sync.internal.store;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.locks.Lock;
+
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 
+import org.sdnplatform.sync.IClosableIterator;
 import org.sdnplatform.sync.Versioned;
 import org.sdnplatform.sync.ISyncService.Scope;
+import org.sdnplatform.sync.IStoreListener.UpdateType;
 import org.sdnplatform.sync.error.SyncException;
 import org.sdnplatform.sync.internal.SyncManager;
 import org.sdnplatform.sync.internal.util.ByteArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.Striped;
+
 
 /**
  * This storage engine will asynchronously replicate its data to the other
@@ -30,6 +39,25 @@ public class SynchronizingStorageEngine extends ListenerStorageEngine {
      */
     protected Scope scope;
 
+    /**
+     * Hash tree over the contents of the store, used to find the keys
+     * that differ from a remote node during antientropy
+     */
+    protected MerkleTree tree = new MerkleTree();
+
+    /**
+     * Whether the hash tree reflects the contents of the store.  The tree
+     * is built on first use and rebuilt after operations that change the
+     * store in bulk.
+     */
+    protected volatile boolean treeValid = false;
+
+    /**
+     * Locks serializing writes to the same key, so that the hash tree sees
+     * the hash of each key before and after every write
+     */
+    protected Striped<Lock> keyLocks = Striped.lock(64);
+
     /**
      * Allocate a synchronizing storage engine
      * @param localStorage the local storage
@@ -57,11 +85,51 @@ public class SynchronizingStorageEngine extends ListenerStorageEngine {
     @Override
     public void put(ByteArray key, Versioned<byte[]> value)
             throws SyncException {
-        super.put(key, value);
+        updateCounter(SyncManager.counterPuts);
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            long oldHash = getTreeHash(key);
+            localStorage.put(key, value);
+            updateTree(key, oldHash);
+        } finally {
+            lock.unlock();
+        }
+        notifyListeners(key, UpdateType.LOCAL);
         if (!Scope.UNSYNCHRONIZED.equals(scope))
             syncManager.queueSyncTask(this, key, value);
     }
-    
+
+    @Override
+    public boolean writeSyncValue(ByteArray key,
+                                  Iterable<Versioned<byte[]>> values) {
+        boolean r;
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            long oldHash = getTreeHash(key);
+            r = localStorage.writeSyncValue(key, values);
+            if (r) updateTree(key, oldHash);
+        } finally {
+            lock.unlock();
+        }
+        if (r) notifyListeners(key, UpdateType.REMOTE);
+        return r;
+    }
+
+    @Override
+    public void truncate() throws SyncException {
+        super.truncate();
+        treeValid = false;
+    }
+
+    @Override
+    public void cleanupTask() throws SyncException {
+        super.cleanupTask();
+        // tombstones may have been removed underneath us
+        treeValid = false;
+    }
+
     // **************
     // Public methods
     // **************
@@ -73,4 +141,96 @@ public class SynchronizingStorageEngine extends ListenerStorageEngine {
     public Scope getScope() {
         return scope;
     }
+
+    /**
+     * Write a batch of values from a snapshot of a remote node's copy of
+     * this store.  Each key is written as with
+     * {@link #writeSyncValue(ByteArray, Iterable)}, but rather than updating
+     * the hash tree key by key it is rebuilt on its next use, and the
+     * listeners are notified once for the whole batch.
+     * @param values the keys and their versions
+     * @return the number of keys that were changed
+     */
+    public int writeSnapshot(List<Entry<ByteArray,
+                                        Iterable<Versioned<byte[]>>>> values) {
+        treeValid = false;
+        List<ByteArray> changed = new ArrayList<ByteArray>(values.size());
+        for (Entry<ByteArray, Iterable<Versioned<byte[]>>> e : values) {
+            Lock lock = keyLocks.get(e.getKey());
+            lock.lock();
+            try {
+                if (localStorage.writeSyncValue(e.getKey(), e.getValue()))
+                    changed.add(e.getKey());
+            } finally {
+                lock.unlock();
+            }
+        }
+        treeValid = false;
+        if (changed.size() > 0)
+            notifyListeners(changed.iterator(), UpdateType.REMOTE);
+        return changed.size();
+    }
+
+    /**
+     * Get the digest of a node in the hash tree for this store, building
+     * the tree first if needed
+     * @param node the node number in the {@link MerkleTree}
+     * @return the digest
+     * @throws SyncException
+     */
+    public long getDigest(int node) throws SyncException {
+        if (!treeValid) rebuildTree();
+        return tree.getDigest(node);
+    }
+
+    // ***************
+    // Private methods
+    // ***************
+
+    private long getTreeHash(ByteArray key) {
+        if (!treeValid) return 0;
+        try {
+            return MerkleTree.hashEntry(key, localStorage.get(key));
+        } catch (SyncException e) {
+            // the tree will be rebuilt on next use
+            treeValid = false;
+            return 0;
+        }
+    }
+
+    private void updateTree(ByteArray key, long oldHash) {
+        long newHash = getTreeHash(key);
+        if (!treeValid) return;
+        tree.update(MerkleTree.getLeaf(key), oldHash, newHash);
+    }
+
+    private void rebuildTree() throws SyncException {
+        // Lock out all writers while we scan so no update is lost or
+        // applied twice
+        for (int i = 0; i < keyLocks.size(); i++) {
+            keyLocks.getAt(i).lock();
+        }
+        try {
+            if (treeValid) return;
+            tree.clear();
+            IClosableIterator<Entry<ByteArray, List<Versioned<byte[]>>>>
+                entries = localStorage.entries();
+            try {
+                while (entries.hasNext()) {
+                    Entry<ByteArray, List<Versioned<byte[]>>> e =
+                            entries.next();
+                    tree.update(MerkleTree.getLeaf(e.getKey()), 0,
+                                MerkleTree.hashEntry(e.getKey(),
+                                                     e.getValue()));
+                }
+            } finally {
+                entries.close();
+            }
+            treeValid = true;
+        } finally {
+            for (int i = keyLocks.size() - 1; i >= 0; i--) {
+                keyLocks.getAt(i).unlock();
+            }
+        }
+    }
 }
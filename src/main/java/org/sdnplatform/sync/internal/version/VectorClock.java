@@ -19,7 +19,9 @@ package org.sdnplatform.sync.internal.version;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import org.sdnplatform.sync.IVersion;
@@ -28,22 +30,38 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import com.google.common.collect.Lists;
-
 /**
  * A vector of the number of writes mastered by each node. The vector is stored
  * sparely, since, in general, writes will be mastered by only one node. This
  * means implicitly all the versions are at zero, but we only actually store
  * those greater than zero.
+ *
+ * The entries are kept in a pair of parallel arrays sorted by node ID, so
+ * a clock costs two small arrays rather than a list of boxed entries, and
+ * comparing clocks doesn't allocate at all.  Clocks are immutable.
  */
 public class VectorClock implements IVersion, Serializable, Cloneable {
 
-    private static final long serialVersionUID = 7663945747147638702L;
+    private static final long serialVersionUID = 7663945747147638703L;
 
     private static final int MAX_NUMBER_OF_VERSIONS = Short.MAX_VALUE;
 
-    /* A sorted list of live versions ordered from least to greatest */
-    private final List<ClockEntry> versions;
+    private static final short[] NO_NODES = new short[0];
+    private static final long[] NO_VERSIONS = new long[0];
+
+    private static final Comparator<ClockEntry> ENTRY_ORDER =
+            new Comparator<ClockEntry>() {
+        @Override
+        public int compare(ClockEntry o1, ClockEntry o2) {
+            return o1.getNodeId() - o2.getNodeId();
+        }
+    };
+
+    /* The node IDs of the live versions ordered from least to greatest */
+    private final short[] nodeIds;
+
+    /* The version for the node at the same index in nodeIds */
+    private final long[] versions;
 
     /*
      * The time of the last update on the server on which the update was
@@ -55,11 +73,11 @@ public class VectorClock implements IVersion, Serializable, Cloneable {
      * Construct an empty VectorClock
      */
     public VectorClock() {
-        this(new ArrayList<ClockEntry>(0), System.currentTimeMillis());
+        this(System.currentTimeMillis());
     }
 
     public VectorClock(long timestamp) {
-        this(new ArrayList<ClockEntry>(0), timestamp);
+        this(NO_NODES, NO_VERSIONS, timestamp);
     }
 
     /**
@@ -71,6 +89,29 @@ public class VectorClock implements IVersion, Serializable, Cloneable {
     @JsonCreator
     public VectorClock(@JsonProperty("entries") List<ClockEntry> versions, 
                        @JsonProperty("timestamp") long timestamp) {
+        int size = versions == null ? 0 : versions.size();
+        ClockEntry[] entries = size == 0 ? null : 
+            versions.toArray(new ClockEntry[size]);
+        for (int i = 1; i < size; i++) {
+            if (entries[i].getNodeId() < entries[i - 1].getNodeId()) {
+                Arrays.sort(entries, ENTRY_ORDER);
+                break;
+            }
+        }
+        this.nodeIds = size == 0 ? NO_NODES : new short[size];
+        this.versions = size == 0 ? NO_VERSIONS : new long[size];
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && entries[i].getNodeId() == nodeIds[i - 1])
+                throw new IllegalArgumentException("Duplicate clock entry " +
+                        "for node " + nodeIds[i - 1]);
+            this.nodeIds[i] = entries[i].getNodeId();
+            this.versions[i] = entries[i].getVersion();
+        }
+        this.timestamp = timestamp;
+    }
+
+    private VectorClock(short[] nodeIds, long[] versions, long timestamp) {
+        this.nodeIds = nodeIds;
         this.versions = versions;
         this.timestamp = timestamp;
     }
@@ -87,37 +128,34 @@ public class VectorClock implements IVersion, Serializable, Cloneable {
             throw new IllegalArgumentException(nodeId
                                                + " is outside the acceptable range of node ids.");
 
-        // stop on the index greater or equal to the node
-        List<ClockEntry> newversions = Lists.newArrayList(versions);
-        boolean found = false;
-        int index = 0;
-        for(; index < newversions.size(); index++) {
-            if(newversions.get(index).getNodeId() == nodeId) {
-                found = true;
-                break;
-            } else if(newversions.get(index).getNodeId() > nodeId) {
-                found = false;
-                break;
-            }
+        int index = Arrays.binarySearch(nodeIds, (short) nodeId);
+        if(index >= 0) {
+            long[] newversions = versions.clone();
+            newversions[index] += 1;
+            return new VectorClock(nodeIds, newversions, time);
         }
 
-        if(found) {
-            newversions.set(index, newversions.get(index).incremented());
-        } else if(index < newversions.size() - 1) {
-            newversions.add(index, new ClockEntry((short) nodeId, 1));
-        } else {
-            // we don't already have a version for this, so add it
-            if(newversions.size() > MAX_NUMBER_OF_VERSIONS)
-                throw new IllegalStateException("Vector clock is full!");
-            newversions.add(index, new ClockEntry((short) nodeId, 1));
-        }
-
-        return new VectorClock(newversions, time);
+        // we don't already have a version for this, so add it
+        if(nodeIds.length >= MAX_NUMBER_OF_VERSIONS)
+            throw new IllegalStateException("Vector clock is full!");
+        index = -(index + 1);
+        short[] newnodes = new short[nodeIds.length + 1];
+        long[] newversions = new long[versions.length + 1];
+        System.arraycopy(nodeIds, 0, newnodes, 0, index);
+        System.arraycopy(versions, 0, newversions, 0, index);
+        newnodes[index] = (short) nodeId;
+        newversions[index] = 1;
+        System.arraycopy(nodeIds, index, newnodes, index + 1,
+                         nodeIds.length - index);
+        System.arraycopy(versions, index, newversions, index + 1,
+                         versions.length - index);
+        return new VectorClock(newnodes, newversions, time);
     }
 
     @Override
     public VectorClock clone() {
-        return new VectorClock(Lists.newArrayList(versions), this.timestamp);
+        // the arrays are never modified, so they can be shared
+        return new VectorClock(nodeIds, versions, this.timestamp);
     }
 
     @Override
@@ -125,8 +163,8 @@ public class VectorClock implements IVersion, Serializable, Cloneable {
         final int prime = 31;
         int result = 1;
         result = prime * result + (int) (timestamp ^ (timestamp >>> 32));
-        result = prime * result
-                 + ((versions == null) ? 0 : versions.hashCode());
+        result = prime * result + Arrays.hashCode(nodeIds);
+        result = prime * result + Arrays.hashCode(versions);
         return result;
     }
 
@@ -137,22 +175,18 @@ public class VectorClock implements IVersion, Serializable, Cloneable {
         if (getClass() != obj.getClass()) return false;
         VectorClock other = (VectorClock) obj;
         if (timestamp != other.timestamp) return false;
-        if (versions == null) {
-            if (other.versions != null) return false;
-        } else if (!versions.equals(other.versions)) return false;
-        return true;
+        return Arrays.equals(nodeIds, other.nodeIds) &&
+                Arrays.equals(versions, other.versions);
     }
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append("version(");
-        if(this.versions.size() > 0) {
-            for(int i = 0; i < this.versions.size() - 1; i++) {
-                builder.append(this.versions.get(i));
+        for(int i = 0; i < nodeIds.length; i++) {
+            if(i > 0)
                 builder.append(", ");
-            }
-            builder.append(this.versions.get(this.versions.size() - 1));
+            builder.append(nodeIds[i]).append(":").append(versions[i]);
         }
         builder.append(")");
         builder.append(" ts:" + timestamp);
@@ -162,39 +196,68 @@ public class VectorClock implements IVersion, Serializable, Cloneable {
     @JsonIgnore
     public long getMaxVersion() {
         long max = -1;
-        for(ClockEntry entry: versions)
-            max = Math.max(entry.getVersion(), max);
+        for(long version: versions)
+            max = Math.max(version, max);
         return max;
     }
 
     public VectorClock merge(VectorClock clock) {
-        VectorClock newClock = new VectorClock();
+        short[] n1 = this.nodeIds;
+        short[] n2 = clock.nodeIds;
+
+        // count the distinct nodes first so we allocate exactly once
+        int size = 0;
         int i = 0;
         int j = 0;
-        while(i < this.versions.size() && j < clock.versions.size()) {
-            ClockEntry v1 = this.versions.get(i);
-            ClockEntry v2 = clock.versions.get(j);
-            if(v1.getNodeId() == v2.getNodeId()) {
-                newClock.versions.add(new ClockEntry(v1.getNodeId(), Math.max(v1.getVersion(),
-                                                                              v2.getVersion())));
+        while(i < n1.length && j < n2.length) {
+            if(n1[i] == n2[j]) {
                 i++;
                 j++;
-            } else if(v1.getNodeId() < v2.getNodeId()) {
-                newClock.versions.add(v1.clone());
+            } else if(n1[i] < n2[j]) {
                 i++;
             } else {
-                newClock.versions.add(v2.clone());
                 j++;
             }
+            size++;
+        }
+        size += (n1.length - i) + (n2.length - j);
+
+        short[] newnodes = new short[size];
+        long[] newversions = new long[size];
+        int k = 0;
+        i = 0;
+        j = 0;
+        while(i < n1.length && j < n2.length) {
+            if(n1[i] == n2[j]) {
+                newnodes[k] = n1[i];
+                newversions[k] = Math.max(this.versions[i],
+                                          clock.versions[j]);
+                i++;
+                j++;
+            } else if(n1[i] < n2[j]) {
+                newnodes[k] = n1[i];
+                newversions[k] = this.versions[i];
+                i++;
+            } else {
+                newnodes[k] = n2[j];
+                newversions[k] = clock.versions[j];
+                j++;
+            }
+            k++;
         }
 
         // Okay now there may be leftovers on one or the other list remaining
-        for(int k = i; k < this.versions.size(); k++)
-            newClock.versions.add(this.versions.get(k).clone());
-        for(int k = j; k < clock.versions.size(); k++)
-            newClock.versions.add(clock.versions.get(k).clone());
+        for(; i < n1.length; i++, k++) {
+            newnodes[k] = n1[i];
+            newversions[k] = this.versions[i];
+        }
+        for(; j < n2.length; j++, k++) {
+            newnodes[k] = n2[j];
+            newversions[k] = clock.versions[j];
+        }
 
-        return newClock;
+        return new VectorClock(newnodes, newversions,
+                               System.currentTimeMillis());
     }
 
     @Override
@@ -222,20 +285,20 @@ public class VectorClock implements IVersion, Serializable, Cloneable {
         // We do two checks: v1 <= v2 and v2 <= v1 if both are true then
         boolean v1Bigger = false;
         boolean v2Bigger = false;
+        short[] n1 = v1.nodeIds;
+        short[] n2 = v2.nodeIds;
         int p1 = 0;
         int p2 = 0;
 
-        while(p1 < v1.versions.size() && p2 < v2.versions.size()) {
-            ClockEntry ver1 = v1.versions.get(p1);
-            ClockEntry ver2 = v2.versions.get(p2);
-            if(ver1.getNodeId() == ver2.getNodeId()) {
-                if(ver1.getVersion() > ver2.getVersion())
+        while(p1 < n1.length && p2 < n2.length) {
+            if(n1[p1] == n2[p2]) {
+                if(v1.versions[p1] > v2.versions[p2])
                     v1Bigger = true;
-                else if(ver2.getVersion() > ver1.getVersion())
+                else if(v2.versions[p2] > v1.versions[p1])
                     v2Bigger = true;
                 p1++;
                 p2++;
-            } else if(ver1.getNodeId() > ver2.getNodeId()) {
+            } else if(n1[p1] > n2[p2]) {
                 // since ver1 is bigger that means it is missing a version that
                 // ver2 has
                 v2Bigger = true;
@@ -246,12 +309,14 @@ public class VectorClock implements IVersion, Serializable, Cloneable {
                 v1Bigger = true;
                 p1++;
             }
+            if(v1Bigger && v2Bigger)
+                return Occurred.CONCURRENTLY;
         }
 
         /* Okay, now check for left overs */
-        if(p1 < v1.versions.size())
+        if(p1 < n1.length)
             v1Bigger = true;
-        else if(p2 < v2.versions.size())
+        else if(p2 < n2.length)
             v2Bigger = true;
 
         /* This is the case where they are equal, return BEFORE arbitrarily */
@@ -272,7 +337,39 @@ public class VectorClock implements IVersion, Serializable, Cloneable {
         return this.timestamp;
     }
 
+    /**
+     * Get the entries of this clock.  This allocates a new list; use
+     * {@link #size()}, {@link #getNodeId(int)} and {@link #getVersion(int)}
+     * to walk the entries without allocating.
+     * @return the entries, sorted by node ID
+     */
     public List<ClockEntry> getEntries() {
-        return Collections.unmodifiableList(this.versions);
+        List<ClockEntry> entries = new ArrayList<ClockEntry>(nodeIds.length);
+        for(int i = 0; i < nodeIds.length; i++)
+            entries.add(new ClockEntry(nodeIds[i], versions[i]));
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return the number of nodes with a version in this clock
+     */
+    public int size() {
+        return nodeIds.length;
+    }
+
+    /**
+     * @param index the index of the entry, between 0 and {@link #size()}
+     * @return the node ID of the entry
+     */
+    public short getNodeId(int index) {
+        return nodeIds[index];
+    }
+
+    /**
+     * @param index the index of the entry, between 0 and {@link #size()}
+     * @return the version of the entry
+     */
+    public long getVersion(int index) {
+        return versions[index];
     }
 }
@@ -93,6 +93,10 @@ enum MessageType {
   REGISTER_RESPONSE = 19,
   CLUSTER_JOIN_REQUEST = 20,
   CLUSTER_JOIN_RESPONSE = 21,
+  SYNC_DIGEST = 22,
+  SYNC_DIGEST_RESPONSE = 23,
+  SNAPSHOT_REQUEST = 24,
+  SNAPSHOT_CHUNK = 25,
 }
 
 enum AuthScheme {
@@ -109,7 +113,8 @@ struct HelloMessage {
   1: required AsyncMessageHeader header,
   2: optional i16 nodeId,
   3: optional AuthScheme authScheme,
-  4: optional AuthChallengeResponse authChallengeResponse
+  4: optional AuthChallengeResponse authChallengeResponse,
+  5: optional i32 features
 }
 
 struct ErrorMessage {
@@ -223,6 +228,32 @@ struct ClusterJoinResponseMessage {
   3: optional list<KeyedValues> nodeStore
 }
 
+struct SyncDigestMessage {
+  1: required AsyncMessageHeader header,
+  2: required Store store,
+  3: optional list<i32> nodes,
+  4: optional list<i64> digests
+}
+
+struct SyncDigestResponseMessage {
+  1: required AsyncMessageHeader header,
+  2: required Store store,
+  3: optional list<i32> nodes
+}
+
+struct SnapshotRequestMessage {
+  1: required AsyncMessageHeader header,
+}
+
+struct SnapshotChunkMessage {
+  1: required AsyncMessageHeader header,
+  2: optional Store store,
+  3: list<KeyedValues> values,
+  4: optional i32 sequence,
+  5: optional i64 checksum,
+  6: optional bool last
+}
+
 #
 # Message wrapper
 #
@@ -250,4 +281,8 @@ struct SyncMessage {
   20: optional RegisterResponseMessage registerResponse,
   21: optional ClusterJoinRequestMessage clusterJoinRequest,
   22: optional ClusterJoinResponseMessage clusterJoinResponse,
+  23: optional SyncDigestMessage syncDigest,
+  24: optional SyncDigestResponseMessage syncDigestResponse,
+  25: optional SnapshotRequestMessage snapshotRequest,
+  26: optional SnapshotChunkMessage snapshotChunk,
 }
\ No newline at end of file
@@ -29,14 +29,47 @@ import net.floodlightcontroller.accesscontrollist.ACLRule;
 import net.floodlightcontroller.accesscontrollist.IACLService;
 import net.floodlightcontroller.accesscontrollist.util.IPAddressUtil;
 import net.floodlightcontroller.accesscontrollist.web.ACLRuleResource;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+import net.floodlightcontroller.debugcounter.MockDebugCounterService;
+import net.floodlightcontroller.restserver.IRestApiService;
+import net.floodlightcontroller.restserver.RestApiServer;
+import net.floodlightcontroller.storage.IStorageSourceService;
+import net.floodlightcontroller.storage.memory.MemoryStorageSource;
 import net.floodlightcontroller.test.FloodlightTestCase;
 
 import org.junit.Test;
 import org.restlet.Context;
 
 public class ACLRuleResourceTest extends FloodlightTestCase {
+
+	/**
+	 * ACL module with the services it needs to store rules
+	 */
+	private ACL getACL() {
+		ACL s = new ACL();
+		MemoryStorageSource storageService = new MemoryStorageSource();
+		MockDebugCounterService debugCounterService = new MockDebugCounterService();
+		FloodlightModuleContext fmc = new FloodlightModuleContext();
+		fmc.addService(IStorageSourceService.class, storageService);
+		fmc.addService(IDebugCounterService.class, debugCounterService);
+		fmc.addService(IRestApiService.class, new RestApiServer());
+		fmc.addService(IOFSwitchService.class, getMockSwitchService());
+		try {
+			debugCounterService.init(fmc);
+			storageService.init(fmc);
+			s.init(fmc);
+			debugCounterService.startUp(fmc);
+			storageService.startUp(fmc);
+		} catch (FloodlightModuleException e) {
+			e.printStackTrace();
+		}
+		storageService.createTable(ACL.TABLE_NAME, null);
+		storageService.setTablePrimaryKeyName(ACL.TABLE_NAME, ACL.COLUMN_RULEID);
+		return s;
+	}
 	
 	@Test
 	public void testJsonToRule(){
@@ -82,13 +115,7 @@ public class ACLRuleResourceTest extends FloodlightTestCase {
 	@Test
 	public void testStore(){
 		
-		ACL s = new ACL();
-        FloodlightModuleContext fmc = new FloodlightModuleContext();
-		try {
-			s.init(fmc);
-		} catch (FloodlightModuleException e) {
-			e.printStackTrace();
-		}
+		ACL s = getACL();
 		
 		ACLRuleResource r = new ACLRuleResource();
 		Context ctx = new Context();
@@ -151,13 +178,7 @@ public class ACLRuleResourceTest extends FloodlightTestCase {
 	
 	@Test
 	public void testRemove(){
-		ACL s = new ACL();
-        FloodlightModuleContext fmc = new FloodlightModuleContext();
-		try {
-			s.init(fmc);
-		} catch (FloodlightModuleException e) {
-			e.printStackTrace();
-		}
+		ACL s = getACL();
 		
 		ACLRuleResource r = new ACLRuleResource();
 		Context ctx = new Context();
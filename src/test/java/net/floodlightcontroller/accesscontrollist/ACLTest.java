@@ -27,9 +27,11 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
 import net.floodlightcontroller.accesscontrollist.ACL;
@@ -43,6 +45,7 @@ import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.internal.IOFSwitchService;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.test.MockThreadPoolService;
+import net.floodlightcontroller.core.util.AppCookie;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.debugcounter.MockDebugCounterService;
 import net.floodlightcontroller.debugevent.IDebugEventService;
@@ -55,8 +58,6 @@ import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.restserver.RestApiServer;
-import net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher;
-import net.floodlightcontroller.storage.IResultSet;
 import net.floodlightcontroller.storage.IStorageSourceService;
 import net.floodlightcontroller.storage.memory.MemoryStorageSource;
 import net.floodlightcontroller.test.FloodlightTestCase;
@@ -67,9 +68,16 @@ import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
 import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4AddressWithMask;
+import org.projectfloodlight.openflow.types.IpProtocol;
 import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TransportPort;
 
 public class ACLTest extends FloodlightTestCase {
 
@@ -89,6 +97,7 @@ public class ACLTest extends FloodlightTestCase {
 	private ACL acl;
 
 	public static String TestSwitch1DPID = "00:00:00:00:00:00:00:01";
+	public static String TestSwitch2DPID = "00:00:00:00:00:00:00:02";
 
 	@Override
 	@Before
@@ -154,10 +163,61 @@ public class ACLTest extends FloodlightTestCase {
 		acl.startUp(fmc);
 		verify(topology);
 
-		storageService.createTable(StaticFlowEntryPusher.TABLE_NAME, null);
-		storageService.setTablePrimaryKeyName(StaticFlowEntryPusher.TABLE_NAME,
-				StaticFlowEntryPusher.COLUMN_NAME);
+	}
+
+	/**
+	 * Check that a flow is set up for a switch, and that the flow mod
+	 * written to the switch matches the rule if the switch is connected
+	 */
+	private void checkFlow(String dpid, String name, int priority,
+			String nwSrc, String nwDst, int nwProto, int tpDst, boolean allow) {
+		assertTrue(acl.getFlowNames(dpid).contains(name));
+		if (!dpid.equals(TestSwitch1DPID)) {
+			// not connected, nothing written yet
+			assertFalse(acl.getInstalledFlows(dpid).containsKey(name));
+			return;
+		}
+
+		OFFlowMod fm = acl.getInstalledFlows(dpid).get(name);
+		assertNotNull(fm);
+		assertEquals(priority, fm.getPriority());
+		assertEquals(ACL.ACL_APP_ID, AppCookie.extractApp(fm.getCookie()));
+		Match match = fm.getMatch();
+		assertEquals(EthType.IPv4, match.get(MatchField.ETH_TYPE));
+		if (nwSrc == null) {
+			assertFalse(match.isExact(MatchField.IPV4_SRC) ||
+					match.isPartiallyMasked(MatchField.IPV4_SRC));
+		} else {
+			assertEquals(IPv4AddressWithMask.of(nwSrc),
+					match.getMasked(MatchField.IPV4_SRC));
+		}
+		if (nwDst == null) {
+			assertFalse(match.isExact(MatchField.IPV4_DST) ||
+					match.isPartiallyMasked(MatchField.IPV4_DST));
+		} else {
+			assertEquals(IPv4AddressWithMask.of(nwDst),
+					match.getMasked(MatchField.IPV4_DST));
+		}
+		if (nwProto == 0) {
+			assertFalse(match.isExact(MatchField.IP_PROTO));
+		} else {
+			assertEquals(IpProtocol.of((short) nwProto),
+					match.get(MatchField.IP_PROTO));
+		}
+		if (tpDst == 0) {
+			assertFalse(match.isExact(MatchField.TCP_DST));
+		} else {
+			assertEquals(TransportPort.of(tpDst), match.get(MatchField.TCP_DST));
+		}
+		assertEquals(allow ? 1 : 0, fm.getActions().size());
+	}
 
+	/**
+	 * Check that a flow is neither set up for nor written to a switch
+	 */
+	private void checkNoFlow(String dpid, String name) {
+		assertFalse(acl.getFlowNames(dpid).contains(name));
+		assertFalse(acl.getInstalledFlows(dpid).containsKey(name));
 	}
 
 	@Test
@@ -172,9 +232,6 @@ public class ACLTest extends FloodlightTestCase {
 
 		int[] cidr = new int[2];
 		ACLRule rule1, rule2, rule3, rule4;
-		IResultSet resultSet;
-		Iterator<IResultSet> it;
-		Map<String, Object> row;
 
 		// a new AP[dpid:00:00:00:00:00:00:00:01 port:1 ip:10.0.0.1] appears
 		deviceManager.learnEntity(
@@ -203,35 +260,11 @@ public class ACLTest extends FloodlightTestCase {
 		assertEquals(acl.addRule(rule1), true);
 		assertEquals(acl.getRules().size(), 1);
 
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:01");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:01");
-			assertEquals(row.get("priority").toString(),"30000");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src").toString(),"10.0.0.0/28");
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.254/32");
-			assertEquals(row.get("ip_proto").toString(),"6");
-			assertEquals(row.get("tp_dst").toString(),"80");
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch1DPID, "ACLRule_1_00:00:00:00:00:00:00:01", 30000,
+				"10.0.0.0/28", "10.0.0.254/32", 6, 80, false);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:02");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:02");
-			assertEquals(row.get("priority").toString(),"30000");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src").toString(),"10.0.0.0/28");
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.254/32");
-			assertEquals(row.get("ip_proto").toString(),"6");
-			assertEquals(row.get("tp_dst").toString(),"80");
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch2DPID, "ACLRule_1_00:00:00:00:00:00:00:02", 30000,
+				"10.0.0.0/28", "10.0.0.254/32", 6, 80, false);
 		
 		// rule2 matches rule1
 		rule2 = new ACLRule();
@@ -263,20 +296,8 @@ public class ACLTest extends FloodlightTestCase {
 		assertEquals(acl.addRule(rule3), true);
 		assertEquals(acl.getRules().size(), 2);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_2_00:00:00:00:00:00:00:02");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:02");
-			assertEquals(row.get("priority").toString(),"29999");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src"), null);
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.3/32");
-			assertEquals(row.get("ip_proto").toString(),"1");
-			assertEquals(row.get("tp_dst"), null);
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch2DPID, "ACLRule_2_00:00:00:00:00:00:00:02", 29999,
+				null, "10.0.0.3/32", 1, 0, false);
 		
 		// rule4 indicates that host(10.0.0.1/32) can access host(10.0.0.3/32)
 		rule4 = new ACLRule();
@@ -293,20 +314,8 @@ public class ACLTest extends FloodlightTestCase {
 		assertEquals(acl.addRule(rule4), true);
 		assertEquals(acl.getRules().size(), 3);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_3_00:00:00:00:00:00:00:01");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:01");
-			assertEquals(row.get("priority").toString(),"29999");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src").toString(), "10.0.0.1/32");
-			assertEquals(row.get("ipv4_dst").toString(), "10.0.0.3/32");
-			assertEquals(row.get("ip_proto"), null);
-			assertEquals(row.get("tp_dst"), null);
-			assertEquals(row.get("actions"), "output=controller");
-		}
+		checkFlow(TestSwitch1DPID, "ACLRule_3_00:00:00:00:00:00:00:01", 29999,
+				"10.0.0.1/32", "10.0.0.3/32", 0, 0, true);
 		
 	}
 	
@@ -322,9 +331,6 @@ public class ACLTest extends FloodlightTestCase {
 		
 		int[] cidr = new int[2];
 		ACLRule rule1, rule2;
-		IResultSet resultSet;
-		Iterator<IResultSet> it;
-		Map<String, Object> row;
 
 		// rule1 indicates host(10.0.0.0/28) can not access TCP port 80 in host(10.0.0.254/32)
 		rule1 = new ACLRule();
@@ -348,36 +354,17 @@ public class ACLTest extends FloodlightTestCase {
 				Ethernet.toLong(Ethernet.toMACAddress("00:00:00:00:00:01")),
 				null, IPv4.toIPv4Address("10.0.0.1"), 1L, 1);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:01");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:01");
-			assertEquals(row.get("priority").toString(),"30000");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src").toString(),"10.0.0.0/28");
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.254/32");
-			assertEquals(row.get("ip_proto").toString(),"6");
-			assertEquals(row.get("tp_dst").toString(),"80");
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch1DPID, "ACLRule_1_00:00:00:00:00:00:00:01", 30000,
+				"10.0.0.0/28", "10.0.0.254/32", 6, 80, false);
 		
 		// a new AP[dpid:00:00:00:00:00:00:00:01 port:2 ip:10.0.0.2] appears
 		deviceManager.learnEntity(
 				Ethernet.toLong(Ethernet.toMACAddress("00:00:00:00:00:02")),
 				null, IPv4.toIPv4Address("10.0.0.2"), 1L, 2);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:01");
-		it = resultSet.iterator();
-		int count = 0;
-		while(it.hasNext()){
-			row = it.next().getRow();
-			count++;
-		}
 		// there is no extra flow entry added
-		assertEquals(count, 1);
+		assertEquals(acl.getFlowNames(TestSwitch1DPID).size(), 1);
+		assertEquals(acl.getInstalledFlows(TestSwitch1DPID).size(), 1);
 		
 		// rule2 indicates that no ICMP packets can reach host[10.0.0.3/32]
 		rule2 = new ACLRule();
@@ -396,20 +383,8 @@ public class ACLTest extends FloodlightTestCase {
 				Ethernet.toLong(Ethernet.toMACAddress("00:00:00:00:00:03")),
 				null, IPv4.toIPv4Address("10.0.0.3"), 2L, 1);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_2_00:00:00:00:00:00:00:02");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:02");
-			assertEquals(row.get("priority").toString(),"29999");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src"), null);
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.3/32");
-			assertEquals(row.get("ip_proto").toString(),"1");
-			assertEquals(row.get("tp_dst"), null);
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch2DPID, "ACLRule_2_00:00:00:00:00:00:00:02", 29999,
+				null, "10.0.0.3/32", 1, 0, false);
 	}
 	
 	@Test
@@ -423,9 +398,6 @@ public class ACLTest extends FloodlightTestCase {
 
 		int[] cidr = new int[2];
 		ACLRule rule1;
-		IResultSet resultSet;
-		Iterator<IResultSet> it;
-		Map<String, Object> row;
 	
 		// a new AP[dpid:00:00:00:00:00:00:00:01 port:1] appears
 		deviceManager.learnEntity(
@@ -449,30 +421,15 @@ public class ACLTest extends FloodlightTestCase {
 		assertEquals(acl.addRule(rule1), true);
 		assertEquals(acl.getRules().size(), 1);
 
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:01");
-		it = resultSet.iterator();
-		assertEquals(it.hasNext(), false);
+		checkNoFlow(TestSwitch1DPID, "ACLRule_1_00:00:00:00:00:00:00:01");
 		
 		// a new AP[dpid:00:00:00:00:00:00:00:01 port:1 ip:10.0.0.1] appears
 		deviceManager.learnEntity(
 				Ethernet.toLong(Ethernet.toMACAddress("00:00:00:00:00:01")),
 				null, IPv4.toIPv4Address("10.0.0.1"), 1L, 1);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:01");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:01");
-			assertEquals(row.get("priority").toString(),"30000");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src").toString(),"10.0.0.0/28");
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.254/32");
-			assertEquals(row.get("ip_proto").toString(),"6");
-			assertEquals(row.get("tp_dst").toString(),"80");
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch1DPID, "ACLRule_1_00:00:00:00:00:00:00:01", 30000,
+				"10.0.0.0/28", "10.0.0.254/32", 6, 80, false);
 	}
 	
 	@Test
@@ -486,9 +443,6 @@ public class ACLTest extends FloodlightTestCase {
 
 		int[] cidr = new int[2];
 		ACLRule rule1;
-		IResultSet resultSet;
-		Iterator<IResultSet> it;
-		Map<String, Object> row;
 
 		// a new AP[dpid:00:00:00:00:00:00:00:01 port:1 ip:10.0.0.1] appears
 		deviceManager.learnEntity(
@@ -517,49 +471,19 @@ public class ACLTest extends FloodlightTestCase {
 		assertEquals(acl.addRule(rule1), true);
 		assertEquals(acl.getRules().size(), 1);
 
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:01");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:01");
-			assertEquals(row.get("priority").toString(),"30000");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src").toString(),"10.0.0.0/28");
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.254/32");
-			assertEquals(row.get("ip_proto").toString(),"6");
-			assertEquals(row.get("tp_dst").toString(),"80");
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch1DPID, "ACLRule_1_00:00:00:00:00:00:00:01", 30000,
+				"10.0.0.0/28", "10.0.0.254/32", 6, 80, false);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:02");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:02");
-			assertEquals(row.get("priority").toString(),"30000");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src").toString(),"10.0.0.0/28");
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.254/32");
-			assertEquals(row.get("ip_proto").toString(),"6");
-			assertEquals(row.get("tp_dst").toString(),"80");
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch2DPID, "ACLRule_1_00:00:00:00:00:00:00:02", 30000,
+				"10.0.0.0/28", "10.0.0.254/32", 6, 80, false);
 		
 		// remove rule1 and all relevant flow entries will be removed
 		acl.removeRule(1);
 		assertEquals(acl.getRules().size(),0);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:01");
-		it = resultSet.iterator();
-		assertEquals(it.hasNext(), false);
+		checkNoFlow(TestSwitch1DPID, "ACLRule_1_00:00:00:00:00:00:00:01");
 
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:02");
-		it = resultSet.iterator();
-		assertEquals(it.hasNext(), false);
+		checkNoFlow(TestSwitch2DPID, "ACLRule_1_00:00:00:00:00:00:00:02");
 		
 	}
 	
@@ -574,9 +498,6 @@ public class ACLTest extends FloodlightTestCase {
 
 		int[] cidr = new int[2];
 		ACLRule rule1, rule2;
-		IResultSet resultSet;
-		Iterator<IResultSet> it;
-		Map<String, Object> row;
 
 		// a new AP[dpid:00:00:00:00:00:00:00:01 port:1 ip:10.0.0.1] appears
 		deviceManager.learnEntity(
@@ -605,35 +526,11 @@ public class ACLTest extends FloodlightTestCase {
 		assertEquals(acl.addRule(rule1), true);
 		assertEquals(acl.getRules().size(), 1);
 
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:01");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:01");
-			assertEquals(row.get("priority").toString(),"30000");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src").toString(),"10.0.0.0/28");
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.254/32");
-			assertEquals(row.get("ip_proto").toString(),"6");
-			assertEquals(row.get("tp_dst").toString(),"80");
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch1DPID, "ACLRule_1_00:00:00:00:00:00:00:01", 30000,
+				"10.0.0.0/28", "10.0.0.254/32", 6, 80, false);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:02");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:02");
-			assertEquals(row.get("priority").toString(),"30000");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src").toString(),"10.0.0.0/28");
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.254/32");
-			assertEquals(row.get("ip_proto").toString(),"6");
-			assertEquals(row.get("tp_dst").toString(),"80");
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch2DPID, "ACLRule_1_00:00:00:00:00:00:00:02", 30000,
+				"10.0.0.0/28", "10.0.0.254/32", 6, 80, false);
 		
 		// rule3 indicates that no ICMP packets can reach host[10.0.0.3/32]
 		rule2 = new ACLRule();
@@ -647,39 +544,109 @@ public class ACLTest extends FloodlightTestCase {
 		assertEquals(acl.addRule(rule2), true);
 		assertEquals(acl.getRules().size(), 2);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_2_00:00:00:00:00:00:00:02");
-		it = resultSet.iterator();
-		while(it.hasNext()){
-			row = it.next().getRow();
-			assertEquals(row.get("switch").toString(),"00:00:00:00:00:00:00:02");
-			assertEquals(row.get("priority").toString(),"29999");
-			assertEquals(row.get("eth_type").toString(),"2048");
-			assertEquals(row.get("ipv4_src"), null);
-			assertEquals(row.get("ipv4_dst").toString(),"10.0.0.3/32");
-			assertEquals(row.get("ip_proto").toString(),"1");
-			assertEquals(row.get("tp_dst"), null);
-			assertEquals(row.get("actions"), null);
-		}
+		checkFlow(TestSwitch2DPID, "ACLRule_2_00:00:00:00:00:00:00:02", 29999,
+				null, "10.0.0.3/32", 1, 0, false);
 		
 		// remove all rules and all relevant flow entries will be removed
 		acl.removeAllRules();
 		assertEquals(acl.getRules().size(),0);
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:01");
-		it = resultSet.iterator();
-		assertEquals(it.hasNext(), false);
+		checkNoFlow(TestSwitch1DPID, "ACLRule_1_00:00:00:00:00:00:00:01");
 
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_1_00:00:00:00:00:00:00:02");
-		it = resultSet.iterator();
-		assertEquals(it.hasNext(), false);
+		checkNoFlow(TestSwitch2DPID, "ACLRule_1_00:00:00:00:00:00:00:02");
 		
-		resultSet = storageService.getRow(
-				StaticFlowEntryPusher.TABLE_NAME, "ACLRule_2_00:00:00:00:00:00:00:02");
-		it = resultSet.iterator();
-		assertEquals(it.hasNext(), false);
+		checkNoFlow(TestSwitch2DPID, "ACLRule_2_00:00:00:00:00:00:00:02");
 		
 	}
+
+	@Test
+	public void testSwitchAdded() {
+		reset(topology);
+		expect(topology.isAttachmentPointPort(DatapathId.of(2L), OFPort.of(1))).andReturn(true).anyTimes();
+		replay(topology);
+
+		// a new AP[dpid:00:00:00:00:00:00:00:02 port:1 ip:10.0.0.3] appears
+		deviceManager.learnEntity(
+				Ethernet.toLong(Ethernet.toMACAddress("00:00:00:00:00:03")),
+				null, IPv4.toIPv4Address("10.0.0.3"), 2L, 1);
+
+		ACLRule rule1 = new ACLRule();
+		rule1.setNw_dst("10.0.0.3/32");
+		int[] cidr = IPAddressUtil.parseCIDR("10.0.0.3/32");
+		rule1.setNw_dst_prefix(cidr[0]);
+		rule1.setNw_dst_maskbits(cidr[1]);
+		rule1.setNw_proto(1);
+		rule1.setAction(Action.DENY);
+		assertEquals(acl.addRule(rule1), true);
+
+		// switch 2 is not connected, so the flow waits for it
+		assertTrue(acl.getFlowNames(TestSwitch2DPID).contains("ACLRule_1_00:00:00:00:00:00:00:02"));
+		assertTrue(acl.getInstalledFlows(TestSwitch2DPID).isEmpty());
+
+		DatapathId dpid = DatapathId.of(TestSwitch2DPID);
+		IOFSwitch sw2 = EasyMock.createNiceMock(IOFSwitch.class);
+		expect(sw2.getId()).andReturn(dpid).anyTimes();
+		expect(sw2.getOFFactory()).andReturn(
+				OFFactories.getFactory(OFVersion.OF_13)).anyTimes();
+		replay(sw2);
+		Map<DatapathId, IOFSwitch> switches = new HashMap<DatapathId, IOFSwitch>();
+		switches.put(DatapathId.of(TestSwitch1DPID), sw);
+		switches.put(dpid, sw2);
+		mockSwitchManager.setSwitches(switches);
+
+		acl.switchAdded(dpid);
+		checkFlow(TestSwitch2DPID, "ACLRule_1_00:00:00:00:00:00:00:02", 30000,
+				null, "10.0.0.3/32", 1, 0, false);
+
+		// the flows are written again when the switch reconnects
+		acl.switchRemoved(dpid);
+		assertTrue(acl.getInstalledFlows(TestSwitch2DPID).isEmpty());
+		acl.switchAdded(dpid);
+		assertEquals(acl.getInstalledFlows(TestSwitch2DPID).size(), 1);
+	}
+
+	@Test
+	public void testReadRulesFromStorage() throws Exception {
+		ACLRule rule1 = new ACLRule();
+		rule1.setNw_src("10.0.0.0/28");
+		int[] cidr = IPAddressUtil.parseCIDR("10.0.0.0/28");
+		rule1.setNw_src_prefix(cidr[0]);
+		rule1.setNw_src_maskbits(cidr[1]);
+		rule1.setNw_proto(6);
+		rule1.setTp_dst(80);
+		rule1.setAction(Action.DENY);
+		assertEquals(acl.addRule(rule1), true);
+
+		ACLRule rule2 = new ACLRule();
+		rule2.setNw_dst("10.0.0.3/32");
+		cidr = IPAddressUtil.parseCIDR("10.0.0.3/32");
+		rule2.setNw_dst_prefix(cidr[0]);
+		rule2.setNw_dst_maskbits(cidr[1]);
+		rule2.setAction(Action.ALLOW);
+		assertEquals(acl.addRule(rule2), true);
+		acl.removeRule(1);
+
+		// a restarted ACL module finds the remaining rule in storage
+		FloodlightModuleContext fmc = new FloodlightModuleContext();
+		fmc.addService(IOFSwitchService.class, mockSwitchManager);
+		fmc.addService(IStorageSourceService.class, storageService);
+		fmc.addService(IDeviceService.class, deviceManager);
+		fmc.addService(IRestApiService.class, restApi);
+		ACL acl2 = new ACL();
+		acl2.init(fmc);
+		acl2.startUp(fmc);
+
+		assertEquals(acl2.getRules().size(), 1);
+		assertEquals(acl2.getRules().get(0), rule2);
+
+		// new rules do not reuse the ids of the stored ones
+		ACLRule rule3 = new ACLRule();
+		rule3.setNw_dst("10.0.0.4/32");
+		cidr = IPAddressUtil.parseCIDR("10.0.0.4/32");
+		rule3.setNw_dst_prefix(cidr[0]);
+		rule3.setNw_dst_maskbits(cidr[1]);
+		rule3.setAction(Action.DENY);
+		assertEquals(acl2.addRule(rule3), true);
+		assertEquals(rule3.getId(), 3);
+	}
 }
@@ -57,4 +57,21 @@ public class IPAddressUtilTest extends FloodlightTestCase {
 		assertFalse(IPAddressUtil.isSubnet(null, "10.0.0.2/32"));
 	}
 
+	@Test
+	public void testIsSubnetInt(){
+		
+		int a = IPv4.toIPv4Address("10.0.0.1");
+		int b = IPv4.toIPv4Address("10.0.0.2");
+		int c = IPv4.toIPv4Address("192.168.0.1");
+		assertFalse(IPAddressUtil.isSubnet(a, 32, b, 32));
+		assertTrue(IPAddressUtil.isSubnet(a, 8, b, 8));
+		assertTrue(IPAddressUtil.isSubnet(a, 32, b, 8));
+		assertFalse(IPAddressUtil.isSubnet(a, 8, b, 32));
+		assertFalse(IPAddressUtil.isSubnet(c, 32, b, 8));
+		// no mask bits covers any address
+		assertTrue(IPAddressUtil.isSubnet(c, 32, 0, 0));
+		assertTrue(IPAddressUtil.isSubnet(0, 0, 0, 0));
+		assertFalse(IPAddressUtil.isSubnet(0, 0, b, 32));
+	}
+
 }
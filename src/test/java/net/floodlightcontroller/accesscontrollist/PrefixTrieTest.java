@@ -0,0 +1,139 @@
+/**
+ *    Copyright 2015, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.accesscontrollist;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.floodlightcontroller.accesscontrollist.util.IPAddressUtil;
+import net.floodlightcontroller.accesscontrollist.util.PrefixTrie;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.junit.Test;
+
+public class PrefixTrieTest extends FloodlightTestCase {
+
+	private static int[] cidr(String s) {
+		return IPAddressUtil.parseCIDR(s);
+	}
+
+	private static PrefixTrie<String> getTrie(String... prefixes) {
+		PrefixTrie<String> trie = new PrefixTrie<String>();
+		for (String p : prefixes) {
+			int[] c = cidr(p);
+			trie.put(c[0], c[1], p);
+		}
+		return trie;
+	}
+
+	private static Set<String> set(List<String> l) {
+		return new HashSet<String>(l);
+	}
+
+	private static Set<String> set(String... s) {
+		return new HashSet<String>(Arrays.asList(s));
+	}
+
+	@Test
+	public void testCovering(){
+		
+		PrefixTrie<String> trie = getTrie("0.0.0.0/0", "10.0.0.0/8",
+				"10.0.0.0/24", "10.0.0.1/32", "10.0.1.0/24", "192.168.0.0/16");
+		assertEquals(6, trie.size());
+
+		int[] c = cidr("10.0.0.1/32");
+		assertEquals(Arrays.asList("0.0.0.0/0", "10.0.0.0/8", "10.0.0.0/24", "10.0.0.1/32"),
+				trie.getCovering(c[0], c[1]));
+		c = cidr("10.0.1.7/32");
+		assertEquals(set("0.0.0.0/0", "10.0.0.0/8", "10.0.1.0/24"),
+				set(trie.getCovering(c[0], c[1])));
+		c = cidr("10.0.0.0/16");
+		assertEquals(set("0.0.0.0/0", "10.0.0.0/8"),
+				set(trie.getCovering(c[0], c[1])));
+		c = cidr("172.16.0.1/32");
+		assertEquals(set("0.0.0.0/0"), set(trie.getCovering(c[0], c[1])));
+	}
+
+	@Test
+	public void testCovered(){
+		
+		PrefixTrie<String> trie = getTrie("0.0.0.0/0", "10.0.0.0/8",
+				"10.0.0.0/24", "10.0.0.1/32", "10.0.1.0/24", "192.168.0.0/16");
+
+		int[] c = cidr("10.0.0.0/8");
+		assertEquals(set("10.0.0.0/8", "10.0.0.0/24", "10.0.0.1/32", "10.0.1.0/24"),
+				set(trie.getCovered(c[0], c[1])));
+		c = cidr("10.0.0.0/24");
+		assertEquals(set("10.0.0.0/24", "10.0.0.1/32"),
+				set(trie.getCovered(c[0], c[1])));
+		c = cidr("10.0.0.2/32");
+		assertTrue(trie.getCovered(c[0], c[1]).isEmpty());
+		assertEquals(6, trie.getCovered(0, 0).size());
+	}
+
+	@Test
+	public void testRemove(){
+		
+		PrefixTrie<String> trie = getTrie("10.0.0.0/8", "10.0.0.1/32");
+		int[] c = cidr("10.0.0.1/32");
+		trie.put(c[0], c[1], "other");
+		assertEquals(set("10.0.0.1/32", "other"), set(trie.get(c[0], c[1])));
+
+		assertFalse(trie.remove(c[0], c[1], "missing"));
+		assertTrue(trie.remove(c[0], c[1], "10.0.0.1/32"));
+		assertTrue(trie.remove(c[0], c[1], "other"));
+		assertFalse(trie.remove(c[0], c[1], "other"));
+		assertTrue(trie.get(c[0], c[1]).isEmpty());
+		assertEquals(1, trie.size());
+		assertEquals(Arrays.asList("10.0.0.0/8"), trie.getCovering(c[0], c[1]));
+
+		c = cidr("10.0.0.0/8");
+		assertTrue(trie.remove(c[0], c[1], "10.0.0.0/8"));
+		assertEquals(0, trie.size());
+		assertTrue(trie.getCovered(0, 0).isEmpty());
+	}
+
+	@Test
+	public void testRandom(){
+		
+		// compare the trie with a scan of all the prefixes
+		Random r = new Random(7);
+		PrefixTrie<int[]> trie = new PrefixTrie<int[]>();
+		int[][] prefixes = new int[500][];
+		for (int i = 0; i < prefixes.length; i++) {
+			int bits = r.nextInt(33);
+			int prefix = bits == 0 ? 0 : (0x0a000000 | r.nextInt(1 << 12)) & (-1 << (32 - bits));
+			prefixes[i] = new int[] { prefix, bits };
+			trie.put(prefix, bits, prefixes[i]);
+		}
+		for (int i = 0; i < 200; i++) {
+			int ip = 0x0a000000 | r.nextInt(1 << 12);
+			int count = 0;
+			for (int[] p : prefixes) {
+				if (IPAddressUtil.isSubnet(ip, 32, p[0], p[1])) {
+					count++;
+				}
+			}
+			assertEquals(count, trie.getCovering(ip, 32).size());
+		}
+	}
+}
@@ -75,6 +75,21 @@ public class OFConnectionTest {
                                 debugCounterService, timer);
     }
 
+    @Test
+    public void testLatency() {
+        assertThat(conn.getLatency(), equalTo(0L));
+
+        // The first sample is taken as is, one-way latency is half the RTT.
+        conn.updateLatency(2000000L);
+        assertThat(conn.getLatency(), equalTo(1000L));
+
+        // Later samples are smoothed, negative ones are ignored.
+        conn.updateLatency(10000000L);
+        assertThat(conn.getLatency(), equalTo(1500L));
+        conn.updateLatency(-1L);
+        assertThat(conn.getLatency(), equalTo(1500L));
+    }
+
     @Test(timeout = 5000)
     public void testWriteRequestSuccess() throws InterruptedException, ExecutionException {
         Capture<List<OFMessage>> cMsgList = prepareChannelForWriteList();
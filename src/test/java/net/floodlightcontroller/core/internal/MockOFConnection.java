@@ -27,6 +27,7 @@ public class MockOFConnection implements IOFConnectionBackend {
     private final DatapathId id;
     private final OFAuxId auxId;
     private Date connectedSince;
+    private long latency;
     private boolean connected;
     private SocketAddress localInetAddress, remoteInetAddress;
     private OFFactory factory;
@@ -122,6 +123,20 @@ public class MockOFConnection implements IOFConnectionBackend {
         return this.connectedSince;
     }
 
+    @Override
+    public long getLatency() {
+        return this.latency;
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public void updateLatency(long rttNanos) {
+        this.latency = rttNanos / 2000;
+    }
+
     @Override
     public void flush() {
         // no op
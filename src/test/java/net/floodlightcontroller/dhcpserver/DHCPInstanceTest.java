@@ -0,0 +1,161 @@
+package net.floodlightcontroller.dhcpserver;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.VlanVid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+public class DHCPInstanceTest {
+	protected static Logger log = LoggerFactory.getLogger(DHCPInstanceTest.class);
+
+	private static Map<String, String> getConfig() {
+		Map<String, String> config = new HashMap<String, String>();
+		config.put("subnet-mask", "255.255.255.0");
+		config.put("lower-ip-range", "10.0.0.10");
+		config.put("upper-ip-range", "10.0.0.20");
+		config.put("broadcast-address", "10.0.0.255");
+		config.put("router", "10.0.0.1");
+		config.put("domain-name", "floodlight.example");
+		config.put("default-lease-time", "3600");
+		config.put("hold-lease-time", "60");
+		config.put("ip-forwarding", "0");
+		config.put("domain-name-servers", "10.0.0.2, 10.0.0.3");
+		config.put("reserved-static-addresses", "00:00:00:00:00:01, 10.0.0.12; 10.0.0.13, 00:00:00:00:00:02");
+
+		config.put("lab.subnet-mask", "255.255.255.0");
+		config.put("lab.lower-ip-range", "10.1.0.10");
+		config.put("lab.upper-ip-range", "10.1.0.19");
+		config.put("lab.broadcast-address", "10.1.0.255");
+		config.put("lab.router", "10.1.0.1");
+		config.put("lab.default-lease-time", "600");
+		config.put("lab.switch-ports", "00:00:00:00:00:00:00:01/3, 00:00:00:00:00:00:00:02/1");
+		config.put("lab.vlans", "10, 11");
+		config.put("lab.switches", "00:00:00:00:00:00:00:03");
+
+		config.put("ops.subnet-mask", "255.255.255.0");
+		config.put("ops.lower-ip-range", "10.2.0.10");
+		config.put("ops.upper-ip-range", "10.2.0.19");
+		config.put("ops.broadcast-address", "10.2.0.255");
+		config.put("ops.router", "10.2.0.1");
+		config.put("ops.vlans", "20");
+		config.put("ops.switches", "00:00:00:00:00:00:00:01");
+		return config;
+	}
+
+	@After
+	public void tearDown() {
+		DHCPServer.setInstances(new ArrayList<DHCPInstance>(), null);
+	}
+
+	@Test
+	public void testCreateFromConfig() {
+		Map<String, String> config = getConfig();
+		DHCPInstance def = DHCPInstance.createFromConfig(null, config, null, log);
+		assertNull(def.getName());
+		assertTrue(def.getPool().containsIPv4(IPv4Address.of("10.0.0.20")));
+		assertFalse(def.getPool().containsIPv4(IPv4Address.of("10.0.0.21")));
+		assertEquals(1800, def.renewalTimeSeconds);
+		assertEquals(3150, def.rebindTimeSeconds);
+		// only the first DNS server is handed out
+		assertArrayEquals(IPv4.toIPv4AddressBytes("10.0.0.2"), def.dnsIpList);
+		assertNull(def.ntpIpList);
+		// static addresses in either order
+		assertEquals(IPv4Address.of("10.0.0.12"),
+				def.getPool().getDHCPbindingFromMAC(MacAddress.of("00:00:00:00:00:01")).getIPv4Address());
+		assertEquals(IPv4Address.of("10.0.0.13"),
+				def.getPool().getDHCPbindingFromMAC(MacAddress.of("00:00:00:00:00:02")).getIPv4Address());
+		assertTrue(def.switches.isEmpty());
+		assertTrue(def.switchPorts.isEmpty());
+		assertTrue(def.vlans.isEmpty());
+
+		DHCPInstance lab = DHCPInstance.createFromConfig("lab", config, def, log);
+		assertEquals("lab", lab.getName());
+		assertTrue(lab.getPool().containsIPv4(IPv4Address.of("10.1.0.19")));
+		assertFalse(lab.getPool().containsIPv4(IPv4Address.of("10.0.0.12")));
+		assertEquals(600, lab.defaultLeaseTimeSeconds);
+		assertEquals(300, lab.renewalTimeSeconds);
+		// the options not set for the instance are those of the default instance
+		assertEquals(60, lab.holdLeaseTimeSeconds);
+		assertSame(def.domainName, lab.domainName);
+		assertSame(def.dnsIpList, lab.dnsIpList);
+		assertSame(def.ipForwarding, lab.ipForwarding);
+		assertNull(lab.getPool().getDHCPbindingFromMAC(MacAddress.of("00:00:00:00:00:01")));
+
+		assertEquals(2, lab.switchPorts.size());
+		assertTrue(lab.switchPorts.contains(new NodePortTuple(DatapathId.of(1L), OFPort.of(3))));
+		assertTrue(lab.switchPorts.contains(new NodePortTuple(DatapathId.of(2L), OFPort.of(1))));
+		assertEquals(2, lab.vlans.size());
+		assertTrue(lab.vlans.contains(VlanVid.ofVlan(10)));
+		assertTrue(lab.vlans.contains(VlanVid.ofVlan(11)));
+		assertEquals(1, lab.switches.size());
+		assertTrue(lab.switches.contains(DatapathId.of(3L)));
+	}
+
+	@Test
+	public void testMalformedConfig() {
+		Map<String, String> config = getConfig();
+		DHCPInstance def = DHCPInstance.createFromConfig(null, config, null, log);
+
+		config.put("lab.switch-ports", "00:00:00:00:00:00:00:01");
+		try {
+			DHCPInstance.createFromConfig("lab", config, def, log);
+			fail("Expected IllegalArgumentException for a switch port without a port");
+		} catch (IllegalArgumentException e) {
+		}
+
+		config = getConfig();
+		config.put("lab.upper-ip-range", "10.1.0.9");
+		try {
+			DHCPInstance.createFromConfig("lab", config, def, log);
+			fail("Expected IllegalArgumentException for an empty range");
+		} catch (IllegalArgumentException e) {
+		}
+
+		// the subnet options have no default
+		config = getConfig();
+		config.remove("lab.router");
+		try {
+			DHCPInstance.createFromConfig("lab", config, def, log);
+			fail("Expected an exception for a missing router");
+		} catch (RuntimeException e) {
+		}
+	}
+
+	@Test
+	public void testGetInstance() {
+		Map<String, String> config = getConfig();
+		DHCPInstance def = DHCPInstance.createFromConfig(null, config, null, log);
+		DHCPInstance lab = DHCPInstance.createFromConfig("lab", config, def, log);
+		DHCPInstance ops = DHCPInstance.createFromConfig("ops", config, def, log);
+		DHCPServer.setInstances(new ArrayList<DHCPInstance>(Arrays.asList(def, lab, ops)), def);
+		DHCPServer server = new DHCPServer();
+
+		// the switch port first, then the VLAN, then the switch
+		assertSame(lab, server.getInstance(DatapathId.of(1L), OFPort.of(3), VlanVid.ofVlan(20)));
+		assertSame(ops, server.getInstance(DatapathId.of(1L), OFPort.of(4), VlanVid.ofVlan(20)));
+		assertSame(lab, server.getInstance(DatapathId.of(1L), OFPort.of(4), VlanVid.ofVlan(10)));
+		assertSame(ops, server.getInstance(DatapathId.of(1L), OFPort.of(4), VlanVid.ZERO));
+		assertSame(lab, server.getInstance(DatapathId.of(3L), OFPort.of(4), VlanVid.ZERO));
+		// and the default instance for everything else
+		assertSame(def, server.getInstance(DatapathId.of(5L), OFPort.of(3), VlanVid.ZERO));
+
+		DHCPServer.setInstances(new ArrayList<DHCPInstance>(Arrays.asList(lab, ops)), null);
+		assertNull(server.getInstance(DatapathId.of(5L), OFPort.of(3), VlanVid.ZERO));
+		assertSame(lab, server.getInstance(DatapathId.of(2L), OFPort.of(1), VlanVid.ZERO));
+	}
+}
@@ -0,0 +1,189 @@
+package net.floodlightcontroller.dhcpserver;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DHCPPoolTest {
+	protected static Logger log = LoggerFactory.getLogger(DHCPPoolTest.class);
+
+	private static final IPv4Address START = IPv4Address.of("10.0.0.10");
+	private DHCPPool pool;
+
+	private static MacAddress mac(int i) {
+		return MacAddress.of(0x000000000100L + i);
+	}
+
+	private static IPv4Address ip(int offset) {
+		return IPv4Address.of(START.getInt() + offset);
+	}
+
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	@Before
+	public void setUp() {
+		pool = new DHCPPool(START, 4, log);
+	}
+
+	@Test
+	public void testAllocation() {
+		// never used addresses go first, lowest first
+		DHCPBinding b0 = pool.getAnyAvailableLease(mac(0));
+		assertEquals(ip(0), b0.getIPv4Address());
+		pool.setDHCPbinding(b0, mac(0), 100);
+		DHCPBinding b1 = pool.getAnyAvailableLease(mac(1));
+		assertEquals(ip(1), b1.getIPv4Address());
+		pool.setDHCPbinding(b1, mac(1), 100);
+
+		assertTrue(pool.isIPv4Leased(ip(0)));
+		assertSame(b0, pool.getDHCPbindingFromMAC(mac(0)));
+		assertSame(b1, pool.getDHCPbindingFromIPv4(ip(1)));
+		assertNull(pool.getDHCPbindingFromIPv4(ip(4)));
+
+		// a MAC gets its own binding back
+		assertSame(b0, pool.getAnyAvailableLease(mac(0)));
+
+		// a released address is only reused once the unused ones are gone
+		assertTrue(pool.cancelLeaseOfMAC(mac(0)));
+		assertFalse(pool.isIPv4Leased(ip(0)));
+		assertEquals(ip(2), pool.getAnyAvailableLease(mac(2)).getIPv4Address());
+		pool.setDHCPbinding(pool.getAnyAvailableLease(mac(2)), mac(2), 100);
+		pool.setDHCPbinding(pool.getAnyAvailableLease(mac(3)), mac(3), 100);
+		DHCPBinding reused = pool.getAnyAvailableLease(mac(4));
+		assertSame(b0, reused);
+		pool.setDHCPbinding(reused, mac(4), 100);
+		assertSame(reused, pool.getDHCPbindingFromMAC(mac(4)));
+		assertNull(pool.getDHCPbindingFromMAC(mac(0)));
+
+		// full
+		assertFalse(pool.hasAvailableAddresses());
+		assertNull(pool.getAnyAvailableLease(mac(5)));
+		assertNull(pool.getSpecificAvailableLease(ip(1), mac(5)));
+		pool.cancelLeaseOfIPv4(ip(3));
+		assertTrue(pool.hasAvailableAddresses());
+		assertEquals(ip(3), pool.getSpecificAvailableLease(ip(3), mac(5)).getIPv4Address());
+	}
+
+	@Test
+	public void testFixedLease() {
+		assertTrue(pool.configureFixedIPLease(ip(0), mac(9)));
+		assertFalse(pool.configureFixedIPLease(ip(7), mac(9)));
+
+		// the fixed address is not handed out to others
+		assertEquals(ip(1), pool.getAnyAvailableLease(mac(1)).getIPv4Address());
+		assertNull(pool.getSpecificAvailableLease(ip(0), mac(1)));
+
+		// and its MAC gets it even when asking for another
+		assertEquals(ip(0), pool.getAnyAvailableLease(mac(9)).getIPv4Address());
+		assertEquals(ip(0), pool.getSpecificAvailableLease(ip(2), mac(9)).getIPv4Address());
+		assertEquals(ip(0), pool.getSpecificAvailableLease(ip(0), mac(9)).getIPv4Address());
+	}
+
+	@Test
+	public void testMACIndex() {
+		DHCPBinding b0 = pool.getAnyAvailableLease(mac(0));
+		pool.setDHCPbinding(b0, mac(0), 100);
+		pool.cancelLeaseOfMAC(mac(0));
+
+		// a fixed binding wins over an old lease of the same MAC
+		assertTrue(pool.configureFixedIPLease(ip(3), mac(0)));
+		assertEquals(ip(3), pool.getDHCPbindingFromMAC(mac(0)).getIPv4Address());
+		// and the old lease is found again once it is gone
+		pool.removeIPv4FromDHCPPool(ip(3));
+		assertSame(b0, pool.getDHCPbindingFromMAC(mac(0)));
+
+		// a reused address moves to its new MAC
+		pool.setDHCPbinding(b0, mac(1), 100);
+		assertNull(pool.getDHCPbindingFromMAC(mac(0)));
+		assertSame(b0, pool.getDHCPbindingFromMAC(mac(1)));
+	}
+
+	@Test
+	public void testExpiry() {
+		long now = now();
+		DHCPBinding b0 = pool.getAnyAvailableLease(mac(0));
+		pool.setDHCPbinding(b0, mac(0), 5);
+		DHCPBinding b1 = pool.getAnyAvailableLease(mac(1));
+		pool.setDHCPbinding(b1, mac(1), 1000);
+
+		assertTrue(pool.cleanExpiredLeases(now + 1).isEmpty());
+		List<DHCPBinding> expired = pool.cleanExpiredLeases(now + 10);
+		assertEquals(1, expired.size());
+		assertSame(b0, expired.get(0));
+		assertFalse(b0.isActiveLease());
+		assertTrue(b1.isActiveLease());
+
+		// a renewed lease is not expired at its old time
+		pool.renewLease(ip(1), 2000);
+		assertTrue(pool.cleanExpiredLeases(now + 1500).isEmpty());
+		assertTrue(b1.isActiveLease());
+		// a cancelled lease is not expired again
+		pool.cancelLeaseOfIPv4(ip(1));
+		assertTrue(pool.cleanExpiredLeases(now + 5000).isEmpty());
+
+		// leases due several turns of the wheel later
+		pool.setDHCPbinding(b1, mac(1), 100000);
+		assertTrue(pool.cleanExpiredLeases(now + 50000).isEmpty());
+		assertEquals(1, pool.cleanExpiredLeases(now + 100001).size());
+	}
+
+	@Test
+	public void testAddRemoveAddresses() {
+		assertNull(pool.addIPv4ToDHCPPool(ip(0)));
+		assertNotNull(pool.addIPv4ToDHCPPool(ip(-2)));
+		assertNotNull(pool.addIPv4ToDHCPPool(ip(6)));
+		assertTrue(pool.containsIPv4(ip(-2)));
+		assertFalse(pool.containsIPv4(ip(-1)));
+		assertTrue(pool.containsIPv4(ip(6)));
+		assertEquals(ip(-2), pool.getAnyAvailableLease(mac(0)).getIPv4Address());
+
+		pool.removeIPv4FromDHCPPool(ip(-2));
+		assertFalse(pool.containsIPv4(ip(-2)));
+		assertEquals(ip(0), pool.getAnyAvailableLease(mac(0)).getIPv4Address());
+
+		for (int i : new int[] { 0, 1, 2, 3, 6 }) {
+			pool.setDHCPbinding(pool.getAnyAvailableLease(mac(i)), mac(i), 100);
+		}
+		assertFalse(pool.hasAvailableAddresses());
+		pool.removeIPv4FromDHCPPool(ip(6));
+		assertNull(pool.getDHCPbindingFromMAC(mac(6)));
+		assertFalse(pool.hasAvailableAddresses());
+	}
+
+	@Test
+	public void testLeaseListenerAndRestore() {
+		final List<DHCPBinding> changes = new ArrayList<DHCPBinding>();
+		pool.setLeaseListener(new DHCPPool.ILeaseListener() {
+			@Override
+			public void leaseChanged(DHCPPool p, DHCPBinding binding) {
+				changes.add(binding);
+			}
+		});
+		DHCPBinding b0 = pool.getAnyAvailableLease(mac(0));
+		pool.setDHCPbinding(b0, mac(0), 100);
+		pool.renewLease(ip(0), 100);
+		pool.cancelLeaseOfMAC(mac(0));
+		assertEquals(3, changes.size());
+
+		long now = now();
+		assertTrue(pool.restoreLease(ip(2), mac(2), now - 10, 100));
+		assertEquals(now - 10, pool.getDHCPbindingFromMAC(mac(2)).getLeaseStartTimeSeconds());
+		assertTrue(pool.isIPv4Leased(ip(2)));
+		// expired, taken by another MAC, or outside the pool
+		assertFalse(pool.restoreLease(ip(3), mac(3), now - 100, 10));
+		assertFalse(pool.restoreLease(ip(2), mac(3), now, 100));
+		assertFalse(pool.restoreLease(ip(9), mac(3), now, 100));
+		assertEquals(3, changes.size());
+		assertEquals(1, pool.cleanExpiredLeases(now + 100).size());
+	}
+}
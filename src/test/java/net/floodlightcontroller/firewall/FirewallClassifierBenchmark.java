@@ -0,0 +1,91 @@
+package net.floodlightcontroller.firewall;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compare the throughput of the compiled {@link FirewallClassifier} with
+ * a linear scan of the sorted rule list, using the rule and packet
+ * generators of {@link FirewallTest}.  The results are logged.  Ignored to
+ * keep routine tests fast; run it on its own after removing the
+ * {@link Ignore}.  The number of rules and switches can be set with the
+ * <code>firewall.bench.rules</code> and <code>firewall.bench.switches</code>
+ * system properties.
+ */
+@Ignore // benchmark, not run with the routine tests
+public class FirewallClassifierBenchmark {
+    protected static Logger log =
+            LoggerFactory.getLogger(FirewallClassifierBenchmark.class);
+
+    private final int ruleCount =
+            Integer.getInteger("firewall.bench.rules", 5000);
+    private final int switches =
+            Integer.getInteger("firewall.bench.switches", 32);
+
+    @Test
+    public void testClassifierThroughput() throws Exception {
+        Random r = new Random(1);
+        List<FirewallRule> rules =
+                FirewallTest.getRules(r, ruleCount, switches, 48);
+        Ethernet[] packets = new Ethernet[1024];
+        DatapathId[] dpids = new DatapathId[packets.length];
+        OFPort[] ports = new OFPort[packets.length];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = FirewallTest.getPacket(r);
+            dpids[i] = DatapathId.of(1 + r.nextInt(switches));
+            ports[i] = OFPort.of(1 + r.nextInt(48));
+        }
+
+        OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+        long start = System.nanoTime();
+        FirewallClassifier classifier = new FirewallClassifier(rules);
+        log.info("Rules: {}, switches: {}, compile: {} ms",
+                 new Object[]{ruleCount, switches, String.format("%.1f",
+                         (System.nanoTime() - start) / 1000000.0)});
+
+        int lookups = 200000;
+        // the first rounds warm up the JIT
+        for (int round = 0; round < 3; round++) {
+            int linearMatched = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                int p = i & 1023;
+                AllowDropPair adp = new AllowDropPair(factory);
+                if (FirewallTest.linearMatch(rules, dpids[p], ports[p],
+                                             packets[p], adp) != null)
+                    linearMatched += 1;
+            }
+            long linearNs = System.nanoTime() - start;
+
+            int compiledMatched = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                int p = i & 1023;
+                AllowDropPair adp = new AllowDropPair(factory);
+                if (classifier.match(dpids[p], ports[p],
+                                     packets[p], adp) != null)
+                    compiledMatched += 1;
+            }
+            long compiledNs = System.nanoTime() - start;
+
+            assertEquals(linearMatched, compiledMatched);
+            log.info("linear: {} Klookups/s, compiled: {} Klookups/s",
+                     String.format("%.1f", lookups * 1000000.0 / linearNs),
+                     String.format("%.1f", lookups * 1000000.0 / compiledNs));
+        }
+    }
+}
@@ -22,9 +22,12 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -36,6 +39,7 @@ import net.floodlightcontroller.debugcounter.MockDebugCounterService;
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Data;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.ICMP;
 import net.floodlightcontroller.packet.IPacket;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.TCP;
@@ -51,6 +55,7 @@ import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFPacketIn;
 import org.projectfloodlight.openflow.protocol.OFPacketInReason;
 import org.projectfloodlight.openflow.protocol.OFVersion;
@@ -539,4 +544,191 @@ public class FirewallTest extends FloodlightTestCase {
         IRoutingDecision decision = IRoutingDecision.rtStore.get(cntx, IRoutingDecision.CONTEXT_DECISION);
         assertEquals(decision.getRoutingAction(), IRoutingDecision.RoutingAction.FORWARD_OR_FLOOD);
     }
+
+    @Test
+    public void testClassifier() throws Exception {
+        Random r = new Random(7);
+        List<FirewallRule> rules =
+                getRules(r, 500, 4, 4);
+        FirewallClassifier classifier = new FirewallClassifier(rules);
+        OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+
+        // the classifier finds the same rule and wildcards as a linear scan
+        int matched = 0;
+        for (int i = 0; i < 2000; i++) {
+            Ethernet eth = getPacket(r);
+            DatapathId dpid = DatapathId.of(1 + r.nextInt(4));
+            OFPort inPort = OFPort.of(1 + r.nextInt(4));
+
+            AllowDropPair expected = new AllowDropPair(factory);
+            FirewallRule rule = linearMatch(rules, dpid, inPort, eth, expected);
+            AllowDropPair actual = new AllowDropPair(factory);
+            assertSame(rule, classifier.match(dpid, inPort, eth, actual));
+            assertEquals(expected.allow.build(), actual.allow.build());
+            assertEquals(expected.drop.build(), actual.drop.build());
+            if (rule != null) matched += 1;
+        }
+        assertTrue(matched > 0);
+
+        // rule changes are picked up by packet-in processing
+        firewall.enableFirewall(true);
+        FirewallRule rule = new FirewallRule();
+        rule.dpid = DatapathId.of(TestSwitch1DPID);
+        rule.any_dpid = false;
+        rule.in_port = OFPort.of(1);
+        rule.any_in_port = false;
+        rule.priority = 1;
+        firewall.addRule(rule);
+
+        this.setPacketIn(tcpPacket);
+        firewall.receive(sw, this.packetIn, cntx);
+        IRoutingDecision decision = IRoutingDecision.rtStore.get(cntx, IRoutingDecision.CONTEXT_DECISION);
+        assertEquals(IRoutingDecision.RoutingAction.FORWARD_OR_FLOOD, decision.getRoutingAction());
+
+        IRoutingDecision.rtStore.remove(cntx, IRoutingDecision.CONTEXT_DECISION);
+        firewall.deleteRule(rule.ruleid);
+        assertEquals(0, firewall.rules.size());
+        firewall.receive(sw, this.packetIn, cntx);
+        decision = IRoutingDecision.rtStore.get(cntx, IRoutingDecision.CONTEXT_DECISION);
+        assertEquals(IRoutingDecision.RoutingAction.DROP, decision.getRoutingAction());
+    }
+
+    private static final IpProtocol[] PROTOS =
+        { IpProtocol.TCP, IpProtocol.UDP, IpProtocol.ICMP };
+    private static final int[] TP_PORTS = { 22, 53, 80, 443 };
+
+    /**
+     * Find the first matching rule the way the firewall did before it
+     * compiled its rules
+     */
+    static FirewallRule linearMatch(List<FirewallRule> rules,
+                                    DatapathId dpid, OFPort inPort,
+                                    Ethernet eth, AllowDropPair adp) {
+        for (FirewallRule rule : rules) {
+            if (rule.matchesThisPacket(dpid, inPort, eth, adp))
+                return rule;
+        }
+        return null;
+    }
+
+    /**
+     * Generate a sorted list of random rules.  Each field is either
+     * wildcarded or set to one of a few values, so that rules overlap.
+     */
+    static List<FirewallRule> getRules(Random r, int count,
+                                       int switches, int ports) {
+        List<FirewallRule> rules = new ArrayList<FirewallRule>();
+        for (int i = 0; i < count; i++) {
+            FirewallRule rule = new FirewallRule();
+            rule.ruleid = i;
+            rule.priority = r.nextInt(count);
+            if (r.nextInt(10) < 8) {
+                rule.dpid = DatapathId.of(1 + r.nextInt(switches));
+                rule.any_dpid = false;
+            }
+            if (r.nextInt(10) < 6) {
+                rule.in_port = OFPort.of(1 + r.nextInt(ports));
+                rule.any_in_port = false;
+            }
+            if (r.nextInt(10) < 2) {
+                rule.dl_src = getMac(r);
+                rule.any_dl_src = false;
+            }
+            if (r.nextInt(10) < 2) {
+                rule.dl_dst = getMac(r);
+                rule.any_dl_dst = false;
+            }
+            if (r.nextInt(10) < 7) {
+                rule.any_dl_type = false;
+                if (r.nextInt(10) == 0) {
+                    rule.dl_type = EthType.ARP;
+                } else {
+                    rule.dl_type = EthType.IPv4;
+                    if (r.nextBoolean()) {
+                        rule.nw_src_prefix_and_mask = getPrefix(r);
+                        rule.any_nw_src = false;
+                    }
+                    if (r.nextBoolean()) {
+                        rule.nw_dst_prefix_and_mask = getPrefix(r);
+                        rule.any_nw_dst = false;
+                    }
+                    if (r.nextInt(10) < 7) {
+                        rule.nw_proto = PROTOS[r.nextInt(PROTOS.length)];
+                        rule.any_nw_proto = false;
+                        if (!rule.nw_proto.equals(IpProtocol.ICMP)) {
+                            if (r.nextInt(10) < 2) {
+                                rule.tp_src = getTransportPort(r);
+                                rule.any_tp_src = false;
+                            }
+                            if (r.nextBoolean()) {
+                                rule.tp_dst = getTransportPort(r);
+                                rule.any_tp_dst = false;
+                            }
+                        }
+                    }
+                }
+            }
+            rule.action = r.nextBoolean() ?
+                    FirewallRule.FirewallAction.ALLOW :
+                    FirewallRule.FirewallAction.DROP;
+            rules.add(rule);
+        }
+        Collections.sort(rules);
+        return rules;
+    }
+
+    /**
+     * Generate a random packet, using the same values as
+     * {@link #getRules(Random, int, int, int)}
+     */
+    static Ethernet getPacket(Random r) {
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(getMac(r));
+        eth.setDestinationMACAddress(getMac(r));
+        if (r.nextInt(10) == 0) {
+            eth.setEtherType(EthType.ARP);
+            eth.setPayload(new ARP());
+            return eth;
+        }
+
+        IPv4 ip = new IPv4();
+        ip.setSourceAddress(getAddress(r));
+        ip.setDestinationAddress(getAddress(r));
+        IpProtocol proto = PROTOS[r.nextInt(PROTOS.length)];
+        ip.setProtocol(proto);
+        if (proto.equals(IpProtocol.TCP)) {
+            ip.setPayload(new TCP()
+                .setSourcePort(getTransportPort(r))
+                .setDestinationPort(getTransportPort(r))
+                .setPayload(new Data(new byte[] {0x01})));
+        } else if (proto.equals(IpProtocol.UDP)) {
+            ip.setPayload(new UDP()
+                .setSourcePort(getTransportPort(r))
+                .setDestinationPort(getTransportPort(r))
+                .setPayload(new Data(new byte[] {0x01})));
+        } else {
+            ip.setPayload(new ICMP());
+        }
+        eth.setEtherType(EthType.IPv4);
+        eth.setPayload(ip);
+        return eth;
+    }
+
+    private static MacAddress getMac(Random r) {
+        return MacAddress.of(0x0a0000000000L + r.nextInt(8));
+    }
+
+    private static IPv4Address getAddress(Random r) {
+        return IPv4Address.of(10 << 24 | r.nextInt(4) << 16 |
+                              r.nextInt(4) << 8 | r.nextInt(4));
+    }
+
+    private static IPv4AddressWithMask getPrefix(Random r) {
+        int bits = 8 * (2 + r.nextInt(3));
+        return IPv4AddressWithMask.of(getAddress(r).toString() + "/" + bits);
+    }
+
+    private static TransportPort getTransportPort(Random r) {
+        return TransportPort.of(TP_PORTS[r.nextInt(TP_PORTS.length)]);
+    }
 }
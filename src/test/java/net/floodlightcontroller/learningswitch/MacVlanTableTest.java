@@ -0,0 +1,110 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.learningswitch;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import net.floodlightcontroller.core.types.MacVlanPair;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.VlanVid;
+
+public class MacVlanTableTest {
+
+    private static MacAddress mac(long i) {
+        return MacAddress.of(0x020000000000L + i);
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        MacVlanTable table = new MacVlanTable(100);
+        VlanVid v1 = VlanVid.ofVlan(1);
+        VlanVid v2 = VlanVid.ofVlan(4095);
+
+        assertFalse(table.put(mac(1), v1, OFPort.of(1)));
+        assertFalse(table.put(mac(1), v2, OFPort.of(2)));
+        assertEquals(OFPort.of(1), table.get(mac(1), v1));
+        assertEquals(OFPort.of(2), table.get(mac(1), v2));
+        assertNull(table.get(mac(2), v1));
+        assertEquals(2, table.size());
+
+        // moving a host updates its port
+        table.put(mac(1), v1, OFPort.of(3));
+        assertEquals(OFPort.of(3), table.get(mac(1), v1));
+        assertEquals(2, table.size());
+
+        Map<MacVlanPair, OFPort> map = table.toMap();
+        assertEquals(2, map.size());
+        assertEquals(OFPort.of(2), map.get(new MacVlanPair(mac(1), v2)));
+
+        table.remove(mac(1), v1);
+        assertNull(table.get(mac(1), v1));
+        assertEquals(OFPort.of(2), table.get(mac(1), v2));
+        table.clear();
+        assertEquals(0, table.size());
+        assertNull(table.get(mac(1), v2));
+    }
+
+    @Test
+    public void testRemoveKeepsOtherEntries() {
+        MacVlanTable table = new MacVlanTable(5000);
+        VlanVid v = VlanVid.ofVlan(0);
+        for (int i = 0; i < 5000; i++) {
+            table.put(mac(i), v, OFPort.of(i % 48 + 1));
+        }
+        for (int i = 0; i < 5000; i += 3) {
+            table.remove(mac(i), v);
+        }
+        for (int i = 0; i < 5000; i++) {
+            if (i % 3 == 0) {
+                assertNull(table.get(mac(i), v));
+            } else {
+                assertEquals(OFPort.of(i % 48 + 1), table.get(mac(i), v));
+            }
+        }
+    }
+
+    @Test
+    public void testClockEviction() {
+        MacVlanTable table = new MacVlanTable(1000);
+        VlanVid v = VlanVid.ofVlan(10);
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(table.put(mac(i), v, OFPort.of(1)));
+        }
+        assertEquals(1000, table.size());
+
+        // hosts that keep sending survive a burst of new hosts
+        int evictions = 0;
+        for (int i = 1000; i < 3000; i++) {
+            for (int j = 0; j < 100; j++) {
+                assertNotNull(table.get(mac(j), v));
+            }
+            if (table.put(mac(i), v, OFPort.of(2))) {
+                evictions++;
+            }
+        }
+        assertEquals(2000, evictions);
+        assertEquals(1000, table.size());
+        for (int j = 0; j < 100; j++) {
+            assertEquals(OFPort.of(1), table.get(mac(j), v));
+        }
+    }
+}
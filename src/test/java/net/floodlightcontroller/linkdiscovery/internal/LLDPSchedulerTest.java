@@ -0,0 +1,93 @@
+package net.floodlightcontroller.linkdiscovery.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+public class LLDPSchedulerTest {
+
+    private static int count(Map<DatapathId, List<OFPort>> due) {
+        int n = 0;
+        for (List<OFPort> ports : due.values()) {
+            n += ports.size();
+        }
+        return n;
+    }
+
+    @Test
+    public void testProbesSpreadOverInterval() {
+        // 10 s interval, 100 ms ticks, no effective rate cap.
+        LLDPScheduler scheduler = new LLDPScheduler(10000, 100, 1000, 5000,
+                100000, 100000);
+        for (int sw = 1; sw <= 10; sw++) {
+            for (int p = 1; p <= 100; p++) {
+                scheduler.addPort(new NodePortTuple(DatapathId.of(sw), OFPort.of(p)));
+            }
+        }
+        assertEquals(1000, scheduler.size());
+
+        Map<NodePortTuple, Integer> probes = new HashMap<NodePortTuple, Integer>();
+        int maxPerTick = 0;
+        for (long now = 0; now < 10000; now += 100) {
+            Map<DatapathId, List<OFPort>> due = scheduler.poll(now);
+            maxPerTick = Math.max(maxPerTick, count(due));
+            for (Map.Entry<DatapathId, List<OFPort>> e : due.entrySet()) {
+                for (OFPort p : e.getValue()) {
+                    NodePortTuple npt = new NodePortTuple(e.getKey(), p);
+                    Integer c = probes.get(npt);
+                    probes.put(npt, c == null ? 1 : c + 1);
+                }
+            }
+        }
+        // Every port is probed exactly once per interval, and no tick
+        // carries anywhere near all of them.
+        assertEquals(1000, probes.size());
+        for (Integer c : probes.values()) {
+            assertEquals(1, c.intValue());
+        }
+        assertTrue(maxPerTick < 100);
+    }
+
+    @Test
+    public void testRateCap() {
+        // 20 probes/s per switch with 100 ms ticks -> 2 per tick.
+        LLDPScheduler scheduler = new LLDPScheduler(1000, 100, 100, 1000,
+                100000, 20);
+        for (int p = 1; p <= 10; p++) {
+            NodePortTuple npt = new NodePortTuple(DatapathId.of(1), OFPort.of(p));
+            scheduler.addPort(npt);
+            scheduler.portChanged(npt, 0);
+        }
+        // All ports are due on the first tick, but only two go out.
+        assertEquals(2, count(scheduler.poll(0)));
+        assertEquals(2, count(scheduler.poll(100)));
+        assertEquals(10, scheduler.size());
+    }
+
+    @Test
+    public void testFastProbeAfterPortChange() {
+        LLDPScheduler scheduler = new LLDPScheduler(10000, 100, 1000, 5000,
+                100000, 100000);
+        NodePortTuple npt = new NodePortTuple(DatapathId.of(1), OFPort.of(1));
+        scheduler.addPort(npt);
+        scheduler.portChanged(npt, 0);
+
+        int probes = 0;
+        for (long now = 0; now < 5000; now += 100) {
+            probes += count(scheduler.poll(now));
+        }
+        // Once right away, then every second for the fast period.
+        assertEquals(5, probes);
+
+        scheduler.removeSwitch(DatapathId.of(1));
+        assertEquals(0, scheduler.size());
+    }
+}
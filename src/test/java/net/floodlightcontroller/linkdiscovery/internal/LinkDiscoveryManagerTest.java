@@ -26,7 +26,9 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -75,9 +77,11 @@ import org.projectfloodlight.openflow.protocol.OFFactories;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFPacketIn;
 import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
 import org.projectfloodlight.openflow.protocol.OFPortDesc;
 import org.projectfloodlight.openflow.protocol.OFPortFeatures;
 import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.EthType;
 import org.projectfloodlight.openflow.types.MacAddress;
@@ -96,17 +100,29 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
     protected static Logger log = LoggerFactory.getLogger(LinkDiscoveryManagerTest.class);
 
     public class TestLinkDiscoveryManager extends LinkDiscoveryManager {
-        public boolean isSendLLDPsCalled = false;
         public boolean isClearLinksCalled = false;
+        private final Object linkWriteLock = new Object();
+        private boolean holdLinkWrites = false;
+
+        /**
+         * Stops or restarts the writing of pending links to storage. Waits
+         * for a write in progress to finish.
+         */
+        public void setHoldLinkWrites(boolean hold) {
+            synchronized (linkWriteLock) {
+                holdLinkWrites = hold;
+            }
+        }
 
         @Override
-        protected void discoverOnAllPorts() {
-            isSendLLDPsCalled = true;
-            super.discoverOnAllPorts();
+        protected void writePendingLinksToStorage() {
+            synchronized (linkWriteLock) {
+                if (!holdLinkWrites)
+                    super.writePendingLinksToStorage();
+            }
         }
 
         public void reset() {
-            isSendLLDPsCalled = false;
             isClearLinksCalled = false;
         }
 
@@ -193,6 +209,41 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         assertTrue(linkDiscovery.links.containsKey(lt));
     }
 
+    @Test
+    public void testLinkLatency() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+
+        Link lt = new Link(DatapathId.of(1L), OFPort.of(2), DatapathId.of(2L), OFPort.of(1));
+        linkDiscovery.addOrUpdateLink(lt, new LinkInfo(new Date(), new Date(), null));
+        assertNull(linkDiscovery.getLinkLatency(lt));
+
+        // The first sample is taken as is.
+        LinkInfo info = new LinkInfo(new Date(), new Date(), null);
+        info.setLatency(800L);
+        linkDiscovery.addOrUpdateLink(lt, info);
+        assertEquals(Long.valueOf(800), linkDiscovery.getLinkLatency(lt));
+
+        // Later samples are smoothed, and updates without a sample keep
+        // the current estimate.
+        info = new LinkInfo(new Date(), new Date(), null);
+        info.setLatency(1600L);
+        assertFalse(linkDiscovery.addOrUpdateLink(lt, info));
+        assertEquals(Long.valueOf(900), linkDiscovery.getLinkLatency(lt));
+        linkDiscovery.addOrUpdateLink(lt, new LinkInfo(new Date(), new Date(), null));
+        assertEquals(Long.valueOf(900), linkDiscovery.getLinkLatency(lt));
+        assertEquals(Long.valueOf(900), linkDiscovery.getLinkInfo(lt).getLatency());
+
+        // The control channel latency of both switches is subtracted.
+        IOFSwitch sw1 = createMockSwitch(1L);
+        IOFSwitch sw2 = createMockSwitch(2L);
+        expect(sw1.getLatency()).andReturn(1000000L).anyTimes();
+        expect(sw2.getLatency()).andReturn(0L).anyTimes();
+        replay(sw1, sw2);
+        assertEquals(0, linkDiscovery.getLatencySample(System.nanoTime(), sw1, sw2));
+        long sample = linkDiscovery.getLatencySample(System.nanoTime() - 2000000000L, sw1, sw2);
+        assertTrue(sample >= 1000000L && sample < 1500000L);
+    }
+
     @Test
     public void testDeleteLink() throws Exception {
         LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
@@ -401,6 +452,76 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         linkDiscovery.addOrUpdateLink(lt, info);
     }
 
+    @Test
+    public void testPendingLinkStorageWrites() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        Link lt = new Link(DatapathId.of(1L), OFPort.of(2), DatapathId.of(2L), OFPort.of(1));
+
+        // Keep the storage task from draining the writes in the background
+        ldm.setHoldLinkWrites(true);
+
+        // Repeated changes of a link coalesce into one pending write of a
+        // copy of the latest info
+        Date validTime = new Date(System.currentTimeMillis() + 1000);
+        LinkInfo info = new LinkInfo(new Date(), validTime, null);
+        linkDiscovery.addOrUpdateLink(lt, new LinkInfo(new Date(), new Date(), null));
+        linkDiscovery.addOrUpdateLink(lt, info);
+        assertEquals(1, linkDiscovery.pendingLinkWrites.size());
+        LinkInfo pending = linkDiscovery.pendingLinkWrites.get(lt);
+        assertNotNull(pending);
+        assertNotSame(info, pending);
+        assertEquals(validTime, pending.getUnicastValidTime());
+
+        // and a delete replaces them
+        linkDiscovery.deleteLink(lt, "test");
+        assertEquals(1, linkDiscovery.pendingLinkWrites.size());
+        assertSame(LinkDiscoveryManager.LINK_DELETED, linkDiscovery.pendingLinkWrites.get(lt));
+
+        ldm.setHoldLinkWrites(false);
+        linkDiscovery.writePendingLinksToStorage();
+        assertTrue(linkDiscovery.pendingLinkWrites.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentLinkUpdates() throws Exception {
+        final LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        final int numThreads = 8;
+        final int linksPerThread = 200;
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final long base = t * 100;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= linksPerThread; i++) {
+                        // all threads share switch 1000 on the dst side
+                        Link lt = new Link(DatapathId.of(base + (i % 10) + 1), OFPort.of(i),
+                                DatapathId.of(1000L), OFPort.of((int) base + i));
+                        linkDiscovery.addOrUpdateLink(lt,
+                                new LinkInfo(new Date(), new Date(), null));
+                        if (i % 2 == 0) {
+                            linkDiscovery.deleteLink(lt, "test");
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        // Half the links remain, and the indices agree with the link map.
+        assertEquals(numThreads * linksPerThread / 2, linkDiscovery.links.size());
+        assertEquals(linkDiscovery.links.size(),
+                linkDiscovery.switchLinks.get(DatapathId.of(1000L)).size());
+        for (Link lt : linkDiscovery.links.keySet()) {
+            assertTrue(linkDiscovery.switchLinks.get(lt.getSrc()).contains(lt));
+            assertTrue(linkDiscovery.portLinks.get(
+                    new NodePortTuple(lt.getDst(), lt.getDstPort())).contains(lt));
+        }
+    }
+
     @Test
     public void testHARoleChange() throws Exception {
         LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
@@ -584,4 +705,118 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
 
         verify(mockSwitch);
     }
-}
\ No newline at end of file
+
+    /* The timestamp TLV value ends just before the end of LLDPDU TLV */
+    private static long getTimestamp(byte[] frame) {
+        return ByteBuffer.wrap(frame).getLong(frame.length - 2 - 8);
+    }
+
+    private static byte[] clearTimestamp(byte[] frame) {
+        byte[] data = Arrays.copyOf(frame, frame.length);
+        ByteBuffer.wrap(data).putLong(data.length - 2 - 8, 0L);
+        return data;
+    }
+
+    @Test
+    public void testDiscoveryTemplateCache() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        OFPortDesc ofpp = OFFactories.getFactory(OFVersion.OF_13).buildPortDesc()
+        .setName("eth1")
+        .setPortNo(OFPort.of(1))
+        .setHwAddr(MacAddress.of("5c:16:c7:00:00:01"))
+        .setCurr(new HashSet<OFPortFeatures>())
+        .build();
+        IOFSwitch sw1 = createMockSwitch(1L);
+        expect(sw1.getPort(OFPort.of(1))).andReturn(ofpp).anyTimes();
+        expect(sw1.getOFFactory()).andReturn(OFFactories.getFactory(OFVersion.OF_13)).anyTimes();
+        replay(sw1);
+
+        Map<DatapathId, IOFSwitch> switches = new HashMap<DatapathId, IOFSwitch>();
+        switches.put(DatapathId.of(1L), sw1);
+        getMockSwitchService().setSwitches(switches);
+
+        // The template is built once and then reused.
+        long before = System.nanoTime();
+        OFPacketOut po1 = linkDiscovery.buildDiscoveryMessage(DatapathId.of(1L),
+                OFPort.of(1), true, false);
+        OFPacketOut po2 = linkDiscovery.buildDiscoveryMessage(DatapathId.of(1L),
+                OFPort.of(1), true, false);
+        long after = System.nanoTime();
+        assertNotNull(po1);
+        assertEquals(po1.getActions(), po2.getActions());
+        assertEquals(1, linkDiscovery.lldpTemplates.size());
+
+        // Each probe carries its own send timestamp.
+        long ts1 = getTimestamp(po1.getData());
+        long ts2 = getTimestamp(po2.getData());
+        assertTrue(before <= ts1 && ts1 <= ts2 && ts2 <= after);
+
+        // Apart from the timestamp, the patched frames must match freshly
+        // generated ones.
+        OFPacketOut rev = linkDiscovery.buildDiscoveryMessage(DatapathId.of(1L),
+                OFPort.of(1), true, true);
+        assertArrayEquals(linkDiscovery.generateDiscoveryFrame(DatapathId.of(1L),
+                ofpp, true, true), clearTimestamp(rev.getData()));
+        assertArrayEquals(linkDiscovery.generateDiscoveryFrame(DatapathId.of(1L),
+                ofpp, true, false), clearTimestamp(po1.getData()));
+        assertEquals(po1.getActions(), rev.getActions());
+
+        // BDDP frames are cached separately.
+        OFPacketOut bddp = linkDiscovery.buildDiscoveryMessage(DatapathId.of(1L),
+                OFPort.of(1), false, false);
+        assertFalse(Arrays.equals(po1.getData(), bddp.getData()));
+        assertEquals(1, linkDiscovery.bddpTemplates.size());
+
+        // Templates are dropped when the switch goes away.
+        linkDiscovery.switchRemoved(DatapathId.of(1L));
+        assertTrue(linkDiscovery.lldpTemplates.isEmpty());
+        assertTrue(linkDiscovery.bddpTemplates.isEmpty());
+    }
+
+    @Test
+    public void testUnsuppressedPortIsScheduled() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        OFPortDesc ofpp = OFFactories.getFactory(OFVersion.OF_13).buildPortDesc()
+        .setName("eth1")
+        .setPortNo(OFPort.of(1))
+        .setHwAddr(MacAddress.of("5c:16:c7:00:00:01"))
+        .setCurr(new HashSet<OFPortFeatures>())
+        .build();
+        IOFSwitch sw1 = createMockSwitch(1L);
+        Capture<Iterable<OFMessage>> wc = new Capture<Iterable<OFMessage>>(CaptureType.ALL);
+        expect(sw1.getEnabledPortNumbers()).andReturn(Collections.singletonList(OFPort.of(1))).anyTimes();
+        expect(sw1.getPort(OFPort.of(1))).andReturn(ofpp).anyTimes();
+        expect(sw1.getOFFactory()).andReturn(OFFactories.getFactory(OFVersion.OF_13)).anyTimes();
+        expect(sw1.isActive()).andReturn(true).anyTimes();
+        sw1.write(capture(wc));
+        expectLastCall().anyTimes();
+        replay(sw1);
+
+        Map<DatapathId, IOFSwitch> switches = new HashMap<DatapathId, IOFSwitch>();
+        switches.put(DatapathId.of(1L), sw1);
+        getMockSwitchService().setSwitches(switches);
+
+        // A port that comes up suppressed is not scheduled.
+        linkDiscovery.AddToSuppressLLDPs(DatapathId.of(1L), OFPort.of(1));
+        linkDiscovery.switchActivated(DatapathId.of(1L));
+        assertEquals(0, linkDiscovery.lldpScheduler.size());
+
+        // Once un-suppressed it is probed on every revolution of the wheel.
+        linkDiscovery.RemoveFromSuppressLLDPs(DatapathId.of(1L), OFPort.of(1));
+        assertEquals(1, linkDiscovery.lldpScheduler.size());
+        long now = System.currentTimeMillis();
+        long interval = linkDiscovery.LLDP_TO_ALL_INTERVAL * 1000;
+        for (int i = 0; i < 3; i++) {
+            linkDiscovery.discoverOnScheduledPorts(now + i * interval);
+        }
+        int probes = 0;
+        for (Iterable<OFMessage> batch : wc.getValues()) {
+            for (OFMessage m : batch) {
+                OFPacketOut po = (OFPacketOut) m;
+                assertEquals(OFPort.of(1), ((OFActionOutput) po.getActions().get(0)).getPort());
+                probes++;
+            }
+        }
+        assertTrue(probes >= 2);
+    }
+}
@@ -40,6 +40,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFFlowRemoved;
 import org.projectfloodlight.openflow.protocol.OFFactories;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFPacketIn;
@@ -51,6 +52,7 @@ import org.projectfloodlight.openflow.types.IpProtocol;
 import org.projectfloodlight.openflow.types.MacAddress;
 import org.projectfloodlight.openflow.types.OFBufferId;
 import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TransportPort;
 import org.projectfloodlight.openflow.types.U64;
 import org.projectfloodlight.openflow.protocol.OFPacketInReason;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
@@ -74,6 +76,7 @@ import net.floodlightcontroller.devicemanager.IDeviceService;
 import net.floodlightcontroller.devicemanager.IEntityClassifierService;
 import net.floodlightcontroller.devicemanager.internal.DefaultEntityClassifier;
 import net.floodlightcontroller.devicemanager.test.MockDeviceManager;
+import net.floodlightcontroller.loadbalancer.LoadBalancer.IPClient;
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.ICMP;
@@ -692,5 +695,291 @@ public class LoadBalancerTest extends FloodlightTestCase {
 		assertTrue(map.size()==4);
 	}
 
+	private static LBMember getMember(String id, int weight) {
+		LBMember member = new LBMember();
+		member.id = id;
+		member.weight = weight;
+		return member;
+	}
+
+	private static IPClient getClient(int ip) {
+		IPClient client = new IPClient();
+		client.ipAddress = IPv4Address.of(ip);
+		client.nw_proto = IpProtocol.TCP;
+		client.srcPort = TransportPort.of(1024);
+		client.targetPort = TransportPort.of(80);
+		return client;
+	}
+
+	@Test
+	public void testWeightedRoundRobin() {
+		List<LBMember> pool = new ArrayList<LBMember>();
+		pool.add(getMember("a", 3));
+		pool.add(getMember("b", 1));
+		LBMemberSelector selector = LBMemberSelector.create(LBMemberSelector.ROUND_ROBIN, pool);
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		counts.put("a", 0);
+		counts.put("b", 0);
+		String previous = null;
+		int repeats = 0;
+		for (int i = 0; i < 400; i++) {
+			String id = selector.pickMember(getClient(i)).id;
+			counts.put(id, counts.get(id) + 1);
+			if (id.equals(previous))
+				repeats++;
+			previous = id;
+		}
+		assertEquals(300, counts.get("a").intValue());
+		assertEquals(100, counts.get("b").intValue());
+		// the picks are interleaved, not in runs of three
+		assertEquals(200, repeats);
+
+		selector = LBMemberSelector.create((short) 0, new ArrayList<LBMember>());
+		assertNull(selector.pickMember(getClient(1)));
+	}
+
+	@Test
+	public void testLeastConnections() {
+		List<LBMember> pool = new ArrayList<LBMember>();
+		LBMember a = getMember("a", 1);
+		LBMember b = getMember("b", 2);
+		pool.add(a);
+		pool.add(b);
+		LBMemberSelector selector = LBMemberSelector.create(LBMemberSelector.LEAST_CONNECTIONS, pool);
+		LBConnectionTable table = new LBConnectionTable(1000, 60000);
+
+		for (int i = 0; i < 30; i++) {
+			IPClient client = getClient(i);
+			table.bind(client, selector.pickMember(client), 0);
+		}
+		assertEquals(10, a.activeConnections.get());
+		assertEquals(20, b.activeConnections.get());
+
+		table.removeMember(b);
+		assertEquals(0, b.activeConnections.get());
+		assertSame(b, selector.pickMember(getClient(100)));
+	}
+
+	@Test
+	public void testConsistentHash() {
+		List<LBMember> pool = new ArrayList<LBMember>();
+		for (int i = 0; i < 4; i++)
+			pool.add(getMember(Integer.toString(i), 1));
+		LBMemberSelector before = LBMemberSelector.create(LBMemberSelector.SOURCE_IP, pool);
+		pool.add(getMember("4", 1));
+		LBMemberSelector after = LBMemberSelector.create(LBMemberSelector.SOURCE_IP, pool);
+
+		int clients = 10000;
+		int moved = 0;
+		int[] counts = new int[5];
+		for (int i = 0; i < clients; i++) {
+			IPClient client = getClient(0x0a000000 + i);
+			LBMember m1 = before.pickMember(client);
+			LBMember m2 = after.pickMember(client);
+			// the same client always gets the same member
+			assertSame(m1, before.pickMember(client));
+			if (m1 != m2) {
+				moved++;
+				// clients only move to the new member
+				assertEquals("4", m2.id);
+			}
+			counts[Integer.parseInt(m2.id)]++;
+		}
+		// about a fifth of the clients move
+		assertTrue(moved > clients / 10 && moved < clients * 3 / 10);
+		for (int count : counts)
+			assertTrue(count > clients / 10 && count < clients * 3 / 10);
+
+		// huge weights are capped rather than overflowing the ring size
+		pool.add(getMember("5", Integer.MAX_VALUE));
+		LBMemberSelector heavy = LBMemberSelector.create(LBMemberSelector.SOURCE_IP, pool);
+		assertNotNull(heavy.pickMember(getClient(0x0a000001)));
+	}
+
+	@Test
+	public void testConnectionTable() {
+		LBMember a = getMember("a", 1);
+		LBMember b = getMember("b", 1);
+		LBConnectionTable table = new LBConnectionTable(8, 1000);
+
+		IPClient client = getClient(1);
+		assertNull(table.get(client, 0));
+		assertSame(a, table.bind(client, a, 0));
+		// a client bound by another thread keeps its member
+		assertSame(a, table.bind(getClient(1), b, 10));
+		assertEquals(1, a.activeConnections.get());
+		assertEquals(0, b.activeConnections.get());
+
+		// clients stay bound while their flows are installed, however long
+		assertSame(a, table.get(client, 900));
+		assertSame(a, table.get(client, 1800));
+		assertSame(a, table.get(client, 2800));
+		assertFalse(table.removeFlow(client.ipAddress, IpProtocol.TCP, TransportPort.of(1025), 3800));
+		// a client back within the idle timeout has new flows on the way
+		assertFalse(table.removeFlow(client.ipAddress, IpProtocol.TCP, client.srcPort, 3000));
+		assertTrue(table.removeFlow(client.ipAddress, IpProtocol.TCP, client.srcPort, 3800));
+		assertNull(table.get(client, 3800));
+		assertEquals(0, a.activeConnections.get());
+		assertEquals(0, table.size());
+		assertTrue(table.flows.isEmpty());
+
+		// idle clients are swept to make room
+		for (int i = 0; i < 8; i++)
+			table.bind(getClient(i), a, 3000);
+		assertEquals(8, table.size());
+		table.bind(getClient(100), b, 5000);
+		assertEquals(1, table.size());
+		assertEquals(0, a.activeConnections.get());
+
+		// when none is idle the oldest clients are evicted
+		for (int i = 0; i < 7; i++)
+			table.bind(getClient(i), a, 5100 + i);
+		assertEquals(8, table.size());
+		table.bind(getClient(200), a, 5200);
+		assertEquals(8, table.size());
+		assertNull(table.get(getClient(100), 5300));
+		assertEquals(0, b.activeConnections.get());
+		assertEquals(8, a.activeConnections.get());
+		assertEquals(8, table.flows.size());
+	}
+
+	@Test
+	public void testFlowRemovedForgetsClient() throws Exception {
+		testTwoSubsequentIcmpRequests();
+		assertEquals(2, lb.clientToMember.size());
 
+		IOFSwitch sw1 = EasyMock.createNiceMock(IOFSwitch.class);
+		expect(sw1.getId()).andReturn(DatapathId.of(1L)).anyTimes();
+		replay(sw1);
+		List<OFFlowRemoved> removed = new ArrayList<OFFlowRemoved>();
+		for (OFFlowMod fm : sfp.getFlows(DatapathId.of(1L)).values()) {
+			removed.add(factory.buildFlowRemoved()
+					.setMatch(fm.getMatch())
+					.setPriority(fm.getPriority())
+					.build());
+		}
+
+		// the clients were just seen, their new flows are on the way
+		for (OFFlowRemoved fr : removed)
+			lb.receive(sw1, fr, cntx);
+		assertEquals(2, lb.clientToMember.size());
+
+		for (LBConnectionTable.Connection c : lb.clientToMember.connections.values())
+			c.lastSeen = 0;
+		for (OFFlowRemoved fr : removed)
+			lb.receive(sw1, fr, cntx);
+		assertEquals(0, lb.clientToMember.size());
+		assertEquals(0, member1.activeConnections.get());
+		assertEquals(0, member2.activeConnections.get());
+	}
+
+	@Test
+	public void testPoolMethods() throws Exception {
+		testCreateMember();
+
+		LBPool pool = poolsResource.jsonToPool("{\"id\":\"4\",\"name\":\"pool4\",\"lb_method\":\"SOURCE_IP\",\"vip_id\":\"1\"}");
+		assertEquals(LBMemberSelector.SOURCE_IP, pool.lbMethod);
+		lb.createPool(pool);
+		LBMember member = membersResource.jsonToMember("{\"id\":\"5\",\"address\":\"10.0.0.7\",\"port\":\"8\",\"pool_id\":\"4\",\"weight\":\"2\"}");
+		assertEquals(2, member.weight);
+		lb.createMember(member);
+		assertEquals("5", pool.pickMember(getClient(1)));
+
+		lb.removeMember("5");
+		assertNull(pool.pickMember(getClient(1)));
+	}
+
+	@Test
+	public void testHealthCheckFailover() throws Exception {
+		testCreateMember();
+
+		LBMonitor monitor = new MonitorsResource().jsonToMonitor("{\"monitor\":{\"id\":\"1\",\"type\":\"PING\",\"attempts_before_deactivation\":\"3\"}}");
+		assertEquals(LBMonitor.TYPE_PING, monitor.type);
+		assertEquals(3, monitor.attemptsBeforeDeactivation);
+		lb.createMonitor(monitor);
+		LBPool pool = lb.pools.get(member1.poolId);
+		pool.monitors.add(monitor.id);
+
+		IPClient client = getClient(0x0a000002);
+		assertSame(member1, lb.pickMember(vip1.id, client));
+		assertEquals(1, member1.activeConnections.get());
+
+		// member1 stops answering, member2 keeps answering
+		for (int i = 0; i < 3; i++) {
+			lb.healthChecker.runChecks();
+			lb.healthChecker.probeAnswered(member2);
+			assertEquals(LBMember.STATUS_ACTIVE, member1.status);
+		}
+		lb.healthChecker.runChecks();
+		lb.healthChecker.probeAnswered(member2);
+		assertEquals(LBMember.STATUS_DOWN, member1.status);
+		assertEquals(LBMember.STATUS_ACTIVE, member2.status);
+
+		// its clients move to the other member
+		assertEquals(0, member1.activeConnections.get());
+		assertSame(member2, lb.pickMember(vip1.id, client));
+		for (int i = 0; i < 4; i++)
+			assertEquals(member2.id, pool.pickMember(getClient(i)));
+
+		// it is back after answering twice
+		lb.healthChecker.runChecks();
+		lb.healthChecker.probeAnswered(member1);
+		assertEquals(LBMember.STATUS_DOWN, member1.status);
+		lb.healthChecker.runChecks();
+		lb.healthChecker.probeAnswered(member1);
+		assertEquals(LBMember.STATUS_ACTIVE, member1.status);
+		// an answer without a probe does not count
+		lb.healthChecker.probeAnswered(member1);
+		assertTrue(lb.healthChecker.isUp(member1));
+
+		// members of pools without a monitor are not checked
+		lb.removeMonitor(monitor.id);
+		for (int i = 0; i < 5; i++)
+			lb.healthChecker.runChecks();
+		assertEquals(LBMember.STATUS_ACTIVE, member1.status);
+		assertEquals(LBMember.STATUS_ACTIVE, member2.status);
+	}
+
+	@Test
+	public void testHealthCheckDelayAndTimeout() throws Exception {
+		testCreateMember();
+
+		LBMonitor monitor = new MonitorsResource().jsonToMonitor("{\"monitor\":{\"id\":\"1\",\"type\":\"PING\",\"delay\":\"10\",\"timeout\":\"3\",\"attempts_before_deactivation\":\"1\"}}");
+		assertEquals(10, monitor.delay);
+		assertEquals(3, monitor.timeout);
+		lb.createMonitor(monitor);
+		lb.pools.get(member1.poolId).monitors.add(monitor.id);
+
+		// a probe is not failed before the timeout, nor sent again before the delay
+		lb.healthChecker.runChecks(0);
+		lb.healthChecker.runChecks(2000);
+		assertTrue(lb.healthChecker.health.get(member1.id).probePending);
+		lb.healthChecker.probeAnswered(member1);
+		lb.healthChecker.runChecks(5000);
+		assertFalse(lb.healthChecker.health.get(member1.id).probePending);
+		assertEquals(LBMember.STATUS_ACTIVE, member1.status);
+
+		// the next probe goes out after the delay and fails after the timeout
+		lb.healthChecker.runChecks(10000);
+		assertTrue(lb.healthChecker.health.get(member1.id).probePending);
+		lb.healthChecker.runChecks(12000);
+		assertEquals(LBMember.STATUS_ACTIVE, member1.status);
+		lb.healthChecker.runChecks(13000);
+		assertFalse(lb.healthChecker.health.get(member1.id).probePending);
+		assertEquals(LBMember.STATUS_DOWN, member1.status);
+	}
+
+	@Test
+	public void testFailedMemberFlowsDeleted() throws Exception {
+		testTwoSubsequentIcmpRequests();
+
+		// one client on each member, with an inbound and an outbound flow
+		assertEquals(4, sfp.getFlows(DatapathId.of(1L)).size());
+		lb.setMemberStatus(member1, false);
+		Map<String, OFFlowMod> flows = sfp.getFlows(DatapathId.of(1L));
+		assertEquals(2, flows.size());
+		for (String name : flows.keySet())
+			assertTrue(name.contains("-member-" + member2.id + "-"));
+	}
 }
@@ -17,6 +17,7 @@
 package net.floodlightcontroller.staticflowentry;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -24,28 +25,41 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 import org.easymock.Capture;
 import org.easymock.CaptureType;
 import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFBarrierReply;
+import org.projectfloodlight.openflow.protocol.OFBarrierRequest;
 import org.projectfloodlight.openflow.protocol.OFFactories;
 import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowAdd;
+import org.projectfloodlight.openflow.protocol.OFFlowDeleteStrict;
 import org.projectfloodlight.openflow.protocol.OFFlowMod;
 import org.projectfloodlight.openflow.protocol.OFFlowModFlags;
+import org.projectfloodlight.openflow.protocol.OFFlowModifyStrict;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsReply;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsRequest;
 import org.projectfloodlight.openflow.protocol.OFVersion;
 import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFBufferId;
 import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
 import org.projectfloodlight.openflow.util.HexString;
 
+import com.google.common.util.concurrent.Futures;
+
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.internal.IOFSwitchService;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.debugcounter.MockDebugCounterService;
 import net.floodlightcontroller.test.FloodlightTestCase;
@@ -344,6 +358,230 @@ public class StaticFlowTests extends FloodlightTestCase {
 	}
 
 
+	private OFFlowStatsEntry toFlowStatsEntry(OFFlowMod fm) {
+		return factory.buildFlowStatsEntry()
+				.setTableId(fm.getTableId())
+				.setMatch(fm.getMatch())
+				.setPriority(fm.getPriority())
+				.setCookie(fm.getCookie())
+				.setIdleTimeout(fm.getIdleTimeout())
+				.setHardTimeout(fm.getHardTimeout())
+				.setInstructions(fm.getInstructions())
+				.build();
+	}
+
+	@Test
+	public void testDifferentialResync() throws Exception {
+		staticFlowEntryPusher.differentialResync = true;
+		staticFlowEntryPusher.batchSize = 10;
+		Map<String, OFFlowMod> stored = staticFlowEntryPusher.getFlows(DatapathId.of(dpid));
+
+		// the switch has TestRule1 as stored, TestRule2 with other actions, no
+		// TestRule3, a static flow that is no longer stored and a flow of another app
+		List<OFFlowStatsEntry> entries = new ArrayList<OFFlowStatsEntry>();
+		entries.add(toFlowStatsEntry(stored.get("TestRule1")));
+		OFFlowMod oldFlowMod2 = stored.get("TestRule2").createBuilder()
+				.setActions(Collections.singletonList((OFAction) factory.actions().output(OFPort.of(2), Integer.MAX_VALUE)))
+				.build();
+		entries.add(toFlowStatsEntry(oldFlowMod2));
+		Match staleMatch = MatchUtils.fromString("eth_dst=00:20:30:40:50:99", factory.getVersion());
+		OFFlowMod staleFlowMod = stored.get("TestRule1").createBuilder()
+				.setMatch(staleMatch)
+				.setCookie(StaticFlowEntries.computeEntryCookie(0, "StaleRule"))
+				.build();
+		entries.add(toFlowStatsEntry(staleFlowMod));
+		entries.add(toFlowStatsEntry(staleFlowMod.createBuilder()
+				.setMatch(MatchUtils.fromString("eth_dst=00:20:30:40:50:98", factory.getVersion()))
+				.setCookie(U64.ZERO)
+				.build()));
+		List<OFFlowStatsReply> replies = Collections.singletonList(factory.buildFlowStatsReply().setEntries(entries).build());
+		OFBarrierReply barrierReply = factory.buildBarrierReply().build();
+
+		resetToNice(mockSwitch);
+		mockSwitch.write(capture(writeCapture));
+		expectLastCall().anyTimes();
+		mockSwitch.write(capture(writeCaptureList));
+		expectLastCall().anyTimes();
+		mockSwitch.flush();
+		expectLastCall().anyTimes();
+		expect(mockSwitch.getOFFactory()).andReturn(factory).anyTimes();
+		expect(mockSwitch.getId()).andReturn(DatapathId.of(dpid)).anyTimes();
+		expect(mockSwitch.isConnected()).andReturn(true).anyTimes();
+		expect(mockSwitch.writeStatsRequest(anyObject(OFFlowStatsRequest.class)))
+		.andReturn(Futures.immediateFuture(replies)).once();
+		expect(mockSwitch.writeRequest(anyObject(OFBarrierRequest.class)))
+		.andReturn(Futures.immediateFuture(barrierReply)).times(2);
+		replay(mockSwitch);
+
+		staticFlowEntryPusher.switchAdded(DatapathId.of(dpid));
+
+		verify(mockSwitch);
+		assertFalse(writeCapture.hasCaptured());
+		assertTrue(staticFlowEntryPusher.resyncs.isEmpty());
+
+		// the delete goes in a batch of its own, before the add and modify
+		assertEquals(2, writeCaptureList.getValues().size());
+		List<OFMessage> deletes = writeCaptureList.getValues().get(0);
+		assertEquals(1, deletes.size());
+		assertTrue(deletes.get(0) instanceof OFFlowDeleteStrict);
+		assertEquals(staleMatch, ((OFFlowMod) deletes.get(0)).getMatch());
+
+		List<OFMessage> changes = writeCaptureList.getValues().get(1);
+		assertEquals(2, changes.size());
+		for (OFMessage m : changes) {
+			OFFlowMod fm = (OFFlowMod) m;
+			if (fm.getMatch().equals(stored.get("TestRule2").getMatch())) {
+				assertTrue(fm instanceof OFFlowModifyStrict);
+				verifyActions(fm, stored.get("TestRule2"));
+			} else {
+				assertTrue(fm instanceof OFFlowAdd);
+				verifyMatch(fm, stored.get("TestRule3"));
+				verifyActions(fm, stored.get("TestRule3"));
+			}
+		}
+	}
+
+	@Test
+	public void testResyncModifiesOnly() throws Exception {
+		staticFlowEntryPusher.differentialResync = true;
+		Map<String, OFFlowMod> stored = staticFlowEntryPusher.getFlows(DatapathId.of(dpid));
+
+		// the switch has TestRule1 and TestRule2 with other actions and TestRule3 as stored
+		List<OFAction> oldActions = Collections.singletonList((OFAction) factory.actions().output(OFPort.of(2), Integer.MAX_VALUE));
+		List<OFFlowStatsEntry> entries = new ArrayList<OFFlowStatsEntry>();
+		entries.add(toFlowStatsEntry(stored.get("TestRule1").createBuilder().setActions(oldActions).build()));
+		entries.add(toFlowStatsEntry(stored.get("TestRule2").createBuilder().setActions(oldActions).build()));
+		entries.add(toFlowStatsEntry(stored.get("TestRule3")));
+		List<OFFlowStatsReply> replies = Collections.singletonList(factory.buildFlowStatsReply().setEntries(entries).build());
+		OFBarrierReply barrierReply = factory.buildBarrierReply().build();
+
+		// strict modifies are not deletes
+		IDebugCounter modifiedCounter = createMock(IDebugCounter.class);
+		modifiedCounter.add(2);
+		expectLastCall().once();
+		IDebugCounter deletedCounter = createMock(IDebugCounter.class);
+		deletedCounter.add(0);
+		expectLastCall().once();
+		replay(modifiedCounter, deletedCounter);
+		staticFlowEntryPusher.counterResyncFlowsModified = modifiedCounter;
+		staticFlowEntryPusher.counterResyncFlowsDeleted = deletedCounter;
+
+		resetToNice(mockSwitch);
+		mockSwitch.write(capture(writeCapture));
+		expectLastCall().anyTimes();
+		mockSwitch.write(capture(writeCaptureList));
+		expectLastCall().anyTimes();
+		mockSwitch.flush();
+		expectLastCall().anyTimes();
+		expect(mockSwitch.getOFFactory()).andReturn(factory).anyTimes();
+		expect(mockSwitch.getId()).andReturn(DatapathId.of(dpid)).anyTimes();
+		expect(mockSwitch.isConnected()).andReturn(true).anyTimes();
+		expect(mockSwitch.writeStatsRequest(anyObject(OFFlowStatsRequest.class)))
+		.andReturn(Futures.immediateFuture(replies)).once();
+		expect(mockSwitch.writeRequest(anyObject(OFBarrierRequest.class)))
+		.andReturn(Futures.immediateFuture(barrierReply)).once();
+		replay(mockSwitch);
+
+		staticFlowEntryPusher.switchAdded(DatapathId.of(dpid));
+
+		verify(mockSwitch, modifiedCounter, deletedCounter);
+		assertFalse(writeCapture.hasCaptured());
+		assertTrue(staticFlowEntryPusher.resyncs.isEmpty());
+
+		// no batch of deletes, one of the two modifies
+		assertEquals(1, writeCaptureList.getValues().size());
+		List<OFMessage> changes = writeCaptureList.getValues().get(0);
+		assertEquals(2, changes.size());
+		for (OFMessage m : changes) {
+			assertTrue(m instanceof OFFlowModifyStrict);
+		}
+	}
+
+	@Test
+	public void testBatchedInsert() throws Exception {
+		staticFlowEntryPusher.batchSize = 2;
+		staticFlowEntryPusher.maxBatchesInFlight = 1;
+		OFBarrierReply barrierReply = factory.buildBarrierReply().build();
+
+		resetToNice(mockSwitch);
+		mockSwitch.write(capture(writeCapture));
+		expectLastCall().anyTimes();
+		mockSwitch.write(capture(writeCaptureList));
+		expectLastCall().anyTimes();
+		mockSwitch.flush();
+		expectLastCall().anyTimes();
+		expect(mockSwitch.getOFFactory()).andReturn(factory).anyTimes();
+		expect(mockSwitch.getId()).andReturn(DatapathId.of(dpid)).anyTimes();
+		expect(mockSwitch.isConnected()).andReturn(true).anyTimes();
+		expect(mockSwitch.writeRequest(anyObject(OFBarrierRequest.class)))
+		.andReturn(Futures.immediateFuture(barrierReply)).times(3);
+		replay(mockSwitch);
+
+		// five new flows in one storage batch go out as batches of 2, 2 and 1
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 5; i++) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put(COLUMN_NAME, "BulkRule" + i);
+			row.put(COLUMN_SWITCH, TestSwitch1DPID);
+			row.put(COLUMN_DL_DST, "00:20:30:40:51:0" + i);
+			row.put(COLUMN_ACTIONS, "output=1");
+			rows.add(row);
+		}
+		storage.insertRows(StaticFlowEntryPusher.TABLE_NAME, rows);
+
+		verify(mockSwitch);
+		assertFalse(writeCapture.hasCaptured());
+		assertEquals(TotalTestRules + 5, staticFlowEntryPusher.countEntries());
+		assertEquals(3, writeCaptureList.getValues().size());
+		int[] sizes = { 2, 2, 1 };
+		for (int i = 0; i < sizes.length; i++) {
+			List<OFMessage> batch = writeCaptureList.getValues().get(i);
+			assertEquals(sizes[i], batch.size());
+			for (OFMessage m : batch) {
+				assertTrue(m instanceof OFFlowAdd);
+			}
+		}
+	}
+
+	@Test
+	public void testBatchedInsertFailure() throws Exception {
+		staticFlowEntryPusher.batchSize = 2;
+		staticFlowEntryPusher.maxBatchesInFlight = 1;
+
+		resetToNice(mockSwitch);
+		mockSwitch.write(capture(writeCapture));
+		expectLastCall().anyTimes();
+		mockSwitch.write(capture(writeCaptureList));
+		expectLastCall().anyTimes();
+		mockSwitch.flush();
+		expectLastCall().anyTimes();
+		expect(mockSwitch.getOFFactory()).andReturn(factory).anyTimes();
+		expect(mockSwitch.getId()).andReturn(DatapathId.of(dpid)).anyTimes();
+		expect(mockSwitch.isConnected()).andReturn(true).anyTimes();
+		expect(mockSwitch.writeRequest(anyObject(OFBarrierRequest.class)))
+		.andReturn(Futures.<OFBarrierReply>immediateFailedFuture(new TimeoutException())).once();
+		replay(mockSwitch);
+
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 5; i++) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put(COLUMN_NAME, "BulkRule" + i);
+			row.put(COLUMN_SWITCH, TestSwitch1DPID);
+			row.put(COLUMN_DL_DST, "00:20:30:40:51:0" + i);
+			row.put(COLUMN_ACTIONS, "output=1");
+			rows.add(row);
+		}
+		storage.insertRows(StaticFlowEntryPusher.TABLE_NAME, rows);
+
+		// the first barrier is not answered, so the other batches are
+		// dropped and all the flows of the switch are written again
+		verify(mockSwitch);
+		assertEquals(1, writeCaptureList.getValues().size());
+		assertEquals(2, writeCaptureList.getValues().get(0).size());
+		assertEquals(TotalTestRules + 5, writeCapture.getValues().size());
+		assertFalse(staticFlowEntryPusher.batchWriters.containsKey(DatapathId.of(dpid)));
+	}
+
 	IStorageSourceService createStorageWithFlowEntries() {
 		return populateStorageWithFlowEntries();
 	}
@@ -0,0 +1,246 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.staticflowentry.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+import net.floodlightcontroller.debugcounter.MockDebugCounterService;
+import net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher;
+import net.floodlightcontroller.storage.IResultSet;
+import net.floodlightcontroller.storage.IStorageSourceService;
+import net.floodlightcontroller.storage.memory.MemoryStorageSource;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.StringRepresentation;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+public class StaticFlowEntryBulkResourceTest extends FloodlightTestCase {
+	static final String SWITCH = "00:00:00:00:00:00:00:01";
+
+	private MemoryStorageSource storage;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		storage = new MemoryStorageSource();
+		MockDebugCounterService debugCounterService = new MockDebugCounterService();
+		FloodlightModuleContext fmc = new FloodlightModuleContext();
+		fmc.addService(IStorageSourceService.class, storage);
+		fmc.addService(IDebugCounterService.class, debugCounterService);
+		debugCounterService.init(fmc);
+		storage.init(fmc);
+		debugCounterService.startUp(fmc);
+		storage.startUp(fmc);
+
+		Set<String> indexedColumns = new HashSet<String>();
+		indexedColumns.add(StaticFlowEntryPusher.COLUMN_NAME);
+		storage.createTable(StaticFlowEntryPusher.TABLE_NAME, indexedColumns);
+		storage.setTablePrimaryKeyName(StaticFlowEntryPusher.TABLE_NAME, StaticFlowEntryPusher.COLUMN_NAME);
+	}
+
+	private StaticFlowEntryBulkResource getResource() {
+		StaticFlowEntryBulkResource r = new StaticFlowEntryBulkResource();
+		r.init(new Context(), new Request(), new Response(new Request()));
+		r.getContext().getAttributes().putIfAbsent(IStorageSourceService.class.getCanonicalName(), storage);
+		return r;
+	}
+
+	private static String entryJson(String name, String sw, String extra) {
+		StringBuilder sb = new StringBuilder("{");
+		if (name != null) {
+			sb.append("\"" + StaticFlowEntryPusher.COLUMN_NAME + "\":\"" + name + "\",");
+		}
+		if (sw != null) {
+			sb.append("\"" + StaticFlowEntryPusher.COLUMN_SWITCH + "\":\"" + sw + "\",");
+		}
+		if (extra != null) {
+			sb.append(extra + ",");
+		}
+		sb.append("\"" + StaticFlowEntryPusher.COLUMN_ACTIVE + "\":\"true\"}");
+		return sb.toString();
+	}
+
+	private static Map<String, Object> entry(String name, String sw) {
+		Map<String, Object> entry = new HashMap<String, Object>();
+		entry.put(StaticFlowEntryPusher.COLUMN_NAME, name);
+		entry.put(StaticFlowEntryPusher.COLUMN_SWITCH, sw);
+		entry.put(StaticFlowEntryPusher.COLUMN_ACTIVE, "true");
+		return entry;
+	}
+
+	private int storedRows() {
+		IResultSet rs = storage.executeQuery(StaticFlowEntryPusher.TABLE_NAME, null, null, null);
+		int count = 0;
+		while (rs.next()) {
+			count++;
+		}
+		rs.close();
+		return count;
+	}
+
+	private static JsonParser parser(String json) throws IOException {
+		return new MappingJsonFactory().createJsonParser(json);
+	}
+
+	@Test
+	public void testReadEntries() throws Exception {
+		String json = "[" + entryJson("f1", SWITCH, null) + "," + entryJson("f2", SWITCH, null) + "]";
+		List<Map<String, Object>> entries = StaticFlowEntryBulkResource.readEntries(parser(json));
+		assertEquals(2, entries.size());
+		assertEquals("f1", entries.get(0).get(StaticFlowEntryPusher.COLUMN_NAME));
+		assertEquals("f2", entries.get(1).get(StaticFlowEntryPusher.COLUMN_NAME));
+		assertEquals(SWITCH, entries.get(1).get(StaticFlowEntryPusher.COLUMN_SWITCH));
+
+		assertEquals(0, StaticFlowEntryBulkResource.readEntries(parser("[]")).size());
+
+		// a single entry is not an array
+		try {
+			StaticFlowEntryBulkResource.readEntries(parser(entryJson("f1", SWITCH, null)));
+			fail("Expected an IOException for an object");
+		} catch (IOException e) {
+			// expected
+		}
+
+		// the array ends early
+		try {
+			StaticFlowEntryBulkResource.readEntries(parser("[" + entryJson("f1", SWITCH, null)));
+			fail("Expected an IOException for truncated input");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testValidateAll() throws Exception {
+		// every third entry has no switch, every fifth needs an eth_type
+		List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < StaticFlowEntryBulkResource.PARALLEL_THRESHOLD * 2 + 1; i++) {
+			Map<String, Object> entry = entry("f" + i, i % 3 == 0 ? null : SWITCH);
+			if (i % 5 == 0) {
+				entry.put(StaticFlowEntryPusher.COLUMN_NW_DST, "10.0.0.1");
+			}
+			entries.add(entry);
+		}
+
+		List<String> inline = StaticFlowEntryBulkResource.validateAll(entries, null);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		List<String> parallel;
+		try {
+			parallel = StaticFlowEntryBulkResource.validateAll(entries, executor);
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(entries.size(), inline.size());
+		assertEquals(inline, parallel);
+		for (int i = 0; i < entries.size(); i++) {
+			if (i % 3 == 0) {
+				assertEquals("Error! No switch provided. The flow has been discarded.", inline.get(i));
+			} else if (i % 5 == 0) {
+				assertEquals(StaticFlowEntryPusherResource.getCheckFlowStatus(1), inline.get(i));
+			} else {
+				assertNull(inline.get(i));
+			}
+		}
+
+		// short lists are validated inline, never on the (shut down) executor
+		List<String> few = StaticFlowEntryBulkResource.validateAll(entries.subList(1, 3), executor);
+		assertEquals(2, few.size());
+		assertNull(few.get(0));
+		assertNull(few.get(1));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testStore() throws Exception {
+		String json = "[" + entryJson("f1", SWITCH, null) + ","
+				+ entryJson("f2", SWITCH, null) + ","
+				+ entryJson("f1", SWITCH, null) + ","
+				+ entryJson(null, SWITCH, null) + ","
+				+ entryJson("f3", null, null) + ","
+				+ entryJson("f4", SWITCH, "\"" + StaticFlowEntryPusher.COLUMN_NW_DST + "\":\"10.0.0.1\"") + "]";
+		StaticFlowEntryBulkResource r = getResource();
+		Map<String, Object> result = r.store(new StringRepresentation(json, MediaType.APPLICATION_JSON));
+
+		assertEquals("2 of 6 entries pushed", result.get("status"));
+		List<Map<String, String>> entries = (List<Map<String, String>>) result.get("entries");
+		assertEquals(6, entries.size());
+		assertEquals("f1", entries.get(0).get("name"));
+		assertEquals(StaticFlowEntryBulkResource.STATUS_PUSHED, entries.get(0).get("status"));
+		assertEquals("f2", entries.get(1).get("name"));
+		assertEquals(StaticFlowEntryBulkResource.STATUS_PUSHED, entries.get(1).get("status"));
+		assertEquals("f1", entries.get(2).get("name"));
+		assertEquals("Error! Duplicate name. The flow has been discarded.", entries.get(2).get("status"));
+		assertNull(entries.get(3).get("name"));
+		assertEquals("Error! No name provided. The flow has been discarded.", entries.get(3).get("status"));
+		assertEquals("Error! No switch provided. The flow has been discarded.", entries.get(4).get("status"));
+		assertEquals(StaticFlowEntryPusherResource.getCheckFlowStatus(1), entries.get(5).get("status"));
+
+		assertEquals(2, storedRows());
+		IResultSet rs = storage.getRow(StaticFlowEntryPusher.TABLE_NAME, "f1");
+		assertTrue(rs.next());
+		assertEquals(SWITCH, rs.getString(StaticFlowEntryPusher.COLUMN_SWITCH));
+		rs.close();
+		rs = storage.getRow(StaticFlowEntryPusher.TABLE_NAME, "f4");
+		assertFalse(rs.next());
+		rs.close();
+	}
+
+	@Test
+	public void testStoreParseError() throws Exception {
+		// the first entry is fine but the array is not, so nothing is stored
+		String json = "[" + entryJson("f1", SWITCH, null) + ",{\"name\":";
+		StaticFlowEntryBulkResource r = getResource();
+		Map<String, Object> result = r.store(new StringRepresentation(json, MediaType.APPLICATION_JSON));
+		assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, r.getStatus());
+		assertEquals("Error! Could not parse flow mods, see log for details.", result.get("status"));
+		assertNull(result.get("entries"));
+		assertEquals(0, storedRows());
+
+		r = getResource();
+		result = r.store(null);
+		assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, r.getStatus());
+		assertEquals("Error! No data posted.", result.get("status"));
+		assertEquals(0, storedRows());
+	}
+}
@@ -22,13 +22,34 @@ import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.debugcounter.MockDebugCounterService;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.restserver.RestApiServer;
+import net.floodlightcontroller.storage.CompoundPredicate;
+import net.floodlightcontroller.storage.IResultSet;
+import net.floodlightcontroller.storage.OperatorPredicate;
+import net.floodlightcontroller.storage.RowOrdering;
 import net.floodlightcontroller.storage.memory.MemoryStorageSource;
+import net.floodlightcontroller.storage.nosql.NoSqlStorageSource.ColumnIndexMode;
 import net.floodlightcontroller.storage.tests.StorageTest;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
 import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class MemoryStorageTest extends StorageTest {
 
+    @Rule
+    public TemporaryFolder dbFolder = new TemporaryFolder();
+
     @Before
     public void setUp() throws Exception {
         storageSource = new MemoryStorageSource();
@@ -42,4 +63,194 @@ public class MemoryStorageTest extends StorageTest {
         storageSource.startUp(fmc);
         super.setUp();
     }
+
+    @Test
+    public void testIndexMaintenance() {
+        String[] columnList = {PERSON_FIRST_NAME,PERSON_LAST_NAME};
+        OperatorPredicate jones =
+                new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.EQ, "Jones");
+
+        // Changing an indexed column moves the row in the index
+        Map<String,Object> values = new HashMap<String,Object>();
+        values.put(PERSON_LAST_NAME, "Jones");
+        storageSource.updateRow(PERSON_TABLE_NAME, "111-11-1111", values);
+        IResultSet resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList, jones, null);
+        Object[][] expectedJones = {{"John", "Jones"}, {"Lisa", "Jones"}, {"Susan", "Jones"}};
+        checkExpectedResults(resultSet, columnList, expectedJones);
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.EQ, "Smith"), null);
+        checkExpectedResults(resultSet, columnList, new Object[0][]);
+
+        // Replaced and deleted rows leave the index
+        insertPerson(new Object[] {"333-33-3333", "Lisa", "Brown", 27, true});
+        storageSource.deleteRow(PERSON_TABLE_NAME, "444-44-4444");
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList, jones, null);
+        checkExpectedResults(resultSet, columnList, new Object[][] {{"John", "Jones"}});
+
+        // Range queries over the sorted index
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                new CompoundPredicate(CompoundPredicate.Operator.AND, false,
+                        new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.GT, "Brown"),
+                        new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.LTE, "Jones")),
+                null);
+        Object[][] expectedRange = {{"John", "Jones"}, {"Jose", "Garcia"}, {"Abigail", "Johnson"}};
+        checkExpectedResults(resultSet, columnList, expectedRange);
+    }
+
+    @Test
+    public void testIndexedRangeQueryCoercion() {
+        // An index added to an existing table is built from its rows
+        storageSource.setColumnIndexMode(PERSON_TABLE_NAME, PERSON_AGE, ColumnIndexMode.RANGE_INDEXED);
+        String[] columnList = {PERSON_FIRST_NAME,PERSON_AGE};
+        Object[][] expectedResults = {{"Bjorn", 55}, {"John", 53}};
+        IResultSet resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                new OperatorPredicate(PERSON_AGE, OperatorPredicate.Operator.GT, 50),
+                new RowOrdering(PERSON_SSN));
+        checkExpectedResults(resultSet, columnList, expectedResults);
+
+        // Bounds of another class are compared as the predicate would
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                new OperatorPredicate(PERSON_AGE, OperatorPredicate.Operator.GT, 50L),
+                new RowOrdering(PERSON_SSN));
+        checkExpectedResults(resultSet, columnList, expectedResults);
+    }
+
+    @Test
+    public void testSnapshotReads() throws Exception {
+        String[] columnList = {PERSON_SSN,PERSON_AGE};
+        Map<String,Object> values = new HashMap<String,Object>();
+        values.put(PERSON_AGE, 0);
+        storageSource.updateMatchingRows(PERSON_TABLE_NAME, null, values);
+
+        // A query result isn't affected by later writes
+        IResultSet resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList, null, null);
+        values.put(PERSON_AGE, 1);
+        storageSource.updateMatchingRows(PERSON_TABLE_NAME, null, values);
+        storageSource.deleteRow(PERSON_TABLE_NAME, "111-11-1111");
+        int count = 0;
+        while (resultSet.next()) {
+            assertEquals(0, resultSet.getInt(PERSON_AGE));
+            count++;
+        }
+        assertEquals(8, count);
+
+        // Readers running alongside a writer see each update of all the
+        // rows either entirely or not at all
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                @Override
+                public void run() {
+                    String[] columnList = {PERSON_AGE};
+                    while (done.get() == 0) {
+                        IResultSet rs = storageSource.executeQuery(PERSON_TABLE_NAME,
+                                columnList, null, null);
+                        Integer age = null;
+                        int rows = 0;
+                        while (rs.next()) {
+                            if (age == null)
+                                age = rs.getInt(PERSON_AGE);
+                            else if (age != rs.getInt(PERSON_AGE))
+                                errors.incrementAndGet();
+                            rows++;
+                        }
+                        if (rows != 7)
+                            errors.incrementAndGet();
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (int age = 2; age < 2000; age++) {
+            values.put(PERSON_AGE, age);
+            storageSource.updateMatchingRows(PERSON_TABLE_NAME, null, values);
+        }
+        done.set(1);
+        for (Thread reader : readers)
+            reader.join();
+        assertEquals(0, errors.get());
+    }
+
+    private MemoryStorageSource restart() {
+        MemoryStorageSource source = new MemoryStorageSource();
+        source.setDebugCounterService(new MockDebugCounterService());
+        source.startJournal(dbFolder.getRoot(), 4);
+        Set<String> indexedColumnNames = new HashSet<String>();
+        indexedColumnNames.add(PERSON_LAST_NAME);
+        source.createTable(PERSON_TABLE_NAME, indexedColumnNames);
+        source.setTablePrimaryKeyName(PERSON_TABLE_NAME, PERSON_SSN);
+        return source;
+    }
+
+    @Test
+    public void testJournal() throws Exception {
+        // The rows that exist when the journal starts are saved too
+        MemoryStorageSource source = (MemoryStorageSource) storageSource;
+        source.startJournal(dbFolder.getRoot(), 4);
+        Map<String,Object> values = new HashMap<String,Object>();
+        values.put(PERSON_LAST_NAME, "Jones");
+        storageSource.updateRow(PERSON_TABLE_NAME, "111-11-1111", values);
+        storageSource.deleteRow(PERSON_TABLE_NAME, "444-44-4444");
+        List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+        for (int i = 0; i < 10; i++) {
+            Map<String,Object> row = new HashMap<String,Object>();
+            row.put(PERSON_SSN, "999-99-999" + i);
+            row.put(PERSON_FIRST_NAME, "Test");
+            row.put(PERSON_LAST_NAME, "Smith");
+            row.put(PERSON_AGE, i);
+            row.put(PERSON_REGISTERED, true);
+            rows.add(row);
+        }
+        storageSource.insertRows(PERSON_TABLE_NAME, rows);
+        source.stopJournal();
+
+        source = restart();
+        String[] columnList = {PERSON_SSN,PERSON_FIRST_NAME,PERSON_AGE,PERSON_REGISTERED};
+        IResultSet resultSet = source.executeQuery(PERSON_TABLE_NAME, columnList,
+                new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.EQ, "Jones"),
+                new RowOrdering(PERSON_SSN));
+        Object[][] expectedJones = {{"111-11-1111", "John", 40, true}, {"333-33-3333", "Lisa", 27, true}};
+        checkExpectedResults(resultSet, columnList, expectedJones);
+        resultSet = source.executeQuery(PERSON_TABLE_NAME, columnList,
+                new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.EQ, "Smith"),
+                new RowOrdering(PERSON_SSN));
+        int count = 0;
+        while (resultSet.next()) {
+            assertEquals(count, resultSet.getInt(PERSON_AGE));
+            count++;
+        }
+        assertEquals(10, count);
+
+        // Changes keep being saved after a restart
+        source.deleteRow(PERSON_TABLE_NAME, "999-99-9990");
+        source.stopJournal();
+        source = restart();
+        assertFalse(source.getRow(PERSON_TABLE_NAME, "999-99-9990").next());
+        assertTrue(source.getRow(PERSON_TABLE_NAME, "999-99-9991").next());
+        source.stopJournal();
+    }
+
+    private static class HookedStorageSource extends MemoryStorageSource {
+        Thread getShutdownHook() {
+            return shutdownHook;
+        }
+    }
+
+    @Test
+    public void testJournalShutdownHook() throws Exception {
+        // Restarting the journal does not pile up shutdown hooks
+        HookedStorageSource source = new HookedStorageSource();
+        source.setDebugCounterService(new MockDebugCounterService());
+        for (int i = 0; i < 2; i++) {
+            source.startJournal(dbFolder.getRoot(), 4);
+            Thread hook = source.getShutdownHook();
+            assertNotNull(hook);
+            source.stopJournal();
+            assertNull(source.getShutdownHook());
+            // already removed by stopJournal
+            assertFalse(Runtime.getRuntime().removeShutdownHook(hook));
+        }
+    }
 }
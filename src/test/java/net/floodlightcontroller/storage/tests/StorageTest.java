@@ -23,9 +23,11 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -545,6 +547,68 @@ public abstract class StorageTest extends FloodlightTestCase {
         verify(mockListener);
     }
     
+    @Test
+    public void testBulkInsertNotification() {
+        IStorageSourceListener mockListener = createMock(IStorageSourceListener.class);
+        Set<Object> expectedKeys = new HashSet<Object>();
+        expectedKeys.add("999-99-9999");
+        expectedKeys.add("888-88-8888");
+        mockListener.rowsModified(PERSON_TABLE_NAME, expectedKeys);
+        
+        replay(mockListener);
+
+        storageSource.addListener(PERSON_TABLE_NAME, mockListener);
+
+        // All the rows are reported in one notification
+        List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+        rows.add(createPersonRowValues(new Object[] {"999-99-9999", "Serena", "Williams", 22, true}));
+        rows.add(createPersonRowValues(new Object[] {"888-88-8888", "Venus", "Williams", 23, true}));
+        storageSource.insertRows(PERSON_TABLE_NAME, rows);
+        
+        verify(mockListener);
+        IResultSet resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, null,
+                new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.EQ, "Williams"), null);
+        int count = 0;
+        while (resultSet.next())
+            count++;
+        assertEquals(2, count);
+    }
+    
+    @Test
+    public void testBatchedNotification() {
+        IStorageSourceListener mockListener = createMock(IStorageSourceListener.class);
+        Set<Object> expectedDeleted = new HashSet<Object>();
+        expectedDeleted.add("111-11-1111");
+        expectedDeleted.add("999-99-9999");
+        mockListener.rowsDeleted(PERSON_TABLE_NAME, expectedDeleted);
+        Set<Object> expectedModified = new HashSet<Object>();
+        expectedModified.add("222-22-2222");
+        expectedModified.add("333-33-3333");
+        mockListener.rowsModified(PERSON_TABLE_NAME, expectedModified);
+        
+        replay(mockListener);
+
+        storageSource.addListener(PERSON_TABLE_NAME, mockListener);
+
+        // Nothing is delivered until the outermost batch ends, and each
+        // row is reported once with its last change
+        Map<String,Object> updateValues = new HashMap<String,Object>();
+        updateValues.put(PERSON_FIRST_NAME, "Tennis");
+        storageSource.startNotificationBatch();
+        storageSource.updateRow(PERSON_TABLE_NAME, "111-11-1111", updateValues);
+        storageSource.deleteRow(PERSON_TABLE_NAME, "111-11-1111");
+        storageSource.startNotificationBatch();
+        storageSource.deleteRow(PERSON_TABLE_NAME, "222-22-2222");
+        insertPerson(new Object[] {"222-22-2222", "Jim", "White", 25, false});
+        insertPerson(new Object[] {"999-99-9999", "Serena", "Williams", 22, true});
+        storageSource.deleteRow(PERSON_TABLE_NAME, "999-99-9999");
+        storageSource.endNotificationBatch();
+        storageSource.updateRow(PERSON_TABLE_NAME, "333-33-3333", updateValues);
+        storageSource.endNotificationBatch();
+        
+        verify(mockListener);
+    }
+    
     public void waitForFuture(Future<?> future) {
         try
         {
@@ -17,6 +17,9 @@
 package net.floodlightcontroller.topology;
 
 import static org.junit.Assert.*;
+
+import java.util.List;
+
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.test.MockThreadPoolService;
@@ -25,6 +28,10 @@ import net.floodlightcontroller.debugcounter.MockDebugCounterService;
 import net.floodlightcontroller.debugevent.IDebugEventService;
 import net.floodlightcontroller.debugevent.MockDebugEventService;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscovery;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LinkType;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.SwitchType;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.UpdateOperation;
 import net.floodlightcontroller.test.FloodlightTestCase;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.topology.TopologyManager;
@@ -131,4 +138,72 @@ public class TopologyManagerTest extends FloodlightTestCase {
         assertTrue(tm.getTunnelPorts().size()==0);
     }
 
+    @Test
+    public void testCoalesceUpdates() throws Exception {
+        DatapathId sw1 = DatapathId.of(1);
+        DatapathId sw2 = DatapathId.of(2);
+        tm.addOrUpdateLink(sw1, OFPort.of(1), sw2, OFPort.of(1), LinkType.DIRECT_LINK);
+
+        // A link that flaps back to its old type is not reported.
+        tm.linkDiscoveryUpdate(new LDUpdate(sw1, OFPort.of(1), sw2, OFPort.of(1),
+                LinkType.DIRECT_LINK, UpdateOperation.LINK_REMOVED));
+        tm.linkDiscoveryUpdate(new LDUpdate(sw1, OFPort.of(1), sw2, OFPort.of(1),
+                LinkType.DIRECT_LINK, UpdateOperation.LINK_UPDATED));
+        // Nor is a link that is added and removed again.
+        tm.linkDiscoveryUpdate(new LDUpdate(sw1, OFPort.of(2), sw2, OFPort.of(2),
+                LinkType.DIRECT_LINK, UpdateOperation.LINK_UPDATED));
+        tm.linkDiscoveryUpdate(new LDUpdate(sw1, OFPort.of(2), sw2, OFPort.of(2),
+                LinkType.DIRECT_LINK, UpdateOperation.LINK_REMOVED));
+        // Only the last state of a port is reported.
+        tm.linkDiscoveryUpdate(new LDUpdate(sw1, OFPort.of(3), UpdateOperation.PORT_DOWN));
+        tm.linkDiscoveryUpdate(new LDUpdate(sw1, OFPort.of(3), UpdateOperation.PORT_UP));
+        // A new link is reported once.
+        tm.linkDiscoveryUpdate(new LDUpdate(sw1, OFPort.of(4), sw2, OFPort.of(4),
+                LinkType.MULTIHOP_LINK, UpdateOperation.LINK_UPDATED));
+        tm.linkDiscoveryUpdate(new LDUpdate(sw1, OFPort.of(4), sw2, OFPort.of(4),
+                LinkType.MULTIHOP_LINK, UpdateOperation.LINK_UPDATED));
+
+        List<LDUpdate> updates = tm.applyUpdates();
+        assertEquals(2, updates.size());
+        assertEquals(UpdateOperation.PORT_UP, updates.get(0).getOperation());
+        assertEquals(OFPort.of(3), updates.get(0).getSrcPort());
+        assertEquals(UpdateOperation.LINK_UPDATED, updates.get(1).getOperation());
+        assertEquals(OFPort.of(4), updates.get(1).getSrcPort());
+
+        // The topology itself reflects all of the updates.
+        assertEquals(LinkType.DIRECT_LINK,
+                tm.getLinkType(sw1, OFPort.of(1), sw2, OFPort.of(1)));
+        assertNull(tm.getLinkType(sw1, OFPort.of(2), sw2, OFPort.of(2)));
+        assertEquals(LinkType.MULTIHOP_LINK,
+                tm.getLinkType(sw1, OFPort.of(4), sw2, OFPort.of(4)));
+    }
+
+    @Test
+    public void testCoalesceSwitchFlap() throws Exception {
+        DatapathId sw1 = DatapathId.of(1);
+        DatapathId sw2 = DatapathId.of(2);
+
+        // A switch that reconnects within the batch is reported as removed
+        // and then updated.
+        tm.linkDiscoveryUpdate(new LDUpdate(sw1, SwitchType.BASIC_SWITCH,
+                UpdateOperation.SWITCH_REMOVED));
+        tm.linkDiscoveryUpdate(new LDUpdate(sw1, SwitchType.BASIC_SWITCH,
+                UpdateOperation.SWITCH_UPDATED));
+        // A switch that ends up removed is reported as removed once.
+        tm.linkDiscoveryUpdate(new LDUpdate(sw2, SwitchType.BASIC_SWITCH,
+                UpdateOperation.SWITCH_REMOVED));
+        tm.linkDiscoveryUpdate(new LDUpdate(sw2, SwitchType.BASIC_SWITCH,
+                UpdateOperation.SWITCH_UPDATED));
+        tm.linkDiscoveryUpdate(new LDUpdate(sw2, SwitchType.BASIC_SWITCH,
+                UpdateOperation.SWITCH_REMOVED));
+
+        List<LDUpdate> updates = tm.applyUpdates();
+        assertEquals(3, updates.size());
+        assertEquals(UpdateOperation.SWITCH_REMOVED, updates.get(0).getOperation());
+        assertEquals(sw1, updates.get(0).getSrc());
+        assertEquals(UpdateOperation.SWITCH_UPDATED, updates.get(1).getOperation());
+        assertEquals(sw1, updates.get(1).getSrc());
+        assertEquals(UpdateOperation.SWITCH_REMOVED, updates.get(2).getOperation());
+        assertEquals(sw2, updates.get(2).getSrc());
+    }
 }
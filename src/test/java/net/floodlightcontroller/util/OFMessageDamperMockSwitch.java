@@ -130,6 +130,12 @@ public class OFMessageDamperMockSwitch implements IOFSwitch {
         return null;
     }
 
+    @Override
+    public long getLatency() {
+        assertTrue("Unexpected method call", false);
+        return 0;
+    }
+
     @Override
     public boolean isConnected() {
         assertTrue("Unexpected method call", false);
@@ -0,0 +1,86 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.virtualnetwork;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+public class VirtualNetworkSnapshotTest {
+    private static final MacAddress host1 = MacAddress.of("00:11:22:33:44:01");
+    private static final MacAddress host2 = MacAddress.of("00:11:22:33:44:02");
+    private static final MacAddress host3 = MacAddress.of("00:11:22:33:44:03");
+    private static final MacAddress stranger = MacAddress.of("00:11:22:33:44:09");
+    private static final MacAddress gwMac1 = MacAddress.of("00:11:33:33:44:01");
+    private static final MacAddress gwMac2 = MacAddress.of("00:11:33:33:44:02");
+    private static final IPv4Address gw1 = IPv4Address.of("1.1.1.1");
+    private static final IPv4Address gw2 = IPv4Address.of("2.2.2.2");
+
+    private VirtualNetworkSnapshot build() {
+        Map<MacAddress, String> macToGuid = new HashMap<MacAddress, String>();
+        Map<String, IPv4Address> guidToGateway = new HashMap<String, IPv4Address>();
+        Map<MacAddress, IPv4Address> macToGateway = new HashMap<MacAddress, IPv4Address>();
+        macToGuid.put(host1, "net1");
+        macToGuid.put(host2, "net1");
+        macToGuid.put(host3, "net2");
+        guidToGateway.put("net1", gw1);
+        guidToGateway.put("net2", gw2);
+        macToGateway.put(gwMac1, gw1);
+        macToGateway.put(gwMac2, gw2);
+        return new VirtualNetworkSnapshot(7, macToGuid, guidToGateway, macToGateway);
+    }
+
+    @Test
+    public void testLookups() {
+        VirtualNetworkSnapshot s = build();
+        assertEquals(7, s.getVersion());
+        assertEquals("net1", s.getNetwork(host1));
+        assertEquals("net2", s.getNetwork(host3));
+        assertNull(s.getNetwork(gwMac1));
+        assertNull(s.getNetwork(stranger));
+
+        assertTrue(s.isSameNetwork(host1, host2));
+        assertFalse(s.isSameNetwork(host1, host3));
+        assertFalse(s.isSameNetwork(stranger, stranger));
+
+        // from any gateway, but only to the gateway of the source's network
+        assertTrue(s.isGateway(gwMac2, host1));
+        assertTrue(s.isGateway(host1, gwMac1));
+        assertFalse(s.isGateway(host1, gwMac2));
+        assertFalse(s.isGateway(stranger, gwMac1));
+    }
+
+    @Test
+    public void testAdmission() {
+        VirtualNetworkSnapshot s = build();
+        // asked twice so the second answer comes from the cache
+        for (int i = 0; i < 2; i++) {
+            assertTrue(s.isAllowed(host1, host2));
+            assertTrue(s.isAllowed(host3, gwMac2));
+            assertTrue(s.isAllowed(gwMac1, host3));
+            assertFalse(s.isAllowed(host1, host3));
+            assertFalse(s.isAllowed(host3, gwMac1));
+            assertFalse(s.isAllowed(stranger, host1));
+            assertFalse(s.isAllowed(host1, stranger));
+        }
+    }
+}
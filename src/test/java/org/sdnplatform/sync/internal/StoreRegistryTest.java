@@ -0,0 +1,56 @@
+package org.sdnplatform.sync.internal;
+
+import static org.junit.Assert.*;
+import static org.sdnplatform.sync.internal.TUtils.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.StoreRegistry.Hint;
+import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.version.VectorClock;
+
+public class StoreRegistryTest {
+
+    @Test
+    public void testHintCoalescing() throws Exception {
+        StoreRegistry registry = new StoreRegistry(null, null);
+        ByteArray hot = new ByteArray("hot".getBytes());
+        ByteArray cold = new ByteArray("cold".getBytes());
+
+        VectorClock clock = getClock(1);
+        for (int i = 0; i < 10; i++) {
+            clock = clock.incremented(1, System.currentTimeMillis());
+            registry.queueHint("test", hot,
+                               new Versioned<byte[]>(randomBytes(4), clock));
+        }
+        registry.queueHint("test", cold,
+                           new Versioned<byte[]>(randomBytes(4), getClock(1)));
+
+        List<Hint> hints = new ArrayList<Hint>();
+        registry.takeHints(hints, 50);
+        assertEquals(2, hints.size());
+
+        Hint hint = hints.get(0);
+        assertEquals(hot, hint.getHintKey().getKey());
+        assertEquals(10, hint.getWrites());
+        assertEquals(1, hint.getValues().size());
+        assertEquals(clock, hint.getValues().get(0).getVersion());
+        assertTrue(hint.getQueueTime() <= hints.get(1).getQueueTime());
+
+        assertEquals(cold, hints.get(1).getHintKey().getKey());
+        assertEquals(1, hints.get(1).getWrites());
+
+        // a key taken from the queue starts over
+        registry.queueHint("test", hot,
+                           new Versioned<byte[]>(randomBytes(4),
+                               clock.incremented(1, System.currentTimeMillis())));
+        hints.clear();
+        registry.takeHints(hints, 50);
+        assertEquals(1, hints.size());
+        assertEquals(1, hints.get(0).getWrites());
+        registry.shutdown();
+    }
+}
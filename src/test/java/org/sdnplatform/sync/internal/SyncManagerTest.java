@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.Map.Entry;
 
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.debugcounter.DebugCounterServiceImpl;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.debugcounter.MockDebugCounterService;
 import net.floodlightcontroller.debugevent.IDebugEventService;
@@ -72,8 +73,16 @@ public class SyncManagerTest {
     protected void setupSyncManager(FloodlightModuleContext fmc,
                                     SyncManager syncManager, Node thisNode)
             throws Exception {        
+        setupSyncManager(fmc, syncManager, thisNode,
+                         new MockDebugCounterService());
+    }
+
+    protected void setupSyncManager(FloodlightModuleContext fmc,
+                                    SyncManager syncManager, Node thisNode,
+                                    IDebugCounterService debugCounter)
+            throws Exception {
         fmc.addService(IThreadPoolService.class, tp);
-        fmc.addService(IDebugCounterService.class, new MockDebugCounterService());
+        fmc.addService(IDebugCounterService.class, debugCounter);
         fmc.addService(IDebugEventService.class, new MockDebugEventService());
         fmc.addConfigParam(syncManager, "configProviders", 
                            PropertyCCProvider.class.getName());
@@ -592,6 +601,77 @@ public class SyncManagerTest {
         waitForValue(client0, "newkey", "newvalue", 2000, "client0");
     }
     
+    /**
+     * Wait for a snapshot to be sent and received completely
+     */
+    protected void waitForSnapshot(int maxTime) throws Exception {
+        long then = System.currentTimeMillis();
+        while (SyncManager.counterSnapshotsCompleted.getCounterValue() < 1 ||
+               SyncManager.counterSnapshotsServed.getCounterValue() < 1) {
+            assertTrue("Timed out waiting for snapshot",
+                       then + maxTime > System.currentTimeMillis());
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testSnapshotBootstrap() throws Exception {
+        waitForFullMesh(2000);
+        IStoreClient<String, String> client0 =
+                syncManagers[0].getStoreClient("global",
+                                               String.class, String.class);
+        // enough data to need several snapshot chunks
+        char[] pad = new char[1000];
+        Arrays.fill(pad, 'x');
+        String value = new String(pad);
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            client0.put("key" + i, value + i);
+        }
+
+        nodes.add(new Node("localhost", 40105, (short)5, (short)5));
+        SyncManager[] sms = Arrays.copyOf(syncManagers,
+                                          syncManagers.length + 1);
+        FloodlightModuleContext[] fmcs =
+                Arrays.copyOf(moduleContexts,
+                              moduleContexts.length + 1);
+        sms[syncManagers.length] = new SyncManager();
+        fmcs[moduleContexts.length] = new FloodlightModuleContext();
+        nodeString = mapper.writeValueAsString(nodes);
+
+        // real counters, so we can tell the snapshot path was taken; the
+        // counters are static, so the other nodes count into them too
+        setupSyncManager(fmcs[moduleContexts.length],
+                         sms[syncManagers.length],
+                         nodes.get(syncManagers.length),
+                         new DebugCounterServiceImpl());
+        syncManagers = sms;
+        moduleContexts = fmcs;
+
+        for(int i = 0; i < 4; i++) {
+            moduleContexts[i].addConfigParam(syncManagers[i],
+                                             "nodes", nodeString);
+            syncManagers[i].doUpdateConfiguration();
+        }
+        waitForFullMesh(2000);
+
+        IStoreClient<String, String> client4 =
+                syncManagers[4].getStoreClient("global",
+                                               String.class, String.class);
+        for (int i = 0; i < count; i++) {
+            waitForValue(client4, "key" + i, value + i, 5000, "client4");
+        }
+        waitForSnapshot(5000);
+        assertEquals(0, SyncManager.counterSnapshotErrors.getCounterValue());
+        // 1000 values of 1KB do not fit in one chunk
+        assertTrue(SyncManager.counterSnapshotChunks.getCounterValue() > 1);
+        assertTrue(SyncManager.counterSnapshotValues.getCounterValue() >= count);
+
+        // writes made after the snapshot still replicate as usual
+        client4.put("newkey", "newvalue");
+        waitForValue(client0, "newkey", "newvalue", 2000, "client0");
+    }
+
     @Test
     public void testRemoveNode() throws Exception {
         waitForFullMesh(2000);
@@ -0,0 +1,168 @@
+package org.sdnplatform.sync.internal.rpc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+import org.sdnplatform.sync.ISyncService.Scope;
+import org.sdnplatform.sync.internal.rpc.RPCService.MessageWindow;
+import org.sdnplatform.sync.thrift.KeyedValues;
+import org.sdnplatform.sync.thrift.SnapshotChunkMessage;
+import org.sdnplatform.sync.thrift.SyncMessage;
+import org.sdnplatform.sync.thrift.VersionedValue;
+
+public class ThriftFrameCodecTest {
+
+    private static SyncMessage getMessage(int txid, int values, int size) {
+        SyncMessage bsm =
+                TProtocolUtil.getTSyncValueMessage("test", Scope.GLOBAL,
+                                                   false);
+        bsm.getSyncValue().getHeader().setTransactionId(txid);
+        Random r = new Random(txid);
+        for (int i = 0; i < values; i++) {
+            KeyedValues kv = new KeyedValues();
+            kv.setKey(("key" + i).getBytes());
+            VersionedValue vv = new VersionedValue();
+            byte[] value = new byte[size];
+            // half random, half repetitive
+            for (int j = 0; j < size; j++)
+                value[j] = (byte)(j % 2 == 0 ? r.nextInt() : j % 7);
+            vv.setValue(value);
+            kv.addToValues(vv);
+            bsm.getSyncValue().addToValues(kv);
+        }
+        return bsm;
+    }
+
+    private List<SyncMessage> roundTrip(int features,
+                                        List<SyncMessage> messages)
+            throws Exception {
+        ThriftFrameEncoder encoder = new ThriftFrameEncoder();
+        encoder.setFeatures(features);
+        EncoderEmbedder<ChannelBuffer> ee =
+                new EncoderEmbedder<ChannelBuffer>(encoder);
+        for (SyncMessage m : messages)
+            ee.offer(m);
+        ee.finish();
+
+        DecoderEmbedder<List<SyncMessage>> de =
+                new DecoderEmbedder<List<SyncMessage>>(
+                        new ThriftFrameDecoder(512 * 1024));
+        ChannelBuffer frame;
+        while (null != (frame = ee.poll()))
+            de.offer(frame);
+        de.finish();
+
+        List<SyncMessage> result = new ArrayList<SyncMessage>();
+        List<SyncMessage> ms;
+        while (null != (ms = de.poll()))
+            result.addAll(ms);
+        return result;
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte)(i % 251 < 100 ? i % 13 : i * 31);
+        byte[] c = FrameCompression.compress(data, 0, data.length);
+        assertTrue(c.length < data.length);
+        assertArrayEquals(data,
+                          FrameCompression.decompress(c, 0, c.length,
+                                                      data.length));
+
+        byte[] empty = FrameCompression.compress(data, 0, 0);
+        assertEquals(0, FrameCompression.decompress(empty, 0, empty.length,
+                                                    0).length);
+        try {
+            FrameCompression.decompress(c, 0, c.length - 1, data.length);
+            fail("Expected corrupt frame");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFraming() throws Exception {
+        List<SyncMessage> messages = new ArrayList<SyncMessage>();
+        messages.add(getMessage(1, 1, 10));
+        messages.add(getMessage(2, 10, 500));
+        messages.add(getMessage(3, 2, 20));
+
+        int[] featureSets = {0,
+                             ThriftFrameEncoder.FEATURE_BATCH,
+                             ThriftFrameEncoder.FEATURE_COMPRESSION,
+                             ThriftFrameEncoder.FEATURE_BATCH |
+                             ThriftFrameEncoder.FEATURE_COMPRESSION};
+        for (int features : featureSets) {
+            assertEquals(messages, roundTrip(features, messages));
+        }
+    }
+
+    @Test
+    public void testSnapshotChunk() throws Exception {
+        SyncMessage values = getMessage(1, 10, 100);
+        SyncMessage bsm = TProtocolUtil.
+                getTSnapshotChunkMessage(values.getSyncValue().getStore());
+        SnapshotChunkMessage scm = bsm.getSnapshotChunk();
+        scm.getHeader().setTransactionId(7);
+        scm.setValues(values.getSyncValue().getValues());
+        scm.setSequence(3);
+        scm.setChecksum(TProtocolUtil.getChecksum(scm.getValues()));
+        assertEquals(7, TProtocolUtil.getTransactionId(bsm));
+        assertTrue(TProtocolUtil.getSize(bsm) > 10 * 100);
+
+        List<SyncMessage> messages = new ArrayList<SyncMessage>();
+        messages.add(bsm);
+        List<SyncMessage> result =
+                roundTrip(ThriftFrameEncoder.FRAME_FEATURES, messages);
+        assertEquals(messages, result);
+        SnapshotChunkMessage r = result.get(0).getSnapshotChunk();
+        assertEquals(r.getChecksum(),
+                     TProtocolUtil.getChecksum(r.getValues()));
+
+        // any change to a value is caught
+        r.getValues().get(5).getValues().get(0).getValue()[42] ^= 1;
+        assertTrue(r.getChecksum() !=
+                   TProtocolUtil.getChecksum(r.getValues()));
+
+        SyncMessage last = TProtocolUtil.getTSnapshotChunkMessage(null);
+        last.getSnapshotChunk().setLast(true);
+        assertFalse(last.getSnapshotChunk().isSetStore());
+        assertEquals(0, TProtocolUtil.getSize(last));
+    }
+
+    @Test
+    public void testMessageWindow() throws Exception {
+        MessageWindow mw = new MessageWindow();
+        long window = mw.getWindow();
+        assertEquals(RPCService.INITIAL_WINDOW_BYTES, window);
+
+        // an oversized message still fits into an empty window
+        assertEquals(0, mw.acquire(1, 2 * window, 0));
+        assertEquals(-1, mw.acquire(2, 1, 1));
+
+        // fast acknowledgements of a full window grow it
+        long now = System.nanoTime() + 1000000;
+        assertEquals(1, mw.ack(1, now));
+        assertTrue(mw.getWindow() > window);
+        assertEquals(0, mw.ack(1, now));
+
+        // slow acknowledgements shrink it
+        window = mw.getWindow();
+        for (int i = 10; i < 20; i++) {
+            mw.acquire(i, 1000, 0);
+        }
+        now = System.nanoTime();
+        for (int i = 10; i < 20; i++) {
+            mw.ack(i, now + 100000000L);
+        }
+        assertTrue(mw.getWindow() < window);
+    }
+}
@@ -20,11 +20,16 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.Before;
+import org.junit.Test;
+import org.sdnplatform.sync.Versioned;
 import org.sdnplatform.sync.internal.TUtils;
 import org.sdnplatform.sync.internal.store.IStorageEngine;
 import org.sdnplatform.sync.internal.store.InMemoryStorageEngine;
 import org.sdnplatform.sync.internal.util.ByteArray;
 
+import static org.junit.Assert.*;
+import static org.sdnplatform.sync.internal.TUtils.*;
+
 
 public class InMemoryStorageEngineTest extends AbstractStorageEngineT {
 
@@ -48,4 +53,36 @@ public class InMemoryStorageEngineTest extends AbstractStorageEngineT {
         return keys;
     }
 
+    @Test
+    public void testConcurrentVersions() throws Exception {
+        ByteArray key = getKeys(1).get(0);
+        Versioned<byte[]> v1 = new Versioned<byte[]>(randomBytes(4),
+                                                     getClock(1));
+        Versioned<byte[]> v2 = new Versioned<byte[]>(randomBytes(4),
+                                                     getClock(2));
+        store.put(key, v1);
+        store.put(key, v2);
+        List<Versioned<byte[]>> values = store.get(key);
+        assertEquals(2, values.size());
+        assertTrue(values.contains(v1));
+        assertTrue(values.contains(v2));
+
+        // a successor of both versions replaces them
+        Versioned<byte[]> v3 = new Versioned<byte[]>(randomBytes(4),
+                                                     getClock(1, 2, 2));
+        store.put(key, v3);
+        values = store.get(key);
+        assertEquals(1, values.size());
+        assertEquals(v3, values.get(0));
+
+        // the returned list is a copy
+        values.clear();
+        assertEquals(1, store.get(key).size());
+
+        InMemoryStorageEngine<ByteArray, byte[]> engine =
+                (InMemoryStorageEngine<ByteArray, byte[]>)store;
+        assertEquals(1, engine.remove(key).size());
+        assertFalse(engine.containsKey(key));
+        assertNull(engine.remove(key));
+    }
 }
@@ -0,0 +1,112 @@
+package org.sdnplatform.sync.internal.store;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.TUtils;
+import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.version.VectorClock;
+
+import static org.junit.Assert.*;
+import static org.sdnplatform.sync.internal.TUtils.*;
+
+
+public class LogStorageEngineTest extends AbstractStorageEngineT {
+
+    private File dir;
+    private LogStorageEngine store;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = TUtils.createTempDir();
+        this.store = new LogStorageEngine("test", dir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.store.truncate();
+        this.store.close();
+        this.store = null;
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    @Override
+    public IStorageEngine<ByteArray, byte[]> getStorageEngine() {
+        return store;
+    }
+
+    @Override
+    public List<ByteArray> getKeys(int numKeys) {
+        List<ByteArray> keys = new ArrayList<ByteArray>(numKeys);
+        for(int i = 0; i < numKeys; i++)
+            keys.add(new ByteArray(TUtils.randomBytes(10)));
+        return keys;
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        List<ByteArray> keys = getKeys(100);
+        for (ByteArray key : keys) {
+            store.put(key, new Versioned<byte[]>(key.get(), getClock(1)));
+        }
+        store.put(keys.get(0), new Versioned<byte[]>(null, getClock(1, 1)));
+        store.close();
+
+        store = new LogStorageEngine("test", dir);
+        assertEquals(keys.size(), store.size());
+        List<Versioned<byte[]>> values = store.get(keys.get(0));
+        assertEquals(1, values.size());
+        assertNull(values.get(0).getValue());
+        for (ByteArray key : keys.subList(1, keys.size())) {
+            values = store.get(key);
+            assertEquals(1, values.size());
+            assertArrayEquals(key.get(), values.get(0).getValue());
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        store.close();
+        store = new LogStorageEngine("test", dir, 4096, true);
+
+        // overwrite the same few keys until many segments are full of
+        // dead records
+        List<ByteArray> keys = getKeys(10);
+        VectorClock clock = getClock(1);
+        for (int i = 0; i < 200; i++) {
+            clock = clock.incremented(1, System.currentTimeMillis());
+            for (ByteArray key : keys) {
+                store.put(key, new Versioned<byte[]>(randomBytes(20), clock));
+            }
+        }
+        int before = store.getSegmentCount();
+        assertTrue(before > 10);
+
+        store.cleanupTask();
+        assertTrue(store.getSegmentCount() < before);
+
+        List<List<Versioned<byte[]>>> expected =
+                new ArrayList<List<Versioned<byte[]>>>();
+        for (ByteArray key : keys) {
+            expected.add(store.get(key));
+        }
+        store.close();
+
+        store = new LogStorageEngine("test", dir, 4096, true);
+        assertEquals(keys.size(), store.size());
+        for (int i = 0; i < keys.size(); i++) {
+            List<Versioned<byte[]>> values = store.get(keys.get(i));
+            assertEquals(1, values.size());
+            assertEquals(clock, values.get(0).getVersion());
+            assertArrayEquals(expected.get(i).get(0).getValue(),
+                              values.get(0).getValue());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.sdnplatform.sync.internal.store;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.ISyncService.Scope;
+import org.sdnplatform.sync.internal.TUtils;
+import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.version.VectorClock;
+
+public class MerkleTreeTest {
+
+    private static SynchronizingStorageEngine getStore() {
+        return new SynchronizingStorageEngine(
+                new InMemoryStorageEngine<ByteArray, byte[]>("test"),
+                null, null, Scope.UNSYNCHRONIZED);
+    }
+
+    private static List<Versioned<byte[]>> getValues(long timestamp,
+                                                     int... nodes) {
+        VectorClock vc = TUtils.getClockT(timestamp, nodes);
+        return Collections.singletonList(
+                new Versioned<byte[]>(TUtils.randomBytes(8), vc));
+    }
+
+    @Test
+    public void testShape() {
+        assertEquals(1, MerkleTree.getChild(0, 0));
+        int node = 0;
+        for (int i = 0; i < MerkleTree.DEPTH; i++) {
+            assertFalse(MerkleTree.isLeaf(node));
+            node = MerkleTree.getChild(node, MerkleTree.FANOUT - 1);
+        }
+        assertTrue(MerkleTree.isLeaf(node));
+        assertEquals(MerkleTree.LEAVES - 1, MerkleTree.getLeafIndex(node));
+        assertEquals(MerkleTree.SIZE - 1, node);
+        assertFalse(MerkleTree.isValid(MerkleTree.SIZE));
+    }
+
+    @Test
+    public void testUpdate() {
+        MerkleTree tree = new MerkleTree();
+        tree.update(5, 0, 0x1234);
+        tree.update(4000, 0, 0x5678);
+        assertEquals(0x1234 ^ 0x5678, tree.getDigest(0));
+        assertEquals(0x1234, tree.getDigest(MerkleTree.FIRST_LEAF + 5));
+
+        tree.update(5, 0x1234, 0);
+        tree.update(4000, 0x5678, 0);
+        for (int i = 0; i < MerkleTree.SIZE; i++)
+            assertEquals(0, tree.getDigest(i));
+    }
+
+    @Test
+    public void testHashEntry() {
+        ByteArray key = new ByteArray("key".getBytes());
+        assertEquals(0, MerkleTree.hashEntry(key,
+                                             new ArrayList<Versioned<byte[]>>()));
+
+        // timestamps and values don't matter, versions and order do not
+        long h1 = MerkleTree.hashEntry(key, getValues(1, 1, 2));
+        long h2 = MerkleTree.hashEntry(key, getValues(2, 1, 2));
+        assertEquals(h1, h2);
+        assertTrue(h1 != MerkleTree.hashEntry(key, getValues(1, 1, 2, 2)));
+
+        List<Versioned<byte[]>> values = new ArrayList<Versioned<byte[]>>();
+        values.addAll(getValues(1, 1));
+        values.addAll(getValues(1, 2));
+        List<Versioned<byte[]>> reversed =
+                new ArrayList<Versioned<byte[]>>(values);
+        Collections.reverse(reversed);
+        assertEquals(MerkleTree.hashEntry(key, values),
+                     MerkleTree.hashEntry(key, reversed));
+    }
+
+    @Test
+    public void testStoreDigest() throws Exception {
+        SynchronizingStorageEngine store1 = getStore();
+        SynchronizingStorageEngine store2 = getStore();
+        assertEquals(0, store1.getDigest(0));
+
+        List<ByteArray> keys = new ArrayList<ByteArray>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(new ByteArray(("key" + i).getBytes()));
+        }
+        // incremental updates in one order, rebuilt tree in the other
+        for (ByteArray key : keys) {
+            store1.put(key, getValues(1, 1).get(0));
+        }
+        Collections.reverse(keys);
+        for (ByteArray key : keys) {
+            store2.writeSyncValue(key, getValues(2, 1));
+        }
+        assertTrue(store1.getDigest(0) != 0);
+        assertEquals(store1.getDigest(0), store2.getDigest(0));
+
+        // a newer version of one key shows up along a single path
+        ByteArray key = keys.get(17);
+        store2.put(key, getValues(3, 1, 1).get(0));
+        int leaf = MerkleTree.FIRST_LEAF + MerkleTree.getLeaf(key);
+        int differing = 0;
+        for (int i = 0; i < MerkleTree.SIZE; i++) {
+            if (store1.getDigest(i) != store2.getDigest(i)) {
+                differing += 1;
+                if (MerkleTree.isLeaf(i)) assertEquals(leaf, i);
+            }
+        }
+        assertEquals(MerkleTree.DEPTH + 1, differing);
+
+        // rebuilding after cleanup gives the same result
+        long digest = store2.getDigest(0);
+        store2.cleanupTask();
+        assertEquals(digest, store2.getDigest(0));
+
+        store1.put(key, getValues(3, 1, 1).get(0));
+        assertEquals(store1.getDigest(0), store2.getDigest(0));
+    }
+}
@@ -0,0 +1,128 @@
+package org.sdnplatform.sync.internal.version;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.sdnplatform.sync.IVersion.Occurred;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.store.InMemoryStorageEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measure the memory used per key by an in-memory store and the throughput
+ * of the vector clock operations on the write path.  The results are
+ * logged.  Ignored to keep routine tests fast; run it on its own after
+ * removing the {@link Ignore}.  The number of keys and of nodes per clock
+ * can be set with the <code>vectorclock.bench.keys</code> and
+ * <code>vectorclock.bench.nodes</code> system properties.
+ */
+@Ignore // benchmark, not run with the routine tests
+public class VectorClockBenchmark {
+    protected static Logger logger =
+            LoggerFactory.getLogger(VectorClockBenchmark.class);
+
+    private final int keys =
+            Integer.getInteger("vectorclock.bench.keys", 500000);
+    private final int nodes =
+            Integer.getInteger("vectorclock.bench.nodes", 3);
+
+    private static VectorClock getClock(Random r, int nodes) {
+        VectorClock clock = new VectorClock(0);
+        for (int n = 0; n < nodes; n++) {
+            int writes = 1 + r.nextInt(3);
+            for (int w = 0; w < writes; w++)
+                clock = clock.incremented(n + 1, 0);
+        }
+        return clock;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    @Test
+    public void testMemoryPerKey() throws Exception {
+        Random r = new Random(1);
+        String[] names = new String[keys];
+        byte[] value = new byte[8];
+        for (int i = 0; i < keys; i++)
+            names[i] = Integer.toString(i);
+
+        long before = usedMemory();
+        InMemoryStorageEngine<String, byte[]> store =
+                new InMemoryStorageEngine<String, byte[]>("bench");
+        for (int i = 0; i < keys; i++)
+            store.put(names[i],
+                      new Versioned<byte[]>(value, getClock(r, nodes)));
+        long after = usedMemory();
+
+        assertEquals(keys, store.size());
+        logger.info("Store memory: {} bytes/key ({} keys, {} nodes " +
+                    "per clock)",
+                    new Object[]{String.format("%.1f",
+                                     (double)(after - before) / keys),
+                                 keys, nodes});
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        // the first rounds warm up the JIT
+        for (int i = 0; i < 3; i++) {
+            throughput();
+        }
+    }
+
+    private void throughput() throws Exception {
+        Random r = new Random(2);
+        VectorClock[] clocks = new VectorClock[1024];
+        for (int i = 0; i < clocks.length; i++)
+            clocks[i] = getClock(r, nodes);
+
+        int ops = keys * 4;
+        int concurrent = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            Occurred o = clocks[i & 1023].compare(clocks[(i * 7 + 3) & 1023]);
+            if (o == Occurred.CONCURRENTLY) concurrent += 1;
+        }
+        long compareNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long max = 0;
+        for (int i = 0; i < ops; i++) {
+            VectorClock m = clocks[i & 1023].merge(clocks[(i * 7 + 3) & 1023]);
+            max = Math.max(max, m.getMaxVersion());
+        }
+        long mergeNs = System.nanoTime() - start;
+
+        String[] names = new String[1024];
+        for (int i = 0; i < names.length; i++)
+            names[i] = Integer.toString(i);
+        InMemoryStorageEngine<String, byte[]> store =
+                new InMemoryStorageEngine<String, byte[]>("bench");
+        byte[] value = new byte[8];
+        VectorClock clock = new VectorClock(0);
+        start = System.nanoTime();
+        for (int i = 0; i < keys; i++) {
+            clock = clock.incremented(1 + (i % nodes), 0);
+            store.put(names[i & 1023], new Versioned<byte[]>(value, clock));
+        }
+        long putNs = System.nanoTime() - start;
+
+        // keep the loops from being optimized away
+        assertTrue(concurrent >= 0 && max > 0);
+        logger.info("compare: {} Mops/s, merge: {} Mops/s, put: {} Mops/s",
+                    new Object[]{String.format("%.1f", ops * 1000.0 / compareNs),
+                                 String.format("%.1f", ops * 1000.0 / mergeNs),
+                                 String.format("%.1f", keys * 1000.0 / putNs)});
+    }
+}
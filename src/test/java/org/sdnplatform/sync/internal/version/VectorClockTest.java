@@ -114,6 +114,39 @@ public class VectorClockTest {
                              clocks[n + 1].getEntries());
         }
     }
+
+    @Test
+    public void testEntries() {
+        VectorClock clock = getClock(5, 1, 1, 3);
+        assertEquals(3, clock.size());
+        assertEquals(1, clock.getNodeId(0));
+        assertEquals(2, clock.getVersion(0));
+        assertEquals(3, clock.getNodeId(1));
+        assertEquals(5, clock.getNodeId(2));
+        assertEquals(Lists.newArrayList(new ClockEntry((short) 1, 2),
+                                        new ClockEntry((short) 3, 1),
+                                        new ClockEntry((short) 5, 1)),
+                     clock.getEntries());
+
+        // entries are kept sorted by node ID whatever the input order
+        VectorClock unsorted =
+                new VectorClock(Lists.newArrayList(new ClockEntry((short) 5, 1),
+                                                   new ClockEntry((short) 1, 2),
+                                                   new ClockEntry((short) 3, 1)),
+                                clock.getTimestamp());
+        assertEquals(clock, unsorted);
+        assertEquals(Occurred.BEFORE, clock.compare(unsorted));
+
+        try {
+            new VectorClock(Lists.newArrayList(new ClockEntry((short) 1, 1),
+                                               new ClockEntry((short) 1, 2)),
+                            clock.getTimestamp());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
 /*
     public void testIncrementAndSerialize() {
         int node = 1;